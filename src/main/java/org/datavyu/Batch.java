@@ -0,0 +1,130 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu;
+
+import org.datavyu.controllers.RunBatchC;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Command line entry point for running a script over many projects without
+ * starting the Datavyu user interface.
+ *
+ * Usage: Batch [-j workers] [-o log-directory] script.rb (project.opf | directory)...
+ *
+ * Directories are searched for .opf files. The output of the script for each
+ * project goes to a log in the log directory (the working directory by
+ * default), and a summary is printed once every project is done. The exit
+ * status is 0 if the script succeeded on every project, 1 otherwise.
+ */
+public final class Batch {
+
+    private static final String USAGE =
+            "Usage: Batch [-j workers] [-o log-directory] script.rb (project.opf | directory)...";
+
+    private Batch() {
+    }
+
+    /**
+     * @param args The command line arguments.
+     */
+    public static void main(final String[] args) {
+        // Nothing in a batch run draws on screen.
+        System.setProperty("java.awt.headless", "true");
+
+        int workers = Runtime.getRuntime().availableProcessors();
+        File logDirectory = new File(System.getProperty("user.dir"));
+        File script = null;
+        List<File> projects = new ArrayList<File>();
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if ("-j".equals(args[i]) && i + 1 < args.length) {
+                    workers = Integer.parseInt(args[++i]);
+                } else if ("-o".equals(args[i]) && i + 1 < args.length) {
+                    logDirectory = new File(args[++i]);
+                } else if (script == null) {
+                    script = new File(args[i]);
+                } else {
+                    findProjects(new File(args[i]), projects);
+                }
+            }
+        } catch (NumberFormatException e) {
+            exit(USAGE);
+        }
+
+        if (script == null || !script.isFile()) {
+            exit(USAGE);
+        }
+        if (projects.isEmpty()) {
+            exit("No project files found.");
+        }
+        if (!logDirectory.isDirectory() && !logDirectory.mkdirs()) {
+            exit("Unable to create log directory " + logDirectory);
+        }
+
+        try {
+            List<RunBatchC.Result> results =
+                    new RunBatchC(script, projects, workers, logDirectory).run();
+            PrintStream summary = new PrintStream(new File(logDirectory, "summary.txt"), "UTF-8");
+            RunBatchC.writeSummary(results, summary);
+            summary.close();
+            RunBatchC.writeSummary(results, System.out);
+
+            for (RunBatchC.Result r : results) {
+                if (!r.isSucceeded()) {
+                    System.exit(1);
+                }
+            }
+            System.exit(0);
+        } catch (IOException e) {
+            exit("Unable to run batch: " + e.getMessage());
+        } catch (InterruptedException e) {
+            exit("Batch interrupted.");
+        }
+    }
+
+    /**
+     * Adds the supplied project file, or every project file beneath the
+     * supplied directory, to the list of projects.
+     */
+    private static void findProjects(final File file, final List<File> projects) {
+        if (file.isDirectory()) {
+            File[] children = file.listFiles();
+            if (children != null) {
+                Arrays.sort(children);
+                for (File child : children) {
+                    if (child.isDirectory() || child.getName().endsWith(".opf")) {
+                        findProjects(child, projects);
+                    }
+                }
+            }
+        } else if (file.isFile()) {
+            projects.add(file);
+        } else {
+            System.err.println("Skipping " + file + ": no such file.");
+        }
+    }
+
+    private static void exit(final String message) {
+        System.err.println(message);
+        System.exit(2);
+    }
+}
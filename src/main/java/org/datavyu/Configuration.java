@@ -498,6 +498,56 @@ public final class Configuration {
         save();
     }
 
+    /**
+     * @return true if projects should store their database in the binary
+     * format rather than CSV
+     */
+    public boolean getBinaryDatabasePreference() {
+        return properties.getBinaryDatabasePreference();
+    }
+
+    /**
+     * @param preference true if projects should store their database in the
+     *                   binary format
+     */
+    public void setBinaryDatabasePreference(boolean preference) {
+        properties.setBinaryDatabasePreference(preference);
+        save();
+    }
+
+    /**
+     * @return true if cells of the spreadsheet are painted by a shared
+     * renderer, and only given editors when edited
+     */
+    public boolean getVirtualSpreadsheetPreference() {
+        return properties.getVirtualSpreadsheetPreference();
+    }
+
+    /**
+     * @param preference true if cells of the spreadsheet should only be given
+     *                   editors when edited
+     */
+    public void setVirtualSpreadsheetPreference(boolean preference) {
+        properties.setVirtualSpreadsheetPreference(preference);
+        save();
+    }
+
+    /**
+     * @return the most memory to keep decoded video frames in, in megabytes
+     */
+    public int getFrameCacheSize() {
+        return properties.getFrameCacheSize();
+    }
+
+    /**
+     * @param size the most memory to keep decoded video frames in, in
+     *             megabytes
+     */
+    public void setFrameCacheSize(int size) {
+        properties.setFrameCacheSize(size);
+        save();
+    }
+
     /**
      * @return the mixerInterfaceNormalCarriageColour
      */
@@ -27,7 +27,9 @@ import org.datavyu.plugins.quicktime.QTDataViewer;
 import org.datavyu.plugins.vlcfx.NativeLibraryManager;
 import org.datavyu.undoableedits.SpreadsheetUndoManager;
 import org.datavyu.util.MacHandler;
+import org.datavyu.util.NativeLibraryCache;
 import org.datavyu.util.NativeLoader;
+import org.datavyu.util.ScriptingRuntime;
 import org.datavyu.util.WindowsFileAssociations;
 import org.datavyu.util.WindowsKeyChar;
 import org.datavyu.views.*;
@@ -36,8 +38,6 @@ import org.jdesktop.application.*;
 import uk.co.caprica.vlcj.runtime.RuntimeUtil;
 
 import javax.script.ScriptEngine;
-import javax.script.ScriptEngineFactory;
-import javax.script.ScriptEngineManager;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.InputEvent;
@@ -73,14 +73,6 @@ public final class Datavyu extends SingleFrameApplication
      * get initialized in startup().
      */
     private static DatavyuView VIEW;
-    /**
-     * The scripting engine manager that we use with Datavyu.
-     */
-    private static ScriptEngineManager m2;
-    /**
-     * The scripting engine factory that we use with Datavyu
-     */
-    private static ScriptEngineFactory sef;
     /**
      * The logger for this class.
      */
@@ -94,11 +86,9 @@ public final class Datavyu extends SingleFrameApplication
     /** Load required native libraries (JNI). */
     static {
 
-        String tempDir = System.getProperty("java.io.tmpdir") + File.separator + "vlc" + File.separator;
-
         System.out.println("WORKING DIR:" + System.getProperty("user.dir"));
         System.out.println("CLASS PATH: " + System.getProperty("java.class.path"));
-        nlm = new NativeLibraryManager(tempDir);
+        nlm = new NativeLibraryManager(NativeLibraryCache.getInstance());
 
         try {
 
@@ -107,8 +97,10 @@ public final class Datavyu extends SingleFrameApplication
             URL resource = Datavyu.class.getClassLoader().getResource("../");
             System.out.println(resource);
 
+            // Unpacks in the background (only the first launch after an
+            // update has anything to unpack), wait with awaitNativeLibraries.
             nlm.unpackNativePackage();
-            NativeLibrary.addSearchPath(RuntimeUtil.getLibVlcLibraryName(), tempDir + File.separator + "vlc" + File.separator + "lib");
+            NativeLibrary.addSearchPath(RuntimeUtil.getLibVlcLibraryName(), nlm.getInstallTo() + File.separator + "vlc" + File.separator + "lib");
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -250,12 +242,11 @@ public final class Datavyu extends SingleFrameApplication
     }
 
     /**
-     * @return The single instance of the scripting engine we use with
-     * Datavyu.
+     * Waits for the VLC native libraries, unpacked in the background at
+     * startup, to be in place. Call before the first use of libvlc.
      */
-    public static ScriptEngine getScriptingEngine() {
-        System.out.println("Returning: " + sef.getEngineName() + " " + sef.getEngineVersion());
-        return sef.getScriptEngine();
+    public static void awaitNativeLibraries() {
+        nlm.awaitInstalled();
     }
 
     /**
@@ -1096,12 +1087,6 @@ public final class Datavyu extends SingleFrameApplication
                     .getCanSendLogs());
         }
 
-        // Init scripting engine
-        m2 = new ScriptEngineManager();
-
-        // Init ruby factory
-        sef = m2.getEngineByName("jruby").getFactory();
-
         // Initialize plugin manager
         PluginManager.getInstance();
 
@@ -1123,6 +1108,10 @@ public final class Datavyu extends SingleFrameApplication
         // Make view the new view so we can keep track of it for hotkeys.
         VIEW = new DatavyuView(this);
         show(VIEW);
+
+        // Start the scripting engine in the background, now that the main
+        // window is up, so the first script does not wait for it.
+        ScriptingRuntime.getInstance().warmUp();
         VIEW.getFileSplitPane().setDividerLocation(0.75);
 
         // Now that datavyu is up - we may need to ask the user if can send
@@ -1186,7 +1175,6 @@ public final class Datavyu extends SingleFrameApplication
         }
 
         NativeLoader.cleanAllTmpFiles();
-        nlm.purge();
         super.shutdown();
     }
 
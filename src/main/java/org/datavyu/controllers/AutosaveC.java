@@ -17,8 +17,11 @@ package org.datavyu.controllers;
 import com.usermetrix.jclient.Logger;
 import com.usermetrix.jclient.UserMetrix;
 import org.apache.commons.io.FilenameUtils;
+import org.datavyu.Configuration;
 import org.datavyu.Datavyu;
 import org.datavyu.controllers.project.ProjectController;
+import org.datavyu.models.db.Datastore;
+import org.datavyu.models.db.DatastoreSnapshot;
 import org.datavyu.models.db.UserWarningException;
 import org.datavyu.util.FileFilters.OPFFilter;
 import org.datavyu.util.FileFilters.SHAPAFilter;
@@ -28,16 +31,68 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
+/**
+ * Periodically saves the open project to a temporary file.
+ *
+ * The timer fires on the event dispatch thread, where only a copy-on-write
+ * snapshot of the datastore and the (small) project settings are captured.
+ * Writing them out happens on a background thread: each autosave goes to a
+ * new file that is renamed into place once complete, so a crash mid-save
+ * never clobbers an earlier autosave. The most recent {@link #RECOVERY_POINTS}
+ * autosaves are kept.
+ */
 public class AutosaveC implements ActionListener {
 
     /**
      * The logger for this class.
      */
-    private static Logger LOGGER = UserMetrix.getLogger(DeleteColumnC.class);
+    private static Logger LOGGER = UserMetrix.getLogger(AutosaveC.class);
+
+    /**
+     * The number of autosaves kept on disk.
+     */
+    private static final int RECOVERY_POINTS = 3;
 
     private static Timer timer;
-    private static File f;
+
+    /**
+     * Writes autosaves one at a time, away from the event dispatch thread.
+     */
+    private static final ExecutorService WRITER = Executors.newSingleThreadExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable r) {
+                    Thread t = new Thread(r, "Autosave");
+                    t.setDaemon(true);
+                    t.setPriority(Thread.MIN_PRIORITY);
+                    return t;
+                }
+            });
+
+    /**
+     * The autosaves on disk, oldest first. Only touched by the writer.
+     */
+    private static final LinkedList<File> recoveryPoints = new LinkedList<File>();
+
+    /**
+     * The snapshot written by the last successful autosave.
+     */
+    private static volatile DatastoreSnapshot lastSaved;
+
+    /**
+     * The autosave being written, null if there has not been one.
+     */
+    private static Future<?> inFlight;
 
     public static void setInterval(int interval) {
         if (interval == 0) {
@@ -64,45 +119,128 @@ public class AutosaveC implements ActionListener {
 
     @Override
     public void actionPerformed(ActionEvent evt) {
-        String baseName;
-        String ext;
-        // save the project
+        // Scripts change the datastore from their own thread, wait for the
+        // next tick rather than copy a datastore that is being changed.
+        if (Datavyu.scriptRunning || (inFlight != null && !inFlight.isDone())) {
+            return;
+        }
+
+        ProjectController projController = Datavyu.getProjectController();
+        Datastore db = projController.getDB();
+        if (!db.isChanged()) {
+            return;
+        }
+
+        final DatastoreSnapshot snapshot = DatastoreSnapshot.take(db, lastSaved);
+        if (snapshot.sameAs(lastSaved)) {
+            return;
+        }
+
+        final String baseName;
+        final String ext;
+        final Map<String, byte[]> project;
+        final boolean binary = Configuration.getInstance().getBinaryDatabasePreference();
         try {
-            if (f != null) {
-                f.delete();
-            }
-            ProjectController projController = Datavyu.getProjectController();
-            SaveC saveController = new SaveC();
             if (projController.isNewProject() || (projController.getProjectName() == null)) {
                 baseName = "~noname_";
                 ext = ".opf";
-                f = File.createTempFile(baseName, ext);
-                saveController.saveProject(f, projController.getProject(),
-                        projController.getDB(), false);
+                project = new SaveC().captureProject(projController.getProject());
+            } else if ((projController.getLastSaveOption() instanceof SHAPAFilter)
+                    || (projController.getLastSaveOption() instanceof OPFFilter)) {
+                baseName = "~" + projController.getProjectName() + "_";
+                ext = ".opf";
+                project = new SaveC().captureProject(projController.getProject());
             } else {
-                if ((projController.getLastSaveOption() instanceof SHAPAFilter)
-                        || (projController.getLastSaveOption()
-                        instanceof OPFFilter)) {
-                    baseName = "~" + projController.getProjectName() + "_";
-                    ext = ".opf";
-                    f = File.createTempFile(baseName, ext);
-                    saveController.saveProject(f, projController.getProject(),
-                            projController.getDB(), false);
-                    // Save content just as a database.
-                } else {
-                    String filename = "~" + projController.getDatabaseFileName();
-                    baseName = FilenameUtils.getBaseName(filename) + "_";
-                    ext = "." + FilenameUtils.getExtension(filename);
-                    f = File.createTempFile(baseName, ext);
-                    saveController.saveDatabase(f, projController.getDB(), false);
-                }
+                // Save content just as a database.
+                String filename = "~" + projController.getDatabaseFileName();
+                baseName = FilenameUtils.getBaseName(filename) + "_";
+                ext = "." + FilenameUtils.getExtension(filename);
+                project = null;
+            }
+        } catch (IOException ioe) {
+            LOGGER.error("IOException: Unable to autosave.", ioe);
+            return;
+        }
+
+        inFlight = WRITER.submit(new Runnable() {
+            @Override
+            public void run() {
+                write(snapshot, baseName, ext, project, binary);
+            }
+        });
+    }
+
+    /**
+     * Writes an autosave and rotates out the oldest recovery point. Runs on
+     * the writer thread.
+     *
+     * @param snapshot The content of the datastore to save.
+     * @param baseName The prefix of the autosave file name.
+     * @param ext      The extension of the autosave file.
+     * @param project  The serialized project, null to save just the database.
+     * @param binary   True to store the database in the compact binary format.
+     */
+    private static void write(final DatastoreSnapshot snapshot,
+                              final String baseName,
+                              final String ext,
+                              final Map<String, byte[]> project,
+                              final boolean binary) {
+        File target = null;
+        File part = null;
+        try {
+            Datastore copy = snapshot.toDatastore();
+
+            // Reserve a name for the autosave, then write alongside it so the
+            // rename below stays on one file system.
+            target = File.createTempFile(baseName, ext);
+            target.deleteOnExit();
+            part = new File(target.getParentFile(), "." + target.getName());
+            part.deleteOnExit();
+
+            SaveC saveController = new SaveC();
+            if (project != null) {
+                saveController.saveProject(part, project, copy, binary);
+            } else {
+                saveController.saveDatabase(part, copy, false);
+            }
+
+            if (!part.exists()) {
+                // The database format can not be written, nothing to recover.
+                target.delete();
+                return;
+            }
+
+            try {
+                Files.move(part.toPath(), target.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(part.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+
+            recoveryPoints.add(target);
+            while (recoveryPoints.size() > RECOVERY_POINTS) {
+                recoveryPoints.removeFirst().delete();
             }
+            lastSaved = snapshot;
+
         } catch (UserWarningException lee) {
             LOGGER.error("UserWarningException: Unable to autosave.", lee);
+            discard(target, part);
         } catch (IOException ioe) {
             LOGGER.error("IOException: Unable to autosave.", ioe);
-        } finally {
-            f.deleteOnExit();
+            discard(target, part);
+        }
+    }
+
+    /**
+     * Removes the files of a failed autosave.
+     */
+    private static void discard(final File target, final File part) {
+        if (part != null) {
+            part.delete();
+        }
+        if (target != null) {
+            target.delete();
         }
     }
 
@@ -0,0 +1,157 @@
+/**
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.controllers;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Primitives for the compact binary database format.
+ *
+ * A binary database starts with the {@link #MAGIC} bytes followed by the
+ * format {@link #VERSION} and the number of variables. Each variable is then
+ * written as a length-prefixed block, so blocks can be decoded independently:
+ * <pre>
+ *   name, type, visible
+ *   [matrix only] argument count, then name and type of each argument
+ *   dictionary size, then each nominal code used by the variable
+ *   cell count, then for each cell:
+ *     onset delta (zig-zag), duration (zig-zag), values
+ * </pre>
+ * Nominal values are written as an index into the variable dictionary, text
+ * values are written inline. All integers are unsigned LEB128 varints and all
+ * strings are length-prefixed UTF-8. Index and length zero denote an empty
+ * value.
+ */
+final class BinaryDatabaseFormat {
+
+    /**
+     * Identifier at the start of every binary database. CSV databases always
+     * start with printable text, so these can never be confused.
+     */
+    static final byte[] MAGIC = {(byte) 0xD7, 'D', 'V', 'B'};
+
+    /**
+     * The version of the binary format written by this build.
+     */
+    static final int VERSION = 1;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private BinaryDatabaseFormat() {
+    }
+
+    /**
+     * Tests if a stream holds a binary database without consuming anything.
+     *
+     * @param in The stream to test, must support mark and reset.
+     * @return True if the stream starts with the binary database identifier.
+     * @throws IOException If unable to read from the stream.
+     */
+    static boolean isBinary(final InputStream in) throws IOException {
+        in.mark(MAGIC.length);
+        try {
+            for (byte b : MAGIC) {
+                if (in.read() != (b & 0xFF)) {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            in.reset();
+        }
+    }
+
+    static void writeVarint(final OutputStream out, final long value) throws IOException {
+        long v = value;
+        while ((v & ~0x7FL) != 0) {
+            out.write((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.write((int) v);
+    }
+
+    static long readVarint(final InputStream in) throws IOException {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException("Truncated binary database");
+            }
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IOException("Malformed varint in binary database");
+    }
+
+    static int readCount(final InputStream in) throws IOException {
+        long count = readVarint(in);
+        if (count < 0 || count > Integer.MAX_VALUE) {
+            throw new IOException("Malformed count in binary database: " + count);
+        }
+        return (int) count;
+    }
+
+    static void writeSigned(final OutputStream out, final long value) throws IOException {
+        writeVarint(out, (value << 1) ^ (value >> 63));
+    }
+
+    static long readSigned(final InputStream in) throws IOException {
+        long v = readVarint(in);
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    /**
+     * Writes a length-prefixed string, null and empty strings are written as
+     * a zero length.
+     */
+    static void writeString(final OutputStream out, final String value) throws IOException {
+        if (value == null || value.isEmpty()) {
+            writeVarint(out, 0);
+            return;
+        }
+
+        byte[] bytes = value.getBytes(UTF8);
+        writeVarint(out, bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(final InputStream in) throws IOException {
+        int length = readCount(in);
+        if (length == 0) {
+            return "";
+        }
+
+        return new String(readBytes(in, length), UTF8);
+    }
+
+    static byte[] readBytes(final InputStream in, final int length) throws IOException {
+        byte[] bytes = new byte[length];
+        int read = 0;
+        while (read < length) {
+            int n = in.read(bytes, read, length - read);
+            if (n < 0) {
+                throw new EOFException("Truncated binary database");
+            }
+            read += n;
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,427 @@
+/**
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.controllers;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Single pass tokenizer for the Datavyu CSV database formats (#2, #3 and #4).
+ *
+ * The tokenizer reads straight from a buffered character source and never
+ * backtracks. A '\' escapes the character that follows it, including line
+ * terminators - an escaped line terminator becomes part of the field rather
+ * than ending the record.
+ */
+final class CSVTokenizer {
+
+    /**
+     * Marker returned when the end of the source has been reached.
+     */
+    static final int EOF = -1;
+
+    /**
+     * Size of the character buffer used when reading from the source.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Milliseconds in one unit of each component of "HH:MM:SS:mmm".
+     */
+    private static final long[] SCALES = {60 * 60 * 1000, 60 * 1000, 1000, 1};
+
+    private final Reader source;
+
+    private final char[] buffer = new char[BUFFER_SIZE];
+
+    private int position = 0;
+
+    private int limit = 0;
+
+    // Working space for building fields, reused between fields.
+    private final StringBuilder field = new StringBuilder();
+
+    /**
+     * Constructor.
+     *
+     * @param source The character source to tokenize.
+     */
+    CSVTokenizer(final Reader source) {
+        this.source = source;
+    }
+
+    /**
+     * @return The next character in the source without consuming it, or EOF.
+     * @throws IOException If unable to read from the source.
+     */
+    int peek() throws IOException {
+        if (position == limit && !fill()) {
+            return EOF;
+        }
+        return buffer[position];
+    }
+
+    /**
+     * @param ahead The number of characters to look past the next one.
+     * @return The character the given distance ahead in the source without
+     * consuming anything, or EOF.
+     * @throws IOException If unable to read from the source.
+     */
+    int peek(final int ahead) throws IOException {
+        while (position + ahead >= limit) {
+            if (position > 0) {
+                System.arraycopy(buffer, position, buffer, 0, limit - position);
+                limit -= position;
+                position = 0;
+            }
+
+            int n = source.read(buffer, limit, buffer.length - limit);
+            if (n < 0) {
+                return EOF;
+            }
+            limit += n;
+        }
+
+        return buffer[position + ahead];
+    }
+
+    /**
+     * @return True if the next record in the source is a cell, i.e. it starts
+     * with a digit.
+     * @throws IOException If unable to read from the source.
+     */
+    boolean atCell() throws IOException {
+        int c = peek();
+        return c != EOF && Character.isDigit((char) c);
+    }
+
+    /**
+     * @return True if the next record in the source is a cell that starts
+     * with a "HH:" timestamp.
+     * @throws IOException If unable to read from the source.
+     */
+    boolean atTimestampedCell() throws IOException {
+        int c1 = peek(1);
+        return atCell() && c1 != EOF && Character.isDigit((char) c1) && peek(2) == ':';
+    }
+
+    /**
+     * @return True if there is nothing left in the source.
+     * @throws IOException If unable to read from the source.
+     */
+    boolean atEOF() throws IOException {
+        return peek() == EOF;
+    }
+
+    /**
+     * Reads the remainder of the current line verbatim, escape characters are
+     * not interpreted.
+     *
+     * @return The line, without its terminator, or null if at the end of the
+     * source.
+     * @throws IOException If unable to read from the source.
+     */
+    String readLine() throws IOException {
+        if (peek() == EOF) {
+            return null;
+        }
+
+        field.setLength(0);
+        int c;
+        while ((c = read()) != EOF) {
+            if (c == '\n') {
+                break;
+            } else if (c == '\r') {
+                if (peek() == '\n') {
+                    read();
+                }
+                break;
+            }
+            field.append((char) c);
+        }
+
+        return field.toString();
+    }
+
+    /**
+     * Reads a raw field, stopping at the next ',' or the end of the line. The
+     * separating comma is consumed, a line terminator is not.
+     *
+     * @return The field content.
+     * @throws IOException If unable to read from the source.
+     */
+    String readRawField() throws IOException {
+        field.setLength(0);
+        int c;
+        while ((c = peek()) != EOF && c != '\n' && c != '\r') {
+            read();
+            if (c == ',') {
+                break;
+            }
+            field.append((char) c);
+        }
+
+        return field.toString();
+    }
+
+    /**
+     * Reads the remainder of a record as escaped fields separated by
+     * unescaped commas, consuming the record terminator.
+     *
+     * @param fields    The list to append fields to.
+     * @param maxFields The maximum number of fields to split the record into.
+     *                  Once reached, any remaining commas are treated as part
+     *                  of the last field.
+     * @throws IOException If unable to read from the source.
+     */
+    void readFields(final List<String> fields, final int maxFields) throws IOException {
+        field.setLength(0);
+        int count = 1;
+        int c;
+        while ((c = read()) != EOF) {
+            if (c == '\\') {
+                int escaped = read();
+                if (escaped == EOF) {
+                    break;
+                }
+                field.append((char) escaped);
+            } else if (c == ',' && count < maxFields) {
+                fields.add(field.toString());
+                field.setLength(0);
+                count++;
+            } else if (c == '\n') {
+                break;
+            } else if (c == '\r') {
+                if (peek() == '\n') {
+                    read();
+                }
+                break;
+            } else {
+                field.append((char) c);
+            }
+        }
+        fields.add(field.toString());
+    }
+
+    /**
+     * @param line A line that does not start with a timestamp.
+     * @return True if the line looks like a variable header, i.e. it
+     * contains exactly one '(' followed by the variable properties.
+     */
+    static boolean isVariableHeader(final String line) {
+        int paren = line.indexOf('(');
+        return paren >= 0
+                && paren < line.length() - 1
+                && line.indexOf('(', paren + 1) < 0;
+    }
+
+    /**
+     * @param content The content to search.
+     * @param from    The offset of the start of a line.
+     * @return The offset of the line terminator ending the line, or the
+     * length of the content for the last line.
+     */
+    static int endOfLine(final char[] content, final int from) {
+        int i = from;
+        while (i < content.length && content[i] != '\n' && content[i] != '\r') {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * @param content The content to search.
+     * @param eol     The offset of a line terminator.
+     * @return The offset of the start of the following line.
+     */
+    static int startOfNextLine(final char[] content, final int eol) {
+        if (eol < content.length && content[eol] == '\r'
+                && eol + 1 < content.length && content[eol + 1] == '\n') {
+            return eol + 2;
+        }
+        return Math.min(eol + 1, content.length);
+    }
+
+    /**
+     * Scans a CSV database for the start of each variable block. A block
+     * starts with a record that does not begin with a digit and looks like a
+     * variable header; escaped line terminators do not start new records.
+     *
+     * @param content The content of the CSV database.
+     * @param from    The offset to start scanning from (just past any version
+     *                identifier).
+     * @return The offset of each block, the first block always starts at from.
+     */
+    static List<Integer> findBlocks(final char[] content, final int from) {
+        List<Integer> result = new ArrayList<Integer>();
+        if (from >= content.length) {
+            return result;
+        }
+
+        result.add(from);
+        int i = from;
+        while (i < content.length) {
+            char c = content[i];
+            if (c == '\\') {
+                i += 2;
+            } else if (c == '\n' || c == '\r') {
+                int lineStart = startOfNextLine(content, i);
+                if (lineStart < content.length && !Character.isDigit(content[lineStart])) {
+                    int lineEnd = endOfLine(content, lineStart);
+                    if (isVariableHeader(new String(content, lineStart, lineEnd - lineStart))) {
+                        result.add(lineStart);
+                    }
+                }
+                i = lineStart;
+            } else {
+                i++;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Removes escape characters from a string, i.e. '\x' becomes 'x'.
+     *
+     * @param input The string to unescape.
+     * @return The input string free of escape characters.
+     */
+    static String unescape(final String input) {
+        if (input.indexOf('\\') < 0) {
+            return input;
+        }
+
+        StringBuilder result = new StringBuilder(input.length());
+        for (int i = 0; i < input.length(); i++) {
+            char c = input.charAt(i);
+            if (c == '\\' && i < (input.length() - 1)) {
+                i++;
+                c = input.charAt(i);
+            }
+            result.append(c);
+        }
+
+        return result.toString();
+    }
+
+    /**
+     * @param input The string to search.
+     * @param ch    The character to look for.
+     * @param from  The index to start searching from.
+     * @return The index of the first occurrence of ch at or after from that is
+     * not escaped with a '\', -1 if there is no such occurrence.
+     */
+    static int indexOfUnescaped(final String input, final char ch, final int from) {
+        for (int i = from; i < input.length(); i++) {
+            char c = input.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == ch) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Parses a timestamp in either the "HH:MM:SS:mmm" format or as a plain,
+     * optionally signed, number of milliseconds.
+     *
+     * @param timestamp The timestamp to parse.
+     * @return The timestamp in milliseconds.
+     * @throws NumberFormatException If the timestamp is malformed or does not
+     * fit in a long.
+     */
+    static long parseTimestamp(final String timestamp) {
+        int start = 0;
+        boolean negative = false;
+        if (timestamp.length() > 0
+                && (timestamp.charAt(0) == '-' || timestamp.charAt(0) == '+')) {
+            negative = timestamp.charAt(0) == '-';
+            start = 1;
+        }
+
+        // Components are accumulated as negative numbers, as in
+        // Long.parseLong, so that Long.MIN_VALUE can be represented.
+        final long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+        long result = 0;
+        long part = 0;
+        int parts = 0;
+        boolean digits = false;
+
+        for (int i = start; i < timestamp.length(); i++) {
+            char c = timestamp.charAt(i);
+            if (c >= '0' && c <= '9') {
+                int digit = c - '0';
+                if (part < (limit + digit) / 10) {
+                    throw new NumberFormatException("Timestamp out of range: " + timestamp);
+                }
+                part = (part * 10) - digit;
+                digits = true;
+            } else if (c == ':' && digits && start == 0) {
+                result = accumulate(timestamp, result, part, parts);
+                part = 0;
+                parts++;
+                digits = false;
+            } else {
+                throw new NumberFormatException("Invalid timestamp: " + timestamp);
+            }
+        }
+
+        if (!digits || (parts != 0 && parts != 3)) {
+            throw new NumberFormatException("Invalid timestamp: " + timestamp);
+        }
+
+        if (parts == 0) {
+            return negative ? part : -part;
+        }
+        return accumulate(timestamp, result, part, parts);
+    }
+
+    private static long accumulate(final String timestamp, final long result,
+                                   final long negatedPart, final int index) {
+        long part = -negatedPart;
+        if (part > (Long.MAX_VALUE - result) / SCALES[index]) {
+            throw new NumberFormatException("Timestamp out of range: " + timestamp);
+        }
+        return result + (part * SCALES[index]);
+    }
+
+    private int read() throws IOException {
+        if (position == limit && !fill()) {
+            return EOF;
+        }
+        return buffer[position++];
+    }
+
+    private boolean fill() throws IOException {
+        int n;
+        do {
+            n = source.read(buffer, 0, buffer.length);
+        } while (n == 0);
+
+        if (n < 0) {
+            return false;
+        }
+
+        position = 0;
+        limit = n;
+        return true;
+    }
+}
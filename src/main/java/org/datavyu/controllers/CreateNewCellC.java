@@ -252,13 +252,7 @@ public final class CreateNewCellC {
               }
               
               if(v != null){
-                    Cell oneBefore = null;
-                    for(Cell c : v.getCellsTemporally()){
-                          if(c.getOnset() > milliseconds){
-                              break;
-                          }
-                          oneBefore = c;
-                    }
+                    Cell oneBefore = v.getLastCellStartedBy(milliseconds);
                     if (oneBefore != null){
                         UndoableEdit edit = new ChangeOffsetCellEdit(oneBefore, oneBefore.getOffset(),
                             milliseconds - 1, ChangeCellEdit.Granularity.FINEGRAINED);
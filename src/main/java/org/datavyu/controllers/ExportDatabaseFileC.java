@@ -22,13 +22,11 @@ import org.datavyu.util.StringUtils;
 import org.jdesktop.application.Application;
 import org.jdesktop.application.ResourceMap;
 
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.OutputStream;
-import java.io.PrintStream;
+import java.io.*;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.zip.GZIPOutputStream;
 
 
 /**
@@ -42,171 +40,282 @@ public final class ExportDatabaseFileC {
     private static Logger LOGGER = UserMetrix.getLogger(ExportDatabaseFileC.class);
 
     /**
-     * Saves the database to the specified destination in a CSV format.
+     * Size of the buffers used when writing exports.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The framerate to export at when the data controller does not have one.
+     */
+    private static final double DEFAULT_FRAMERATE = 30.0;
+
+    /**
+     * Exports the database to the specified destination as a CSV file with a
+     * row per frame, covering every cell in the database at the framerate of
+     * the data controller. Destinations ending with .gz are gzip compressed.
      *
      * @param outFile The path of the file to use when writing to disk.
-     * @param ds      The datastore to save as a CSV file.
+     * @param ds      The datastore to export.
      * @throws UserWarningException When unable to save the database as a CSV to
      *                              disk (usually because of permissions errors).
      */
     public void exportByFrame(final String outFile, final Datastore ds)
             throws UserWarningException {
+        long[] window = getTimeWindow(ds);
+        exportByFrame(outFile, ds, getCurrentFramerate(), window[0], window[1],
+                outFile.toLowerCase().endsWith(".gz"));
+    }
 
+    /**
+     * Exports the database to the specified destination as a CSV file with a
+     * row per frame.
+     *
+     * @param outFile   The path of the file to use when writing to disk.
+     * @param ds        The datastore to export.
+     * @param framerate The number of rows to export per second.
+     * @param start     The time of the first row in milliseconds.
+     * @param end       The time in milliseconds after which no more rows are
+     *                  exported.
+     * @param compress  True to gzip compress the file.
+     * @throws UserWarningException When unable to save the database as a CSV to
+     *                              disk (usually because of permissions errors).
+     */
+    public void exportByFrame(final String outFile,
+                              final Datastore ds,
+                              final double framerate,
+                              final long start,
+                              final long end,
+                              final boolean compress)
+            throws UserWarningException {
+        OutputStream outStream = null;
         try {
-            FileOutputStream fos = new FileOutputStream(outFile);
-            PrintStream ps = new PrintStream(fos);
+            outStream = new FileOutputStream(outFile);
+            if (compress) {
+                outStream = new GZIPOutputStream(outStream, BUFFER_SIZE);
+            }
+            exportByFrame(outStream, ds, framerate, start, end);
+            outStream.close();
+        } catch (IOException ie) {
+            ie.printStackTrace();
+            closeQuietly(outStream);
+            ResourceMap rMap = Application.getInstance(Datavyu.class)
+                    .getContext().getResourceMap(Datavyu.class);
+            throw new UserWarningException(rMap.getString("UnableToSave.message", outFile), ie);
+        }
+    }
 
-            List<Variable> variables = ds.getAllVariables();
+    /**
+     * Exports the database to the specified stream as CSV with a row per
+     * frame. Rows are produced by sweeping a cursor through the cells of
+     * each variable, so each cell is visited once regardless of how many
+     * frames it spans. The caller is responsible for managing the stream.
+     *
+     * @param outStream The stream to write to.
+     * @param ds        The datastore to export.
+     * @param framerate The number of rows to export per second.
+     * @param start     The time of the first row in milliseconds.
+     * @param end       The time in milliseconds after which no more rows are
+     *                  exported.
+     * @throws IOException If unable to write to the stream.
+     */
+    public void exportByFrame(final OutputStream outStream,
+                              final Datastore ds,
+                              final double framerate,
+                              final long start,
+                              final long end) throws IOException {
+        if (framerate <= 0) {
+            throw new IllegalArgumentException("Invalid framerate: " + framerate);
+        }
+        LOGGER.event("export database by frame");
 
-            ArrayList<List<Cell>> cellCache = new ArrayList<List<Cell>>();
-            int[] currentIndex = new int[variables.size()];
+        List<Variable> variables = ds.getAllVariables();
+        FrameCursor[] cursors = new FrameCursor[variables.size()];
+        for (int i = 0; i < cursors.length; i++) {
+            cursors[i] = new FrameCursor(variables.get(i));
+        }
 
-            // Get all of the cells from the DB and store them locally
-            for (Variable v : variables) {
-                cellCache.add(v.getCellsTemporally());
+        Writer out = new BufferedWriter(new OutputStreamWriter(outStream), BUFFER_SIZE);
+        String newLine = System.getProperty("line.separator");
+
+        // Print header
+        StringBuilder row = new StringBuilder("framenum,time,");
+        for (Variable v : variables) {
+            row.append(v.getName()).append(".ordinal,");
+            row.append(v.getName()).append(".onset,");
+            row.append(v.getName()).append(".offset,");
+
+            // Test if the variable is a matrix. If it is, then
+            // we have to print out all of its arguments.
+            if (v.getRootNode().type == Argument.Type.MATRIX) {
+                for (Argument a : v.getRootNode().childArguments) {
+                    row.append(v.getName()).append('.').append(a.name).append(',');
+                }
+            } else {
+                row.append(v.getName()).append(".value,");
+            }
+        }
+        out.append(row).append(newLine);
+
+        // Frame times are computed from the frame number rather than
+        // accumulated, so they do not drift over long sessions.
+        double frameDuration = 1000.0 / framerate;
+        long framenum = 1;
+        for (long time = start; time <= end;
+             time = start + (long) (framenum * frameDuration), framenum++) {
+            row.setLength(0);
+            row.append(framenum).append(',').append(time).append(',');
+            for (FrameCursor cursor : cursors) {
+                row.append(cursor.advanceTo(time));
             }
+            out.append(row).append(newLine);
+        }
 
-            // Now obtain the first and last time point by sweeping over the cells
-            long first_time = Long.MAX_VALUE;
-            long last_time = 0;
+        out.flush();
+    }
 
-            for (int i = 0; i < variables.size(); i++) {
-                List<Cell> cells = cellCache.get(i);
-                if (cells.isEmpty()) {
-                    continue;
-                }
-                if (cells.get(0).getOnset() < first_time) {
-                    first_time = cells.get(0).getOnset();
-                }
-                if (cells.get(0).getOffset() < first_time) {
-                    first_time = cells.get(0).getOffset();
-                }
+    /**
+     * Walks the cells of a variable in temporal order, one frame at a time.
+     */
+    private static final class FrameCursor {
 
-                if (cells.get(cells.size() - 1).getOnset() > last_time) {
-                    last_time = cells.get(cells.size() - 1).getOnset();
-                }
-                if (cells.get(cells.size() - 1).getOffset() > last_time) {
-                    last_time = cells.get(cells.size() - 1).getOffset();
-                }
-            }
+        /**
+         * The cells of the variable, in temporal order.
+         */
+        private final List<Cell> cells;
 
-            // Now that we have the first and last time, we loop over it using
-            // playback model's framerate as step size. Fallback is 30.0
-            double framerate = 30.0;
-            try{
-                float fromDVC = Datavyu.getDataController().getCurrentFPS();
-                if (fromDVC > 1.0) framerate = Datavyu.getDataController().getCurrentFPS();
-            }
-            catch(Exception e) {
-                framerate = 30.0;
-            }
-            long current_time = first_time;
+        /**
+         * The columns written for frames without a cell.
+         */
+        private final String blank;
 
-            // Print header
-            String header = "framenum,time,";
-            for (Variable v : variables) {
+        /**
+         * The temporal index of the current cell.
+         */
+        private int index = 0;
 
-                header += v.getName() + ".ordinal";
-                header += "," + v.getName() + ".onset";
-                header += "," + v.getName() + ".offset";
+        /**
+         * The columns written for frames within the current cell, built once
+         * per cell.
+         */
+        private String current = null;
 
-                // Test if the variable is a matrix. If it is, then
-                // we have to print out all of its arguments.
-                if (v.getRootNode().type == Argument.Type.MATRIX) {
-                    for (Argument a : v.getRootNode().childArguments) {
-                        header += "," + v.getName() + "." + a.name;
-                    }
-                } else {
-                    header += "," + v.getName() + ".value";
+        FrameCursor(final Variable variable) {
+            cells = variable.getCellsTemporally();
+
+            StringBuilder sb = new StringBuilder(",,,");
+            if (variable.getRootNode().type == Argument.Type.MATRIX) {
+                for (int i = 0; i < variable.getRootNode().childArguments.size(); i++) {
+                    sb.append(',');
                 }
-                header += ',';
+            } else {
+                sb.append(',');
             }
-            header = header.trim();
+            blank = sb.toString();
+        }
 
-            // Write header
-            ps.println(header);
+        /**
+         * Moves the cursor to the supplied time, which must not be earlier
+         * than the time of the previous call.
+         *
+         * @param time The time of the frame in milliseconds.
+         * @return The columns for this variable at the supplied time.
+         */
+        String advanceTo(final long time) {
+            if (cells.isEmpty()) {
+                return blank;
+            }
 
-            int framenum = 1;
-            while (current_time <= last_time) {
-                // Update the currentIndex list
-                for (int i = 0; i < variables.size(); i++) {
-                    Cell c = cellCache.get(i).get(currentIndex[i]);
-                    if (current_time > c.getOffset()) {
-                        
-                        for (int j = currentIndex[i]; j < cellCache.get(i).size(); j++) {
-                            Cell nextCell = cellCache.get(i).get(j);
-                            if (current_time >= nextCell.getOnset()) {
-                                currentIndex[i] = j;
-                            }
-                        }
-                    }
+            // Once the current cell has finished, skip to the last cell that
+            // has started.
+            if (time > cells.get(index).getOffset()) {
+                int next = index;
+                while (next + 1 < cells.size() && cells.get(next + 1).getOnset() <= time) {
+                    next++;
                 }
+                if (next != index) {
+                    index = next;
+                    current = null;
+                }
+            }
 
+            Cell cell = cells.get(index);
+            if (cell.getOnset() > time || cell.getOffset() < time) {
+                return blank;
+            }
 
-                // Now print each frame as we loop through it
-                String row = Integer.toString(framenum) + "," +
-                        Long.toString(current_time) + ",";
-                for (int i = 0; i < variables.size(); i++) {
-                    Cell cell = cellCache.get(i).get(currentIndex[i]);
-
-                    if (cell.getOnset() <= current_time && cell.getOffset() >= current_time) {
+            if (current == null) {
+                current = format(cell, index);
+            }
+            return current;
+        }
 
-                        Value value = cell.getValue();
+        private static String format(final Cell cell, final int index) {
+            StringBuilder sb = new StringBuilder();
+            sb.append(index + 1).append(',');
+            sb.append(cell.getOnset()).append(',');
+            sb.append(cell.getOffset()).append(',');
 
-                        // Print ordinal, onset, offset
-                        row += Integer.toString(currentIndex[i]+1) + "," +
-                                Long.toString(cell.getOnset()) + "," +
-                                Long.toString(cell.getOffset());
+            Value value = cell.getValue();
+            if (value instanceof MatrixValue) {
+                for (Value v : ((MatrixValue) value).getArguments()) {
+                    sb.append(StringUtils.escapeCSVQuotes(v.toString())).append(',');
+                }
+            } else {
+                sb.append(StringUtils.escapeCSVQuotes(value.toString())).append(',');
+            }
 
+            return sb.toString();
+        }
+    }
 
-                        if (value instanceof MatrixValue) {
-                            // Then this is a matrix value, get the sub arguments
-                            MatrixValue mv = (MatrixValue) value;
-                            for (Value v : mv.getArguments()) {
-                                // Loop over each value and print it with a comma
-                                // seperator
-                                row += "," + StringUtils.escapeCSVQuotes(v.toString());
-                            }
-                        } else {
-                            // Otherwise just print the single argument
-                            row += "," + StringUtils.escapeCSVQuotes(cell.getValue().toString());
-                        }
-                        row += ",";
-                        
-                    } else {
-                        // Figure out what to print if we don't have a cell here
-                        Value value = cell.getValue();
+    /**
+     * @param ds The datastore to examine.
+     * @return The first and last times covered by the cells in the datastore,
+     * as used when exporting by frame.
+     */
+    private static long[] getTimeWindow(final Datastore ds) {
+        long firstTime = Long.MAX_VALUE;
+        long lastTime = 0;
+
+        for (Variable v : ds.getAllVariables()) {
+            List<Cell> cells = v.getCellsTemporally();
+            if (cells.isEmpty()) {
+                continue;
+            }
 
-                        // Print ordinal, onset, offset
-                        row += ",,";
+            Cell first = cells.get(0);
+            Cell last = cells.get(cells.size() - 1);
+            firstTime = Math.min(firstTime, Math.min(first.getOnset(), first.getOffset()));
+            lastTime = Math.max(lastTime, Math.max(last.getOnset(), last.getOffset()));
+        }
 
+        return new long[]{firstTime, lastTime};
+    }
 
-                        if (value instanceof MatrixValue) {
-                            // Then this is a matrix value, get the sub arguments
-                            MatrixValue mv = (MatrixValue) value;
-                            for (Value v : mv.getArguments()) {
-                                // Loop over each value and print it with a comma
-                                // seperator
-                                row += ",";
-                            }
-                        } else {
-                            // Otherwise just print the single argument
-                            row += ",";
-                        }
-                        row += ",";
-                    }
-                }
-                ps.println(row);
-                current_time += 1000.0 / framerate;
-                ++framenum;
+    /**
+     * @return The framerate of the data controller, or the default framerate
+     * if it does not have one.
+     */
+    private static double getCurrentFramerate() {
+        try {
+            float fromDVC = Datavyu.getDataController().getCurrentFPS();
+            if (fromDVC > 1.0) {
+                return fromDVC;
             }
+        } catch (Exception e) {
+            LOGGER.error("Unable to get the current framerate", e);
+        }
 
-            fos.close();
-        } catch (IOException ie) {
-            ie.printStackTrace();
-            ResourceMap rMap = Application.getInstance(Datavyu.class)
-                    .getContext().getResourceMap(Datavyu.class);
-            throw new UserWarningException(rMap.getString("UnableToSave.message", outFile), ie);
+        return DEFAULT_FRAMERATE;
+    }
+
+    private static void closeQuietly(final OutputStream outStream) {
+        if (outStream != null) {
+            try {
+                outStream.close();
+            } catch (IOException e) {
+                LOGGER.error("Unable to close export", e);
+            }
         }
     }
 
@@ -0,0 +1,282 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.controllers;
+
+import com.usermetrix.jclient.Logger;
+import com.usermetrix.jclient.UserMetrix;
+import org.datavyu.models.db.*;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Controller for handing the database to R. Each variable is written to its
+ * own temporary CSV file, with a row per cell in temporal order, and read
+ * back in R with the types of its columns given up front.
+ */
+public final class ExportRDataC {
+
+    /**
+     * The logger for this class.
+     */
+    private static Logger LOGGER = UserMetrix.getLogger(ExportRDataC.class);
+
+    /**
+     * Size of the buffers used when writing the temporary files.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The temporary files written so far.
+     */
+    private final List<File> files = new ArrayList<File>();
+
+    /**
+     * Writes every variable of the datastore to a temporary file, the
+     * variables in parallel, and builds the R code that reads them into a
+     * list called db keyed by lower case variable name. Call
+     * {@link #cleanUp()} once R is done with the files.
+     *
+     * @param ds The datastore to hand to R.
+     * @return The R code reading the datastore, a line per entry.
+     * @throws IOException If unable to write the temporary files.
+     */
+    public List<String> export(final Datastore ds) throws IOException {
+        List<Variable> variables = ds.getAllVariables();
+        List<Future<File>> results = new ArrayList<Future<File>>();
+        ForkJoinPool pool = new ForkJoinPool();
+
+        try {
+            for (Variable v : variables) {
+                results.add(pool.submit(new VariableWriter(v)));
+            }
+
+            // Wait for every writer, even after a failure, so that no file is
+            // created after the caller cleans up.
+            List<String> code = new ArrayList<String>();
+            code.add("db <- list()");
+            IOException failure = null;
+            for (int i = 0; i < variables.size(); i++) {
+                try {
+                    code.add(readCode(variables.get(i), getResult(results.get(i))));
+                } catch (IOException e) {
+                    if (failure == null) {
+                        failure = e;
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+
+            return code;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Deletes the temporary files written by {@link #export(Datastore)},
+     * including those of an export that failed part way.
+     */
+    public void cleanUp() {
+        synchronized (files) {
+            for (File file : files) {
+                if (file.exists() && !file.delete()) {
+                    LOGGER.error("Unable to delete " + file);
+                }
+            }
+            files.clear();
+        }
+    }
+
+    /**
+     * Writes a variable to a new temporary file.
+     */
+    private final class VariableWriter implements Callable<File> {
+
+        /**
+         * The variable to write.
+         */
+        private final Variable variable;
+
+        VariableWriter(final Variable variable) {
+            this.variable = variable;
+        }
+
+        @Override
+        public File call() throws IOException {
+            File file = File.createTempFile("datavyu-r-", ".csv");
+            file.deleteOnExit();
+            synchronized (files) {
+                files.add(file);
+            }
+
+            Writer out = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(file), "UTF-8"), BUFFER_SIZE);
+            try {
+                writeVariable(variable, out);
+            } finally {
+                out.close();
+            }
+
+            return file;
+        }
+    }
+
+    /**
+     * Writes a variable as CSV, with a header and a row per cell in temporal
+     * order. Codes are quoted; empty codes are left blank.
+     *
+     * @param variable The variable to write.
+     * @param out      Where to write the variable.
+     * @throws IOException If unable to write the variable.
+     */
+    static void writeVariable(final Variable variable, final Writer out) throws IOException {
+        Argument root = variable.getRootNode();
+        boolean matrix = root.type == Argument.Type.MATRIX;
+
+        out.write("ordinal,onset,offset");
+        if (matrix) {
+            for (Argument a : root.childArguments) {
+                out.write(',');
+                out.write(a.name);
+            }
+        } else {
+            out.write(",arg");
+        }
+        out.write('\n');
+
+        int ordinal = 0;
+        for (Cell c : variable.getCellsTemporally()) {
+            ordinal++;
+            out.write(Integer.toString(ordinal));
+            out.write(',');
+            out.write(Long.toString(c.getOnset()));
+            out.write(',');
+            out.write(Long.toString(c.getOffset()));
+
+            if (matrix) {
+                for (Value val : ((MatrixValue) c.getValue()).getArguments()) {
+                    writeCode(val, out);
+                }
+            } else {
+                writeCode(c.getValue(), out);
+            }
+            out.write('\n');
+        }
+    }
+
+    /**
+     * Writes a code as a quoted CSV field preceded by a comma.
+     *
+     * @param val The code to write.
+     * @param out Where to write the code.
+     * @throws IOException If unable to write the code.
+     */
+    private static void writeCode(final Value val, final Writer out) throws IOException {
+        out.write(',');
+        if (val.isEmpty()) {
+            return;
+        }
+
+        String code = val.toString();
+        out.write('"');
+        if (code.indexOf('"') < 0) {
+            out.write(code);
+        } else {
+            out.write(code.replace("\"", "\"\""));
+        }
+        out.write('"');
+    }
+
+    /**
+     * @param variable The variable to describe.
+     * @return The R classes of the columns written for the variable, as an R
+     * character vector. Text is read as character. Nominal codes are left as
+     * NA, so R infers their class as it always has - numeric codes stay
+     * numbers.
+     */
+    static String colClasses(final Variable variable) {
+        StringBuilder result = new StringBuilder("c(\"integer\",\"numeric\",\"numeric\"");
+        Argument root = variable.getRootNode();
+        if (root.type == Argument.Type.MATRIX) {
+            for (Argument a : root.childArguments) {
+                result.append(',').append(rClass(a));
+            }
+        } else {
+            result.append(',').append(rClass(root));
+        }
+        result.append(')');
+
+        return result.toString();
+    }
+
+    /**
+     * @param arg The argument to describe.
+     * @return The quoted R class used for the codes of the argument, or NA
+     * for R to infer it.
+     */
+    private static String rClass(final Argument arg) {
+        return arg.type == Argument.Type.TEXT ? "\"character\"" : "NA";
+    }
+
+    /**
+     * @param variable The variable written to the file.
+     * @param file     The file the variable was written to.
+     * @return The R code reading the file into the db list.
+     */
+    static String readCode(final Variable variable, final File file) {
+        return "db[[" + rString(variable.getName().toLowerCase()) + "]] <- read.csv("
+                + rString(file.getPath().replace('\\', '/'))
+                + ", header=TRUE, sep=',', colClasses=" + colClasses(variable)
+                + ", fileEncoding='UTF-8')";
+    }
+
+    /**
+     * @param s The string to quote.
+     * @return The string as an R string literal.
+     */
+    private static String rString(final String s) {
+        return "\"" + s.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    /**
+     * Waits for a variable to finish writing, unwrapping any failure.
+     *
+     * @param result The pending result of writing the variable.
+     * @return The file the variable was written to.
+     * @throws IOException If the variable could not be written.
+     */
+    private static File getResult(final Future<File> result) throws IOException {
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing data for R.");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Unable to write data for R.", cause);
+        }
+    }
+}
@@ -19,8 +19,13 @@ import com.usermetrix.jclient.UserMetrix;
 import org.datavyu.models.db.Datastore;
 import org.datavyu.models.project.Project;
 import org.datavyu.models.project.ViewerSetting;
+import org.datavyu.util.ProgressInputStream;
 
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
@@ -42,6 +47,20 @@ public final class OpenC {
      * A reference to the projec that this controller opened.
      */
     private Project project = null;
+    /**
+     * Is a user watching? See {@link OpenDatabaseFileC#setInteractive(boolean)}.
+     */
+    private boolean interactive = true;
+    /**
+     * Who to tell how far through the database we have read, null if nobody
+     * is watching.
+     */
+    private ProgressInputStream.Listener progress = null;
+    /**
+     * Who attaches the variables of the database as they are read, null to
+     * attach them while reading.
+     */
+    private OpenDatabaseFileC.ReadListener readListener = null;
 
     /**
      * Opens a file as a Datavyu database.
@@ -50,9 +69,14 @@ public final class OpenC {
      */
     public void openDatabase(final File databaseFile) {
         OpenDatabaseFileC odc = new OpenDatabaseFileC();
+        odc.setInteractive(interactive);
+        odc.setProgressListener(progress);
+        odc.setReadListener(readListener);
         database = odc.open(databaseFile);
 
-        database.deselectAll();
+        if (database != null && readListener == null) {
+            database.deselectAll();
+        }
     }
 
     /**
@@ -85,12 +109,26 @@ public final class OpenC {
 
             if (project != null) {
                 OpenDatabaseFileC odc = new OpenDatabaseFileC();
+                odc.setInteractive(interactive);
+                odc.setProgressListener(progress);
+                odc.setReadListener(readListener);
                 database = odc.open(new File(projectFile.getParent(),
                         project.getDatabaseFileName()));
             }
         }
+
+        // Unable to read the database, or the read was abandoned.
+        if (database == null) {
+            return;
+        }
         database.setName(projectFile.getName());
 
+        // The read listener owns the variables, and tidies up once it has
+        // attached them all.
+        if (readListener != null) {
+            return;
+        }
+
         database.deselectAll();
 
         // Mark as unchanged after loading spreadsheet
@@ -103,9 +141,11 @@ public final class OpenC {
      * @param archiveFile The archive to open as a project.
      */
     private void openProjectArchive(final File archiveFile) {
+        ZipFile zf = null;
+        InputStream dbStream = null;
 
         try {
-            ZipFile zf = new ZipFile(archiveFile);
+            zf = new ZipFile(archiveFile);
 
             String arch = archiveFile.getName().substring(0,
                     archiveFile.getName().lastIndexOf('.'));
@@ -128,8 +168,21 @@ public final class OpenC {
                 zDb = zf.getEntry(arch + File.separator + "db");
             }
 
+            // The database is either in the binary format or CSV. Variable
+            // blocks in CSV are independent, so parse them concurrently.
+            dbStream = zf.getInputStream(zDb);
+            if (progress != null) {
+                dbStream = new ProgressInputStream(dbStream, zDb.getSize(), progress);
+            }
+            dbStream = new BufferedInputStream(dbStream);
             OpenDatabaseFileC odc = new OpenDatabaseFileC();
-            database = odc.openAsCSV(zf.getInputStream(zDb));
+            odc.setInteractive(interactive);
+            odc.setReadListener(readListener);
+            if (BinaryDatabaseFormat.isBinary(dbStream)) {
+                database = odc.openAsBinary(dbStream);
+            } else {
+                database = odc.openAsCSVParallel(dbStream);
+            }
 
             // BugzID:1806
             for (ViewerSetting vs : project.getViewerSettings()) {
@@ -139,14 +192,31 @@ public final class OpenC {
                     vs.copySettings(zf.getInputStream(entry));
                 }
             }
-
-            zf.close();
+        } catch (InterruptedIOException e) {
+            LOGGER.event("open project archive abandoned: " + e.getMessage());
         } catch (Exception e) {
             LOGGER.error("Unable to open project archive", e);
             e.printStackTrace();
+        } finally {
+            if (dbStream != null) {
+                try {
+                    dbStream.close();
+                } catch (IOException e) {
+                    LOGGER.error("Unable to close project database", e);
+                }
+            }
+            if (zf != null) {
+                try {
+                    zf.close();
+                } catch (IOException e) {
+                    LOGGER.error("Unable to close project archive", e);
+                }
+            }
         }
 
-        database.deselectAll();
+        if (database != null && readListener == null) {
+            database.deselectAll();
+        }
     }
 
     /**
@@ -158,6 +228,34 @@ public final class OpenC {
         this.openProject(new File(projectFile));
     }
 
+    /**
+     * @param interactive Is a user watching? Defaults to true; batch runs
+     *                    open projects without a user.
+     */
+    public void setInteractive(final boolean interactive) {
+        this.interactive = interactive;
+    }
+
+    /**
+     * @param progress Who to tell how far through the database we have read,
+     *                 null if nobody is watching. If the listener abandons
+     *                 the read no datastore is opened.
+     */
+    public void setProgressListener(final ProgressInputStream.Listener progress) {
+        this.progress = progress;
+    }
+
+    /**
+     * @param readListener Who attaches the variables of the database as they
+     *                     are read, null to attach them while reading. See
+     *                     {@link OpenDatabaseFileC#setReadListener}. With a
+     *                     listener the opened datastore is left as the
+     *                     listener has made it.
+     */
+    public void setReadListener(final OpenDatabaseFileC.ReadListener readListener) {
+        this.readListener = readListener;
+    }
+
     /**
      * @return The instance of the datastore that was opened by this controller,
      * returns null if no database opened.
@@ -18,11 +18,19 @@ import com.usermetrix.jclient.Logger;
 import com.usermetrix.jclient.UserMetrix;
 import org.datavyu.Datavyu;
 import org.datavyu.models.db.*;
+import org.datavyu.util.ProgressInputStream;
 
 import javax.swing.*;
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import static java.lang.Math.min;
 import org.datavyu.Configuration;
@@ -32,6 +40,23 @@ import org.datavyu.Configuration;
  */
 public final class OpenDatabaseFileC {
 
+    /**
+     * Told about the variables of a database as they are read.
+     */
+    public interface ReadListener {
+
+        /**
+         * Called on the reading thread with the next variables of the file,
+         * in file order. Each variable is complete and not yet attached to
+         * the datastore; attaching them is up to the listener, as the reader
+         * does not touch the datastore once it has a listener.
+         *
+         * @param datastore The datastore being opened.
+         * @param variables The variables that have just been read.
+         */
+        void variablesRead(Datastore datastore, List<Variable> variables);
+    }
+
     /**
      * The index of the ONSET timestamp in the CSV line.
      */
@@ -48,6 +73,10 @@ public final class OpenDatabaseFileC {
      * Value to put into values we cannot read in the event of an error
      */
     private static final String error_value = "XXXXX";
+    /**
+     * Timestamp given to cells recovered from corrupted lines.
+     */
+    private static final String CORRUPT_TIMESTAMP = "99:00:00:000";
     /**
      * Bool so we know whether or not we've had an error while reading in a file
      */
@@ -55,11 +84,76 @@ public final class OpenDatabaseFileC {
 
     private int numVarsRead = 0;
 
+    /**
+     * The number of cells that could not be read from the file.
+     */
+    private int corruptCells = 0;
+
+    /**
+     * Variables parsed without a datastore to put them in.
+     */
+    private List<Variable> detachedVariables = new ArrayList<Variable>();
+
+    /**
+     * Is a user watching? If not, the opened datastore is not tied to the
+     * application window and warnings go to the error stream, not dialogs.
+     */
+    private boolean interactive = true;
+
+    /**
+     * Who to tell how far through a database file we have read, null if
+     * nobody is watching.
+     */
+    private ProgressInputStream.Listener progress = null;
+
+    /**
+     * Who attaches the variables to the datastore as they are read, null to
+     * attach them here.
+     */
+    private ReadListener readListener = null;
+
+    /**
+     * The names of the variables attached so far, in file order.
+     */
+    private Set<String> attachedNames = new HashSet<String>();
+
+    /**
+     * The names of the attached variables that break the naming rules, one
+     * per line.
+     */
+    private StringBuilder invalidNames = new StringBuilder();
+
     /**
      * The logger for this class.
      */
     private static Logger LOGGER = UserMetrix.getLogger(OpenDatabaseFileC.class);
 
+    /**
+     * @param interactive Is a user watching? Defaults to true.
+     */
+    public void setInteractive(final boolean interactive) {
+        this.interactive = interactive;
+    }
+
+    /**
+     * @param progress Who to tell how far through a database file we have
+     *                 read, null if nobody is watching. The listener can
+     *                 abandon the read, in which case opening fails.
+     */
+    public void setProgressListener(final ProgressInputStream.Listener progress) {
+        this.progress = progress;
+    }
+
+    /**
+     * @param readListener Who attaches the variables to the datastore as
+     *                     they are read, null to attach them while reading.
+     *                     The datastore is returned once everything has been
+     *                     handed over, but with a listener it is left empty.
+     */
+    public void setReadListener(final ReadListener readListener) {
+        this.readListener = readListener;
+    }
+
     /**
      * Opens a database.
      *
@@ -106,18 +200,27 @@ public final class OpenDatabaseFileC {
      * @return populated database on success, null otherwise.
      */
     public Datastore openAsCSV(final File sFile) {
+        InputStream fis = null;
 
         try {
             LOGGER.event("open csv database from file");
 
-            FileInputStream fis = new FileInputStream(sFile);
-            Datastore result = openAsCSV(fis);
-            fis.close();
-
-            return result;
+            fis = new FileInputStream(sFile);
+            if (progress != null) {
+                fis = new ProgressInputStream(fis, sFile.length(), progress);
+            }
+            return openAsCSV(fis);
         } catch (Exception fe) {
             LOGGER.error("Unable to open as CSV", fe);
             fe.printStackTrace();
+        } finally {
+            if (fis != null) {
+                try {
+                    fis.close();
+                } catch (IOException e) {
+                    LOGGER.error("Unable to close CSV file", e);
+                }
+            }
         }
 
         // Error encountered - return null.
@@ -136,63 +239,158 @@ public final class OpenDatabaseFileC {
         try {
             LOGGER.event("open csv database from stream");
 
-            Datastore db = DatastoreFactory.newDatastore();
-            db.setTitleNotifier(Datavyu.getApplication());
+            Datastore db = newDatastore();
             InputStreamReader isr = new InputStreamReader(inStream);
-            BufferedReader csvFile = new BufferedReader(isr);
-
-            // Read each line of the CSV file.
-            String line = csvFile.readLine();
+            CSVTokenizer csvFile = new CSVTokenizer(isr);
+
+            // If we have a version identifier parse the file using the
+            // schema that matches that identifier. Otherwise use the
+            // original schema to load the file - just variables.
+            String version = "#2";
+
+            // Hold back per-cell notifications until everything is loaded.
+            // With a read listener the variables are parsed detached and
+            // handed over one at a time instead.
+            if (readListener == null) {
+                db.beginBulkLoad();
+            }
+            try {
+                // Read each line of the CSV file.
+                String line = csvFile.readLine();
 
-            // If we have a version identifier parse the file using the schema
-            // that matches that identifier.
-            if ("#4".equalsIgnoreCase(line)) {
+                if ("#4".equalsIgnoreCase(line)) {
+                    // Version 4 includes a comment for columns.
+                    version = "#4";
+                    line = csvFile.readLine();
+                } else if ("#3".equalsIgnoreCase(line)) {
+                    // Version 3 includes column visible status after the
+                    // column type.
+                    version = "#3";
+                    line = csvFile.readLine();
+                } else if ("#2".equalsIgnoreCase(line)) {
+                    line = csvFile.readLine();
+                }
 
-                //Version 4 includes a comment for columns.
-                line = csvFile.readLine();
                 while (line != null) {
-                    line = parseVariable(csvFile, line, db, "#4");
+                    if (line.trim().isEmpty()) {
+                        line = csvFile.readLine();
+                    } else if (readListener == null) {
+                        line = parseVariable(csvFile, line, db, version);
+                    } else {
+                        line = parseVariable(csvFile, line, null, version);
+                        attachInOrder(db, new ArrayList<Variable>(detachedVariables));
+                        detachedVariables.clear();
+                    }
                 }
-                if(!db.getExemptionVariables().isEmpty())
-                {
-                    System.out.println("WE HAVE EXEMPTION VARIABLES");
-                    SwingUtilities.invokeLater(new NameWarning(db.getExemptionVariables()));
+            } finally {
+                if (readListener == null) {
+                    db.endBulkLoad();
                 }
-            } else if ("#3".equalsIgnoreCase(line)) {
+            }
 
-                //Version 3 includes column visible status after the column type
-                line = csvFile.readLine();
-                while (line != null) {
-                    line = parseVariable(csvFile, line, db, "#3");
-                }
-            } else if ("#2".equalsIgnoreCase(line)) {
+            warnOfCorruptCells(corruptCells);
+            String invalid = (readListener == null) ? db.getExemptionVariables()
+                    : invalidNames.toString();
+            if ("#4".equals(version) && !invalid.isEmpty()) {
+                System.out.println("WE HAVE EXEMPTION VARIABLES");
+                warnOfInvalidNames(invalid);
+            }
 
-                line = csvFile.readLine();
-                while (line != null) {
-                    line = parseVariable(csvFile, line, db);
-                }
+            isr.close();
 
-            } else {
+            return db;
+        } catch (InterruptedIOException e) {
+            LOGGER.event("open csv database abandoned: " + e.getMessage());
+        } catch (IOException e) {
+            LOGGER.error("Unable to read line from CSV file", e);
+            e.printStackTrace();
+        } catch (UserWarningException e) {
+            LOGGER.error("Unable to create new variable.", e);
+            e.printStackTrace();
+        }
 
-                // Use the original schema to load the file - just variables,
-                // and no escape characters.
-                while (line != null) {
-                    line = parseVariable(csvFile, line, db);
+        // Error encountered - return null.
+        return null;
+    }
+
+    /**
+     * This method parses a CSV input stream and populates the database (and
+     * spreadsheet) with data, parsing independent variables concurrently. The
+     * stream is read in full, the boundaries of each variable block are
+     * located, and the blocks are parsed into detached variables on a
+     * fork-join pool before being attached to the datastore in file order.
+     * The caller is responsible for managing the stream.
+     *
+     * @param inStream The stream to deserialized when populating the database.
+     * @return populated database on sucess, null otherwise.
+     */
+    public Datastore openAsCSVParallel(final InputStream inStream) {
+        ForkJoinPool pool = null;
+
+        try {
+            LOGGER.event("open csv database from stream in parallel");
+
+            Datastore db = newDatastore();
+            char[] content = readFully(new InputStreamReader(inStream));
+
+            // Work out the schema from the version identifier, if we have one.
+            String version = "#2";
+            int start = 0;
+            int lineEnd = CSVTokenizer.endOfLine(content, 0);
+            String firstLine = new String(content, 0, lineEnd);
+            if ("#4".equalsIgnoreCase(firstLine) || "#3".equalsIgnoreCase(firstLine)
+                    || "#2".equalsIgnoreCase(firstLine)) {
+                version = firstLine;
+                start = CSVTokenizer.startOfNextLine(content, lineEnd);
+            }
+
+            // Parse each block of the file into detached variables.
+            List<Integer> blocks = CSVTokenizer.findBlocks(content, start);
+            List<BlockParser> parsers = new ArrayList<BlockParser>();
+            List<Future<List<Variable>>> results = new ArrayList<Future<List<Variable>>>();
+            pool = new ForkJoinPool();
+            for (int i = 0; i < blocks.size(); i++) {
+                int end = (i + 1 < blocks.size()) ? blocks.get(i + 1) : content.length;
+                BlockParser parser = new BlockParser(content, blocks.get(i), end, version);
+                parsers.add(parser);
+                results.add(pool.submit(parser));
+            }
+
+            // Attach the variables to the datastore in their original order,
+            // each block as soon as it and every block before it is parsed.
+            int errorCount = 0;
+            if (readListener == null) {
+                db.beginBulkLoad();
+            }
+            try {
+                for (int i = 0; i < results.size(); i++) {
+                    attachInOrder(db, getResult(results.get(i)));
+                    errorCount += parsers.get(i).getCorruptCells();
+                }
+            } finally {
+                if (readListener == null) {
+                    db.endBulkLoad();
                 }
             }
-            
-            
 
-            csvFile.close();
-            isr.close();
+            warnOfCorruptCells(errorCount);
+            if ("#4".equals(version) && invalidNames.length() > 0) {
+                warnOfInvalidNames(invalidNames.toString());
+            }
 
             return db;
+        } catch (InterruptedIOException e) {
+            LOGGER.event("open csv database abandoned: " + e.getMessage());
         } catch (IOException e) {
             LOGGER.error("Unable to read line from CSV file", e);
             e.printStackTrace();
         } catch (UserWarningException e) {
             LOGGER.error("Unable to create new variable.", e);
             e.printStackTrace();
+        } finally {
+            if (pool != null) {
+                pool.shutdownNow();
+            }
         }
 
         // Error encountered - return null.
@@ -200,52 +398,338 @@ public final class OpenDatabaseFileC {
     }
 
     /**
-     * Strips escape characters from a line of text.
+     * This method reads a database in the compact binary format described by
+     * {@link BinaryDatabaseFormat} from the input stream. Each variable is
+     * stored as a length-prefixed block, so the blocks are decoded into
+     * detached variables concurrently before being attached to the datastore
+     * in file order. The caller is responsible for managing the stream.
      *
-     * @param line The line of text to strip escape characters from.
-     * @return The line free of escape characters, i.e. '\'.
+     * @param inStream The stream to deserialized when populating the database.
+     * @return populated database on sucess, null otherwise.
      */
-    private String stripEscChars(final String line) {
-        String result = null;
+    public Datastore openAsBinary(final InputStream inStream) {
+        ForkJoinPool pool = null;
 
-        if (line != null) {
-            result = "";
+        try {
+            LOGGER.event("open binary database from stream");
 
-            for (int i = 0; i < line.length(); i++) {
+            InputStream in = new BufferedInputStream(inStream);
+            for (byte b : BinaryDatabaseFormat.MAGIC) {
+                if (in.read() != (b & 0xFF)) {
+                    throw new IOException("Not a binary database");
+                }
+            }
 
-                if (i < (line.length() - 1)) {
+            int version = BinaryDatabaseFormat.readCount(in);
+            if (version > BinaryDatabaseFormat.VERSION) {
+                throw new IOException("Unsupported binary database version: " + version);
+            }
 
-                    if ((line.charAt(i) == '\\')
-                            && (line.charAt(i + 1) == '\\')) {
-                        char[] buff = {'\\'};
-                        result = result.concat(new String(buff));
+            Datastore db = newDatastore();
 
-                        // Move over the escape character.
-                        i++;
-                    } else if ((line.charAt(i) == '\\')
-                            && (line.charAt(i + 1) == ',')) {
-                        char[] buff = {','};
-                        result = result.concat(new String(buff));
+            // Decode each variable block into a detached variable.
+            int numVariables = BinaryDatabaseFormat.readCount(in);
+            List<Future<List<Variable>>> results = new ArrayList<Future<List<Variable>>>();
+            pool = new ForkJoinPool();
+            for (int i = 0; i < numVariables; i++) {
+                byte[] block = BinaryDatabaseFormat.readBytes(in,
+                        BinaryDatabaseFormat.readCount(in));
+                results.add(pool.submit(new BinaryBlockParser(block)));
+            }
 
-                        // Move over the escape character.
-                        i++;
-                    } else if ((line.charAt(i) == '\\')
-                            && (line.charAt(i + 1) == '-')) {
-                        char[] buff = {'-'};
-                        result = result.concat(new String(buff));
+            // Attach the variables to the datastore in their original order.
+            if (readListener == null) {
+                db.beginBulkLoad();
+            }
+            try {
+                for (Future<List<Variable>> result : results) {
+                    attachInOrder(db, getResult(result));
+                }
+            } finally {
+                if (readListener == null) {
+                    db.endBulkLoad();
+                }
+            }
 
-                        // Move over the escape character.
-                        i++;
-                    } else {
-                        result += line.charAt(i);
+            return db;
+        } catch (InterruptedIOException e) {
+            LOGGER.event("open binary database abandoned: " + e.getMessage());
+        } catch (IOException e) {
+            LOGGER.error("Unable to read binary database", e);
+            e.printStackTrace();
+        } catch (UserWarningException e) {
+            LOGGER.error("Unable to create new variable.", e);
+            e.printStackTrace();
+        } finally {
+            if (pool != null) {
+                pool.shutdownNow();
+            }
+        }
+
+        // Error encountered - return null.
+        return null;
+    }
+
+    /**
+     * Decodes a single variable block of a binary database on a worker thread.
+     */
+    private static final class BinaryBlockParser implements Callable<List<Variable>> {
+
+        private final byte[] block;
+
+        BinaryBlockParser(final byte[] block) {
+            this.block = block;
+        }
+
+        @Override
+        public List<Variable> call() throws IOException, UserWarningException {
+            return Collections.singletonList(
+                    readVariable(new ByteArrayInputStream(block)));
+        }
+    }
+
+    /**
+     * Reads a single variable, and all of its cells, from a binary database.
+     *
+     * @param in The stream holding the variable block.
+     * @return The variable, detached from any datastore.
+     * @throws IOException          If unable to read from the stream.
+     * @throws UserWarningException If unable to create the variable.
+     */
+    private static Variable readVariable(final InputStream in)
+            throws IOException, UserWarningException {
+        String varName = BinaryDatabaseFormat.readString(in);
+        Argument.Type variableType = readType(in);
+        boolean varVisible = in.read() != 0;
+
+        Variable newVar = new DatavyuVariable(varName, variableType, true);
+        newVar.setHidden(!varVisible);
+
+        Argument root = newVar.getRootNode();
+        if (variableType == Argument.Type.MATRIX) {
+            root.clearChildArguments();
+            int numArgs = BinaryDatabaseFormat.readCount(in);
+            for (int i = 0; i < numArgs; i++) {
+                String argName = BinaryDatabaseFormat.readString(in);
+                root.childArguments.add(new Argument(argName, readType(in)));
+            }
+            newVar.setRootNode(root);
+        }
+
+        String[] dictionary = new String[BinaryDatabaseFormat.readCount(in) + 1];
+        dictionary[0] = "";
+        for (int i = 1; i < dictionary.length; i++) {
+            dictionary[i] = BinaryDatabaseFormat.readString(in);
+        }
+
+        int numCells = BinaryDatabaseFormat.readCount(in);
+        long onset = 0;
+        for (int i = 0; i < numCells; i++) {
+            onset += BinaryDatabaseFormat.readSigned(in);
+            long offset = onset + BinaryDatabaseFormat.readSigned(in);
+
+            Cell newCell = newVar.createCell();
+            newCell.setOnset(onset);
+            newCell.setOffset(offset);
+
+            if (variableType == Argument.Type.MATRIX) {
+                List<Value> args = ((MatrixValue) newCell.getValue()).getArguments();
+                int numValues = BinaryDatabaseFormat.readCount(in);
+                for (int j = 0; j < numValues; j++) {
+                    boolean nominal = j < root.childArguments.size()
+                            && root.childArguments.get(j).type == Argument.Type.NOMINAL;
+                    String value = readValue(in, dictionary, nominal);
+                    if (j < args.size() && value.length() > 0) {
+                        args.get(j).set(value);
                     }
-                } else {
-                    result += line.charAt(i);
+                }
+            } else {
+                String value = readValue(in, dictionary,
+                        variableType == Argument.Type.NOMINAL);
+                if (value.length() > 0) {
+                    newCell.getValue().set(value);
                 }
             }
         }
 
-        return result;
+        return newVar;
+    }
+
+    private static Argument.Type readType(final InputStream in) throws IOException {
+        String type = BinaryDatabaseFormat.readString(in);
+        try {
+            return Argument.Type.valueOf(type);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Unknown type in binary database: " + type, e);
+        }
+    }
+
+    private static String readValue(final InputStream in,
+                                    final String[] dictionary,
+                                    final boolean nominal) throws IOException {
+        if (!nominal) {
+            return BinaryDatabaseFormat.readString(in);
+        }
+
+        int index = BinaryDatabaseFormat.readCount(in);
+        if (index >= dictionary.length) {
+            throw new IOException("Nominal code out of range in binary database: " + index);
+        }
+        return dictionary[index];
+    }
+
+    /**
+     * @param reader The reader to drain.
+     * @return Everything left in the reader.
+     * @throws IOException If unable to read from the reader.
+     */
+    private static char[] readFully(final Reader reader) throws IOException {
+        CharArrayWriter result = new CharArrayWriter(64 * 1024);
+        char[] buffer = new char[64 * 1024];
+        int n;
+        while ((n = reader.read(buffer)) >= 0) {
+            result.write(buffer, 0, n);
+        }
+        reader.close();
+
+        return result.toCharArray();
+    }
+
+    /**
+     * Attaches the next variables of the file to the datastore, or hands them
+     * to the read listener to attach if there is one.
+     *
+     * @param db   The datastore being opened.
+     * @param vars The detached variables that follow those already attached,
+     *             in file order.
+     * @throws UserWarningException If a variable has the same name as one
+     *                              already attached.
+     */
+    private void attachInOrder(final Datastore db, final List<Variable> vars)
+            throws UserWarningException {
+        for (Variable var : vars) {
+            if (!attachedNames.add(var.getName())) {
+                throw new UserWarningException("Unable to add column with name '"
+                        + var.getName() + "', one with the same name already exists.");
+            }
+            if (!DatavyuVariable.isNameValid(var.getName())) {
+                invalidNames.append(var.getName()).append("\n");
+            }
+
+            var.setOrderIndex(attachedNames.size() - 1);
+        }
+
+        if (readListener == null) {
+            for (Variable var : vars) {
+                db.addVariable(var);
+            }
+        } else if (!vars.isEmpty()) {
+            // Nothing is selected in a freshly opened datastore.
+            for (Variable var : vars) {
+                var.setSelected(false);
+                for (Cell cell : var.getCells()) {
+                    cell.setSelected(false);
+                }
+            }
+            readListener.variablesRead(db, vars);
+        }
+    }
+
+    /**
+     * Waits for a block to finish parsing, unwrapping any failure.
+     *
+     * @param result The pending result of parsing the block.
+     * @return The variables parsed from the block.
+     * @throws IOException          If the block could not be read.
+     * @throws UserWarningException If the block held an invalid variable.
+     */
+    private static List<Variable> getResult(final Future<List<Variable>> result)
+            throws IOException, UserWarningException {
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while opening file.");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof UserWarningException) {
+                throw (UserWarningException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException("Unable to parse file.", cause);
+        }
+    }
+
+    /**
+     * Parses a block of a CSV file into detached variables.
+     *
+     * @param csvFile The block of the CSV file to parse.
+     * @param version The version identifier of the CSV file.
+     * @return The variables held in the block, in the order they appear.
+     * @throws IOException          When we are unable to read from the csvFile.
+     * @throws UserWarningException When we are unable to create variables.
+     */
+    private List<Variable> parseDetached(final CSVTokenizer csvFile,
+                                         final String version)
+            throws IOException, UserWarningException {
+        String line = csvFile.readLine();
+        while (line != null) {
+            if (line.trim().isEmpty()) {
+                line = csvFile.readLine();
+            } else {
+                line = parseVariable(csvFile, line, null, version);
+            }
+        }
+
+        return detachedVariables;
+    }
+
+    /**
+     * Task for parsing a single block of a CSV file on the fork-join pool.
+     */
+    private static final class BlockParser implements Callable<List<Variable>> {
+
+        private final char[] content;
+
+        private final int start;
+
+        private final int end;
+
+        private final String version;
+
+        // Each block gets its own parser state.
+        private final OpenDatabaseFileC parser = new OpenDatabaseFileC();
+
+        /**
+         * Constructor.
+         *
+         * @param content The content of the whole CSV file.
+         * @param start   The offset of the block within the content.
+         * @param end     The offset just past the end of the block.
+         * @param version The version identifier of the CSV file.
+         */
+        BlockParser(final char[] content, final int start, final int end, final String version) {
+            this.content = content;
+            this.start = start;
+            this.end = end;
+            this.version = version;
+        }
+
+        @Override
+        public List<Variable> call() throws IOException, UserWarningException {
+            CSVTokenizer csvFile = new CSVTokenizer(new CharArrayReader(content, start, end - start));
+            return parser.parseDetached(csvFile, version);
+        }
+
+        /**
+         * @return The number of cells in the block that could not be read.
+         */
+        int getCorruptCells() {
+            return parser.corruptCells;
+        }
     }
 
     /**
@@ -279,20 +763,32 @@ public final class OpenDatabaseFileC {
         for (int tokenIndex = startI; tokenIndex < endIndex; tokenIndex++) {
             int argIndex = tokenIndex - startI;
             Argument fa = destPattern.childArguments.get(argIndex);
-            boolean emptyArg = false;
 
             // If the field doesn't contain anything or matches the FargName
-            // we consider the argument to be 'empty'. 
-            if ((tokens[tokenIndex].length() == 0) || tokens[tokenIndex].equals("<" + fa.name + ">")) {
-                emptyArg = true;
-                tokens[tokenIndex] = ""; //set <placeholder> to empty string. 
+            // we consider the argument to be 'empty'.
+            String token = tokens[tokenIndex];
+            if (isPlaceholder(token, fa.name)) {
+                token = ""; //set <placeholder> to empty string.
             }
 
-            tokens[tokenIndex] = tokens[tokenIndex].trim(); //is this desirable?
-            destValue.getArguments().get(argIndex).set(tokens[tokenIndex]);
+            token = token.trim(); //is this desirable?
+            args.get(argIndex).set(token);
         }
     }
 
+    /**
+     * @param token The token to test.
+     * @param name  The name of the formal argument the token belongs to.
+     * @return True if the token is the "&lt;name&gt;" placeholder for the
+     * argument, false otherwise.
+     */
+    private static boolean isPlaceholder(final String token, final String name) {
+        return token.length() == name.length() + 2
+                && token.charAt(0) == '<'
+                && token.charAt(token.length() - 1) == '>'
+                && token.regionMatches(1, name, 0, name.length());
+    }
+
     /**
      * Method to invoke when we encounter a block of text in the CSV file that
      * is the contents of a matrix variable.
@@ -305,175 +801,165 @@ public final class OpenDatabaseFileC {
      * in the CSV file.
      * @throws IOException If unable to read the file correctly.
      */
-    private String parseMatrixVariable(final BufferedReader csvFile,
+    private String parseMatrixVariable(final CSVTokenizer csvFile,
                                        final Variable var,
                                        final Argument arg) throws IOException {
-        String line = csvFile.readLine();
+        List<String> tokensList = new ArrayList<String>();
 
-        while ((line != null) && isCell(line)) {
-
-            ArrayList tokensList = new ArrayList<String>();
-            String[] onsetOffsetVals = line.split(",", 3);
-            tokensList.add(onsetOffsetVals[0]); //onset
-            tokensList.add(onsetOffsetVals[1]); //offset
-
-            String valuesStr = onsetOffsetVals[2];
-            StringBuilder sb = new StringBuilder();
-
-            for (int i = 0; i < valuesStr.length(); i++) {
-                char cur = valuesStr.charAt(i);
-                if (cur == '\\') {
-                    if (i + 1 == valuesStr.length()) //newline
-                    {
-                        sb.append('\n');
-                        valuesStr += csvFile.readLine();
-                    } else //stuff following escape backslash
-                    {
-                        i++;
-                        sb.append(valuesStr.charAt(i));
-                    }
-                } else if (cur == ',') //structural comma
-                {
-                    tokensList.add(sb.toString());
-                    sb = new StringBuilder();
-                } else sb.append(cur); //ordinary char
-            }
-            tokensList.add(sb.toString());
+        while (csvFile.atTimestampedCell()) {
+            tokensList.clear();
+            tokensList.add(csvFile.readRawField()); //onset
+            tokensList.add(csvFile.readRawField()); //offset
+            csvFile.readFields(tokensList, Integer.MAX_VALUE);
 
-            String[] tokens = (String[]) tokensList.toArray(new String[tokensList.size()]);
+            String[] tokens = tokensList.toArray(new String[tokensList.size()]);
 
             Cell newCell = var.createCell();
             // Set the onset and offset from tokens in the line.
-            newCell.setOnset(tokens[DATA_ONSET]);
-            newCell.setOffset(tokens[DATA_OFFSET]);
+            newCell.setOnset(CSVTokenizer.parseTimestamp(tokens[DATA_ONSET]));
+            newCell.setOffset(CSVTokenizer.parseTimestamp(tokens[DATA_OFFSET]));
 
             // Strip the first and last chars - presumably parens
-            tokens[DATA_INDEX] = tokens[DATA_INDEX].substring(1, tokens[DATA_INDEX].length());
+            if (tokens[DATA_INDEX].length() > 0) {
+                tokens[DATA_INDEX] = tokens[DATA_INDEX].substring(1);
+            }
             int end = tokens.length - 1;
-            tokens[end] = tokens[end].substring(0, tokens[end].length() - 1);
+            if (tokens[end].length() > 0) {
+                tokens[end] = tokens[end].substring(0, tokens[end].length() - 1);
+            }
 
-            parseFormalArgs(tokens, DATA_INDEX, var.getRootNode(), (MatrixValue) newCell.getValue());
-            // Get the next line in the file for reading.
-            line = csvFile.readLine();
+            parseFormalArgs(tokens, DATA_INDEX, arg, (MatrixValue) newCell.getValue());
         }
 
-        return line;
-    }
-    
-    private boolean isCell(String s)
-    {
-        if (Character.isDigit(s.charAt(0))) {
-            return (Character.isDigit(s.charAt(1)) && (s.charAt(2) == ':'));
-        }
-        return false;
+        return csvFile.readLine();
     }
 
     /**
      * Method to invoke when we encounter a block of text in the CSV file that
-     * is the contents of a variable.
+     * is the contents of a text or nominal variable.
      *
      * @param csvFile The csvFile we are currently parsing.
      * @param var     The variable that we will be adding cells too.
-     * @param The     populator to use when converting the contents of the cell into
-     *                a datavalue that can be inserted into the spreadsheet.
      * @return The next line in the file that is not part of the block of text
      * in the CSV file.
      * @throws IOException If unable to read the file correctly.
      */
-    private String parseEntries(final BufferedReader csvFile,
-                                final Variable var,
-                                final EntryPopulator populator)
+    private String parseEntries(final CSVTokenizer csvFile,
+                                final Variable var)
             throws IOException {
 
         // Keep parsing lines and putting them in the newly formed nominal
         // variable until we get to a line indicating the end of file or a new
         // variable section.
-        String line = csvFile.readLine();
-
-        boolean error_line = false;
-        int error_count = 0;
-
-        while ((line != null) && Character.isDigit(line.charAt(0))) {
-
-            // Remove backslashes if there are more than would be used for 
-            // newline escapes
+        List<String> valueTokens = new ArrayList<String>(1);
+        String line = null;
+
+        while (true) {
+            String onset;
+            String offset;
+            String value;
+
+            if (csvFile.atCell()) {
+                onset = csvFile.readRawField();
+                offset = csvFile.readRawField();
+
+                // BugzID: 1075 - The value runs to the end of the record,
+                // including any escaped commas and new lines.
+                valueTokens.clear();
+                csvFile.readFields(valueTokens, 1);
+                value = valueTokens.get(0);
+            } else {
+                line = csvFile.readLine();
 
-            if (line.contains("\\")) {
-                if (line.endsWith("\\") || line.endsWith("\\\\")) {
-                    line = line.replace("\\", "") + "\\";
-                } else {
-                    line = line.replace("\\", "");
+                // Test to see if the new line is an error line
+                if (line == null || line.isEmpty() || !testForCorruptLine(line)) {
+                    break;
                 }
+
+                corruptCells++;
+                onset = CORRUPT_TIMESTAMP;
+                offset = CORRUPT_TIMESTAMP;
+                value = CSVTokenizer.unescape(line);
+                System.out.println("ERROR: " + line);
             }
 
             try {
-                // Split the line into tokens using a comma delimiter.
-                String[] tokens = line.split(",");
-
-                // BugzID: 1075 - If the line ends with an escaped new line - add
-                // the next line to the current text field.
-                while ((line != null) && line.endsWith("\\")
-                        && !line.endsWith("\\\\")) {
-                    line = csvFile.readLine();
-
-                    String content = tokens[tokens.length - 1];
-                    content = content.substring(0, content.length() - 1);
-                    tokens[tokens.length - 1] = content + '\n' + line;
-                }
-
                 Cell newCell = var.createCell();
 
                 // Set the onset and offset from tokens in the line.
-                newCell.setOnset(tokens[DATA_ONSET]);
-                newCell.setOffset(tokens[DATA_OFFSET]);
-                populator.populate(tokens, newCell.getValue());
+                newCell.setOnset(CSVTokenizer.parseTimestamp(onset));
+                newCell.setOffset(CSVTokenizer.parseTimestamp(offset));
 
-                // Get the next line in the file for reading.
-                line = csvFile.readLine();
-
-                // Test to see if the new line is an error line
-                if ((line != null) && !Character.isDigit(line.charAt(0))) {
-                    if (testForCorruptLine(line)) {
-                        error_line = true;
-                        error_count += 1;
-                        line = fixCorruptLine(line);
-                        System.out.println("ERROR: " + line);
-                    }
+                // BugzID:722 - Only populate the value if we have one from
+                // the file
+                if (value.length() > 0) {
+                    newCell.getValue().set(value);
                 }
             } catch (Exception e) {
                 // TODO: Add in fix here for matrix cells that
                 // are corrupted in the data values
                 e.printStackTrace();
-                error_line = true;
-                error_count += 1;
-                System.out.println("ERROR: " + line);
+                corruptCells++;
+                System.out.println("ERROR: " + onset + "," + offset + "," + value);
             }
         }
 
-        if (error_line) {
+        return line;
+    }
+
+    /**
+     * @return A new, empty datastore, tied to the application window if a user
+     * is watching.
+     */
+    private Datastore newDatastore() {
+        Datastore db = DatastoreFactory.newDatastore();
+        if (interactive) {
+            db.setTitleNotifier(Datavyu.getApplication());
+        }
+        return db;
+    }
+
+    /**
+     * Lets the user know about any cells that could not be read.
+     *
+     * @param errorCount The number of cells that could not be read.
+     */
+    private void warnOfCorruptCells(final int errorCount) {
+        if (errorCount > 0) {
+            if (!interactive) {
+                System.err.println("Error reading file. " + errorCount
+                        + " cells could not be read. Recovered cells have time " + CORRUPT_TIMESTAMP + ".");
+                return;
+            }
+
             JOptionPane.showMessageDialog(null,
-                    "Error reading file. " + String.valueOf(error_count) +
+                    "Error reading file. " + String.valueOf(errorCount) +
                             " cells could not be read.\nRecovered files have time 99:00:00:000.\nPlease send this file to Datavyu Support for further analysis!",
                     "Error reading file: Corrupted cells",
                     JOptionPane.ERROR_MESSAGE);
         }
-
-        return line;
     }
 
-    private boolean testForCorruptLine(String line) {
-        String[] tokens = line.split("\\(");
-        if (tokens.length == 2) {
-            return false;
-        } else {
-            return true;
+    /**
+     * Lets the user know about columns whose names are no longer valid.
+     *
+     * @param names The names of the columns.
+     */
+    private void warnOfInvalidNames(final String names) {
+        if (!interactive) {
+            System.err.println("The following: " + names + " is/are no longer a valid column name(s).");
+            return;
         }
-    }
 
-    private String fixCorruptLine(String line) {
-        line = "99:00:00:000,99:00:00:000," + line;
+        SwingUtilities.invokeLater(new NameWarning(names));
+    }
 
-        return line;
+    /**
+     * @param line A line that does not start with a timestamp.
+     * @return True if the line is not a well formed variable header.
+     */
+    private boolean testForCorruptLine(final String line) {
+        return !CSVTokenizer.isVariableHeader(line);
     }
 
     /**
@@ -481,29 +967,29 @@ public final class OpenDatabaseFileC {
      *
      * @param content The string holding the formal argument content to be
      *                parsed.
-     * @param db      The parent database for the formal argument.
      * @return The formal argument.
      */
     private Argument parseFormalArgument(final String content) {
         Argument fa;
-        String[] formalArgument = content.split("\\|");
-        formalArgument[0] = this.stripEscChars(formalArgument[0]);
+        int bar = CSVTokenizer.indexOfUnescaped(content, '|', 0);
+        String name = CSVTokenizer.unescape(content.substring(0, bar));
+        String type = content.substring(bar + 1);
 
         // Add text formal argument.
-        if (formalArgument[1].equalsIgnoreCase("quote_string")) {
+        if (type.equalsIgnoreCase("quote_string")) {
             fa = null;
 
-        } else if (formalArgument[1].equalsIgnoreCase("integer")) {
+        } else if (type.equalsIgnoreCase("integer")) {
             // Add integer formal argument.
-            fa = new Argument(formalArgument[0], Argument.Type.NOMINAL);
+            fa = new Argument(name, Argument.Type.NOMINAL);
 
-        } else if (formalArgument[1].equalsIgnoreCase("float")) {
+        } else if (type.equalsIgnoreCase("float")) {
             // Add float formal argument.
-            fa = new Argument(formalArgument[0], Argument.Type.NOMINAL);
+            fa = new Argument(name, Argument.Type.NOMINAL);
 
         } else {
             // Add nominal formal argument.
-            fa = new Argument(formalArgument[0], Argument.Type.NOMINAL);
+            fa = new Argument(name, Argument.Type.NOMINAL);
         }
 
         return fa;
@@ -514,55 +1000,31 @@ public final class OpenDatabaseFileC {
      *
      * @param csvFile The CSV file we are currently reading.
      * @param line    The line of the CSV file we are currently reading.
-     * @param db      The data store we are populating with data from the CSV file.
-     * @return The next String that is not part of the currently variable that
-     * we are parsing.
-     * @throws IOException          When we are unable to read from the csvFile.
-     * @throws UserWarningException When we are unable to create a new variable.
-     */
-    private String parseVariable(final BufferedReader csvFile,
-                                 final String line,
-                                 final Datastore db)
-            throws IOException, UserWarningException {
-        return parseVariable(csvFile, line, db, "#2");
-    }
-
-    /**
-     * Method to invoke when we encounter a block of text that is a variable.
-     *
-     * @param csvFile The CSV file we are currently reading.
-     * @param line    The line of the CSV file we are currently reading.
-     * @param db      The data store we are populating with data from the CSV file.
+     * @param ds      The data store we are populating with data from the CSV
+     *                file, null to parse into detached variables.
+     * @param version The version identifier of the CSV file.
      * @return The next String that is not part of the currently variable that
      * we are parsing.
      * @throws IOException          When we are unable to read from the csvFile.
      * @throws UserWarningException When we are unable to create variables.
      */
-    private String parseVariable(final BufferedReader csvFile,
+    private String parseVariable(final CSVTokenizer csvFile,
                                  final String line,
                                  final Datastore ds,
                                  final String version)
             throws IOException, UserWarningException {
         // Determine the variable name and type.
-        String[] tokens = line.split("\\(");
-        String varName = this.stripEscChars(tokens[0].trim());
-        String varType = null;
-        String varComment = "";
+        int open = line.indexOf('(');
+        int close = line.indexOf(')', open);
+        String varName = CSVTokenizer.unescape(line.substring(0, open).trim());
+        List<String> properties = split(line.substring(open + 1, close), ',');
+        String varType = properties.get(0);
         boolean varVisible = true;
 
-        System.out.println(line);
-        System.out.println(tokens.length);
-        if (version.equals("#4")) {
-            String[] varArgs = tokens[1].split(",");
-            varType = varArgs[0];
-            varVisible = Boolean.parseBoolean(varArgs[1]);
-            varComment = varArgs[2].substring(0, varArgs[2].indexOf(")"));
-        } else if (version.equals("#3")) {
-            varType = tokens[1].substring(0, tokens[1].indexOf(","));
-            varVisible = Boolean.parseBoolean(tokens[1].substring(
-                    tokens[1].indexOf(",") + 1, tokens[1].indexOf(")")));
-        } else {
-            varType = tokens[1].substring(0, tokens[1].indexOf(")"));
+        // Version 3 onwards has the visibility after the type, version 4 then
+        // adds a (currently unused) comment.
+        if (version.equals("#4") || version.equals("#3")) {
+            varVisible = Boolean.parseBoolean(properties.get(1));
         }
 
         // BugzID:1703 - Ignore old macshapa query variables, we don't have a
@@ -570,40 +1032,39 @@ public final class OpenDatabaseFileC {
         // between the untyped nature of macshapa and the typed nature of
         // Datavyu.
         if (varName.equals("###QueryVar###")) {
-            String lineEater = csvFile.readLine();
-
-            while ((lineEater != null)
-                    && Character.isDigit(lineEater.charAt(0))) {
-                lineEater = csvFile.readLine();
+            while (csvFile.atCell()) {
+                csvFile.readLine();
             }
 
-            return lineEater;
+            return csvFile.readLine();
         }
 
         // Create variable to put cells within.
         Argument.Type variableType = getVarType(varType);
-        Variable newVar = ds.createVariable(varName, variableType, true);
-        
+        Variable newVar;
+        if (ds != null) {
+            newVar = ds.createVariable(varName, variableType, true);
+        } else {
+            newVar = new DatavyuVariable(varName, variableType, true);
+            detachedVariables.add(newVar);
+        }
+
         newVar.setHidden(!varVisible);
 
         newVar.setOrderIndex(numVarsRead);
         numVarsRead++;
-        // Read text variable.
-        if (variableType == Argument.Type.TEXT) {
-            return parseEntries(csvFile,
-                    newVar,
-                    new PopulateText());
-
-        } else if (variableType == Argument.Type.NOMINAL) {
-            // Read nominal variable.
-            return parseEntries(csvFile,
-                    newVar,
-                    new PopulateNominal());
+        // Read text or nominal variable.
+        if (variableType == Argument.Type.TEXT
+                || variableType == Argument.Type.NOMINAL) {
+            return parseEntries(csvFile, newVar);
 
         } else if (variableType == Argument.Type.MATRIX) {
 
             // Read matrix variable - Build vocab for matrix.
-            String[] vocabString = tokens[1].split("(?<!\\\\)-");
+            int dash = CSVTokenizer.indexOfUnescaped(line, '-', close);
+            int nextDash = CSVTokenizer.indexOfUnescaped(line, '-', dash + 1);
+            String vocabString = line.substring(dash + 1,
+                    nextDash < 0 ? line.length() : nextDash);
 
             // Get the vocab element for the matrix and clean it up to be
             // populated with arguments from the CSV file.
@@ -612,7 +1073,7 @@ public final class OpenDatabaseFileC {
 
             // For each of the formal arguments in the file - parse it and
             // create a formal argument in the matrix vocab element.
-            for (String arg : vocabString[1].split(",")) {
+            for (String arg : split(vocabString, ',')) {
                 newArg.childArguments.add(parseFormalArgument(arg));
             }
             newVar.setRootNode(newArg);
@@ -623,6 +1084,27 @@ public final class OpenDatabaseFileC {
         throw new IllegalStateException("Unknown variable type.");
     }
 
+    /**
+     * Splits a string on a separator, ignoring separators escaped with ''.
+     * Escape characters are left in place.
+     *
+     * @param input     The string to split.
+     * @param separator The separator to split the string on.
+     * @return The parts of the string.
+     */
+    private static List<String> split(final String input, final char separator) {
+        List<String> result = new ArrayList<String>();
+        int start = 0;
+        int next;
+        while ((next = CSVTokenizer.indexOfUnescaped(input, separator, start)) >= 0) {
+            result.add(input.substring(start, next));
+            start = next + 1;
+        }
+        result.add(input.substring(start));
+
+        return result;
+    }
+
     /**
      * @param type The string containing the variable type.
      * @return The type of the variable.
@@ -655,71 +1137,6 @@ public final class OpenDatabaseFileC {
         return null;
     }
 
-    /**
-     * A populator for creating data values that can be used to populate
-     * database spreadsheet cells.
-     */
-    private abstract class EntryPopulator {
-
-        /**
-         * Populates a DataValue from the supplied array of tokens.
-         *
-         * @param tokens    The tokens to use when building a DataValue.
-         * @param destValue That this populator is filling with content.
-         */
-        abstract void populate(final String[] tokens, final Value destValue);
-    }
-
-    /**
-     * EntryPopulator for creating nominal data values.
-     */
-    private class PopulateNominal extends EntryPopulator {
-
-        /**
-         * Populates a DataValue from the supplied array of tokens.
-         *
-         * @param tokens    The tokens to use when building a DataValue.
-         * @param destValue That this populator is filling with content.
-         */
-        @Override
-        void populate(final String[] tokens, final Value destValue) {
-            // BugzID:722 - Only populate the value if we have one from the file
-            if (tokens.length > DATA_INDEX) {
-                destValue.set(stripEscChars(tokens[DATA_INDEX]));
-            }
-        }
-    }
-
-    /**
-     * EntryPopulator for creating text data values.
-     */
-    private class PopulateText extends EntryPopulator {
-
-        /**
-         * Populates a DataValue from the supplied array of tokens.
-         *
-         * @param tokens    The tokens to use when building a DataValue.
-         * @param destValue That this populator is filling with content.
-         */
-        @Override
-        void populate(final String[] tokens, final Value destValue) {
-            // BugzID:722 - Only populate the value if we have one from the file
-            if (tokens.length > DATA_INDEX) {
-                String text = "";
-
-                for (int i = DATA_INDEX; i < tokens.length; i++) {
-                    text = text.concat(tokens[i]);
-
-                    if (i < (tokens.length - 1)) {
-                        text = text.concat(",");
-                    }
-                }
-
-                destValue.set(stripEscChars(text));
-            }
-        }
-    }
-    
     private class NameWarning implements Runnable
     {
         private String names;
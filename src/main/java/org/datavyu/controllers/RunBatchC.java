@@ -0,0 +1,340 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.controllers;
+
+import com.usermetrix.jclient.Logger;
+import com.usermetrix.jclient.UserMetrix;
+import org.datavyu.models.db.Datastore;
+import org.datavyu.util.ScriptingRuntime;
+
+import javax.script.ScriptEngine;
+import javax.script.ScriptException;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+
+/**
+ * Controller for running one Ruby script over many project files, without a
+ * user interface.
+ *
+ * Each project is opened into a datastore of its own and handed to the
+ * script as $db (with the project as $pj), just as a script run from the
+ * console sees the open project. Projects are processed concurrently by a
+ * fixed number of workers, each holding one scripting engine that is reset
+ * between projects. The output of the script for each project is written to
+ * a log of its own in the log directory.
+ */
+public final class RunBatchC {
+
+    /**
+     * The logger for this class.
+     */
+    private static Logger LOGGER = UserMetrix.getLogger(RunBatchC.class);
+
+    /**
+     * The script to run.
+     */
+    private final File scriptFile;
+
+    /**
+     * The projects to run the script over.
+     */
+    private final List<File> projects;
+
+    /**
+     * The log for each project, in the same order.
+     */
+    private final List<File> logs;
+
+    /**
+     * The number of projects processed at once.
+     */
+    private final int workers;
+
+    /**
+     * The outcome of running the script over a single project.
+     */
+    public static final class Result {
+
+        private final File project;
+        private final File log;
+        private final boolean succeeded;
+        private final long elapsed;
+        private final String message;
+
+        Result(final File project, final File log, final boolean succeeded,
+               final long elapsed, final String message) {
+            this.project = project;
+            this.log = log;
+            this.succeeded = succeeded;
+            this.elapsed = elapsed;
+            this.message = message;
+        }
+
+        /**
+         * @return The project the script was run over.
+         */
+        public File getProject() {
+            return project;
+        }
+
+        /**
+         * @return The file holding the output of the script.
+         */
+        public File getLog() {
+            return log;
+        }
+
+        /**
+         * @return True if the project opened and the script finished without
+         * an error, false otherwise.
+         */
+        public boolean isSucceeded() {
+            return succeeded;
+        }
+
+        /**
+         * @return The time taken to open the project and run the script, in
+         * milliseconds.
+         */
+        public long getElapsed() {
+            return elapsed;
+        }
+
+        /**
+         * @return Why the run failed, null if it succeeded.
+         */
+        public String getMessage() {
+            return message;
+        }
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param scriptFile   The Ruby script to run.
+     * @param projects     The projects to run the script over.
+     * @param workers      The number of projects to process at once.
+     * @param logDirectory The directory to write the log of each project to.
+     */
+    public RunBatchC(final File scriptFile,
+                     final List<File> projects,
+                     final int workers,
+                     final File logDirectory) {
+        this.scriptFile = scriptFile;
+        this.projects = new ArrayList<File>(projects);
+        this.workers = Math.max(1, Math.min(workers, projects.size()));
+
+        // Projects in different directories may share a name.
+        logs = new ArrayList<File>();
+        Set<String> names = new HashSet<String>();
+        for (int i = 0; i < this.projects.size(); i++) {
+            String name = this.projects.get(i).getName();
+            if (!names.add(name)) {
+                name = name + "-" + (i + 1);
+                names.add(name);
+            }
+            logs.add(new File(logDirectory, name + ".log"));
+        }
+    }
+
+    /**
+     * Runs the script over every project, blocking until all are done.
+     *
+     * @return The outcome for each project, in the order given.
+     * @throws IOException          If unable to read the script.
+     * @throws InterruptedException If interrupted while waiting for the
+     *                              workers to finish.
+     */
+    public List<Result> run() throws IOException, InterruptedException {
+        final String script = readScript(scriptFile);
+        final Result[] results = new Result[projects.size()];
+        final BlockingQueue<Integer> pending = new LinkedBlockingQueue<Integer>();
+        for (int i = 0; i < projects.size(); i++) {
+            pending.add(i);
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(workers, new ThreadFactory() {
+            private int count = 0;
+
+            @Override
+            public synchronized Thread newThread(final Runnable r) {
+                return new Thread(r, "Batch worker " + (++count));
+            }
+        });
+
+        try {
+            List<Future<?>> running = new ArrayList<Future<?>>();
+            for (int w = 0; w < workers; w++) {
+                running.add(pool.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        work(script, pending, results);
+                        return null;
+                    }
+                }));
+            }
+
+            for (Future<?> f : running) {
+                try {
+                    f.get();
+                } catch (ExecutionException e) {
+                    LOGGER.error("Batch worker failed", e.getCause());
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        // Anything a failed worker left behind.
+        for (int i = 0; i < results.length; i++) {
+            if (results[i] == null) {
+                results[i] = new Result(projects.get(i), logs.get(i), false, 0, "Not run");
+            }
+        }
+
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Runs the script over projects taken from the queue until it is empty.
+     */
+    private void work(final String script,
+                      final BlockingQueue<Integer> pending,
+                      final Result[] results) throws ScriptException {
+        ScriptEngine engine = ScriptingRuntime.getInstance().acquire();
+        try {
+            Integer next;
+            while ((next = pending.poll()) != null && !Thread.currentThread().isInterrupted()) {
+                results[next] = runProject(engine, script, projects.get(next), logs.get(next));
+
+                try {
+                    ScriptingRuntime.getInstance().reset(engine);
+                } catch (ScriptException e) {
+                    // The script left the runtime unusable, start afresh.
+                    LOGGER.error("Unable to reset scripting runtime", e);
+                    engine = ScriptingRuntime.getInstance().acquire();
+                }
+            }
+        } finally {
+            ScriptingRuntime.getInstance().release(engine);
+        }
+    }
+
+    /**
+     * Opens a single project and runs the script over it.
+     *
+     * @return The outcome.
+     */
+    private Result runProject(final ScriptEngine engine,
+                              final String script,
+                              final File project,
+                              final File log) {
+        long start = System.currentTimeMillis();
+        PrintWriter out;
+        try {
+            out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(log), "UTF-8")), true);
+        } catch (IOException e) {
+            LOGGER.error("Unable to create log for " + project, e);
+            return new Result(project, log, false, 0, "Unable to create log: " + e.getMessage());
+        }
+
+        try {
+            out.println("Running script: " + scriptFile.getName() + " on project: " + project);
+
+            OpenC openC = new OpenC();
+            openC.setInteractive(false);
+            Datastore db;
+            try {
+                openC.openProject(project);
+                db = openC.getDatastore();
+            } catch (RuntimeException e) {
+                db = null;
+            }
+            if (db == null) {
+                out.println("Unable to open project.");
+                return new Result(project, log, false,
+                        System.currentTimeMillis() - start, "Unable to open project");
+            }
+
+            engine.put("db", db);
+            engine.put("pj", openC.getProject());
+            engine.put("path", System.getProperty("user.dir") + File.separator);
+            engine.getContext().setWriter(out);
+            engine.getContext().setErrorWriter(out);
+
+            try {
+                engine.eval(script);
+            } catch (ScriptException e) {
+                out.println();
+                out.println("***** SCRIPT ERROR *****");
+                out.println(e.getMessage());
+                return new Result(project, log, false,
+                        System.currentTimeMillis() - start, e.getMessage());
+            }
+
+            out.println();
+            out.println("Script has finished running.");
+            return new Result(project, log, true, System.currentTimeMillis() - start, null);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Writes a line for each project, followed by the totals.
+     *
+     * @param results The outcome for each project.
+     * @param out     Where to write the summary.
+     */
+    public static void writeSummary(final List<Result> results, final PrintStream out) {
+        int failed = 0;
+        long elapsed = 0;
+        for (Result r : results) {
+            elapsed += r.getElapsed();
+            if (r.isSucceeded()) {
+                out.println("OK      " + r.getProject() + " (" + r.getElapsed() + " ms)");
+            } else {
+                failed++;
+                out.println("FAILED  " + r.getProject() + ": " + r.getMessage()
+                        + " (see " + r.getLog() + ")");
+            }
+        }
+
+        out.println(results.size() + " projects, " + (results.size() - failed)
+                + " succeeded, " + failed + " failed, " + elapsed + " ms of work.");
+    }
+
+    /**
+     * @param file The script.
+     * @return The content of the script, with line endings made uniform.
+     * @throws IOException If unable to read the script.
+     */
+    private static String readScript(final File file) throws IOException {
+        BufferedReader br = new BufferedReader(new FileReader(file));
+        try {
+            StringBuilder sb = new StringBuilder();
+            String line;
+            while ((line = br.readLine()) != null) {
+                sb.append(line).append('\n');
+            }
+            return sb.toString();
+        } finally {
+            br.close();
+        }
+    }
+}
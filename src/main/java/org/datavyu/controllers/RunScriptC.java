@@ -20,13 +20,12 @@ import org.datavyu.Datavyu;
 import org.datavyu.RecentFiles;
 import org.datavyu.models.db.*;
 import org.datavyu.util.FileFilters.RBFilter;
+import org.datavyu.util.ScriptingRuntime;
 import org.datavyu.views.ConsoleV;
 import org.datavyu.views.DatavyuFileChooser;
-import org.jruby.embed.AttributeName;
 import rcaller.RCaller;
 import rcaller.RCode;
 
-import javax.script.ScriptContext;
 import javax.script.ScriptEngine;
 import javax.script.ScriptException;
 import javax.swing.*;
@@ -165,7 +164,7 @@ public final class RunScriptC extends SwingWorker<Object, String> {
         }
         Datavyu.scriptRunning = true;
         outString = new StringBuilder("");
-        ScriptEngine rubyEngine = Datavyu.getScriptingEngine();
+        ScriptEngine rubyEngine = null;
 
         try {
             try {
@@ -175,6 +174,8 @@ public final class RunScriptC extends SwingWorker<Object, String> {
 
                 consoleWriter.flush();
 
+                rubyEngine = ScriptingRuntime.getInstance().acquire();
+
                 // Place reference to various Datavyu functionality.
                 rubyEngine.put("db", Datavyu.getProjectController().getDB());
                 rubyEngine.put("pj", Datavyu.getProjectController().getProject());
@@ -191,8 +192,6 @@ public final class RunScriptC extends SwingWorker<Object, String> {
 
                 rubyEngine.getContext().setWriter(consoleWriter);
                 rubyEngine.getContext().setErrorWriter(consoleWriter);
-                rubyEngine.getContext().setAttribute(AttributeName.TERMINATION.toString(), new Boolean(true),
-                        ScriptContext.ENGINE_SCOPE);
                 try{
                     rubyEngine.eval(lineReader);
                     //System.out.println("SCRIPT OVER");
@@ -235,12 +234,23 @@ public final class RunScriptC extends SwingWorker<Object, String> {
                 
                 consoleWriterAfter.flush();
                 LOGGER.error("Unable to execute script: ", e);
+            } catch (ScriptException e) {
+                consoleWriter.close();
+                consoleWriterAfter.write("Unable to start the scripting engine: " + e.getMessage());
+
+                consoleWriterAfter.flush();
+                LOGGER.error("Unable to start scripting engine: ", e);
             }
         } catch (IOException ioe) {
             System.out.println("IOEXCEPTION!!!! " + ioe.getMessage());
             ioe.printStackTrace();
+        } finally {
+            // Hand the engine back whatever happened, or the pool runs dry.
+            if (rubyEngine != null) {
+                ScriptingRuntime.getInstance().release(rubyEngine);
+            }
+            Datavyu.scriptRunning = false;
         }
-        Datavyu.scriptRunning = false;
         Datavyu.getView().getSpreadsheetPanel().redrawCells();
     }
     
@@ -328,52 +338,17 @@ public final class RunScriptC extends SwingWorker<Object, String> {
         }
         caller.redirectROutputToStream(sIn);
 
-        // Initialize our code buffer and database string representation
+        // Hand the database to R through temporary files, read into a
+        // structure called db.
         RCode code = new RCode();
-        HashMap db = convertDbToColStrings();
-        HashMap<String, File> temp_files = new HashMap<String, File>();
-
-        // Write the database out to tempory files
-        Iterator it = db.entrySet().iterator();
-        while (it.hasNext()) {
-            Map.Entry pairs = (Map.Entry) it.next();
-
-            // Now write this out to a temporary file
-            File outfile = new File(System.getProperty("java.io.tmpdir"), (String) pairs.getKey());
-            try {
-                BufferedWriter output = new BufferedWriter(new FileWriter(outfile));
-                output.write((String) pairs.getValue());
-                output.close();
-
-                temp_files.put((String) pairs.getKey(), outfile);
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-
-            it.remove(); // avoids a ConcurrentModificationException
-        }
-
-        // Create the R code to read in the temporary db files into a structure
-        // called db
-        code.addRCode("db <- list()");
+        ExportRDataC export = new ExportRDataC();
         try {
-            // Load each of the temporary files created above into R
-            it = temp_files.entrySet().iterator();
-            while (it.hasNext()) {
-                Map.Entry pairs = (Map.Entry) it.next();
-
-                String load = "db[[\"" + ((String) pairs.getKey()).toLowerCase() + "\"]] <- read.csv(\"" + ((File) pairs.getValue()).getPath() + "\",header=TRUE, sep=',')";
-                code.addRCode(load);
-
-                it.remove(); // avoids a ConcurrentModificationException
+            for (String line : export.export(Datavyu.getProjectController().getDB())) {
+                code.addRCode(line);
             }
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
 
-        // Set up plotting. If something gets plotted, display it.
-        // Otherwise, just run the code.
-        try {
+            // Set up plotting. If something gets plotted, display it.
+            // Otherwise, just run the code.
             File plt = code.startPlot();
             code.R_source(scriptFile.getPath());
             caller.setRCode(code);
@@ -383,7 +358,10 @@ public final class RunScriptC extends SwingWorker<Object, String> {
                 code.showPlot(plt);
             }
         } catch (Exception e) {
+            LOGGER.error("Unable to run R script", e);
             e.printStackTrace();
+        } finally {
+            export.cleanUp();
         }
     }
 
@@ -392,52 +370,10 @@ public final class RunScriptC extends SwingWorker<Object, String> {
 
     }
 
-    /**
-     * Convert the Datavyu database to a csv file per column.
-     * This allows for easy reading into R.
-     */
-    private HashMap<String, String> convertDbToColStrings() {
-        Datastore db = Datavyu.getProjectController().getDB();
-        HashMap<String, String> str_db = new HashMap<String, String>();
-
-        String str_var;
-        for (Variable v : db.getAllVariables()) {
-            str_var = "ordinal,onset,offset";
-            if (v.getRootNode().type == Argument.Type.MATRIX) {
-                for (Argument a : v.getRootNode().childArguments) {
-                    str_var += "," + a.name;
-                }
-            } else {
-                str_var += ",arg";
-            }
-            str_var += "\n";
-            for (int i = 0; i < v.getCellsTemporally().size(); i++) {
-                Cell c = v.getCellsTemporally().get(i);
-
-                String row = String.format("%d,%d,%d", i + 1, c.getOnset(), c.getOffset());
-                if (v.getRootNode().type == Argument.Type.MATRIX) {
-                    for (Value val : ((MatrixValue) c.getValue()).getArguments()) {
-                        row += ",";
-                        if (!val.isEmpty())
-                            row += val.toString();
-                    }
-                } else {
-                    row += ",";
-                    if (!c.getValue().isEmpty()) {
-                        row += c.getValue().toString();
-                    }
-                }
-                str_var += row + "\n";
-            }
-            str_db.put(v.getName(), str_var);
-        }
-
-        return str_db;
-    }
-
     @Override
     protected void done() {
-
+        // Everything the script changed has been recorded for undo.
+        Datavyu.getProjectController().getDB().endJournal();
     }
 
     @Override
@@ -25,10 +25,13 @@ import org.datavyu.models.project.ViewerSetting;
 import org.jdesktop.application.Application;
 import org.jdesktop.application.ResourceMap;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -120,6 +123,26 @@ public final class SaveC {
                             final Project project,
                             final Datastore datastore,
                             boolean remember) throws UserWarningException {
+        saveProject(projectFile, project, datastore, remember, false);
+    }
+
+    /**
+     * Saves an entire project, including database to disk.
+     *
+     * @param projectFile The destination to save the project too.
+     * @param project     The project to save to disk.
+     * @param datastore   The datastore to save to disk.
+     * @param remember    Add this project to the rememberProject list.
+     * @param binary      True to store the database in the compact binary
+     *                    format, false to store it as CSV.
+     * @throws UserWarningException If unable to save the entire project to
+     *                              disk.
+     */
+    public void saveProject(final File projectFile,
+                            final Project project,
+                            final Datastore datastore,
+                            boolean remember,
+                            boolean binary) throws UserWarningException {
 
         try {
             LOGGER.event("save project");
@@ -134,7 +157,11 @@ public final class SaveC {
 
             ZipEntry dbEntry = new ZipEntry("db");
             zos.putNextEntry(dbEntry);
-            new SaveDatabaseFileC().saveAsCSV(zos, datastore);
+            if (binary) {
+                new SaveDatabaseFileC().saveAsBinary(zos, datastore);
+            } else {
+                new SaveDatabaseFileC().saveAsCSV(zos, datastore);
+            }
             zos.closeEntry();
 
             // BugzID:1806
@@ -167,4 +194,77 @@ public final class SaveC {
         }
     }
 
+    /**
+     * Serializes everything in a project apart from its database, so that the
+     * project can be written out later without holding on to it.
+     *
+     * @param project The project to serialize.
+     * @return The content of each project archive entry keyed by entry name,
+     * the project entry comes first.
+     * @throws IOException If unable to serialize the viewer settings.
+     */
+    public Map<String, byte[]> captureProject(final Project project) throws IOException {
+        Map<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new SaveProjectFileC().save(out, project);
+        entries.put("project", out.toByteArray());
+
+        for (ViewerSetting vs : project.getViewerSettings()) {
+            out = new ByteArrayOutputStream();
+            vs.writeSettings(out);
+            entries.put(vs.getSettingsId(), out.toByteArray());
+        }
+
+        return entries;
+    }
+
+    /**
+     * Saves an entire project, including database to disk, from a project
+     * previously serialized with {@link #captureProject(Project)}.
+     *
+     * @param projectFile The destination to save the project too.
+     * @param entries     The serialized project.
+     * @param datastore   The datastore to save to disk.
+     * @param binary      True to store the database in the compact binary
+     *                    format, false to store it as CSV.
+     * @throws UserWarningException If unable to save the entire project to
+     *                              disk.
+     */
+    public void saveProject(final File projectFile,
+                            final Map<String, byte[]> entries,
+                            final Datastore datastore,
+                            final boolean binary) throws UserWarningException {
+        try {
+            FileOutputStream fos = new FileOutputStream(projectFile);
+            ZipOutputStream zos = new ZipOutputStream(fos);
+            try {
+                for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                    zos.putNextEntry(new ZipEntry(entry.getKey()));
+                    zos.write(entry.getValue());
+                    zos.closeEntry();
+
+                    if ("project".equals(entry.getKey())) {
+                        zos.putNextEntry(new ZipEntry("db"));
+                        if (binary) {
+                            new SaveDatabaseFileC().saveAsBinary(zos, datastore);
+                        } else {
+                            new SaveDatabaseFileC().saveAsCSV(zos, datastore);
+                        }
+                        zos.closeEntry();
+                    }
+                }
+
+                zos.finish();
+            } finally {
+                zos.close();
+            }
+
+        } catch (IOException e) {
+            ResourceMap rMap = Application.getInstance(Datavyu.class)
+                    .getContext().getResourceMap(Datavyu.class);
+            throw new UserWarningException(rMap.getString("UnableToSave.message", projectFile), e);
+        }
+    }
+
 }
@@ -23,6 +23,9 @@ import org.jdesktop.application.Application;
 import org.jdesktop.application.ResourceMap;
 
 import java.io.*;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 
 /**
@@ -129,4 +132,137 @@ public final class SaveDatabaseFileC {
             }
         }
     }
+
+    /**
+     * Serialize the database to the specified stream in the compact binary
+     * format described by {@link BinaryDatabaseFormat}. The caller is
+     * responsible for managing the stream.
+     *
+     * @param outStream The stream to use when serializing.
+     * @param ds        The datastore to save in the binary format.
+     * @throws UserWarningException When unable to write the database to the
+     *                              stream.
+     */
+    public void saveAsBinary(final OutputStream outStream, final Datastore ds)
+            throws UserWarningException {
+        LOGGER.event("save database as binary to stream");
+
+        try {
+            BufferedOutputStream out = new BufferedOutputStream(outStream);
+            out.write(BinaryDatabaseFormat.MAGIC);
+            BinaryDatabaseFormat.writeVarint(out, BinaryDatabaseFormat.VERSION);
+
+            // Each variable is length-prefixed so it can be read back on its own.
+            List<Variable> variables = ds.getAllVariables();
+            BinaryDatabaseFormat.writeVarint(out, variables.size());
+            ByteArrayOutputStream block = new ByteArrayOutputStream();
+            for (Variable variable : variables) {
+                block.reset();
+                writeVariable(block, variable);
+                BinaryDatabaseFormat.writeVarint(out, block.size());
+                block.writeTo(out);
+            }
+
+            out.flush();
+        } catch (IOException e) {
+            LOGGER.error("Unable to write binary database", e);
+            throw new UserWarningException("Unable to write binary database", e);
+        }
+    }
+
+    /**
+     * Writes the header, nominal dictionary and cells of a single variable.
+     *
+     * @param out      The stream to write to.
+     * @param variable The variable to write.
+     * @throws IOException If unable to write to the stream.
+     */
+    private void writeVariable(final OutputStream out, final Variable variable)
+            throws IOException {
+        Argument root = variable.getRootNode();
+        BinaryDatabaseFormat.writeString(out, variable.getName());
+        BinaryDatabaseFormat.writeString(out, root.type.name());
+        out.write(variable.isHidden() ? 0 : 1);
+
+        if (root.type == Argument.Type.MATRIX) {
+            BinaryDatabaseFormat.writeVarint(out, root.childArguments.size());
+            for (Argument arg : root.childArguments) {
+                BinaryDatabaseFormat.writeString(out, arg.name);
+                BinaryDatabaseFormat.writeString(out, arg.type.name());
+            }
+        }
+
+        // Build the dictionary of nominal codes used by the variable. Index
+        // zero is reserved for empty values.
+        List<Cell> cells = variable.getCells();
+        Map<String, Integer> dictionary = new LinkedHashMap<String, Integer>();
+        for (Cell cell : cells) {
+            if (root.type == Argument.Type.MATRIX) {
+                List<Value> values = ((MatrixValue) cell.getValue()).getArguments();
+                for (int i = 0; i < values.size(); i++) {
+                    if (isNominal(root, i)) {
+                        addToDictionary(dictionary, values.get(i));
+                    }
+                }
+            } else if (root.type == Argument.Type.NOMINAL) {
+                addToDictionary(dictionary, cell.getValue());
+            }
+        }
+
+        BinaryDatabaseFormat.writeVarint(out, dictionary.size());
+        for (String code : dictionary.keySet()) {
+            BinaryDatabaseFormat.writeString(out, code);
+        }
+
+        BinaryDatabaseFormat.writeVarint(out, cells.size());
+        long previousOnset = 0;
+        for (Cell cell : cells) {
+            BinaryDatabaseFormat.writeSigned(out, cell.getOnset() - previousOnset);
+            BinaryDatabaseFormat.writeSigned(out, cell.getOffset() - cell.getOnset());
+            previousOnset = cell.getOnset();
+
+            if (root.type == Argument.Type.MATRIX) {
+                List<Value> values = ((MatrixValue) cell.getValue()).getArguments();
+                BinaryDatabaseFormat.writeVarint(out, values.size());
+                for (int i = 0; i < values.size(); i++) {
+                    writeValue(out, dictionary, values.get(i), isNominal(root, i));
+                }
+            } else {
+                writeValue(out, dictionary, cell.getValue(),
+                        root.type == Argument.Type.NOMINAL);
+            }
+        }
+    }
+
+    /**
+     * @param root  The root node of a matrix variable.
+     * @param index The index of an argument within the matrix.
+     * @return True if the argument at the supplied index holds nominal codes.
+     */
+    private static boolean isNominal(final Argument root, final int index) {
+        return index < root.childArguments.size()
+                && root.childArguments.get(index) != null
+                && root.childArguments.get(index).type == Argument.Type.NOMINAL;
+    }
+
+    private static void addToDictionary(final Map<String, Integer> dictionary,
+                                        final Value value) {
+        String code = value.toString();
+        if (!code.isEmpty() && !dictionary.containsKey(code)) {
+            dictionary.put(code, dictionary.size() + 1);
+        }
+    }
+
+    private static void writeValue(final OutputStream out,
+                                   final Map<String, Integer> dictionary,
+                                   final Value value,
+                                   final boolean nominal) throws IOException {
+        String content = value.toString();
+        if (nominal) {
+            BinaryDatabaseFormat.writeVarint(out,
+                    content.isEmpty() ? 0 : dictionary.get(content));
+        } else {
+            BinaryDatabaseFormat.writeString(out, content);
+        }
+    }
 }
@@ -23,8 +23,11 @@
 package org.datavyu.models.db;
 
 import java.io.Serializable;
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 /**
  * The arguments held within the matrix.
@@ -53,6 +56,12 @@ public final class Argument implements Serializable {
 
     private int lastCodeNumber = 0;
 
+    // The distinct codes held by nominal values of this argument, shared
+    // between cells so that each code is only held once. Weakly held, so
+    // codes no value holds any more (typed part way, overwritten or
+    // deleted) can be collected.
+    private transient Map<String, WeakReference<String>> codes;
+
     /**
      * Constructor.
      *
@@ -88,6 +97,24 @@ public final class Argument implements Serializable {
         return child;
     }
 
+    /**
+     * @param code A code held by a nominal value of this argument.
+     * @return The copy of the code shared by every value of this argument.
+     */
+    synchronized String intern(final String code) {
+        if (codes == null) {
+            codes = new WeakHashMap<String, WeakReference<String>>();
+        }
+
+        WeakReference<String> shared = codes.get(code);
+        String result = shared == null ? null : shared.get();
+        if (result == null) {
+            codes.put(code, new WeakReference<String>(code));
+            result = code;
+        }
+        return result;
+    }
+
     public void clearChildArguments() {
         childArguments.clear();
     }
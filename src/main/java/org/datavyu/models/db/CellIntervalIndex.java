@@ -0,0 +1,368 @@
+/*
+ * Copyright (c) 2011 Datavyu Foundation, http://datavyu.org
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.datavyu.models.db;
+
+import java.util.*;
+
+/**
+ * Temporal index of the cells held by a variable.
+ *
+ * Cells are kept in a treap ordered the same way as {@link CellComparator}
+ * (onset, then offset), with ties broken by insertion order. Every node is
+ * augmented with the size of its subtree and the largest offset beneath it, so
+ * positional lookups, stabbing queries and range queries run in logarithmic
+ * time (plus the size of the result) instead of re-sorting the whole variable.
+ *
+ * The index snapshots the onset and offset of each cell when it is inserted;
+ * callers must invoke {@link #update(Cell)} whenever those times change.
+ */
+final class CellIntervalIndex {
+
+    /** A single entry within the treap. */
+    private static final class Node {
+        final Cell cell;
+        final long onset;
+        final long offset;
+        final long sequence;
+        final int priority;
+        int size = 1;
+        long maxOffset;
+        Node left;
+        Node right;
+
+        Node(final Cell cell, final long sequence, final int priority) {
+            this.cell = cell;
+            this.onset = cell.getOnset();
+            this.offset = cell.getOffset();
+            this.sequence = sequence;
+            this.priority = priority;
+            this.maxOffset = offset;
+        }
+    }
+
+    // The nodes for each indexed cell, keyed on identity.
+    private final Map<Cell, Node> nodes = new IdentityHashMap<Cell, Node>();
+
+    // Source of heap priorities for the treap.
+    private final Random random = new Random();
+
+    // Insertion counter, used to keep cells with identical times stable.
+    private long nextSequence = 0;
+
+    private Node root = null;
+
+    // Cached in-order traversal, rebuilt lazily after the index changes.
+    private List<Cell> temporalCache = null;
+
+    /**
+     * @return The number of cells in the index.
+     */
+    int size() {
+        return size(root);
+    }
+
+    /**
+     * @param cell The cell to look for.
+     * @return True if the cell is held by this index, false otherwise.
+     */
+    boolean contains(final Cell cell) {
+        return nodes.containsKey(cell);
+    }
+
+    /**
+     * Adds a cell to the index. Cells already in the index are ignored.
+     *
+     * @param cell The cell to add.
+     */
+    void add(final Cell cell) {
+        if (nodes.containsKey(cell)) {
+            return;
+        }
+
+        Node n = new Node(cell, nextSequence++, random.nextInt());
+        nodes.put(cell, n);
+        root = insert(root, n);
+        temporalCache = null;
+    }
+
+    /**
+     * Removes a cell from the index.
+     *
+     * @param cell The cell to remove.
+     */
+    void remove(final Cell cell) {
+        Node n = nodes.remove(cell);
+        if (n != null) {
+            root = delete(root, n);
+            temporalCache = null;
+        }
+    }
+
+    /**
+     * Re-positions a cell after its onset or offset has changed. Cells that
+     * are not held by the index are ignored.
+     *
+     * @param cell The cell whose times have changed.
+     */
+    void update(final Cell cell) {
+        Node old = nodes.get(cell);
+        if (old == null
+                || (old.onset == cell.getOnset() && old.offset == cell.getOffset())) {
+            return;
+        }
+
+        root = delete(root, old);
+        Node n = new Node(cell, old.sequence, old.priority);
+        nodes.put(cell, n);
+        root = insert(root, n);
+        temporalCache = null;
+    }
+
+    /**
+     * Removes every cell from the index.
+     */
+    void clear() {
+        nodes.clear();
+        root = null;
+        temporalCache = null;
+    }
+
+    /**
+     * @param index The temporal position of the cell to fetch.
+     * @return The cell at the supplied position.
+     * @throws IndexOutOfBoundsException If the index is outside the index.
+     */
+    Cell get(final int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        }
+
+        Node n = root;
+        int i = index;
+        while (true) {
+            int leftSize = size(n.left);
+            if (i < leftSize) {
+                n = n.left;
+            } else if (i == leftSize) {
+                return n.cell;
+            } else {
+                i -= leftSize + 1;
+                n = n.right;
+            }
+        }
+    }
+
+    /**
+     * @return All the cells in the index, in temporal order. The list is
+     * shared between calls until the index next changes.
+     */
+    List<Cell> toList() {
+        if (temporalCache == null) {
+            List<Cell> result = new ArrayList<Cell>(size());
+            collect(root, result);
+            temporalCache = Collections.unmodifiableList(result);
+        }
+
+        return temporalCache;
+    }
+
+    /**
+     * @param time The time in milliseconds to query.
+     * @return The cells where onset <= time < offset, in temporal order.
+     */
+    List<Cell> stab(final long time) {
+        List<Cell> result = new ArrayList<Cell>();
+        overlapping(root, time, time + 1, result);
+        return result;
+    }
+
+    /**
+     * @param time The time in milliseconds to query.
+     * @return The last cell, in temporal order, with an onset at or before
+     * the time, or null if there is none.
+     */
+    Cell lastStartedBy(final long time) {
+        Cell result = null;
+        Node n = root;
+        while (n != null) {
+            if (n.onset <= time) {
+                result = n.cell;
+                n = n.right;
+            } else {
+                n = n.left;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param start The start of the window in milliseconds (inclusive).
+     * @param end   The end of the window in milliseconds (exclusive).
+     * @return The cells whose [onset, offset) interval intersects
+     * [start, end), in temporal order.
+     */
+    List<Cell> overlapping(final long start, final long end) {
+        List<Cell> result = new ArrayList<Cell>();
+        if (start < end) {
+            overlapping(root, start, end, result);
+        }
+        return result;
+    }
+
+    private static void overlapping(final Node n,
+                                    final long start,
+                                    final long end,
+                                    final List<Cell> result) {
+        // Nothing beneath this node finishes after the window starts.
+        if (n == null || n.maxOffset <= start) {
+            return;
+        }
+
+        overlapping(n.left, start, end, result);
+
+        // Every cell from here on starts at or after the end of the window.
+        if (n.onset >= end) {
+            return;
+        }
+
+        if (n.offset > start) {
+            result.add(n.cell);
+        }
+
+        overlapping(n.right, start, end, result);
+    }
+
+    private static void collect(final Node n, final List<Cell> result) {
+        if (n != null) {
+            collect(n.left, result);
+            result.add(n.cell);
+            collect(n.right, result);
+        }
+    }
+
+    private static int size(final Node n) {
+        return n == null ? 0 : n.size;
+    }
+
+    private static void refresh(final Node n) {
+        n.size = 1 + size(n.left) + size(n.right);
+        long max = n.offset;
+        if (n.left != null && n.left.maxOffset > max) {
+            max = n.left.maxOffset;
+        }
+        if (n.right != null && n.right.maxOffset > max) {
+            max = n.right.maxOffset;
+        }
+        n.maxOffset = max;
+    }
+
+    private static int compare(final Node a, final Node b) {
+        if (a.onset != b.onset) {
+            return a.onset < b.onset ? -1 : 1;
+        }
+        if (a.offset != b.offset) {
+            return a.offset < b.offset ? -1 : 1;
+        }
+        if (a.sequence != b.sequence) {
+            return a.sequence < b.sequence ? -1 : 1;
+        }
+        return 0;
+    }
+
+    private static Node rotateRight(final Node n) {
+        Node l = n.left;
+        n.left = l.right;
+        l.right = n;
+        refresh(n);
+        refresh(l);
+        return l;
+    }
+
+    private static Node rotateLeft(final Node n) {
+        Node r = n.right;
+        n.right = r.left;
+        r.left = n;
+        refresh(n);
+        refresh(r);
+        return r;
+    }
+
+    private static Node insert(final Node root, final Node n) {
+        if (root == null) {
+            return n;
+        }
+
+        if (compare(n, root) < 0) {
+            root.left = insert(root.left, n);
+            if (root.left.priority > root.priority) {
+                return rotateRight(root);
+            }
+        } else {
+            root.right = insert(root.right, n);
+            if (root.right.priority > root.priority) {
+                return rotateLeft(root);
+            }
+        }
+
+        refresh(root);
+        return root;
+    }
+
+    private static Node delete(final Node root, final Node n) {
+        if (root == null) {
+            return null;
+        }
+
+        int c = compare(n, root);
+        if (c < 0) {
+            root.left = delete(root.left, n);
+        } else if (c > 0) {
+            root.right = delete(root.right, n);
+        } else {
+            return merge(root.left, root.right);
+        }
+
+        refresh(root);
+        return root;
+    }
+
+    private static Node merge(final Node a, final Node b) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+
+        if (a.priority > b.priority) {
+            a.right = merge(a.right, b);
+            refresh(a);
+            return a;
+        } else {
+            b.left = merge(a, b.left);
+            refresh(b);
+            return b;
+        }
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright (c) 2011 Datavyu Foundation, http://datavyu.org
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.datavyu.models.db;
+
+import java.util.*;
+
+/**
+ * Records the changes made to a datastore so they can be reverted and
+ * re-applied without copying the rest of the datastore.
+ *
+ * While the journal is recording, the first change to each variable and cell
+ * captures the state it was in beforehand. Reverting the journal captures the
+ * current state of those same variables and cells, restores the saved state
+ * and keeps the current state for re-applying - so the cost of undo and redo
+ * is proportional to the number of variables and cells touched, not to the
+ * size of the datastore.
+ *
+ * Variables and cells are restored in place, removed variables and cells are
+ * put back rather than rebuilt.
+ */
+public final class ChangeJournal {
+
+    /** The state of a variable at a point in time. */
+    private static final class VariableState {
+        final boolean present;
+        String name;
+        boolean hidden;
+        Argument root;
+        List<Argument> arguments;
+
+        VariableState(final boolean present) {
+            this.present = present;
+        }
+    }
+
+    /** The state of a cell at a point in time. */
+    private static final class CellState {
+        final boolean present;
+        long onset;
+        long offset;
+        String[] values;
+
+        CellState(final boolean present) {
+            this.present = present;
+        }
+    }
+
+    private final DatavyuDatastore datastore;
+
+    // The touched variables and cells, in the order they were first touched.
+    private final List<DatavyuVariable> variables = new ArrayList<DatavyuVariable>();
+    private final List<DatavyuCell> cells = new ArrayList<DatavyuCell>();
+
+    // The state to restore for each touched variable and cell, keyed on
+    // identity.
+    private Map<DatavyuVariable, VariableState> variableStates =
+            new IdentityHashMap<DatavyuVariable, VariableState>();
+    private Map<DatavyuCell, CellState> cellStates =
+            new IdentityHashMap<DatavyuCell, CellState>();
+
+    private volatile boolean recording = true;
+
+    /**
+     * Constructor.
+     *
+     * @param datastore The datastore whose changes are recorded.
+     */
+    ChangeJournal(final DatavyuDatastore datastore) {
+        this.datastore = datastore;
+    }
+
+    /**
+     * @return True if changes to the datastore are still being recorded.
+     */
+    public boolean isRecording() {
+        return recording;
+    }
+
+    /**
+     * @return The number of variables and cells touched while recording.
+     */
+    public synchronized int size() {
+        return variables.size() + cells.size();
+    }
+
+    /**
+     * @return True if nothing was touched while recording.
+     */
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Reverts the recorded changes, restoring every touched variable and cell
+     * to the state it was in before it was first touched.
+     */
+    public void undo() {
+        swap();
+    }
+
+    /**
+     * Re-applies the recorded changes after an {@link #undo()}.
+     */
+    public void redo() {
+        swap();
+    }
+
+    /**
+     * Stops recording, called by the datastore when the journal ends.
+     */
+    void stop() {
+        recording = false;
+    }
+
+    /**
+     * Records the state of a variable, if this is the first time it has been
+     * touched.
+     *
+     * @param variable  The variable about to change.
+     * @param structure True if the arguments of the variable are about to
+     *                  change, the cells of the variable are recorded as well
+     *                  as their values depend on the arguments.
+     */
+    synchronized void recordVariable(final DatavyuVariable variable, final boolean structure) {
+        if (!recording) {
+            return;
+        }
+
+        if (!variableStates.containsKey(variable)) {
+            variables.add(variable);
+            variableStates.put(variable, captureVariable(variable));
+        }
+
+        if (structure) {
+            for (Cell cell : variable.getCells()) {
+                recordCell((DatavyuCell) cell, variable);
+            }
+        }
+    }
+
+    /**
+     * Records the state of a cell, if this is the first time it has been
+     * touched.
+     *
+     * @param cell     The cell about to change.
+     * @param variable The variable the cell belongs to.
+     */
+    synchronized void recordCell(final DatavyuCell cell, final DatavyuVariable variable) {
+        if (!recording || cellStates.containsKey(cell)) {
+            return;
+        }
+
+        cells.add(cell);
+        cellStates.put(cell, captureCell(cell, variable));
+    }
+
+    /**
+     * Restores the saved state and keeps the current state in its place.
+     */
+    private synchronized void swap() {
+        Map<DatavyuVariable, VariableState> currentVariables =
+                new IdentityHashMap<DatavyuVariable, VariableState>();
+        for (DatavyuVariable variable : variables) {
+            currentVariables.put(variable, captureVariable(variable));
+        }
+        Map<DatavyuCell, CellState> currentCells = new IdentityHashMap<DatavyuCell, CellState>();
+        for (DatavyuCell cell : cells) {
+            currentCells.put(cell, captureCell(cell, (DatavyuVariable) cell.getVariable()));
+        }
+
+        restore();
+        variableStates = currentVariables;
+        cellStates = currentCells;
+    }
+
+    private void restore() {
+        // Remove variables first, so their names are free for the others.
+        for (DatavyuVariable variable : variables) {
+            if (!variableStates.get(variable).present && datastore.holds(variable)) {
+                datastore.removeVariable(variable);
+            }
+        }
+
+        Map<DatavyuVariable, String> names = new IdentityHashMap<DatavyuVariable, String>();
+        for (DatavyuVariable variable : variables) {
+            VariableState state = variableStates.get(variable);
+            if (state.present && !state.name.equals(variable.getName())) {
+                names.put(variable, state.name);
+            }
+        }
+        datastore.restoreNames(names);
+
+        // Variables whose arguments changed need new values for their cells.
+        Set<DatavyuVariable> restructured = new HashSet<DatavyuVariable>();
+        for (DatavyuVariable variable : variables) {
+            VariableState state = variableStates.get(variable);
+            if (!state.present) {
+                continue;
+            }
+
+            if (!datastore.holds(variable)) {
+                datastore.addVariable(variable);
+            }
+            variable.setHidden(state.hidden);
+            if (variable.getRootNode() != state.root
+                    || !variable.getRootNode().childArguments.equals(state.arguments)) {
+                variable.restoreRootNode(state.root, state.arguments);
+                restructured.add(variable);
+            }
+        }
+
+        for (DatavyuCell cell : cells) {
+            DatavyuVariable variable = (DatavyuVariable) cell.getVariable();
+            if (!datastore.holds(variable)) {
+                continue;
+            }
+
+            CellState state = cellStates.get(cell);
+            if (restructured.contains(variable)) {
+                cell.resetValue();
+            }
+
+            if (!state.present) {
+                if (variable.contains(cell)) {
+                    variable.removeCell(cell);
+                }
+                continue;
+            }
+
+            if (!variable.contains(cell)) {
+                variable.addCell(cell);
+            }
+            cell.setOnset(state.onset);
+            cell.setOffset(state.offset);
+            cell.restoreValues(state.values);
+        }
+    }
+
+    private VariableState captureVariable(final DatavyuVariable variable) {
+        VariableState state = new VariableState(datastore.holds(variable));
+        if (state.present) {
+            state.name = variable.getName();
+            state.hidden = variable.isHidden();
+            state.root = variable.getRootNode();
+            state.arguments = new ArrayList<Argument>(state.root.childArguments);
+        }
+        return state;
+    }
+
+    private static CellState captureCell(final DatavyuCell cell, final DatavyuVariable variable) {
+        CellState state = new CellState(variable.contains(cell));
+        if (state.present) {
+            state.onset = cell.getOnset();
+            state.offset = cell.getOffset();
+            state.values = cell.saveValues();
+        }
+        return state;
+    }
+}
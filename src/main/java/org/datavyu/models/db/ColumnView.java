@@ -0,0 +1,263 @@
+/*
+ * Copyright (c) 2011 Datavyu Foundation, http://datavyu.org
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.datavyu.models.db;
+
+import java.util.*;
+
+/**
+ * A column-at-a-time view of the cells of a variable, for scripts.
+ *
+ * The view fixes the temporal order of the cells when it is created, but
+ * reads their onsets, offsets and values from the live cells as they are
+ * asked for - so a script only pays for the cells it touches, and crossing
+ * from the scripting language into Java once per column (rather than several
+ * times per cell) is possible through the array accessors.
+ *
+ * Arguments are addressed by their index within the root node of the
+ * variable; non-matrix variables have the single argument 0.
+ */
+public final class ColumnView {
+
+    /**
+     * The variable being viewed.
+     */
+    private final Variable variable;
+
+    /**
+     * The cells of the variable, in temporal order.
+     */
+    private final List<Cell> cells;
+
+    /**
+     * Is the variable a matrix?
+     */
+    private final boolean matrix;
+
+    /**
+     * The position of each cell in the insertion order of the variable,
+     * built the first time it is needed.
+     */
+    private int[] ordinals = null;
+
+    /**
+     * Constructor.
+     *
+     * @param variable The variable to view.
+     */
+    public ColumnView(final Variable variable) {
+        this.variable = variable;
+        this.cells = variable.getCellsTemporally();
+        this.matrix = variable.getRootNode().type == Argument.Type.MATRIX;
+    }
+
+    /**
+     * @return The variable being viewed.
+     */
+    public Variable getVariable() {
+        return variable;
+    }
+
+    /**
+     * @return The number of cells in the view.
+     */
+    public int size() {
+        return cells.size();
+    }
+
+    /**
+     * @return The names of the arguments of the variable.
+     */
+    public String[] getArgumentNames() {
+        if (!matrix) {
+            return new String[]{"var"};
+        }
+
+        List<Argument> arguments = variable.getRootNode().childArguments;
+        String[] result = new String[arguments.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = arguments.get(i).name;
+        }
+        return result;
+    }
+
+    /**
+     * @param index The temporal index of the cell.
+     * @return The cell.
+     */
+    public Cell getCell(final int index) {
+        return cells.get(index);
+    }
+
+    public long getOnset(final int index) {
+        return cells.get(index).getOnset();
+    }
+
+    public long getOffset(final int index) {
+        return cells.get(index).getOffset();
+    }
+
+    /**
+     * @param index    The temporal index of the cell.
+     * @param argument The index of the argument.
+     * @return The value of the argument, as displayed.
+     */
+    public String getValue(final int index, final int argument) {
+        return value(cells.get(index), argument).toString();
+    }
+
+    /**
+     * @param index The temporal index of the cell.
+     * @return The position of the cell in the order the cells were added to
+     * the variable, starting from 1.
+     */
+    public int getOrdinal(final int index) {
+        return getOrdinals()[index];
+    }
+
+    /**
+     * @return Every cell, in temporal order.
+     */
+    public Cell[] getCells() {
+        return cells.toArray(new Cell[cells.size()]);
+    }
+
+    /**
+     * @return The onset of every cell, in temporal order.
+     */
+    public long[] getOnsets() {
+        long[] result = new long[cells.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = cells.get(i).getOnset();
+        }
+        return result;
+    }
+
+    /**
+     * @return The offset of every cell, in temporal order.
+     */
+    public long[] getOffsets() {
+        long[] result = new long[cells.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = cells.get(i).getOffset();
+        }
+        return result;
+    }
+
+    /**
+     * @param argument The index of the argument.
+     * @return The value of the argument in every cell, in temporal order.
+     */
+    public String[] getValues(final int argument) {
+        String[] result = new String[cells.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = value(cells.get(i), argument).toString();
+        }
+        return result;
+    }
+
+    /**
+     * @return The position of every cell in the order the cells were added
+     * to the variable, starting from 1, in temporal order.
+     */
+    public int[] getOrdinals() {
+        if (ordinals == null) {
+            Map<Cell, Integer> positions = new IdentityHashMap<Cell, Integer>();
+            List<Cell> added = variable.getCells();
+            for (int i = 0; i < added.size(); i++) {
+                positions.put(added.get(i), i + 1);
+            }
+
+            int[] result = new int[cells.size()];
+            for (int i = 0; i < result.length; i++) {
+                Integer position = positions.get(cells.get(i));
+                result[i] = position == null ? 0 : position;
+            }
+            ordinals = result;
+        }
+
+        return ordinals;
+    }
+
+    /**
+     * Writes a batch of cells back to the variable. Only what differs from
+     * the live cells is changed.
+     *
+     * @param targets   The cell to write each entry to, null to create a new
+     *                  cell for the entry.
+     * @param onsets    The onset of each entry.
+     * @param offsets   The offset of each entry.
+     * @param values    The argument values of each entry, each a list that
+     *                  lines up with the argument names. Null or empty values
+     *                  of matrix arguments leave the argument unchanged.
+     * @param arguments The names of the arguments the values are for.
+     *                  Arguments the variable does not have are skipped.
+     * @return The cell written for each entry, including the created ones.
+     */
+    public List<Cell> write(final List<?> targets,
+                            final List<?> onsets,
+                            final List<?> offsets,
+                            final List<?> values,
+                            final List<?> arguments) {
+        int[] columns = new int[arguments.size()];
+        for (int j = 0; j < columns.length; j++) {
+            columns[j] = matrix ? variable.getArgumentIndex(String.valueOf(arguments.get(j))) : 0;
+        }
+
+        List<Cell> result = new ArrayList<Cell>(targets.size());
+        for (int i = 0; i < targets.size(); i++) {
+            Cell cell = (Cell) targets.get(i);
+            if (cell == null) {
+                cell = variable.createCell();
+            }
+
+            long onset = ((Number) onsets.get(i)).longValue();
+            if (cell.getOnset() != onset) {
+                cell.setOnset(onset);
+            }
+            long offset = ((Number) offsets.get(i)).longValue();
+            if (cell.getOffset() != offset) {
+                cell.setOffset(offset);
+            }
+
+            List<?> entry = (List<?>) values.get(i);
+            for (int j = 0; j < columns.length && j < entry.size(); j++) {
+                Object v = entry.get(j);
+                if (columns[j] < 0 || v == null || (matrix && v.toString().isEmpty())) {
+                    continue;
+                }
+                value(cell, columns[j]).set(v.toString());
+            }
+
+            result.add(cell);
+        }
+
+        return result;
+    }
+
+    private Value value(final Cell cell, final int argument) {
+        if (matrix) {
+            return ((MatrixValue) cell.getValue()).getArguments().get(argument);
+        }
+        return cell.getValue();
+    }
+}
@@ -149,6 +149,41 @@ public interface Datastore {
 
     void markDBAsChanged();
 
+    /**
+     * Starts a bulk load into the datastore. Until endBulkLoad is called,
+     * variables and cells do not notify their listeners of new cells or time
+     * changes, and the datastore is not repeatedly marked as changed.
+     */
+    void beginBulkLoad();
+
+    /**
+     * Completes a bulk load, delivering any suppressed cell insertion
+     * notifications and marking the datastore as changed once.
+     */
+    void endBulkLoad();
+
+    /**
+     * @return True if the datastore is currently being bulk loaded, false
+     * otherwise.
+     */
+    boolean isBulkLoading();
+
+    /**
+     * Starts recording changes to the datastore. Until endJournal is called,
+     * the first change to each variable and cell records the state it was in
+     * beforehand, so the changes can later be reverted (and re-applied)
+     * without copying the rest of the datastore. Starting a journal ends any
+     * journal that is already recording.
+     *
+     * @return The journal recording the changes.
+     */
+    ChangeJournal beginJournal();
+
+    /**
+     * Stops recording changes into the current journal, if there is one.
+     */
+    void endJournal();
+
     /**
      * @return True if the datastore has changed since it was last saved, false
      * otherwise.
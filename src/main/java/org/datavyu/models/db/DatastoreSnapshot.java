@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2011 Datavyu Foundation, http://datavyu.org
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.datavyu.models.db;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An immutable copy of the content of a datastore, taken so the content can
+ * be written out on another thread while the datastore keeps changing.
+ *
+ * Snapshots are copy-on-write: every variable carries a version stamp, and a
+ * snapshot taken after a previous one only copies the variables that have
+ * changed since - the copies of every other variable are shared with the
+ * previous snapshot. Taking a snapshot of a datastore that has not changed
+ * therefore copies nothing, and {@link #sameAs(DatastoreSnapshot)} tells the
+ * two apart without comparing any cells.
+ */
+public final class DatastoreSnapshot {
+
+    /**
+     * The copy of a single variable and its cells.
+     */
+    private static final class VariableCopy {
+        final DatavyuVariable source;
+        final long version;
+        final String name;
+        final boolean hidden;
+        final Argument root;
+        final long[] onsets;
+        final long[] offsets;
+        final String[][] values;
+
+        VariableCopy(final DatavyuVariable variable) {
+            source = variable;
+            version = variable.getVersion();
+            name = variable.getName();
+            hidden = variable.isHidden();
+            root = copy(variable.getRootNode());
+
+            List<Cell> cells = variable.getCells();
+            onsets = new long[cells.size()];
+            offsets = new long[cells.size()];
+            values = new String[cells.size()][];
+            for (int i = 0; i < onsets.length; i++) {
+                DatavyuCell cell = (DatavyuCell) cells.get(i);
+                onsets[i] = cell.getOnset();
+                offsets[i] = cell.getOffset();
+                values[i] = cell.saveValues();
+            }
+        }
+
+        boolean isCurrent(final DatavyuVariable variable) {
+            return source == variable && version == variable.getVersion();
+        }
+    }
+
+    // The copy of each variable, in display order.
+    private final VariableCopy[] copies;
+
+    // The order index of each variable, held outside of the copies as
+    // reordering columns does not change the variables.
+    private final int[] orderIndices;
+
+    private DatastoreSnapshot(final VariableCopy[] copies, final int[] orderIndices) {
+        this.copies = copies;
+        this.orderIndices = orderIndices;
+    }
+
+    /**
+     * Takes a snapshot of a datastore. Must be called on the thread that
+     * changes the datastore, or while nothing else is changing it.
+     *
+     * @param datastore The datastore to copy.
+     * @param previous  An earlier snapshot of the same datastore whose copies
+     *                  of unchanged variables can be shared, null if there is
+     *                  none.
+     * @return The snapshot of the current content of the datastore.
+     */
+    public static DatastoreSnapshot take(final Datastore datastore,
+                                         final DatastoreSnapshot previous) {
+        List<Variable> variables = datastore.getAllVariables();
+        VariableCopy[] copies = new VariableCopy[variables.size()];
+        int[] orderIndices = new int[variables.size()];
+
+        for (int i = 0; i < copies.length; i++) {
+            DatavyuVariable variable = (DatavyuVariable) variables.get(i);
+            VariableCopy reused = previous == null ? null : previous.find(variable, i);
+            copies[i] = reused != null ? reused : new VariableCopy(variable);
+            orderIndices[i] = variable.getOrderIndex();
+        }
+
+        return new DatastoreSnapshot(copies, orderIndices);
+    }
+
+    /**
+     * @param other The snapshot to compare against, may be null.
+     * @return True if the other snapshot holds exactly the same content.
+     */
+    public boolean sameAs(final DatastoreSnapshot other) {
+        if (other == null || other.copies.length != copies.length) {
+            return false;
+        }
+
+        for (int i = 0; i < copies.length; i++) {
+            if (copies[i] != other.copies[i] || orderIndices[i] != other.orderIndices[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Rebuilds the snapshot as a datastore of its own, detached from the
+     * application. Safe to call on any thread.
+     *
+     * @return A new datastore holding the content of this snapshot.
+     * @throws UserWarningException If a variable can not be rebuilt.
+     */
+    public Datastore toDatastore() throws UserWarningException {
+        DatavyuDatastore result = new DatavyuDatastore(true);
+        result.beginBulkLoad();
+        for (int i = 0; i < copies.length; i++) {
+            VariableCopy copy = copies[i];
+            DatavyuVariable variable = new DatavyuVariable(copy.name, copy(copy.root), true, null);
+            for (int j = 0; j < copy.onsets.length; j++) {
+                DatavyuCell cell = (DatavyuCell) variable.createCell();
+                cell.setOnset(copy.onsets[j]);
+                cell.setOffset(copy.offsets[j]);
+                cell.restoreValues(copy.values[j]);
+            }
+            variable.setHidden(copy.hidden);
+            variable.setOrderIndex(orderIndices[i]);
+            result.addVariable(variable);
+        }
+        result.endBulkLoad();
+
+        return result;
+    }
+
+    /**
+     * @return The copy of a variable held by this snapshot if it is still
+     * current, null otherwise.
+     */
+    private VariableCopy find(final DatavyuVariable variable, final int hint) {
+        if (hint < copies.length && copies[hint].isCurrent(variable)) {
+            return copies[hint];
+        }
+        for (VariableCopy copy : copies) {
+            if (copy.isCurrent(variable)) {
+                return copy;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return A deep copy of an argument, the arguments of a variable are
+     * changed in place when columns are restructured.
+     */
+    private static Argument copy(final Argument argument) {
+        Argument result = new Argument(argument.name, argument.type, argument.id);
+        result.childArguments = new ArrayList<Argument>();
+        for (Argument child : argument.childArguments) {
+            result.childArguments.add(copy(child));
+        }
+        return result;
+    }
+}
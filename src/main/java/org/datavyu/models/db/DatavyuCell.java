@@ -19,7 +19,12 @@ import java.util.*;
 
 public class DatavyuCell implements Cell {
 
-    static Map<UUID, List<CellListener>> allListeners = new HashMap<UUID, List<CellListener>>();
+    // Shared by every cell without listeners.
+    private static final CellListener[] NO_LISTENERS = new CellListener[0];
+
+    // The listeners for this cell, replaced (never modified) on each change
+    // so that notification can iterate without locking or copying.
+    private volatile CellListener[] listeners = NO_LISTENERS;
     final private UUID id = UUID.randomUUID();
     private long onset = 0L;
     private long offset = 0L;
@@ -45,29 +50,14 @@ public class DatavyuCell implements Cell {
         // Build argument list from the argument given
 
         if (type.type == Argument.Type.NOMINAL) {
-            this.value = new DatavyuNominalValue(getID(), type, this);
+            this.value = new DatavyuNominalValue(type, this);
         } else if (type.type == Argument.Type.TEXT) {
-            this.value = new DatavyuTextValue(getID(), type, this);
+            this.value = new DatavyuTextValue(type, this);
         } else {
-            this.value = new DatavyuMatrixValue(getID(), type, this);
+            this.value = new DatavyuMatrixValue(type, this);
         }
     }
 
-    /**
-     * @param cellId The ID of the variable we want the listeners for.
-     * @return The list of listeners for the specified cellId.
-     */
-    private static List<CellListener> getListeners(UUID cellId) {
-        List<CellListener> result = allListeners.get(cellId);
-
-        if (result == null) {
-            result = new ArrayList<CellListener>();
-            allListeners.put(cellId, result);
-        }
-
-        return result;
-    }
-
     public Variable getVariable() {
         return parent;
     }
@@ -96,6 +86,46 @@ public class DatavyuCell implements Cell {
     }
 
 
+    /**
+     * @return The datastore holding this cell, or null if the cell is not
+     * attached to a Datavyu datastore.
+     */
+    private DatavyuDatastore getOwningDatastore() {
+        if (parent != null && parent.getOwningDatastore() instanceof DatavyuDatastore) {
+            return (DatavyuDatastore) parent.getOwningDatastore();
+        }
+        return null;
+    }
+
+    /**
+     * Records the state of this cell with the journal of the owning datastore
+     * before it changes.
+     */
+    void journal() {
+        DatavyuDatastore ds = getOwningDatastore();
+        if (ds != null && parent instanceof DatavyuVariable) {
+            ds.journalCell(this, (DatavyuVariable) parent);
+        }
+    }
+
+    /**
+     * Records with the parent variable that this cell has changed.
+     */
+    void changed() {
+        if (parent instanceof DatavyuVariable) {
+            ((DatavyuVariable) parent).changed();
+        }
+    }
+
+    /**
+     * Lets the parent variable re-position this cell in its temporal ordering.
+     */
+    private void timesChanged() {
+        if (parent instanceof DatavyuVariable) {
+            ((DatavyuVariable) parent).cellTimesChanged(this);
+        }
+    }
+
     @Override
     public String getOffsetString() {
         return convertMStoTimestamp(offset);
@@ -108,9 +138,19 @@ public class DatavyuCell implements Cell {
 
     @Override
     public void setOffset(final long newOffset) {
-        if (newOffset != offset) parent.getOwningDatastore().markDBAsChanged();
+        Datastore ds = parent.getOwningDatastore();
+        boolean quiet = ds == null || ds.isBulkLoading();
+        if (newOffset != offset && !quiet) {
+            journal();
+            changed();
+            ds.markDBAsChanged();
+        }
         offset = newOffset;
-        for (CellListener cl : getListeners(getID())) {
+        timesChanged();
+        if (quiet) {
+            return;
+        }
+        for (CellListener cl : listeners) {
             cl.offsetChanged(offset);
         }
     }
@@ -137,9 +177,19 @@ public class DatavyuCell implements Cell {
 
     @Override
     public void setOnset(final long newOnset) {
-        if (newOnset != onset) parent.getOwningDatastore().markDBAsChanged();
+        Datastore ds = parent.getOwningDatastore();
+        boolean quiet = ds == null || ds.isBulkLoading();
+        if (newOnset != onset && !quiet) {
+            journal();
+            changed();
+            ds.markDBAsChanged();
+        }
         onset = newOnset;
-        for (CellListener cl : getListeners(getID())) {
+        timesChanged();
+        if (quiet) {
+            return;
+        }
+        for (CellListener cl : listeners) {
             cl.onsetChanged(onset);
         }
     }
@@ -168,11 +218,15 @@ public class DatavyuCell implements Cell {
     @Override
     public void setSelected(final boolean selected) {
         this.selected = selected;
+        DatavyuDatastore ds = getOwningDatastore();
+        if (ds != null) {
+            ds.cellSelectionChanged(this, selected);
+        }
         if (!selected) {
             setHighlighted(false);
         }
 
-        for (CellListener cl : getListeners(getID())) {
+        for (CellListener cl : listeners) {
             cl.selectionChange(selected);
             if (!selected) {
                 cl.highlightingChange(false);
@@ -188,12 +242,16 @@ public class DatavyuCell implements Cell {
     @Override
     public void setHighlighted(final boolean highlighted) {
         this.highlighted = highlighted;
+        DatavyuDatastore ds = getOwningDatastore();
+        if (ds != null) {
+            ds.cellHighlightingChanged(this, highlighted);
+        }
 
         if (highlighted) {
             setSelected(highlighted);
         }
 
-        for (CellListener cl : getListeners(getID())) {
+        for (CellListener cl : listeners) {
             cl.highlightingChange(highlighted);
         }
     }
@@ -206,16 +264,7 @@ public class DatavyuCell implements Cell {
 
     @Override
     public void moveMatrixValue(final int old_index, int new_index) {
-        DatavyuMatrixValue val = (DatavyuMatrixValue) getValue();
-        List<Value> values = val.getArguments();
-        Value v = values.get(old_index);
-
-        values.remove(old_index);
-        values.add(new_index, v);
-
-        for (int i = 0; i < values.size(); i++) {
-            ((DatavyuValue) values.get(i)).setIndex(i);
-        }
+        ((DatavyuMatrixValue) getValue()).moveArgument(old_index, new_index);
     }
 
     @Override
@@ -242,14 +291,93 @@ public class DatavyuCell implements Cell {
         values.get(index).clear();
     }
 
+    /**
+     * @return The raw content of each argument of this cell, in argument
+     * order. Empty arguments are null.
+     */
+    String[] saveValues() {
+        if (value instanceof DatavyuMatrixValue) {
+            List<Value> values = ((DatavyuMatrixValue) value).getArguments();
+            String[] result = new String[values.size()];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = ((DatavyuValue) values.get(i)).value;
+            }
+            return result;
+        }
+
+        return new String[]{((DatavyuValue) value).value};
+    }
+
+    /**
+     * Puts back content previously fetched with {@link #saveValues()}.
+     * Content saved under a different set of arguments is ignored.
+     *
+     * @param saved The raw content of each argument.
+     */
+    void restoreValues(final String[] saved) {
+        if (value instanceof DatavyuMatrixValue) {
+            List<Value> values = ((DatavyuMatrixValue) value).getArguments();
+            if (values.size() != saved.length) {
+                return;
+            }
+            for (int i = 0; i < saved.length; i++) {
+                ((DatavyuValue) values.get(i)).store(saved[i]);
+            }
+        } else {
+            ((DatavyuValue) value).store(saved[0]);
+        }
+
+        changed();
+        DatavyuDatastore ds = getOwningDatastore();
+        if (ds != null) {
+            ds.markDBAsChanged();
+        }
+        for (CellListener cl : listeners) {
+            cl.valueChange(value);
+        }
+    }
+
+    /**
+     * Replaces the value of this cell with an empty one matching the current
+     * arguments of the parent variable.
+     */
+    void resetValue() {
+        type = parent.getRootNode();
+        if (type.type == Argument.Type.NOMINAL) {
+            value = new DatavyuNominalValue(type, this);
+        } else if (type.type == Argument.Type.TEXT) {
+            value = new DatavyuTextValue(type, this);
+        } else {
+            value = new DatavyuMatrixValue(type, this);
+        }
+    }
+
     @Override
-    public void addListener(final CellListener listener) {
-        getListeners(getID()).add(listener);
+    public synchronized void addListener(final CellListener listener) {
+        CellListener[] result = Arrays.copyOf(listeners, listeners.length + 1);
+        result[listeners.length] = listener;
+        listeners = result;
     }
 
     @Override
-    public void removeListener(final CellListener listener) {
-        getListeners(getID()).remove(listener);
+    public synchronized void removeListener(final CellListener listener) {
+        for (int i = 0; i < listeners.length; i++) {
+            if (listeners[i].equals(listener)) {
+                CellListener[] result = new CellListener[listeners.length - 1];
+                System.arraycopy(listeners, 0, result, 0, i);
+                System.arraycopy(listeners, i + 1, result, i, result.length - i);
+                listeners = result;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Drops every listener of this cell, called once the cell has been removed
+     * from its variable and the removal has been announced.
+     */
+    void clearListeners() {
+        listeners = NO_LISTENERS;
     }
 
     public UUID getID() {
@@ -46,22 +46,44 @@ public class DatavyuDatastore implements Datastore {
     //
     private List<DatastoreListener> dbListeners = new ArrayList<DatastoreListener>();
     private Map<String, Variable> variables;
+    // The parent variable of every cell in the datastore, keyed on identity.
+    private Map<Cell, Variable> cellVariables = new IdentityHashMap<Cell, Variable>();
+    // The cells that are currently selected.
+    private Set<Cell> selectedCells = new LinkedHashSet<Cell>();
+    // The cells that are currently highlighted.
+    private Set<Cell> highlightedCells = new LinkedHashSet<Cell>();
 
     private VariableComparator VariableComparator = new VariableComparator();
     
     private String exemptionVariables = "";
 
+    // Is the datastore currently being bulk loaded?
+    private boolean bulkLoading = false;
+
+    // The journal recording changes to the datastore, null if not recording.
+    private volatile ChangeJournal journal = null;
+
 
     public DatavyuDatastore() {
 
         // Set up variable collection
         variables = new HashMap<String, Variable>();
 
-        // Clear variable listeners.
-//        DatavyuVariable.clearListeners();
         changed = false;
     }
 
+    /**
+     * Constructs a datastore that is already marked as changed, so that
+     * filling it never notifies the title of the application. Used for
+     * copies of a datastore that are written out in the background.
+     *
+     * @param changed True to start out marked as changed.
+     */
+    DatavyuDatastore(final boolean changed) {
+        this();
+        this.changed = changed;
+    }
+
     @Override
     public void markDBAsChanged() {
         if (!changed) {
@@ -73,6 +95,112 @@ public class DatavyuDatastore implements Datastore {
         }
     }
 
+    @Override
+    public void beginBulkLoad() {
+        bulkLoading = true;
+    }
+
+    @Override
+    public void endBulkLoad() {
+        if (!bulkLoading) {
+            return;
+        }
+
+        bulkLoading = false;
+        for (Variable v : getAllVariables()) {
+            if (v instanceof DatavyuVariable) {
+                ((DatavyuVariable) v).flushBulkLoad();
+            }
+        }
+        markDBAsChanged();
+    }
+
+    @Override
+    public boolean isBulkLoading() {
+        return bulkLoading;
+    }
+
+    @Override
+    public ChangeJournal beginJournal() {
+        endJournal();
+        journal = new ChangeJournal(this);
+        return journal;
+    }
+
+    @Override
+    public void endJournal() {
+        ChangeJournal j = journal;
+        if (j != null) {
+            j.stop();
+            journal = null;
+        }
+    }
+
+    /**
+     * Records the state of a variable before it changes, if a journal is
+     * recording.
+     *
+     * @param variable  The variable about to change.
+     * @param structure True if the arguments of the variable are about to
+     *                  change.
+     */
+    void journalVariable(final DatavyuVariable variable, final boolean structure) {
+        ChangeJournal j = journal;
+        if (j != null) {
+            j.recordVariable(variable, structure);
+        }
+    }
+
+    /**
+     * Records the state of a cell before it changes, if a journal is
+     * recording.
+     *
+     * @param cell     The cell about to change.
+     * @param variable The variable holding the cell.
+     */
+    void journalCell(final DatavyuCell cell, final DatavyuVariable variable) {
+        ChangeJournal j = journal;
+        if (j != null) {
+            j.recordCell(cell, variable);
+        }
+    }
+
+    /**
+     * @param variable The variable to look for.
+     * @return True if the variable is currently held by this datastore.
+     */
+    boolean holds(final Variable variable) {
+        String varName = variable.getName();
+        return varName != null && variables.get(varName) == variable;
+    }
+
+    /**
+     * Renames a group of variables at once, so that names can be exchanged
+     * between them without clashing part way through.
+     *
+     * @param names The new name for each variable.
+     */
+    void restoreNames(final Map<DatavyuVariable, String> names) {
+        Set<DatavyuVariable> held = new HashSet<DatavyuVariable>();
+        for (DatavyuVariable v : names.keySet()) {
+            if (holds(v)) {
+                variables.remove(v.getName());
+                held.add(v);
+            }
+        }
+
+        for (Map.Entry<DatavyuVariable, String> entry : names.entrySet()) {
+            entry.getKey().restoreName(entry.getValue());
+            if (held.contains(entry.getKey())) {
+                variables.put(entry.getValue(), entry.getKey());
+            }
+        }
+
+        if (!names.isEmpty()) {
+            markDBAsChanged();
+        }
+    }
+
     @Override
     public List<Variable> getAllVariables() {
         List<Variable> varList = new ArrayList<Variable>();
@@ -116,24 +244,17 @@ public class DatavyuDatastore implements Datastore {
 
     @Override
     public List<Cell> getSelectedCells() {
-        List<Cell> selectedCells = new ArrayList<Cell>();
-
-        for (Variable v : variables.values()) {
-            for (Cell c : v.getCells()) {
-                if (c.isSelected()) selectedCells.add(c);
-            }
-        }
-
-        return selectedCells;
+        return new ArrayList<Cell>(selectedCells);
     }
 
     @Override
     public void clearCellSelection() {
-        for (Variable v : variables.values()) {
-            for (Cell c : v.getCells()) {
-                if (c.isSelected()) c.setSelected(false);
-                if (c.isHighlighted()) c.setHighlighted(false);
-            }
+        // Copy first - deselecting a cell removes it from these sets.
+        for (Cell c : new ArrayList<Cell>(selectedCells)) {
+            c.setSelected(false);
+        }
+        for (Cell c : new ArrayList<Cell>(highlightedCells)) {
+            c.setHighlighted(false);
         }
     }
 
@@ -150,10 +271,72 @@ public class DatavyuDatastore implements Datastore {
 
     @Override
     public Variable getVariable(Cell cell) {
-        for (Variable v : variables.values()) {
-            if (v.getCells().contains(cell)) return v;
+        return cellVariables.get(cell);
+    }
+
+    /**
+     * Registers a cell that has been added to one of the variables in this
+     * datastore.
+     *
+     * @param cell     The cell that has been added.
+     * @param variable The variable that now holds the cell.
+     */
+    void cellAdded(final Cell cell, final Variable variable) {
+        cellVariables.put(cell, variable);
+        if (cell.isSelected()) {
+            selectedCells.add(cell);
+        }
+        if (cell.isHighlighted()) {
+            highlightedCells.add(cell);
+        }
+    }
+
+    /**
+     * Unregisters a cell that has been removed from one of the variables in
+     * this datastore.
+     *
+     * @param cell The cell that has been removed.
+     */
+    void cellRemoved(final Cell cell) {
+        cellVariables.remove(cell);
+        selectedCells.remove(cell);
+        highlightedCells.remove(cell);
+    }
+
+    /**
+     * Called by a cell when it has been selected or deselected.
+     *
+     * @param cell     The cell whose selection has changed.
+     * @param selected True if the cell is now selected, false otherwise.
+     */
+    void cellSelectionChanged(final Cell cell, final boolean selected) {
+        if (!cellVariables.containsKey(cell)) {
+            return;
+        }
+
+        if (selected) {
+            selectedCells.add(cell);
+        } else {
+            selectedCells.remove(cell);
+        }
+    }
+
+    /**
+     * Called by a cell when it has been highlighted or unhighlighted.
+     *
+     * @param cell        The cell whose highlighting has changed.
+     * @param highlighted True if the cell is now highlighted, false otherwise.
+     */
+    void cellHighlightingChanged(final Cell cell, final boolean highlighted) {
+        if (!cellVariables.containsKey(cell)) {
+            return;
+        }
+
+        if (highlighted) {
+            highlightedCells.add(cell);
+        } else {
+            highlightedCells.remove(cell);
         }
-        return null;
     }
 
     @Override
@@ -171,9 +354,7 @@ public class DatavyuDatastore implements Datastore {
             throw new UserWarningException("Unable to add column with name '" + name + "', one with the same name already exists.");
         }
 
-        Argument rootNode;
-        if (type == Argument.Type.MATRIX) rootNode = new Argument(name + name.hashCode(), type);
-        else rootNode = new Argument("var", type);
+        Argument rootNode = DatavyuVariable.newRootNode(name, type);
 
         Variable v = new DatavyuVariable(name, rootNode, grandfathered, this);
         variables.put(name, v);
@@ -188,20 +369,42 @@ public class DatavyuDatastore implements Datastore {
 
     @Override
     public void removeVariable(final Variable var) {
+        if (var instanceof DatavyuVariable) {
+            journalVariable((DatavyuVariable) var, false);
+        }
+
         for (DatastoreListener dbl : this.dbListeners) {
             dbl.variableRemoved(var);
         }
 
+        for (Cell c : var.getCells()) {
+            cellRemoved(c);
+        }
         variables.remove(var.getName());
+
+        // Everything watching the variable has been told it is gone.
+        if (var instanceof DatavyuVariable) {
+            ((DatavyuVariable) var).clearListeners();
+        }
         markDBAsChanged();
     }
 
     @Override
     public void addVariable(final Variable var) {
+        if (var instanceof DatavyuVariable && var.getOwningDatastore() == null) {
+            ((DatavyuVariable) var).attach(this);
+        }
+        if (var instanceof DatavyuVariable) {
+            journalVariable((DatavyuVariable) var, false);
+        }
+
         for (DatastoreListener dbl : this.dbListeners) {
             dbl.variableAdded(var);
         }
 
+        for (Cell c : var.getCells()) {
+            cellAdded(c, var);
+        }
         variables.put(var.getName(), var);
         markDBAsChanged();
     }
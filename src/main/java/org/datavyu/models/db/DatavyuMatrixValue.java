@@ -23,74 +23,67 @@
 
 package org.datavyu.models.db;
 
-import java.util.*;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 
 
 public final class DatavyuMatrixValue extends DatavyuValue implements MatrixValue {
 
-    private UUID parentId;
-    private String value;
+    // The arguments of this matrix, always held in argument order.
     private List<Value> values;
 
+    // The rendering of this matrix, null until asked for after a change.
+    private volatile String rendered;
+
 
     public DatavyuMatrixValue() {
     }
 
-    public DatavyuMatrixValue(UUID parent_id, Argument type, Cell parent) {
-        this.parentId = parent_id;
+    public DatavyuMatrixValue(Argument type, Cell parent) {
         this.parent = parent;
-        values = new ArrayList<Value>();
+        values = new ArrayList<Value>(type.childArguments.size());
         for (Argument arg : type.childArguments) {
             createArgument(arg);
         }
         this.arg = type;
-        value = "MATRIX";
     }
 
-    // Method to order the values coming out of the DB.
-    private static void order(List<Value> values) {
-
-        Collections.sort(values, new Comparator() {
-            @Override
-            public int compare(Object o1, Object o2) {
-
-                int x1 = ((DatavyuValue) o1).getIndex();
-                int x2 = ((DatavyuValue) o2).getIndex();
-
-                if (x1 != x2) {
-                    return x1 - x2;
-                } else {
-                    return 0;
-                }
-            }
-        });
-    }
-    
     @Override
     public String toString() {
-        String result = "";
-        List<Value> values = getArguments();
+        String result = rendered;
+        if (result != null) {
+            return result;
+        }
 
-        result += "(";
+        StringBuilder builder = new StringBuilder("(");
         for (int i = 0; i < values.size(); i++) {
             Value v = values.get(i);
             if (v.toString() == null) {
-                result += "<code" + String.valueOf(i) + ">";
+                builder.append("<code").append(i).append('>');
             } else {
-                result += v.toString();
+                builder.append(v.toString());
             }
             if (i < values.size() - 1) {
-                result += ",";
+                builder.append(',');
             }
         }
-        result += ")";
+        builder.append(')');
 
+        result = builder.toString();
+        rendered = result;
         return result;
     }
 
-    public String serialize() {
-        List<Value> values = getArguments();
+    /**
+     * Drops the rendering of this matrix after one of its arguments changes.
+     */
+    @Override
+    void invalidate() {
+        rendered = null;
+    }
 
+    public String serialize() {
         StringBuilder result = new StringBuilder("(");
         for (Iterator<Value> i = values.iterator(); i.hasNext(); ) {
             Value v = i.next();
@@ -105,32 +98,43 @@ public final class DatavyuMatrixValue extends DatavyuValue implements MatrixValu
 
     @Override
     public List<Value> getArguments() {
-        order(values);
         return values;
     }
 
     @Override
     public Value createArgument(Argument arg) {
         Value val = null;
-        String name = String.format("code%02d", getArguments().size() + 1);
         if (arg.type == Argument.Type.NOMINAL) {
-            val = new DatavyuNominalValue(this.id, name, getArguments().size(), arg, parent);
+            val = new DatavyuNominalValue(values.size(), arg, parent);
         } else if (arg.type == Argument.Type.TEXT) {
-            val = new DatavyuTextValue(this.id, name, getArguments().size(), arg, parent);
+            val = new DatavyuTextValue(values.size(), arg, parent);
         }
-        this.getArguments().add(val);
+        values.add(val);
+        invalidate();
         return val;
     }
 
     @Override
     public void removeArgument(final int index) {
-        List<Value> args = getArguments();
-        args.remove(index);
-        Value v;
-        for (int i = 0; i < args.size(); i++) {
-            v = args.get(i);
-            ((DatavyuNominalValue) v).setIndex(i);
+        values.remove(index);
+        for (int i = index; i < values.size(); i++) {
+            ((DatavyuValue) values.get(i)).setIndex(i);
+        }
+        invalidate();
+    }
+
+    /**
+     * Moves an argument of this matrix to a new position.
+     *
+     * @param oldIndex The current position of the argument.
+     * @param newIndex The position to move the argument to.
+     */
+    void moveArgument(final int oldIndex, final int newIndex) {
+        values.add(newIndex, values.remove(oldIndex));
+        for (int i = Math.min(oldIndex, newIndex); i <= Math.max(oldIndex, newIndex); i++) {
+            ((DatavyuValue) values.get(i)).setIndex(i);
         }
+        invalidate();
     }
 
     @Override
@@ -139,7 +143,6 @@ public final class DatavyuMatrixValue extends DatavyuValue implements MatrixValu
             value = value.substring(1, value.length() - 1);
         }
         String[] args = value.split(",");
-        List<Value> values = getArguments();
         if(args.length != values.size()) {
             System.err.println("Error: Arg list and value list are different sizes, cannot undo.");
         }
@@ -23,29 +23,23 @@
 
 package org.datavyu.models.db;
 
-import java.util.UUID;
-
 public final class DatavyuNominalValue extends DatavyuValue implements NominalValue {
 
     public DatavyuNominalValue() {
     }
 
-    public DatavyuNominalValue(UUID parent_id, Cell parent) {
-        this.parent_id = parent_id;
+    public DatavyuNominalValue(Cell parent) {
         this.index = -1;
         this.parent = parent;
     }
 
-    public DatavyuNominalValue(UUID parent_id, Argument arg, Cell parent) {
-        this(parent_id, parent);
+    public DatavyuNominalValue(Argument arg, Cell parent) {
+        this(parent);
         this.arg = arg;
     }
 
-    public DatavyuNominalValue(UUID parent_id, String name, int index, Argument type, Cell parent) {
-        this(parent_id, parent);
+    public DatavyuNominalValue(int index, Argument arg, Cell parent) {
+        this(arg, parent);
         this.index = index;
-        this.name = name;
-        this.arg = type;
     }
-
 }
@@ -23,30 +23,23 @@
 
 package org.datavyu.models.db;
 
-import java.util.UUID;
-
 public final class DatavyuTextValue extends DatavyuValue implements TextValue {
 
     public DatavyuTextValue() {
     }
 
-    public DatavyuTextValue(UUID parent_id, Cell parent) {
-        this.parent_id = parent_id;
+    public DatavyuTextValue(Cell parent) {
         this.index = -1;
         this.parent = parent;
     }
 
-    public DatavyuTextValue(UUID parent_id, Argument arg, Cell parent) {
-        this(parent_id, parent);
+    public DatavyuTextValue(Argument arg, Cell parent) {
+        this(parent);
         this.arg = arg;
-        this.parent = parent;
     }
 
-    public DatavyuTextValue(UUID parent_id, String name, int index, Argument arg, Cell parent) {
-        this(parent_id, parent);
-        this.name = name;
+    public DatavyuTextValue(int index, Argument arg, Cell parent) {
+        this(arg, parent);
         this.index = index;
-        this.arg = arg;
-        this.parent = parent;
     }
-}
\ No newline at end of file
+}
@@ -26,16 +26,16 @@ package org.datavyu.models.db;
 import org.datavyu.util.StringUtils;
 
 import java.io.Serializable;
-import java.util.UUID;
 
 
+/**
+ * A value is identified by its position within its cell; the values of a
+ * matrix are kept in argument order, so the position is also the index.
+ */
 public abstract class DatavyuValue implements Value, Serializable, Comparable<DatavyuValue> {
 
     String value;
     int index;
-    UUID parent_id;
-    UUID id = UUID.randomUUID();
-    String name = "";
     Argument arg;
     Cell parent;
 
@@ -46,7 +46,9 @@ public abstract class DatavyuValue implements Value, Serializable, Comparable<Da
 
     @Override
     public void clear() {
-        this.value = null;
+        journal();
+        changed();
+        store(null);
     }
 
     @Override
@@ -82,8 +84,13 @@ public abstract class DatavyuValue implements Value, Serializable, Comparable<Da
     {
         if(!newValue.equals(toString()) && !newValue.equals(this.value))
         {
-            this.value = newValue;
-            this.parent.getVariable().getOwningDatastore().markDBAsChanged();
+            journal();
+            changed();
+            store(newValue);
+            Datastore ds = this.parent.getVariable().getOwningDatastore();
+            if (ds != null) {
+                ds.markDBAsChanged();
+            }
         }
         else
         {
@@ -91,6 +98,49 @@ public abstract class DatavyuValue implements Value, Serializable, Comparable<Da
         }
     };
 
+    /**
+     * Replaces the content of this value without journaling it. Nominal codes
+     * are shared between every value of the same argument.
+     *
+     * @param newValue The new content, null if empty.
+     */
+    void store(final String newValue) {
+        if (newValue != null && arg != null && arg.type == Argument.Type.NOMINAL) {
+            value = arg.intern(newValue);
+        } else {
+            value = newValue;
+        }
+        invalidate();
+    }
+
+    /**
+     * Drops the rendering of the matrix holding this value, if any.
+     */
+    void invalidate() {
+        if (parent != null && parent.getValue() instanceof DatavyuMatrixValue) {
+            ((DatavyuMatrixValue) parent.getValue()).invalidate();
+        }
+    }
+
+    /**
+     * Records the state of the cell holding this value with the journal of
+     * the owning datastore before it changes.
+     */
+    void journal() {
+        if (parent instanceof DatavyuCell) {
+            ((DatavyuCell) parent).journal();
+        }
+    }
+
+    /**
+     * Records with the cell holding this value that it has changed.
+     */
+    void changed() {
+        if (parent instanceof DatavyuCell) {
+            ((DatavyuCell) parent).changed();
+        }
+    }
+
     public Argument getArgument() {
         return arg;
     }
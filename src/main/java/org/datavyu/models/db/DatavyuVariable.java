@@ -23,20 +23,20 @@
 
 package org.datavyu.models.db;
 
-import org.datavyu.Datavyu;
-
 import java.util.*;
 
 /**
  * Maps a variable object to a datastore.
  */
 public final class DatavyuVariable implements Variable {
-    // All the listeners for variables in teh datastore.
-    static Map<UUID, List<VariableListener>> allListeners =
-            new HashMap<UUID, List<VariableListener>>();
-    private static CellComparator CellComparator = new CellComparator();
+    // Shared by every variable without listeners.
+    private static final VariableListener[] NO_LISTENERS = new VariableListener[0];
     final private UUID variableId = UUID.randomUUID();
     private List<Cell> cells = new ArrayList<Cell>();
+    // The cells of this variable, ordered temporally.
+    private final CellIntervalIndex temporalIndex = new CellIntervalIndex();
+    // Cells created while the datastore is bulk loading, not yet announced.
+    private List<Cell> pendingInserts = new ArrayList<Cell>();
     private Argument rootNodeArgument = null;
     private Boolean selected;
     private Boolean highlighted;
@@ -44,6 +44,14 @@ public final class DatavyuVariable implements Variable {
     private String name;
     private int orderIndex = -1;
     private DatavyuDatastore owningDatastore;
+    // Was this variable exempted from the naming rules while detached?
+    private boolean exempt = false;
+    // The listeners for this variable, replaced (never modified) on each
+    // change so that notification can iterate without locking or copying.
+    private volatile VariableListener[] listeners = NO_LISTENERS;
+
+    // Bumped on every change to this variable or one of its cells.
+    private volatile long version = 0;
 
     /**
      * Default constructor.
@@ -61,6 +69,23 @@ public final class DatavyuVariable implements Variable {
         this(name, type, false, null);
     }
 
+    /**
+     * Constructs a detached variable - one that does not yet belong to a
+     * datastore. Detached variables can be populated independently of (and
+     * concurrently with) any datastore, and are attached later through
+     * {@link Datastore#addVariable(Variable)}. They do not notify listeners
+     * until attached.
+     *
+     * @param name          The name to use for the variable being constructed.
+     * @param type          The type to use for the variable being constructed.
+     * @param grandfathered Flag to exempt variable from naming rules.
+     */
+    public DatavyuVariable(String name,
+                           Argument.Type type,
+                           boolean grandfathered) throws UserWarningException {
+        this(name, newRootNode(name, type), grandfathered, null);
+    }
+
     /**
      * Constructor.
      *
@@ -80,37 +105,44 @@ public final class DatavyuVariable implements Variable {
         this.setSelected(true);
 
 
-        owningDatastore.markDBAsChanged();
+        markDB();
     }
 
     /**
-     * @param variableId The ID of the variable we want the listeners for.
-     * @return The list of listeners for the specified variableId.
+     * @param name The name of the variable.
+     * @param type The type of the variable.
+     * @return A new root argument for a variable of the supplied type.
      */
-    private static List<VariableListener> getListeners(UUID variableId) {
-        List<VariableListener> result = allListeners.get(variableId);
-        if (result == null) {
-            result = new ArrayList<VariableListener>();
-            allListeners.put(variableId, result);
+    static Argument newRootNode(final String name, final Argument.Type type) {
+        if (type == Argument.Type.MATRIX) {
+            return new Argument(name + name.hashCode(), type);
         }
-
-        return result;
+        return new Argument("var", type);
     }
 
     /**
-     * Removes all the listeners for all the variables.
+     * @return The listeners to notify of changes to this variable. Detached
+     * variables are not observed, so they have nothing to notify.
      */
-    public static void clearListeners() {
-        allListeners.clear();
+    private VariableListener[] getNotifiedListeners() {
+        if (owningDatastore == null) {
+            return NO_LISTENERS;
+        }
+        return listeners;
     }
 
     public void addCell(Cell cell) {
         if (cell.getValue().getArgument() == this.getRootNode()) {
+            journal(cell);
             cells.add(cell);
-            for (VariableListener vl : getListeners(getID())) {
+            temporalIndex.add(cell);
+            if (owningDatastore != null) {
+                owningDatastore.cellAdded(cell, this);
+            }
+            for (VariableListener vl : getNotifiedListeners()) {
                 vl.cellInserted(cell);
             }
-            owningDatastore.markDBAsChanged();
+            markDB();
         }
     }
 
@@ -118,6 +150,19 @@ public final class DatavyuVariable implements Variable {
         return owningDatastore;
     }
 
+    /**
+     * Attaches a detached variable to the datastore that will own it.
+     *
+     * @param datastore The datastore this variable now belongs to.
+     */
+    void attach(final DatavyuDatastore datastore) {
+        owningDatastore = datastore;
+        if (exempt) {
+            owningDatastore.addExemptionVariable(name);
+            exempt = false;
+        }
+    }
+
 
     /**
      * @return The internal ID for this variable.
@@ -130,26 +175,47 @@ public final class DatavyuVariable implements Variable {
     public Cell createCell() {
         Cell c = new DatavyuCell(this, this.getRootNode());
 
+        journal(c);
         cells.add(c);
+        temporalIndex.add(c);
+        if (owningDatastore == null) {
+            return c;
+        }
+        owningDatastore.cellAdded(c, this);
+
+        if (owningDatastore.isBulkLoading()) {
+            pendingInserts.add(c);
+            changed();
+            return c;
+        }
 
-        for (VariableListener vl : getListeners(getID())) {
+        for (VariableListener vl : getNotifiedListeners()) {
             vl.cellInserted(c);
         }
 
-        owningDatastore.markDBAsChanged();
+        markDB();
         return c;
     }
 
     @Override
     public void removeCell(final Cell cell) {
+        journal(cell);
         cells.remove(cell);
+        temporalIndex.remove(cell);
+        if (owningDatastore != null) {
+            owningDatastore.cellRemoved(cell);
+        }
 
-        owningDatastore.markDBAsChanged();
+        markDB();
 
-        for (VariableListener vl : getListeners(getID())) {
+        for (VariableListener vl : getNotifiedListeners()) {
             vl.cellRemoved(cell);
         }
 
+        // Whoever was watching the cell has been told it is gone.
+        if (cell instanceof DatavyuCell) {
+            ((DatavyuCell) cell).clearListeners();
+        }
     }
 
     @Override
@@ -159,8 +225,7 @@ public final class DatavyuVariable implements Variable {
 
     @Override
     public Cell getCellTemporally(final int index) {
-        Collections.sort(cells, CellComparator);
-        return cells.get(index);
+        return temporalIndex.get(index);
     }
 
     @Override
@@ -170,7 +235,8 @@ public final class DatavyuVariable implements Variable {
 
     @Override
     public void setRootNode(final Argument a) {
-        owningDatastore.markDBAsChanged();
+        journal(true);
+        markDB();
         rootNodeArgument = a;
     }
 
@@ -188,13 +254,51 @@ public final class DatavyuVariable implements Variable {
 
     @Override
     public List<Cell> getCellsTemporally() {
-        Collections.sort(cells, CellComparator);
-        return cells;
+        return temporalIndex.toList();
+    }
+
+    @Override
+    public List<Cell> getCellsAt(final long time) {
+        return temporalIndex.stab(time);
+    }
+
+    @Override
+    public Cell getLastCellStartedBy(final long time) {
+        return temporalIndex.lastStartedBy(time);
+    }
+
+    @Override
+    public List<Cell> getCellsOverlapping(final long start, final long end) {
+        return temporalIndex.overlapping(start, end);
+    }
+
+    /**
+     * Announces the cells that were created during a bulk load of the owning
+     * datastore to the listeners of this variable.
+     */
+    void flushBulkLoad() {
+        VariableListener[] notified = getNotifiedListeners();
+        for (Cell c : pendingInserts) {
+            for (VariableListener vl : notified) {
+                vl.cellInserted(c);
+            }
+        }
+        pendingInserts = new ArrayList<Cell>();
+    }
+
+    /**
+     * Re-positions a cell within the temporal ordering of this variable, called
+     * by the cell whenever its onset or offset changes.
+     *
+     * @param cell The cell whose times have changed.
+     */
+    void cellTimesChanged(final Cell cell) {
+        temporalIndex.update(cell);
     }
 
     @Override
     public boolean contains(final Cell c) {
-        return cells.contains(c);
+        return temporalIndex.contains(c);
     }
 
     @Override
@@ -215,10 +319,11 @@ public final class DatavyuVariable implements Variable {
     @Override
     public void setHidden(final boolean hiddenParm) {
         if (hidden == null || hiddenParm != hidden) {
-            owningDatastore.markDBAsChanged();
+            journal(false);
+            markDB();
             hidden = hiddenParm;
 
-            for (VariableListener vl : getListeners(getID())) {
+            for (VariableListener vl : getNotifiedListeners()) {
                 vl.visibilityChanged(hidden);
             }
         }
@@ -247,25 +352,50 @@ public final class DatavyuVariable implements Variable {
         }
 
         if (grandfathered && !isNameValid(newName)) {
-            owningDatastore.addExemptionVariable(newName);
+            if (owningDatastore != null) {
+                owningDatastore.addExemptionVariable(newName);
+            } else {
+                exempt = true;
+            }
         }
 
+        journal(false);
         if (name != null && owningDatastore != null) {
             owningDatastore.updateVariableName(name, newName, this);
         }
         this.name = newName;
-        for (VariableListener vl : getListeners(getID())) {
+        changed();
+        for (VariableListener vl : getNotifiedListeners()) {
             vl.nameChanged(newName);
         }
     }
 
+    /**
+     * Puts back a previous name of this variable, bypassing the naming rules
+     * and leaving the datastore to update its own records.
+     *
+     * @param oldName The name to restore.
+     */
+    void restoreName(final String oldName) {
+        this.name = oldName;
+        changed();
+        for (VariableListener vl : getNotifiedListeners()) {
+            vl.nameChanged(oldName);
+        }
+    }
+
 
-    private boolean isNameValid(String nameCandidate) {
+    /**
+     * @param nameCandidate The name to check.
+     * @return True if the name follows the naming rules for variables.
+     */
+    public static boolean isNameValid(String nameCandidate) {
         return nameCandidate != null && nameCandidate.matches("[a-zA-Z][a-zA-Z0-9_]*") && nameCandidate.length() < 255;
     }
 
     @Override
     public Argument addArgument(final Argument.Type type) {
+        journal(true);
         Argument arg = getRootNode();
         Argument child = arg.addChildArgument(type);
 
@@ -286,6 +416,7 @@ public final class DatavyuVariable implements Variable {
             return;
         }
 
+        journal(true);
         Argument moved_arg = arg.childArguments.get(old_index);
         arg.childArguments.remove(moved_arg);
         arg.childArguments.add(new_index, moved_arg);
@@ -305,6 +436,7 @@ public final class DatavyuVariable implements Variable {
 
     @Override
     public void removeArgument(final String name) {
+        journal(true);
         Argument arg = getRootNode();
         int arg_index = getArgumentIndex(name);
         arg.childArguments.remove(arg_index);
@@ -329,13 +461,37 @@ public final class DatavyuVariable implements Variable {
     }
 
     @Override
-    public void addListener(final VariableListener listener) {
-        getListeners(getID()).add(listener);
+    public synchronized void addListener(final VariableListener listener) {
+        VariableListener[] result = Arrays.copyOf(listeners, listeners.length + 1);
+        result[listeners.length] = listener;
+        listeners = result;
     }
 
     @Override
-    public void removeListener(final VariableListener listener) {
-        getListeners(getID()).remove(listener);
+    public synchronized void removeListener(final VariableListener listener) {
+        for (int i = 0; i < listeners.length; i++) {
+            if (listeners[i].equals(listener)) {
+                VariableListener[] result = new VariableListener[listeners.length - 1];
+                System.arraycopy(listeners, 0, result, 0, i);
+                System.arraycopy(listeners, i + 1, result, i, result.length - i);
+                listeners = result;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Drops every listener of this variable and its cells, called once the
+     * variable has been removed from its datastore and the removal has been
+     * announced.
+     */
+    void clearListeners() {
+        listeners = NO_LISTENERS;
+        for (Cell cell : cells) {
+            if (cell instanceof DatavyuCell) {
+                ((DatavyuCell) cell).clearListeners();
+            }
+        }
     }
 
     @Override
@@ -348,16 +504,68 @@ public final class DatavyuVariable implements Variable {
         orderIndex = newIndex;
     }
 
-    //would like to change the above calls to DatavyuDatastore.markDBAsChanged to this,
-    //but am holding off for now to avoid merge complications
+    /**
+     * Puts back a previous set of arguments for this variable. The values of
+     * the cells are left for the caller to rebuild.
+     *
+     * @param root      The root argument to restore.
+     * @param arguments The child arguments the root argument held.
+     */
+    void restoreRootNode(final Argument root, final List<Argument> arguments) {
+        root.childArguments.clear();
+        root.childArguments.addAll(arguments);
+        rootNodeArgument = root;
+        markDB();
+    }
+
+    /**
+     * Records the state of this variable with the journal of the owning
+     * datastore before it changes.
+     *
+     * @param structure True if the arguments of this variable are about to
+     *                  change.
+     */
+    private void journal(final boolean structure) {
+        if (owningDatastore != null) {
+            owningDatastore.journalVariable(this, structure);
+        }
+    }
+
+    /**
+     * Records the state of one of the cells of this variable with the journal
+     * of the owning datastore before it changes.
+     *
+     * @param cell The cell about to change.
+     */
+    private void journal(final Cell cell) {
+        if (owningDatastore != null && cell instanceof DatavyuCell) {
+            owningDatastore.journalCell((DatavyuCell) cell, this);
+        }
+    }
+
+    /**
+     * @return A stamp that differs whenever this variable or one of its cells
+     * has changed since the stamp was last fetched.
+     */
+    long getVersion() {
+        return version;
+    }
+
+    /**
+     * Records that this variable or one of its cells has changed.
+     */
+    void changed() {
+        version++;
+    }
+
+    /**
+     * Marks the owning datastore as changed, detached variables have nothing
+     * to mark.
+     */
     private void markDB() {
+        changed();
         if (owningDatastore != null) {
             owningDatastore.markDBAsChanged();
-        } else if (Datavyu.getProjectController() != null) {
-            //uncomment the below when markDBAsChanged is non-static
-            //owningDatastore.markDBAsChanged();
-        } else {
-            System.out.println("FAILED TO MARK DATASTORE");
         }
     }
 }
\ No newline at end of file
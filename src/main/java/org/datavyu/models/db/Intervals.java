@@ -0,0 +1,527 @@
+/*
+ * Copyright (c) 2011 Datavyu Foundation, http://datavyu.org
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.datavyu.models.db;
+import java.util.*;
+
+/**
+ * Onset/offset intervals of a column of cells, with the interval operators
+ * used by the scripting API: time lookup, overlap, coverage, joins between
+ * columns and the segmentation behind mutually exclusive columns. Scripts
+ * work on copies of the cells that they edit and reorder freely before
+ * writing them back, so the operators take plain arrays rather than the
+ * temporal index of a {@link Variable}.
+ *
+ * Intervals are closed - a cell covers every time from its onset up to and
+ * including its offset. The scripting API has always compared cells this way
+ * (getCellFromTime, checkReliability and createMutuallyExclusive all test
+ * offset >= time), and coders treat the offset as the last millisecond of a
+ * cell, which is why a new cell ends the previous one a millisecond before
+ * its onset. Scripts written against that rule must keep working.
+ *
+ * This differs from {@link Variable#getCellsAt(long)}, {@link
+ * Variable#getCellsOverlapping(long, long)} and {@link
+ * Cell#isInTimeWindow(long)}, which use [onset, offset) for the playhead. A
+ * closed interval [onset, offset] is the half-open interval [onset, offset +
+ * 1), so the two only disagree at the offset itself: find, findCovering and
+ * overlapping also return a cell whose offset is the time, and a cell with
+ * equal onset and offset holds that one time. Coverage is a length,
+ * offset - onset, and is the same under either rule.
+ *
+ * Intervals are addressed by their position in the arrays given to the
+ * constructor, and operators that return several intervals return them in
+ * that order.
+ *
+ * The intervals are sorted by onset once, with a tree of the largest offset
+ * over each range of that order, so lookups take logarithmic time plus the
+ * number of intervals holding the time or window, rather than a scan of the
+ * column. The time covered is merged into runs with running totals, so
+ * coverage is logarithmic too. Columns fetched from the datastore are
+ * already in temporal order and are not copied.
+ */
+public final class Intervals {
+
+    /**
+     * The onset of each interval.
+     */
+    private final long[] onsets;
+
+    /**
+     * The offset of each interval.
+     */
+    private final long[] offsets;
+
+    /**
+     * The intervals in onset order, or null if the arrays were already
+     * sorted by onset.
+     */
+    private final int[] order;
+
+    /**
+     * The onsets, in onset order.
+     */
+    private final long[] sortedOnsets;
+
+    /**
+     * The number of leaves in the tree of offsets.
+     */
+    private final int leaves;
+
+    /**
+     * The tree of the largest offset within each range of the onset order,
+     * with the root at 1 and the leaves from {@link #leaves} onwards.
+     */
+    private final long[] maxOffsets;
+
+    /**
+     * The start and end of each run of time covered by the intervals, in
+     * order, and the time covered by the runs before each run.
+     */
+    private final long[] runStarts;
+    private final long[] runEnds;
+    private final long[] runTotals;
+
+    /**
+     * Constructor.
+     *
+     * @param onsets  The onset of each interval.
+     * @param offsets The offset of each interval.
+     */
+    public Intervals(final long[] onsets, final long[] offsets) {
+        if (onsets.length != offsets.length) {
+            throw new IllegalArgumentException("Every interval needs an onset and an offset");
+        }
+
+        this.onsets = onsets;
+        this.offsets = offsets;
+
+        boolean sorted = true;
+        for (int i = 1; i < onsets.length && sorted; i++) {
+            sorted = onsets[i - 1] <= onsets[i];
+        }
+
+        if (sorted) {
+            order = null;
+            sortedOnsets = onsets;
+        } else {
+            Integer[] boxed = new Integer[onsets.length];
+            for (int i = 0; i < boxed.length; i++) {
+                boxed[i] = i;
+            }
+            // Stable, so intervals with the same onset keep their order.
+            Arrays.sort(boxed, new Comparator<Integer>() {
+                @Override
+                public int compare(final Integer a, final Integer b) {
+                    long x = onsets[a];
+                    long y = onsets[b];
+                    return x < y ? -1 : (x == y ? 0 : 1);
+                }
+            });
+
+            order = new int[boxed.length];
+            sortedOnsets = new long[boxed.length];
+            for (int i = 0; i < boxed.length; i++) {
+                order[i] = boxed[i];
+                sortedOnsets[i] = onsets[boxed[i]];
+            }
+        }
+
+        int n = 1;
+        while (n < onsets.length) {
+            n <<= 1;
+        }
+        leaves = n;
+        maxOffsets = new long[2 * n];
+        Arrays.fill(maxOffsets, Long.MIN_VALUE);
+        for (int p = 0; p < onsets.length; p++) {
+            maxOffsets[n + p] = offsets[index(p)];
+        }
+        for (int i = n - 1; i > 0; i--) {
+            maxOffsets[i] = Math.max(maxOffsets[2 * i], maxOffsets[2 * i + 1]);
+        }
+
+        // Onsets only grow, so a run ends at the first gap.
+        long[] starts = new long[onsets.length];
+        long[] ends = new long[onsets.length];
+        int runs = 0;
+        for (int p = 0; p < onsets.length; p++) {
+            long onset = sortedOnsets[p];
+            long offset = offsets[index(p)];
+            if (onset > offset) {
+                continue;
+            }
+
+            if (runs == 0 || onset > ends[runs - 1]) {
+                starts[runs] = onset;
+                ends[runs] = offset;
+                runs++;
+            } else if (offset > ends[runs - 1]) {
+                ends[runs - 1] = offset;
+            }
+        }
+        runStarts = Arrays.copyOf(starts, runs);
+        runEnds = Arrays.copyOf(ends, runs);
+        runTotals = new long[runs + 1];
+        for (int r = 0; r < runs; r++) {
+            runTotals[r + 1] = runTotals[r] + runEnds[r] - runStarts[r];
+        }
+    }
+
+    /**
+     * @param view The column of cells.
+     * @return The intervals of the cells in the view, addressed by their
+     * temporal index.
+     */
+    public static Intervals of(final ColumnView view) {
+        return new Intervals(view.getOnsets(), view.getOffsets());
+    }
+
+    /**
+     * @param variable The variable holding the cells.
+     * @return The intervals of the cells of the variable, addressed by their
+     * temporal index (see {@link Variable#getCellsTemporally()}).
+     */
+    public static Intervals of(final Variable variable) {
+        return of(new ColumnView(variable));
+    }
+
+    /**
+     * @return The number of intervals.
+     */
+    public int size() {
+        return onsets.length;
+    }
+
+    /**
+     * @param index The position of the interval.
+     * @return The onset of the interval.
+     */
+    public long getOnset(final int index) {
+        return onsets[index];
+    }
+
+    /**
+     * @param index The position of the interval.
+     * @return The offset of the interval.
+     */
+    public long getOffset(final int index) {
+        return offsets[index];
+    }
+
+    /**
+     * @param time The time in milliseconds to look up.
+     * @return The first interval holding the time, or -1 if there is none.
+     */
+    public int find(final long time) {
+        return findCovering(0, time, time);
+    }
+
+    /**
+     * @param from  The first interval to consider.
+     * @param start The start of the window in milliseconds.
+     * @param end   The end of the window in milliseconds.
+     * @return The first interval from the supplied position onwards that
+     * covers the whole window, or -1 if there is none.
+     */
+    public int findCovering(final int from, final long start, final long end) {
+        if (order == null) {
+            return first(1, 0, leaves, from, upper(start), end);
+        }
+
+        // Positions are not indexes, so take the first of every interval
+        // covering the window.
+        List<Integer> found = new ArrayList<Integer>();
+        collect(1, 0, leaves, upper(start), end, found);
+        int result = -1;
+        for (int p : found) {
+            int i = index(p);
+            if (i >= from && (result < 0 || i < result)) {
+                result = i;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param start The start of the window in milliseconds.
+     * @param end   The end of the window in milliseconds.
+     * @return Every interval that shares at least one time with the window.
+     */
+    public int[] overlapping(final long start, final long end) {
+        if (start > end) {
+            return new int[0];
+        }
+
+        List<Integer> found = new ArrayList<Integer>();
+        collect(1, 0, leaves, upper(end), start, found);
+
+        int[] result = new int[found.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = index(found.get(i));
+        }
+        if (order != null) {
+            Arrays.sort(result);
+        }
+        return result;
+    }
+
+    /**
+     * @param start The start of the window in milliseconds.
+     * @param end   The end of the window in milliseconds.
+     * @return The number of milliseconds of the window covered by at least one
+     * interval.
+     */
+    public long coverage(final long start, final long end) {
+        if (start > end) {
+            return 0;
+        }
+
+        // The runs from the first ending at or after the start, up to the
+        // last starting at or before the end.
+        int first = Arrays.binarySearch(runEnds, start);
+        first = first < 0 ? -first - 1 : first;
+        int last = Arrays.binarySearch(runStarts, end);
+        last = last < 0 ? -last - 2 : last;
+        if (first > last) {
+            return 0;
+        }
+
+        long total = runTotals[last + 1] - runTotals[first];
+        total -= Math.max(0, start - runStarts[first]);
+        total -= Math.max(0, runEnds[last] - end);
+        return total;
+    }
+
+    /**
+     * Splits each interval into blocks of a fixed length. Intervals no longer
+     * than a block are kept whole; longer intervals are cut into blocks from
+     * their onset, keeping every skip'th block, the last block being cut short
+     * by the offset.
+     *
+     * @param length The length of a block in milliseconds.
+     * @param skip   Keep one block in this many.
+     * @return The onset and offset of each block kept, in order.
+     */
+    public long[][] blocks(final long length, final int skip) {
+        List<long[]> result = new ArrayList<long[]>();
+        for (int i = 0; i < onsets.length; i++) {
+            long duration = offsets[i] - onsets[i];
+            if (duration <= length) {
+                result.add(new long[]{onsets[i], offsets[i]});
+                continue;
+            }
+
+            long count = duration / length;
+            for (long b = 0; b <= count; b++) {
+                if (b % skip == 0) {
+                    long onset = onsets[i] + b * length;
+                    result.add(new long[]{onset, Math.min(onset + length, offsets[i])});
+                }
+            }
+        }
+
+        return result.toArray(new long[result.size()][]);
+    }
+
+    /**
+     * Overlap join of two columns.
+     *
+     * @param left  The first column.
+     * @param right The second column.
+     * @return Each pair {left index, right index} of intervals that share at
+     * least one time, ordered by the left and then the right index.
+     */
+    public static int[][] join(final Intervals left, final Intervals right) {
+        List<int[]> result = new ArrayList<int[]>();
+        for (int i = 0; i < left.size(); i++) {
+            for (int j : right.overlapping(left.onsets[i], left.offsets[i])) {
+                result.add(new int[]{i, j});
+            }
+        }
+
+        return result.toArray(new int[result.size()][]);
+    }
+
+    /**
+     * Cuts the time spanned by two columns into segments at every onset and
+     * offset of either column, and finds the cell of each column active during
+     * each segment.
+     *
+     * A cell is active during a segment if it covers the whole segment; a
+     * segment one millisecond long only matches a cell with exactly those
+     * times. Each column is searched from the cell found for the previous
+     * segment onwards. Segments with no active cell in either column are left
+     * out.
+     *
+     * @param first  The first column.
+     * @param second The second column.
+     * @return Each segment as {onset, offset, first index, second index},
+     * where an index is -1 if no cell of that column is active.
+     */
+    public static long[][] mutuallyExclusive(final Intervals first, final Intervals second) {
+        long[] times = new long[2 * (first.size() + second.size())];
+        int n = 0;
+        for (Intervals column : new Intervals[]{first, second}) {
+            for (int i = 0; i < column.size(); i++) {
+                times[n++] = column.onsets[i];
+                times[n++] = column.offsets[i];
+            }
+        }
+        Arrays.sort(times);
+
+        List<long[]> result = new ArrayList<long[]>();
+        int firstFrom = 0;
+        int secondFrom = 0;
+        long start = 0;
+        boolean started = false;
+        for (long end : times) {
+            if (started && end == start) {
+                continue;
+            }
+
+            if (started) {
+                int i = first.findSegment(firstFrom, start, end);
+                int j = second.findSegment(secondFrom, start, end);
+                if (i >= 0) {
+                    firstFrom = i;
+                }
+                if (j >= 0) {
+                    secondFrom = j;
+                }
+                if (i >= 0 || j >= 0) {
+                    result.add(new long[]{start, end, i, j});
+                }
+            }
+
+            start = end;
+            started = true;
+        }
+
+        return result.toArray(new long[result.size()][]);
+    }
+
+    /**
+     * @param from  The first interval to consider.
+     * @param start The start of the segment.
+     * @param end   The end of the segment.
+     * @return The first interval from the supplied position onwards that is
+     * active during the segment, as described by
+     * {@link #mutuallyExclusive(Intervals, Intervals)}.
+     */
+    private int findSegment(final int from, final long start, final long end) {
+        if (end - start > 1) {
+            return findCovering(from, start, end);
+        }
+
+        int result = -1;
+        for (int p = lower(start); p < upper(start); p++) {
+            int i = index(p);
+            if (i >= from && offsets[i] == end && (result < 0 || i < result)) {
+                result = i;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param position A position in onset order.
+     * @return The interval at that position.
+     */
+    private int index(final int position) {
+        return order == null ? position : order[position];
+    }
+
+    /**
+     * @param time A time in milliseconds.
+     * @return The first position in onset order with an onset at or after the
+     * supplied time.
+     */
+    private int lower(final long time) {
+        int lo = 0;
+        int hi = sortedOnsets.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (sortedOnsets[mid] < time) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * @param time A time in milliseconds.
+     * @return The first position in onset order with an onset after the
+     * supplied time.
+     */
+    private int upper(final long time) {
+        int lo = 0;
+        int hi = sortedOnsets.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (sortedOnsets[mid] <= time) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * @return The first position within [from, to) with an offset of at least
+     * the supplied time, or -1 if there is none.
+     */
+    private int first(final int node, final int lo, final int hi,
+                      final int from, final int to, final long time) {
+        if (hi <= from || to <= lo || maxOffsets[node] < time) {
+            return -1;
+        }
+        if (hi - lo == 1) {
+            return lo;
+        }
+
+        int mid = (lo + hi) >>> 1;
+        int result = first(2 * node, lo, mid, from, to, time);
+        return result >= 0 ? result : first(2 * node + 1, mid, hi, from, to, time);
+    }
+
+    /**
+     * Adds every position before the supplied one with an offset of at least
+     * the supplied time to the result, in order.
+     */
+    private void collect(final int node, final int lo, final int hi,
+                         final int to, final long time, final List<Integer> result) {
+        if (to <= lo || maxOffsets[node] < time) {
+            return;
+        }
+        if (hi - lo == 1) {
+            result.add(lo);
+            return;
+        }
+
+        int mid = (lo + hi) >>> 1;
+        collect(2 * node, lo, mid, to, time, result);
+        collect(2 * node + 1, mid, hi, to, time, result);
+    }
+}
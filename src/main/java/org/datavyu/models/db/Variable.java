@@ -86,6 +86,33 @@ public interface Variable {
      */
     List<Cell> getCellsTemporally();
 
+    /**
+     * Stabbing query - finds the cells that are active at a given time.
+     *
+     * @param time The time in milliseconds to query.
+     * @return The cells where onset <= time < offset, in temporal order.
+     */
+    List<Cell> getCellsAt(final long time);
+
+    /**
+     * Floor query - finds the cell that most recently started at a given time.
+     *
+     * @param time The time in milliseconds to query.
+     * @return The last cell, in temporal order, with an onset at or before
+     * the time, or null if there is none.
+     */
+    Cell getLastCellStartedBy(final long time);
+
+    /**
+     * Range query - finds the cells that overlap a window of time.
+     *
+     * @param start The start of the window in milliseconds (inclusive).
+     * @param end   The end of the window in milliseconds (exclusive).
+     * @return The cells whose [onset, offset) interval intersects
+     * [start, end), in temporal order.
+     */
+    List<Cell> getCellsOverlapping(final long start, final long end);
+
     /**
      * @param c The cell to check if it exists in this variable.
      * @return True if this variable contains the supplied cell, false otherwise.
@@ -25,6 +25,7 @@ package org.datavyu.plugins;
 import java.io.File;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.concurrent.Future;
 
 import javax.swing.JDialog;
 import org.datavyu.models.db.Datastore;
@@ -155,6 +156,18 @@ public interface DataViewer {
      */
     void seekTo(long position);
 
+    /**
+     * Set the playback position to an absolute value, without waiting for
+     * the viewer to get there. A seek asked for while an earlier one is still
+     * waiting to start replaces it - only the latest position is sought.
+     *
+     * @param position The absolute millisecond playback position.
+     * @return The position sought, once the viewer is there. Shared by every
+     * seek the latest one replaced.
+     * @see SeekQueue
+     */
+    Future<Long> seekToAsync(long position);
+
     /**
      * @return Custom track painter implementation. Must not return null.
      * Plugins that do not have a custom track painter implementation should
@@ -0,0 +1,260 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.plugins;
+
+import org.datavyu.util.HashUtils;
+
+import java.io.*;
+import java.lang.reflect.Modifier;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * Finds the names of plugin classes without loading any classes.
+ *
+ * Plugins are listed in the standard service provider file
+ * ({@link #SERVICE}) of the jar or directory they are built into. Plugin jars
+ * without a service file are scanned for plugin classes once, the result is
+ * cached against the checksum of the jar so the scan is only repeated when
+ * the jar changes.
+ */
+final class PluginIndex {
+
+    /**
+     * The service provider file listing plugin class names.
+     */
+    static final String SERVICE = "META-INF/services/" + Plugin.class.getName();
+
+    private static final String UTF8 = "UTF-8";
+
+    /**
+     * The file holding the cached plugin classes of each jar, may be null to
+     * not cache anything.
+     */
+    private final File cacheFile;
+
+    /**
+     * The plugin classes of each jar, keyed by the checksum of the jar.
+     */
+    private final Properties cache = new Properties();
+
+    /**
+     * Are there entries in the cache that have not been stored yet?
+     */
+    private boolean dirty = false;
+
+    /**
+     * Constructor.
+     *
+     * @param cacheFile The file holding the cached plugin classes of each jar,
+     *                  null to not cache anything.
+     */
+    PluginIndex(final File cacheFile) {
+        this.cacheFile = cacheFile;
+        if (cacheFile != null && cacheFile.isFile()) {
+            try {
+                InputStream in = new FileInputStream(cacheFile);
+                try {
+                    cache.load(in);
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                // A broken cache is rebuilt as jars are indexed.
+                cache.clear();
+            }
+        }
+    }
+
+    /**
+     * @param loader The class loader to search.
+     * @return The plugin classes listed by every service file visible to the
+     * class loader, in class path order.
+     * @throws IOException If unable to read a service file.
+     */
+    static List<String> classpath(final ClassLoader loader) throws IOException {
+        Set<String> result = new LinkedHashSet<String>();
+        Enumeration<URL> services = loader.getResources(SERVICE);
+        while (services.hasMoreElements()) {
+            InputStream in = services.nextElement().openStream();
+            try {
+                result.addAll(read(in));
+            } finally {
+                in.close();
+            }
+        }
+
+        return new ArrayList<String>(result);
+    }
+
+    /**
+     * @param jarFile The plugin jar to index.
+     * @param loader  The class loader holding the jar, used to scan jars
+     *                without a service file.
+     * @return The plugin classes in the jar.
+     * @throws IOException If unable to read the jar.
+     */
+    List<String> jar(final File jarFile, final ClassLoader loader) throws IOException {
+        String checksum = checksum(jarFile);
+        String cached = cache.getProperty(checksum);
+        if (cached != null) {
+            return split(cached);
+        }
+
+        List<String> result;
+        JarFile jar = new JarFile(jarFile);
+        try {
+            JarEntry service = jar.getJarEntry(SERVICE);
+            if (service != null) {
+                InputStream in = jar.getInputStream(service);
+                try {
+                    result = read(in);
+                } finally {
+                    in.close();
+                }
+            } else {
+                result = scan(jar, loader);
+            }
+        } finally {
+            jar.close();
+        }
+
+        StringBuilder value = new StringBuilder();
+        for (String className : result) {
+            if (value.length() > 0) {
+                value.append(',');
+            }
+            value.append(className);
+        }
+        cache.setProperty(checksum, value.toString());
+        dirty = true;
+
+        return result;
+    }
+
+    /**
+     * Stores any newly indexed jars in the cache file.
+     *
+     * @throws IOException If unable to write the cache file.
+     */
+    void save() throws IOException {
+        if (!dirty || cacheFile == null) {
+            return;
+        }
+
+        OutputStream out = new FileOutputStream(cacheFile);
+        try {
+            cache.store(out, "Datavyu plugin classes by jar checksum");
+        } finally {
+            out.close();
+        }
+        dirty = false;
+    }
+
+    /**
+     * Reads the class names in a service file. Anything after a '#' is a
+     * comment, blank lines are ignored.
+     *
+     * @param in The content of the service file.
+     * @return The class names in the file.
+     * @throws IOException If unable to read the file.
+     */
+    static List<String> read(final InputStream in) throws IOException {
+        List<String> result = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, UTF8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            int comment = line.indexOf('#');
+            if (comment >= 0) {
+                line = line.substring(0, comment);
+            }
+            line = line.trim();
+            if (line.length() > 0 && !result.contains(line)) {
+                result.add(line);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Finds the concrete plugin classes in a jar without a service file. The
+     * classes are loaded but not initialized.
+     */
+    private static List<String> scan(final JarFile jar, final ClassLoader loader) {
+        List<String> result = new ArrayList<String>();
+        Enumeration<JarEntry> entries = jar.entries();
+        while (entries.hasMoreElements()) {
+            String name = entries.nextElement().getName();
+            if (!name.endsWith(".class") || name.contains("$")) {
+                continue;
+            }
+
+            String className = name.substring(0, name.length() - ".class".length()).replace('/', '.');
+            try {
+                Class<?> c = Class.forName(className, false, loader);
+                if (Plugin.class.isAssignableFrom(c)
+                        && (c.getModifiers() & (Modifier.ABSTRACT | Modifier.INTERFACE)) == 0) {
+                    result.add(className);
+                }
+            } catch (ClassNotFoundException e) {
+                // Not loadable, so not a plugin.
+            } catch (LinkageError e) {
+                // Depends on something missing, so not a usable plugin.
+            }
+        }
+
+        return result;
+    }
+
+    private static List<String> split(final String value) {
+        List<String> result = new ArrayList<String>();
+        for (String className : value.split(",")) {
+            if (className.length() > 0) {
+                result.add(className);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return The SHA-1 checksum of the content of a file, as hex.
+     */
+    private static String checksum(final File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("Unable to checksum plugin jar", e);
+        }
+
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[64 * 1024];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, n);
+            }
+        } finally {
+            in.close();
+        }
+
+        return HashUtils.convertToHex(digest.digest());
+    }
+}
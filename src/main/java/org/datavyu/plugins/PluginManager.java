@@ -29,13 +29,9 @@ import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
-import java.net.URI;
-import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.util.*;
-import java.util.jar.JarEntry;
-import java.util.jar.JarFile;
 
 
 /**
@@ -68,6 +64,16 @@ public final class PluginManager {
      * The logger for this class.
      */
     private static Logger LOGGER = UserMetrix.getLogger(PluginManager.class);
+    /**
+     * The class names of the available plugins, in the order they were found.
+     */
+    private Set<String> pluginClassNames;
+
+    /**
+     * Have the available plugins been built yet?
+     */
+    private boolean loaded = false;
+
     /**
      * Set of plugins.
      */
@@ -94,10 +100,11 @@ public final class PluginManager {
     private Map<String, GroupFileFilter> filters;
 
     /**
-     * Default constructor. Searches for valid plugins ... currently scans the
-     * classpath looking for classes that implement the plugin interface.
+     * Default constructor. Searches for valid plugins ... currently reads the
+     * plugin index of the classpath and of each jar in the plugins directory.
      */
     private PluginManager() {
+        pluginClassNames = Sets.newLinkedHashSet();
         plugins = Sets.newLinkedHashSet();
         pluginNames = Sets.newHashSet();
         pluginLookup = Maps.newHashMap();
@@ -118,130 +125,18 @@ public final class PluginManager {
     }
 
     /**
-     * Initalizes the plugin manager by searching for valid plugins to insert
-     * into the manager.
+     * Initalizes the plugin manager by reading the names of the available
+     * plugins from the plugin index. No plugin classes are loaded until a
+     * plugin is first asked for.
      */
     private void initialize() {
 
         System.out.println("Initializing plugin Manager");
         try {
             ClassLoader loader = Thread.currentThread().getContextClassLoader();
-//            ClassLoader loader = Datavyu.class.getClassLoader();
-            URL resource = loader.getResource("");
-
-            // Quaqua workaround
-            if ((resource != null)
-                    && resource.toString().equals(
-                    "file:/System/Library/Java/")) {
-                resource = null;
-            }
-
-            if (resource != null && resource.getPath().endsWith("lib/")) {
-                resource = null;
-            }
-
-            // Windows being stupid workaround
-//            if(resource == null) {
-//                CodeSource src = Datavyu.class.getProtectionDomain().getCodeSource();
-//                System.out.println("SRC LOCATION: " + src.getLocation().getPath());
-//                resource = src.getLocation();
-//            }
-//            System.out.println("RESOURCE: " + resource);
-
-            // The classloader references a jar - open the jar file up and
-            // iterate through all the entries and add the entries that are
-            // concrete Plugins.
-            if (resource == null) {
-                System.out.println("Loading plugins from jar");
-                resource = loader.getResource("org/datavyu");
-
-                if (resource == null) {
-                    throw new ClassNotFoundException("Can't get class loader.");
-                }
-
-                String file = resource.getFile();
-                file = file.substring(0, file.indexOf("!"));
-
-                URI uri = new URI(file);
-                File f = new File(uri);
-                JarFile jar = new JarFile(f);
-
-                Enumeration<JarEntry> entries = jar.entries();
-
-                while (entries.hasMoreElements()) {
-                    String name = entries.nextElement().getName();
-
-                    if (name.endsWith(".class")) {
-                        addPlugin(name);
-                    }
-                }
-
-                // The classloader references a bunch of .class files on disk,
-                // recusively inspect contents of each of the resources. If it
-                // is a directory add it to our workStack, otherwise check to
-                // see if it is a concrete plugin.
-            } else {
-
-                // If we are running from a test we need to look in more than
-                // one place for classes - add all these places to the workstack
-                Enumeration<URL> resources = loader.getResources("");
-                Stack<File> workStack = new Stack<File>();
-                Stack<String> packages = new Stack<String>();
-
-                while (resources.hasMoreElements()) {
-                    workStack.clear();
-
-                    File res = new File(resources.nextElement().getFile());
-
-                    // Dirty hack for Quaqua.
-                    if (res.equals(new File("/System/Library/Java"))) {
-                        continue;
-                    }
-
-                    workStack.push(res);
-
-                    packages.clear();
-                    packages.push("");
-
-                    while (!workStack.empty()) {
-
-                        // We must handle spaces in the directory name
-                        File f = workStack.pop();
-                        String s = f.getCanonicalPath();
-                        s = s.replaceAll("%20", " ");
-
-                        File dir = new File(s);
-
-                        String pkgName = packages.pop();
-
-                        // For each of the children of the directory - look for
-                        // Plugins or more directories to recurse inside.
-                        String[] files = dir.list();
-
-                        for (int i = 0; i < files.length; i++) {
-                            File file = new File(dir.getAbsolutePath() + "/"
-                                    + files[i]);
+            pluginClassNames.addAll(PluginIndex.classpath(loader));
 
-                            if (file == null) {
-                                throw new ClassNotFoundException("Null file");
-                            }
-
-                            // If the file is a directory, add to work list.
-                            if (file.isDirectory()) {
-                                workStack.push(file);
-                                packages.push(pkgName + file.getName() + ".");
-
-                                // If we are dealling with a class file -
-                                // attempt to add it to our list of plugins.
-                            } else if (files[i].endsWith(".class")) {
-                                addPlugin(pkgName.concat(files[i]));
-                            }
-                        }
-                    }
-                }
-            }
-
-            // We have scanned the Datavyu classpath - but we should also look
+            // We have indexed the Datavyu classpath - but we should also look
             // in the "plugins" directory for jar files that correctly conform
             // to the Datavyu plugin interface.
             LocalStorage ls = Datavyu.getApplication().getContext()
@@ -256,42 +151,38 @@ public final class PluginManager {
                 return;
             }
 
-            // For each of the files in the plugin directory - check to see if
-            // they conform to the plugin interface.
-            for (String file : pluginDir.list()) {
-                File f = new File(pluginDir.getAbsolutePath() + "/" + file);
-
-                if (file == null) {
-                    throw new ClassNotFoundException("Null file");
+            PluginIndex index = new PluginIndex(new File(ls.getDirectory(), "plugins.index"));
 
-                    // File is a jar file - crack it open and look for plugins!
-                } else if (file.endsWith(".jar")) {
+            // For each of the jar files in the plugin directory - add it to the
+            // classpath and look up the plugins it holds.
+            for (String file : pluginDir.list()) {
+                if (file.endsWith(".jar")) {
+                    File f = new File(pluginDir.getAbsolutePath() + "/" + file);
                     injectPlugin(f);
-
-                    JarFile jar = new JarFile(f);
-
-                    // For each file in the jar file check to see if it could be
-                    // a plugin.
-                    Enumeration<JarEntry> entries = jar.entries();
-
-                    while (entries.hasMoreElements()) {
-                        String name = entries.nextElement().getName();
-
-                        // Found a class file - attempt to add it as a plugin.
-                        if (name.endsWith(".class")) {
-                            addPlugin(name);
-                        }
-                    }
+                    pluginClassNames.addAll(index.jar(f, ClassLoader.getSystemClassLoader()));
                 }
             }
 
+            index.save();
+
             // Whoops, something went bad. Chuck a spaz.
-        } catch (ClassNotFoundException e) {
-            LOGGER.error("Unable to build Plugin", e);
         } catch (IOException ie) {
-            LOGGER.error("Unable to load jar file", ie);
-        } catch (URISyntaxException se) {
-            LOGGER.error("Unable to build path to jar file", se);
+            LOGGER.error("Unable to load plugin index", ie);
+        }
+    }
+
+    /**
+     * Builds every plugin named in the plugin index, the first time any
+     * plugin is needed.
+     */
+    private synchronized void load() {
+        if (loaded) {
+            return;
+        }
+
+        loaded = true;
+        for (String className : pluginClassNames) {
+            addPlugin(className);
         }
     }
 
@@ -327,55 +218,39 @@ public final class PluginManager {
     private void addPlugin(final String className) {
 
         try {
-            String cName = className.replaceAll("\\.class$", "").replace('/',
-                    '.');
-
-            /*
-             * Ignore classes that: - Belong to the UITests (traditionally this
-             * was because of the UISpec4J interceptor, which interrupted the
-             * UI. We still ignore UITest classes as these will not be plugins)
-             * - Are part of GStreamer, or JUnitX (these cause issues and are
-             * certainly not going to be plugins either)
-             */
-            if (!cName.contains("org.datavyu.uitests")
-                    && !cName.contains("org.gstreamer")
-                    && !cName.contains("ch.randelshofer")
-                    && !cName.startsWith("junitx")) {
-
-                Class<?> testClass = Class.forName(cName);
-
-                if (PLUGIN_CLASS.isAssignableFrom(testClass) && 
-                        (testClass.getModifiers() & (Modifier.ABSTRACT | Modifier.INTERFACE)) == 0)
-                {
-                    Plugin p = (Plugin) testClass.newInstance();
-
-                    String pluginName = p.getPluginName();
-
-                    if (pluginNames.contains(p.getPluginName())) {
-
-                        // We already have this plugin; stop processing it
-                        return;
-                    }
+            Class<?> testClass = Class.forName(className);
 
-                    pluginNames.add(pluginName);
+            if (PLUGIN_CLASS.isAssignableFrom(testClass) &&
+                    (testClass.getModifiers() & (Modifier.ABSTRACT | Modifier.INTERFACE)) == 0)
+            {
+                Plugin p = (Plugin) testClass.newInstance();
 
-                    buildGroupFilter(p);
+                String pluginName = p.getPluginName();
 
-                    // Just make sure that we have at least one file filter.
-                    assert p.getFilters() != null;
-                    assert p.getFilters().length > 0;
-                    assert p.getFilters()[0] != null;
+                if (pluginNames.contains(p.getPluginName())) {
 
-                    plugins.add(p);
+                    // We already have this plugin; stop processing it
+                    return;
+                }
 
-                    // BugzID:2110
-                    pluginClassifiers.put(p.getClassifier(), p);
+                pluginNames.add(pluginName);
 
-                    final Class<? extends DataViewer> cdv = p.getViewerClass();
+                buildGroupFilter(p);
 
-                    if (cdv != null) {
-                        pluginLookup.put(cdv.getName(), p);
-                    }
+                // Just make sure that we have at least one file filter.
+                assert p.getFilters() != null;
+                assert p.getFilters().length > 0;
+                assert p.getFilters()[0] != null;
+
+                plugins.add(p);
+
+                // BugzID:2110
+                pluginClassifiers.put(p.getClassifier(), p);
+
+                final Class<? extends DataViewer> cdv = p.getViewerClass();
+
+                if (cdv != null) {
+                    pluginLookup.put(cdv.getName(), p);
                 }
             }
         } catch (ClassNotFoundException e) {
@@ -407,10 +282,12 @@ public final class PluginManager {
     }
 
     public Iterable<? extends FileFilter> getFileFilters() {
+        load();
         return filters.values();
     }
 
     public Iterable<Plugin> getPlugins() {
+        load();
         List<Plugin> p = Lists.newArrayList(plugins);
         if (Datavyu.getPlatform() == Datavyu.Platform.MAC) {
             Collections.sort(p, new Comparator<Plugin>() {
@@ -513,6 +390,7 @@ public final class PluginManager {
             }
         }
 
+        load();
         for (Plugin candidate : pluginClassifiers.get(classifier)) {
 
             for (Filter filter : candidate.getFilters()) {
@@ -533,6 +411,7 @@ public final class PluginManager {
      * {@code null} otherwise.
      */
     public Plugin getAssociatedPlugin(final String dataViewer) {
+        load();
         return pluginLookup.get(dataViewer);
     }
 
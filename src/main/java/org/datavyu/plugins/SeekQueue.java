@@ -0,0 +1,179 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.plugins;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+
+/**
+ * The seeks of a data viewer, made one at a time in the background.
+ *
+ * There is a single slot for a seek waiting to be made: asking for a seek
+ * while one is waiting replaces its target, and every caller is handed the
+ * same future - only the latest target is sought. Seeks wait in the slot
+ * until the viewer says it is ready.
+ */
+public final class SeekQueue {
+
+    /**
+     * Makes the seeks of every viewer.
+     */
+    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(final Runnable r) {
+            Thread t = new Thread(r, "Viewer seek");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    /**
+     * Moves a viewer to a position, blocking until it is done.
+     */
+    public interface Seeker {
+
+        /**
+         * @param position The absolute millisecond playback position.
+         * @throws Exception If unable to seek.
+         */
+        void seek(long position) throws Exception;
+    }
+
+    /**
+     * Makes the seeks.
+     */
+    private final Seeker seeker;
+
+    /**
+     * The seek waiting to be made, null if there is none.
+     */
+    private Seek pending = null;
+
+    /**
+     * Is a seek being made?
+     */
+    private boolean running = false;
+
+    /**
+     * Is the viewer ready to seek?
+     */
+    private boolean ready;
+
+    /**
+     * Constructor.
+     *
+     * @param seeker Makes the seeks.
+     * @param ready  Is the viewer ready to seek?
+     */
+    public SeekQueue(final Seeker seeker, final boolean ready) {
+        this.seeker = seeker;
+        this.ready = ready;
+    }
+
+    /**
+     * Asks for a seek.
+     *
+     * @param position The absolute millisecond playback position.
+     * @return The position sought, once the seek is done.
+     */
+    public synchronized Future<Long> submit(final long position) {
+        if (pending == null) {
+            pending = new Seek();
+        }
+        pending.target = position;
+
+        Future<Long> result = pending.future;
+        startNext();
+        return result;
+    }
+
+    /**
+     * @param isReady Is the viewer ready to seek? Seeks asked for while it
+     *                is not wait (the latest replacing the rest) until it is.
+     */
+    public synchronized void setReady(final boolean isReady) {
+        ready = isReady;
+        startNext();
+    }
+
+    /**
+     * @return Is the viewer ready to seek?
+     */
+    public synchronized boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * @return Is a seek waiting or being made?
+     */
+    public synchronized boolean isBusy() {
+        return running || pending != null;
+    }
+
+    /**
+     * Starts the waiting seek, if there is one and nothing stops it.
+     */
+    private void startNext() {
+        if (running || !ready || pending == null) {
+            return;
+        }
+
+        final Seek next = pending;
+        pending = null;
+        running = true;
+
+        EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    next.future.run();
+                } finally {
+                    synchronized (SeekQueue.this) {
+                        running = false;
+                        startNext();
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * A seek, whose target may change until it is started.
+     */
+    private final class Seek implements Callable<Long> {
+
+        /**
+         * The position to seek to, guarded by the queue.
+         */
+        long target;
+
+        final FutureTask<Long> future = new FutureTask<Long>(this);
+
+        @Override
+        public Long call() throws Exception {
+            long position;
+            synchronized (SeekQueue.this) {
+                position = target;
+            }
+            seeker.seek(position);
+            return position;
+        }
+    }
+}
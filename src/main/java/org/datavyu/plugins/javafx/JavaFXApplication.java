@@ -14,6 +14,7 @@ import javafx.stage.Stage;
 import javafx.util.Duration;
 
 import java.io.File;
+import java.util.concurrent.CountDownLatch;
 
 /**
  * Created by jesse on 10/21/14.
@@ -21,7 +22,11 @@ import java.io.File;
 public class JavaFXApplication extends Application {
 
     File dataFile;
-    boolean init = false;
+    /**
+     * Counted down once the media is ready (or has failed to load).
+     */
+    private final CountDownLatch ready = new CountDownLatch(1);
+    private volatile boolean init = false;
     MediaPlayer mp;
     MediaView mv;
     Stage stage;
@@ -123,6 +128,20 @@ public class JavaFXApplication extends Application {
         return init;
     }
 
+    /**
+     * Waits for the media to be ready, without spinning.
+     *
+     * @return True if the media is ready, false if it failed to load.
+     */
+    public boolean awaitInit() {
+        try {
+            ready.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return init;
+    }
+
     public void closeAndDestroy() {
         Platform.runLater(new Runnable() {
             @Override
@@ -137,8 +156,15 @@ public class JavaFXApplication extends Application {
     public void start(final Stage primaryStage) {
         stage = primaryStage;
 
-        final Media m = new Media(dataFile.toURI().toString());
-        mp = new MediaPlayer(m);
+        final Media m;
+        try {
+            m = new Media(dataFile.toURI().toString());
+            mp = new MediaPlayer(m);
+        } catch (RuntimeException e) {
+            // Nothing more will happen, don't leave anyone waiting.
+            ready.countDown();
+            throw e;
+        }
         mp.setOnReady(new Runnable() {
             @Override
             public void run() {
@@ -171,6 +197,14 @@ public class JavaFXApplication extends Application {
 
                 init = true;
                 System.out.println(init);
+                ready.countDown();
+            }
+        });
+        mp.setOnError(new Runnable() {
+            @Override
+            public void run() {
+                System.err.println("Unable to load " + dataFile + ": " + mp.getError());
+                ready.countDown();
             }
         });
 
@@ -185,6 +185,9 @@ public class JavaFXDataViewer extends BaseQuickTimeDataViewer {
         data = dataFeed;
 
 
+        // Seeks wait until the media is ready.
+        seeks.setReady(false);
+
         // Needed to init JavaFX stuff
         new JFXPanel();
         javafxapp = new JavaFXApplication(dataFeed);
@@ -198,8 +201,8 @@ public class JavaFXDataViewer extends BaseQuickTimeDataViewer {
 
 
         // Wait for javafx to initialize
-        while (!javafxapp.isInit()) {
-        }
+        javafxapp.awaitInit();
+        seeks.setReady(true);
 
         // Hide our fake dialog box
         dialog.setVisible(false);
@@ -22,6 +22,7 @@ import org.datavyu.models.id.Identifier;
 import org.datavyu.plugins.CustomActions;
 import org.datavyu.plugins.CustomActionsAdapter;
 import org.datavyu.plugins.DataViewer;
+import org.datavyu.plugins.SeekQueue;
 import org.datavyu.plugins.ViewerStateListener;
 import org.datavyu.views.DataController;
 import org.datavyu.views.DatavyuDialog;
@@ -40,6 +41,7 @@ import java.io.OutputStream;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.Future;
 
 
 public abstract class BaseQuickTimeDataViewer extends DatavyuDialog
@@ -77,6 +79,15 @@ public abstract class BaseQuickTimeDataViewer extends DatavyuDialog
      */
     private final List<ViewerStateListener> viewerListeners =
             new LinkedList<ViewerStateListener>();
+    /**
+     * The seeks asked for with seekToAsync, made with seekTo.
+     */
+    protected final SeekQueue seeks = new SeekQueue(new SeekQueue.Seeker() {
+        @Override
+        public void seek(final long position) {
+            seekTo(position);
+        }
+    }, true);
     /**
      * Stores the desired volume the plugin should play at.
      */
@@ -509,6 +520,13 @@ public abstract class BaseQuickTimeDataViewer extends DatavyuDialog
      */
     public abstract void seekTo(final long position);
 
+    /**
+     * {@inheritDoc}
+     */
+    public Future<Long> seekToAsync(final long position) {
+        return seeks.submit(position);
+    }
+
     /**
      * {@inheritDoc}
      */
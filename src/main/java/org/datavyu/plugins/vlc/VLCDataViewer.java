@@ -1,15 +1,20 @@
 package org.datavyu.plugins.vlc;
 
+import org.datavyu.Datavyu;
 import org.datavyu.models.db.Datastore;
 import org.datavyu.models.id.Identifier;
 import org.datavyu.plugins.CustomActions;
 import org.datavyu.plugins.CustomActionsAdapter;
 import org.datavyu.plugins.DataViewer;
+import org.datavyu.plugins.SeekQueue;
 import org.datavyu.plugins.ViewerStateListener;
 import org.datavyu.util.DataViewerUtils;
 import org.datavyu.views.DataController;
 import org.datavyu.views.component.DefaultTrackPainter;
 import org.datavyu.views.component.TrackPainter;
+import uk.co.caprica.vlcj.player.MediaPlayer;
+import uk.co.caprica.vlcj.player.MediaPlayerEventAdapter;
+import uk.co.caprica.vlcj.player.MediaPlayerEventListener;
 import uk.co.caprica.vlcj.player.MediaPlayerFactory;
 import uk.co.caprica.vlcj.player.embedded.EmbeddedMediaPlayer;
 import uk.co.caprica.vlcj.player.embedded.FullScreenStrategy;
@@ -22,11 +27,18 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 
 public class VLCDataViewer implements DataViewer {
 
     private static final float FALLBACK_FRAME_RATE = 24.0f;
+    /**
+     * How long to wait for VLC to start showing video, in milliseconds.
+     */
+    private static final long VIDEO_OUTPUT_TIMEOUT = 500L;
     /**
      * Data viewer ID.
      */
@@ -96,6 +108,16 @@ public class VLCDataViewer implements DataViewer {
     private Thread vlcThread;
     private boolean assumedFPS = false;
 
+    /**
+     * The seeks asked for with seekToAsync, which wait for the data feed.
+     */
+    private final SeekQueue seeks = new SeekQueue(new SeekQueue.Seeker() {
+        @Override
+        public void seek(final long position) {
+            launchEdtTaskNow(seekTask(position));
+        }
+    }, false);
+
     public VLCDataViewer(final Frame parent, final boolean modal) {
 
         playing = false;
@@ -122,6 +144,7 @@ public class VLCDataViewer implements DataViewer {
         );
 
         // Create a factory instance (once), you can keep a reference to this
+        Datavyu.awaitNativeLibraries();
         mediaPlayerFactory = new MediaPlayerFactory(libvlcArgs);
 
         // Create a full-screen strategy
@@ -247,24 +270,27 @@ public class VLCDataViewer implements DataViewer {
         data = dataFeed;
         vlcDialog.setVisible(true);
         vlcDialog.setName(vlcDialog.getName() + "-" + dataFeed.getName());
+
+        // Because of the way VLC works, we have to wait for the metadata to become
+        // available a short time after we start playing - signalled by the video
+        // output event.
+        final CountDownLatch videoOutput = new CountDownLatch(1);
+        MediaPlayerEventListener outputListener = new MediaPlayerEventAdapter() {
+            @Override
+            public void videoOutput(MediaPlayer player, int newCount) {
+                videoOutput.countDown();
+            }
+        };
+        mediaPlayer.addMediaPlayerEventListener(outputListener);
         mediaPlayer.startMedia(dataFeed.getAbsolutePath());
 
         // Grab FPS and length
-
-        // Because of the way VLC works, we have to wait for the metadata to become
-        // available a short time after we start playing.
-        // TODO: reimplement this using the video output event
         try {
-            int i = 0;
-            while (mediaPlayer.getVideoDimension() == null) {
-                if (i > 100)
-                    break;
-                Thread.sleep(5);
-                i++;
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
+            videoOutput.await(VIDEO_OUTPUT_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
+        mediaPlayer.removeMediaPlayerEventListener(outputListener);
 
         fps = mediaPlayer.getFps();
         length = mediaPlayer.getLength();
@@ -303,6 +329,8 @@ public class VLCDataViewer implements DataViewer {
                             + "Setting framerate to " + FALLBACK_FRAME_RATE);
                     */
         }
+
+        seeks.setReady(true);
     }
 
     @Override
@@ -317,7 +345,20 @@ public class VLCDataViewer implements DataViewer {
 
     @Override
     public void seekTo(final long position) {
-        Runnable edtTask = new Runnable() {
+        launchEdtTaskLater(seekTask(position));
+    }
+
+    @Override
+    public Future<Long> seekToAsync(final long position) {
+        return seeks.submit(position);
+    }
+
+    /**
+     * @param position The absolute millisecond playback position.
+     * @return Seeks the player, to be run on the EDT.
+     */
+    private Runnable seekTask(final long position) {
+        return new Runnable() {
             @Override
             public void run() {
 
@@ -336,8 +377,6 @@ public class VLCDataViewer implements DataViewer {
                 }
             }
         };
-
-        launchEdtTaskLater(edtTask);
     }
 
     @Override
@@ -0,0 +1,252 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.plugins.vlcfx;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+
+/**
+ * Recently decoded video frames, keyed by presentation time, so that stepping
+ * back over frames already shown doesn't need another trip to the decoder.
+ *
+ * The cache holds at most a fixed number of bytes of pixels; once full the
+ * least recently used frames are dropped and their buffers reused for the
+ * frames that replace them.
+ */
+public final class FrameCache {
+
+    /**
+     * A decoded frame.
+     */
+    public static final class Frame {
+
+        private final long time;
+        private final int width;
+        private final int height;
+        private final int pitch;
+        private final byte[] pixels;
+
+        Frame(final long time, final int width, final int height,
+              final int pitch, final byte[] pixels) {
+            this.time = time;
+            this.width = width;
+            this.height = height;
+            this.pitch = pitch;
+            this.pixels = pixels;
+        }
+
+        /**
+         * @return The presentation time of the frame in milliseconds.
+         */
+        public long getTime() {
+            return time;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        /**
+         * @return The number of bytes in each row of pixels.
+         */
+        public int getPitch() {
+            return pitch;
+        }
+
+        /**
+         * @return The pixels of the frame, in the format they were decoded in.
+         */
+        public ByteBuffer getPixels() {
+            return ByteBuffer.wrap(pixels);
+        }
+    }
+
+    /**
+     * The most bytes of pixels to hold.
+     */
+    private final long capacity;
+
+    /**
+     * The frames, in order of presentation time.
+     */
+    private final TreeMap<Long, Frame> frames = new TreeMap<Long, Frame>();
+
+    /**
+     * The frames, least recently used first.
+     */
+    private final LinkedHashMap<Long, Frame> used = new LinkedHashMap<Long, Frame>(16, 0.75f, true);
+
+    /**
+     * How long each frame is shown for, in milliseconds.
+     */
+    private long frameDuration;
+
+    /**
+     * The bytes of pixels held.
+     */
+    private long size = 0;
+
+    private long hits = 0;
+
+    private long misses = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param capacity      The most bytes of pixels to hold.
+     * @param frameDuration How long each frame is shown for, in milliseconds.
+     */
+    public FrameCache(final long capacity, final long frameDuration) {
+        this.capacity = capacity;
+        this.frameDuration = Math.max(1L, frameDuration);
+    }
+
+    /**
+     * @param duration How long each frame is shown for, in milliseconds.
+     */
+    public synchronized void setFrameDuration(final long duration) {
+        frameDuration = Math.max(1L, duration);
+    }
+
+    /**
+     * Copies a decoded frame into the cache, replacing any frame already held
+     * for the same time.
+     *
+     * @param time   The presentation time of the frame in milliseconds.
+     * @param pixels The pixels of the frame, from its position to its limit.
+     * @param width  The width of the frame.
+     * @param height The height of the frame.
+     * @param pitch  The number of bytes in each row of pixels.
+     * @return The cached frame, or null if it is too large to cache.
+     */
+    public synchronized Frame put(final long time, final ByteBuffer pixels,
+                                  final int width, final int height, final int pitch) {
+        int length = pixels.remaining();
+        if (length > capacity) {
+            return null;
+        }
+
+        byte[] buffer = recycle(frames.get(time), length);
+        Iterator<Frame> lru = used.values().iterator();
+        while (size + length > capacity && lru.hasNext()) {
+            Frame victim = lru.next();
+            lru.remove();
+            frames.remove(victim.time);
+            size -= victim.pixels.length;
+            if (buffer == null && victim.pixels.length == length) {
+                buffer = victim.pixels;
+            }
+        }
+        if (buffer == null) {
+            buffer = new byte[length];
+        }
+
+        pixels.duplicate().get(buffer);
+        Frame frame = new Frame(time, width, height, pitch, buffer);
+        frames.put(time, frame);
+        used.put(time, frame);
+        size += length;
+
+        return frame;
+    }
+
+    /**
+     * Drops a frame from the cache.
+     *
+     * @param frame  The frame to drop, may be null.
+     * @param length The length of buffer wanted back.
+     * @return The pixels of the frame if they are the length wanted, null
+     * otherwise.
+     */
+    private byte[] recycle(final Frame frame, final int length) {
+        if (frame == null) {
+            return null;
+        }
+
+        frames.remove(frame.time);
+        used.remove(frame.time);
+        size -= frame.pixels.length;
+
+        return frame.pixels.length == length ? frame.pixels : null;
+    }
+
+    /**
+     * @param time A time in milliseconds.
+     * @return The frame shown at the given time, or null if it isn't cached.
+     */
+    public synchronized Frame get(final long time) {
+        Map.Entry<Long, Frame> e = frames.floorEntry(time);
+        if (e == null || time - e.getKey() >= frameDuration) {
+            misses++;
+            return null;
+        }
+
+        hits++;
+        return used.get(e.getKey());
+    }
+
+    /**
+     * @param time A time in milliseconds.
+     * @return Is the frame shown at the given time cached? Doesn't count
+     * towards the hit rate or mark the frame as used.
+     */
+    public synchronized boolean contains(final long time) {
+        Map.Entry<Long, Frame> e = frames.floorEntry(time);
+        return e != null && time - e.getKey() < frameDuration;
+    }
+
+    /**
+     * Drops every frame, for when the size or format of frames changes.
+     */
+    public synchronized void clear() {
+        frames.clear();
+        used.clear();
+        size = 0;
+    }
+
+    /**
+     * @return The number of frames held.
+     */
+    public synchronized int getCount() {
+        return frames.size();
+    }
+
+    /**
+     * @return The bytes of pixels held.
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+}
@@ -19,14 +19,19 @@ package org.datavyu.plugins.vlcfx;
  * Copyright 2009, 2010, 2011, 2012, 2013 Caprica Software Limited.
  */
 
+import org.datavyu.util.NativeLibraryCache;
 import uk.co.caprica.vlcj.logger.Logger;
 
-import java.io.*;
+import java.io.File;
+import java.io.IOException;
 import java.net.URISyntaxException;
 import java.net.URL;
-import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 
@@ -115,8 +120,11 @@ import java.util.jar.JarFile;
  * <p>
  * Implementation notes:
  * <p>
- * It may be <em>much</em> faster to purge the installation directory each time (rather than
- * overwriting) before unpacking new resources.
+ * Packages are unpacked into a {@link NativeLibraryCache}, in a directory named after the content
+ * of the package, so an unchanged package is unpacked once and reused by later launches. Unpacking
+ * happens in the background - {@link #unpackNativePackage()} returns as soon as the installation
+ * directory is known, and {@link #awaitInstalled()} waits for the files to be in place. Events are
+ * fired from the threads doing the unpacking.
  * <p>
  * Be very careful with {@link #purge()} since it will delete recursively the <em>entire</em>
  * contents of the native library installation directory no matter what it may contain.
@@ -160,43 +168,42 @@ public class NativeLibraryManager {
     private static final String PACKAGE_RESOURCE_DIRECTORY = "lib/";
 
     /**
-     * Default file input/output buffer size.
+     * The cache the package is unpacked into.
      */
-    private static final int IO_BUFFER_SIZE = 1024 * 2;
+    private final NativeLibraryCache cache;
 
     /**
      * Name of the installation directory.
      */
-    private final String installTo;
+    private volatile String installTo;
 
     /**
-     * File input/output buffer size.
+     * The unpacking of the package, null until it is started.
      */
-    private final int ioBufferSize;
+    private volatile Future<File> installed;
 
     /**
      * Collection of registered event listeners.
      */
-    private final List<NativeLibraryManagerEventListener> listeners = new ArrayList<NativeLibraryManagerEventListener>(1);
+    private final List<NativeLibraryManagerEventListener> listeners = new CopyOnWriteArrayList<NativeLibraryManagerEventListener>();
 
     /**
      * Create a new native library manager.
      *
-     * @param installTo name of the directory to install the files to
+     * @param installTo name of the directory to keep the cache of unpacked packages in
      */
     public NativeLibraryManager(String installTo) {
-        this(installTo, IO_BUFFER_SIZE);
+        this(new NativeLibraryCache(new File(installTo)));
     }
 
     /**
      * Create a new native library manager.
      *
-     * @param installTo    name of the directory to install the files to
-     * @param ioBufferSize size of the file input/output buffer
+     * @param cache cache to unpack packages into
      */
-    public NativeLibraryManager(String installTo, int ioBufferSize) {
-        this.installTo = installTo;
-        this.ioBufferSize = ioBufferSize;
+    public NativeLibraryManager(NativeLibraryCache cache) {
+        this.cache = cache;
+        this.installTo = cache.getRoot().getAbsolutePath();
     }
 
     /**
@@ -218,7 +225,8 @@ public class NativeLibraryManager {
     }
 
     /**
-     * Get the name of the installation directory.
+     * Get the name of the installation directory, which is only known once
+     * {@link #unpackNativePackage()} has been called.
      *
      * @return installation directory name
      */
@@ -227,14 +235,13 @@ public class NativeLibraryManager {
     }
 
     /**
-     * Unpack a package containing native libraries.
+     * Start unpacking a package containing native libraries, unless it has already been unpacked
+     * by an earlier launch.
      *
      * @throws RuntimeException if an error occurs, such as no native resource package found
      */
     public void unpackNativePackage() {
         Logger.debug("unpackNativePackage()");
-        File installDirectory = new File(installTo);
-        Logger.debug("installDirectory={}", installDirectory);
         // Get the jar file containing the native resources, the resources are
         // platform-dependent
         String osName;
@@ -249,41 +256,63 @@ public class NativeLibraryManager {
         Logger.debug("osArch={}", osArch);
 
         String platformResources = String.format("../%svlc-%s-%s/vlc-%s-%s.jar", PACKAGE_RESOURCE_DIRECTORY, osName, osArch, osName, osArch);
-//        String platformResources = String.format("../lib/vlcLibs-macosx-2.2.1.jar", PACKAGE_RESOURCE_DIRECTORY, osName, osArch, osName, osArch);
+        String packageName = String.format("vlc-%s-%s", osName, osArch);
 
-        System.out.println(platformResources);
         Logger.debug("platformResources={}", platformResources);
         JarFile jarFile = getNativePackageJarFile(platformResources);
         Logger.debug("jarFile={}", jarFile);
         // Get the total number of files to install (for reporting progress)
-        int installCount = getInstallCount(jarFile);
+        final int installCount = getInstallCount(jarFile);
         Logger.debug("installCount={}", installCount);
+        try {
+            installTo = cache.getPackageDirectory(jarFile, "vlc/", packageName).getAbsolutePath();
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to read the native library package", e);
+        }
+        Logger.debug("installDirectory={}", installTo);
         // Notify listeners
         fireStartEvent(installCount);
-        // Create a re-usable buffer for file input/output
-        byte[] ioBuffer = new byte[ioBufferSize];
-        // Process each entry in the jar file
-        Enumeration<JarEntry> jarEntries = jarFile.entries();
-        jarEntries = jarFile.entries();
-        int n = 0;
-        while (jarEntries.hasMoreElements()) {
-            JarEntry jarEntry = jarEntries.nextElement();
-            // Only install files contained in the run-time operating-system name/
-            // architecture directory inside the PACKAGE_RESOURCE_DIRECTORY folder
-            // inside the jar - this will also ensure that directories like META-INF
-            // and files like MANIFEST.MF are excluded...
-//            System.out.println(jarEntry.getName());
-            if (!jarEntry.isDirectory() && jarEntry.getName().startsWith("vlc/")) {
-                // Trim off the un-needed part of the file path
-                String entryName = jarEntry.getName();
+        if (installCount == 0) {
+            fireEndEvent();
+        }
+        // Only install files inside the "vlc/" folder of the jar - this will also
+        // ensure that directories like META-INF and files like MANIFEST.MF are
+        // excluded...
+        final AtomicInteger n = new AtomicInteger();
+        installed = cache.extractPackage(jarFile, "vlc/", packageName, new NativeLibraryCache.Listener() {
+            @Override
+            public void extracted(String name) {
+                int number = n.incrementAndGet();
                 // Notify listeners
-                fireInstallEvent(++n, entryName);
-                // Process this file
-                processNativeResource(installDirectory, entryName, jarFile, jarEntry, ioBuffer);
+                fireInstallEvent(number, name);
+                if (number == installCount) {
+                    fireEndEvent();
+                }
             }
+        });
+    }
+
+    /**
+     * Wait for the package started by {@link #unpackNativePackage()} to be in place. Returns
+     * immediately if no package has been started.
+     *
+     * @throws RuntimeException if the package could not be unpacked
+     */
+    public void awaitInstalled() {
+        Future<File> pending = installed;
+        if (pending == null) {
+            return;
+        }
+
+        try {
+            pending.get();
+        } catch (ExecutionException e) {
+            Logger.error("Failed to install native libraries because: {}", e.getCause().getMessage());
+            throw new RuntimeException("Failed to install native libraries", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted installing native libraries", e);
         }
-        // Notify listeners
-        fireEndEvent();
     }
 
     /**
@@ -364,73 +393,6 @@ public class NativeLibraryManager {
         return count;
     }
 
-    /**
-     * Install a file from the installation package.
-     *
-     * @param installDirectory directory to install the file to
-     * @param entryName        local file name
-     * @param jarFile          installation package
-     * @param jarEntry         entry to install from the install package
-     * @param ioBuffer         file input/output buffer
-     * @return <code>true</code> if a file was installed, otherwise <code>false</code> (e.g. it was a directory)
-     * @throws RuntimeException if an error occurs
-     */
-    private void processNativeResource(File installDirectory, String entryName, JarFile jarFile, JarEntry jarEntry, byte[] ioBuffer) {
-        Logger.trace("processNativeResource(entryName={})", entryName);
-        // Ensure that the proper directory structure is created first
-        File installFile = new File(installDirectory, entryName);
-        File parentDirectory = installFile.getParentFile();
-        if (parentDirectory != null && !parentDirectory.exists() && !parentDirectory.mkdirs()) {
-            Logger.error("Failed to create installation directory '{}'", installFile.getAbsolutePath());
-            throw new RuntimeException("Failed to create installation directory '" + installFile.getAbsolutePath() + "'");
-        }
-        storeResource(installFile, jarFile, jarEntry, ioBuffer);
-    }
-
-    /**
-     * Save a file from the installation package to the installation directory.
-     *
-     * @param installFile local installation file
-     * @param jarFile     installation package
-     * @param jarEntry    entry to install from the install package
-     * @param ioBuffer    file input/output buffer
-     * @throws RuntimeException if an error occurs
-     */
-    private void storeResource(File installFile, JarFile jarFile, JarEntry jarEntry, byte[] ioBuffer) {
-        Logger.trace("storeResource(installFile={},jarEntry={}", installFile, jarEntry);
-        InputStream in = null;
-        OutputStream out = null;
-        try {
-            in = jarFile.getInputStream(jarEntry);
-            out = new FileOutputStream(installFile);
-            int read;
-            for (; ; ) {
-                read = in.read(ioBuffer);
-                if (read != -1) {
-                    out.write(ioBuffer, 0, read);
-                } else {
-                    break;
-                }
-            }
-        } catch (IOException e) {
-            Logger.error("Failed to install file '{}' because: {}", installFile, e.getMessage());
-            throw new RuntimeException("Failed to install file '" + installFile + "'", e);
-        } finally {
-            if (out != null) {
-                try {
-                    out.close();
-                } catch (IOException e) {
-                }
-            }
-            if (in != null) {
-                try {
-                    in.close();
-                } catch (IOException e) {
-                }
-            }
-        }
-    }
-
     /**
      * Recursively delete the contents of a directory and the directory itself.
      *
@@ -12,8 +12,11 @@ import javafx.scene.image.PixelWriter;
 import javafx.scene.image.WritablePixelFormat;
 import javafx.scene.layout.BorderPane;
 import javafx.stage.Stage;
+import org.datavyu.Configuration;
 import org.datavyu.Datavyu;
 import uk.co.caprica.vlcj.component.DirectMediaPlayerComponent;
+import uk.co.caprica.vlcj.player.MediaPlayer;
+import uk.co.caprica.vlcj.player.MediaPlayerEventAdapter;
 import uk.co.caprica.vlcj.player.direct.BufferFormat;
 import uk.co.caprica.vlcj.player.direct.BufferFormatCallback;
 import uk.co.caprica.vlcj.player.direct.DirectMediaPlayer;
@@ -23,6 +26,13 @@ import java.io.File;
 import java.nio.ByteBuffer;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Created by jesse on 10/21/14.
@@ -41,8 +51,25 @@ public class VLCApplication extends Application {
      * Lightweight JavaFX canvas, the video is rendered here.
      */
     private final Canvas canvas;
+    /**
+     * How long to wait for VLC to start playing, in milliseconds.
+     */
+    private static final long PLAYING_TIMEOUT = 5000L;
+    /**
+     * How many frames to decode around each position sought while paused.
+     */
+    private static final int READ_AHEAD = 8;
+    /**
+     * How long to wait for VLC to show a frame while reading ahead, in
+     * milliseconds.
+     */
+    private static final long FRAME_TIMEOUT = 100L;
     File dataFile;
-    boolean init = false;
+    private volatile boolean init = false;
+    /**
+     * Notified whenever VLC starts playing.
+     */
+    private final Object playingLock = new Object();
     /**
      * Target width, unless {@link #useSourceSize} is set.
      */
@@ -88,6 +115,50 @@ public class VLCApplication extends Application {
 
     private boolean assumedFps = false;
 
+    /**
+     * Frames decoded while paused, so that jogging and scrubbing back over
+     * them doesn't need VLC to seek again.
+     */
+    private final FrameCache frames = new FrameCache(
+            Configuration.getInstance().getFrameCacheSize() * 1024L * 1024L, 33L);
+    /**
+     * Decodes frames around the position sought, in the background.
+     */
+    private final ExecutorService readAhead = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(final Runnable r) {
+            Thread t = new Thread(r, "Frame read-ahead");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+    /**
+     * Held while moving VLC, so that seeks and reading ahead take turns.
+     */
+    private final Object decoder = new Object();
+    /**
+     * Counts seeks, so that reading ahead for an earlier one can give up.
+     */
+    private final AtomicInteger seekCount = new AtomicInteger();
+    /**
+     * Released each time VLC hands over a frame.
+     */
+    private final Semaphore displayed = new Semaphore(0);
+    /**
+     * The frame VLC has been asked for while paused, null while playing or
+     * once a frame has been handed over for it.
+     */
+    private final AtomicReference<FrameRequest> request = new AtomicReference<FrameRequest>();
+    /**
+     * Are frames being decoded without being shown?
+     */
+    private volatile boolean hidden = false;
+    /**
+     * The time of the frame on screen when VLC isn't there - because the
+     * frame came from the cache, or VLC has read ahead past it - otherwise -1.
+     */
+    private volatile long shownTime = -1;
+
     static {
 //        String tempDir = System.getProperty("java.io.tmpdir");
 //        new NativeLibraryManager(tempDir);
@@ -111,13 +182,191 @@ public class VLCApplication extends Application {
     }
 
     public void seek(long time) {
+        int seek = seekCount.incrementAndGet();
+        long from = shownTime >= 0 ? shownTime : prevSeekTime;
+
+        if (!mp.isPlaying()) {
+            FrameCache.Frame frame = frames.get(time);
+            if (frame != null) {
+                show(frame);
+                shownTime = time;
+                prevSeekTime = time;
+                readAhead(time, time < from, false, seek);
+                return;
+            }
+        }
+
+        boolean paused;
+        boolean moved = false;
+        synchronized (decoder) {
+            paused = !mp.isPlaying();
+            hidden = false;
+            request.set(paused ? new FrameRequest(time, seek) : null);
+            if (prevSeekTime != time || time != mp.getTime() || shownTime >= 0) {
+                displayed.drainPermits();
+                mp.setTime(time);
+                prevSeekTime = time;
+                moved = true;
+            }
+            shownTime = -1;
+        }
+
+        if (paused && moved) {
+            readAhead(time, time < from, true, seek);
+        }
+    }
+
+    /**
+     * A frame asked of VLC while paused, so that the frame handed over can be
+     * put in the cache under the right time.
+     */
+    private static final class FrameRequest {
+
+        /**
+         * The time of the frame asked for.
+         */
+        final long time;
+        /**
+         * The seek the frame was asked for.
+         */
+        final int seek;
+
+        FrameRequest(final long time, final int seek) {
+            this.time = time;
+            this.seek = seek;
+        }
+    }
+
+    /**
+     * Keeps a frame VLC has handed over, if it is the one asked for. Each
+     * request is used by a single frame. Frames arriving after a later seek,
+     * or while VLC is at another time - late frames from an earlier seek -
+     * are not kept, so that they are never stored under the wrong time.
+     *
+     * @param pixels  The pixels of the frame.
+     * @param pitch   The number of bytes in each row of pixels.
+     * @param vlcTime The time VLC reports it is at.
+     */
+    private void keep(final ByteBuffer pixels, final int pitch, final long vlcTime) {
+        FrameRequest r = request.getAndSet(null);
+        if (r == null || r.seek != seekCount.get()) {
+            return;
+        }
+
+        long frameDuration = Math.max(1L, Math.round(1000.0 / getFrameRate()));
+        if (Math.abs(vlcTime - r.time) < frameDuration) {
+            frames.put(r.time, pixels, WIDTH, HEIGHT, pitch);
+        }
+    }
+
+    /**
+     * Puts a cached frame on screen.
+     *
+     * @param frame The frame to show.
+     */
+    private void show(final FrameCache.Frame frame) {
+        Platform.runLater(new Runnable() {
+            @Override
+            public void run() {
+                pixelWriter.setPixels(0, 0, frame.getWidth(), frame.getHeight(),
+                        pixelFormat, frame.getPixels(), frame.getPitch());
+            }
+        });
+    }
+
+    /**
+     * Decodes the frames next to a position sought into the cache, without
+     * showing them. Going backwards VLC seeks a little further back and steps
+     * forwards, so that the following steps back are served from the cache.
+     *
+     * @param time      The position sought.
+     * @param backwards Is the needle moving backwards?
+     * @param atTime    Is VLC already at the position sought?
+     * @param seek      The seek being read ahead for.
+     */
+    private void readAhead(final long time, final boolean backwards,
+                           final boolean atTime, final int seek) {
+        final long frameDuration = Math.max(1L, Math.round(1000.0 / getFrameRate()));
+        final long first = backwards
+                ? Math.max(0L, time - READ_AHEAD * frameDuration)
+                : time + frameDuration;
+
+        boolean cached = true;
+        for (int i = 0; i < READ_AHEAD && cached; i++) {
+            cached = frames.contains(first + i * frameDuration);
+        }
+        if (cached) {
+            return;
+        }
+
+        readAhead.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (decoder) {
+                    if (seek != seekCount.get() || mp.isPlaying()) {
+                        return;
+                    }
+
+                    // Let the frame sought reach the screen first.
+                    if (atTime && !awaitFrame()) {
+                        return;
+                    }
+
+                    hidden = true;
+                    shownTime = time;
+                    long next = first;
+                    if (backwards || !atTime) {
+                        decode(first, true, seek);
+                        next += frameDuration;
+                    }
+
+                    for (; next < first + READ_AHEAD * frameDuration; next += frameDuration) {
+                        if (seek != seekCount.get() || !decode(next, false, seek)) {
+                            return;
+                        }
+                    }
+                }
+            }
+        });
+    }
 
-        if (prevSeekTime != time || time != mp.getTime()) {
-            System.out.println("SEEKING TO " + time);
+    /**
+     * Has VLC decode a frame while paused, waiting for it to be handed over.
+     *
+     * @param time   The time of the frame.
+     * @param seekTo Seek to the frame, rather than stepping to it?
+     * @param seek   The seek the frame is decoded for.
+     * @return Was the frame handed over in time?
+     */
+    private boolean decode(final long time, final boolean seekTo, final int seek) {
+        displayed.drainPermits();
+        request.set(new FrameRequest(time, seek));
+        if (seekTo) {
             mp.setTime(time);
-            prevSeekTime = time;
-            System.out.println(mp.getTime());
+        } else {
+            mp.nextFrame();
         }
+
+        return awaitFrame();
+    }
+
+    /**
+     * @return Did VLC hand over a frame in time?
+     */
+    private boolean awaitFrame() {
+        try {
+            return displayed.tryAcquire(FRAME_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * @return The frames decoded while paused.
+     */
+    public FrameCache getFrameCache() {
+        return frames;
     }
 
     public void pause() {
@@ -128,7 +377,16 @@ public class VLCApplication extends Application {
     }
 
     public void play() {
-        mp.play();
+        seekCount.incrementAndGet();
+        synchronized (decoder) {
+            hidden = false;
+            request.set(null);
+            if (shownTime >= 0) {
+                mp.setTime(shownTime);
+                shownTime = -1;
+            }
+            mp.play();
+        }
     }
 
     public void stop() {
@@ -140,6 +398,11 @@ public class VLCApplication extends Application {
 //        System.out.println("DV TIME " + Datavyu.getDataController().getCurrentTime());
 //        System.out.println("POSITION " + mp.getPosition());
 
+        long shown = shownTime;
+        if (shown >= 0) {
+            return shown;
+        }
+
         long vlcTime = mp.getTime();
         if (vlcTime == lastVlcUpdateTime) {
             long currentTime = System.currentTimeMillis();
@@ -199,7 +462,35 @@ public class VLCApplication extends Application {
         return init;
     }
 
+    /**
+     * Waits for VLC to report that it is playing, woken by its playing event
+     * rather than polling.
+     */
+    private void awaitPlaying() {
+        long deadline = System.currentTimeMillis() + PLAYING_TIMEOUT;
+
+        synchronized (playingLock) {
+            while (!mp.isPlaying()) {
+                long wait = deadline - System.currentTimeMillis();
+                if (wait <= 0) {
+                    System.err.println("VLC did not start playing " + dataFile);
+                    return;
+                }
+
+                try {
+                    playingLock.wait(wait);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
     public void closeAndDestroy() {
+        seekCount.incrementAndGet();
+        readAhead.shutdownNow();
+        frames.clear();
 
         mp.release();
         mediaPlayerComponent.release();
@@ -221,15 +512,23 @@ public class VLCApplication extends Application {
         System.out.println(com.sun.prism.GraphicsPipeline.getPipeline().getClass().getName());
 
 
+        Datavyu.awaitNativeLibraries();
         mediaPlayerComponent = new TestMediaPlayerComponent();
         mp = mediaPlayerComponent.getMediaPlayer();
+        mp.addMediaPlayerEventListener(new MediaPlayerEventAdapter() {
+            @Override
+            public void playing(MediaPlayer mediaPlayer) {
+                synchronized (playingLock) {
+                    playingLock.notifyAll();
+                }
+            }
+        });
         mp.prepareMedia(dataFile.getAbsolutePath());
 
         mp.play();
 
         // Wait for it to spin up so we can grab metadata
-        while (!mp.isPlaying()) {
-        }
+        awaitPlaying();
 
         primaryStage.setScene(scene);
         primaryStage.show();
@@ -281,6 +580,7 @@ public class VLCApplication extends Application {
         if (fps == 0) {
             assumedFps = true;
         }
+        frames.setFrameDuration(Math.round(1000.0 / getFrameRate()));
 
         pause();
 
@@ -303,17 +603,28 @@ public class VLCApplication extends Application {
 //            pixelWriter.setPixels(0, 0, bufferFormat.getWidth(), bufferFormat.getHeight(), pixelFormat, byteBuffer, bufferFormat.getPitches()[0]);
 
             ByteBuffer byteBuffer = nativeBuffer.getByteBuffer(0, nativeBuffer.size());
-            pixelWriter.setPixels(0, 0, WIDTH, HEIGHT, pixelFormat, byteBuffer, bufferFormat.getPitches()[0]);
+
+            // Keep frames decoded while paused, for stepping back over them.
+            keep(byteBuffer, bufferFormat.getPitches()[0], mediaPlayer.getTime());
+            if (!hidden) {
+                pixelWriter.setPixels(0, 0, WIDTH, HEIGHT, pixelFormat, byteBuffer, bufferFormat.getPitches()[0]);
+            }
+            displayed.release();
         }
 
         public void resizePlayer() {
             long timeStamp = Datavyu.getDataController().getCurrentTime();
             boolean isPlaying = mp.isPlaying();
+            seekCount.incrementAndGet();
+            synchronized (decoder) {
+                hidden = false;
+                request.set(null);
+                shownTime = -1;
+            }
             mp.stop();
             mp.play();
             mp.setTime(timeStamp);
-            while (!mp.isPlaying()) {
-            }
+            awaitPlaying();
 
             System.out.println("Was playing: " + isPlaying);
             if (!isPlaying) {
@@ -340,6 +651,8 @@ public class VLCApplication extends Application {
                 width = WIDTH;
                 height = HEIGHT;
             }
+            // Frames already decoded are the wrong size now.
+            frames.clear();
             canvas.setWidth(width);
             canvas.setHeight(height);
             stage.setWidth(width);
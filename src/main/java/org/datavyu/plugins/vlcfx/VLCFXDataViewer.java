@@ -222,6 +222,9 @@ public class VLCFXDataViewer extends BaseQuickTimeDataViewer {
         data = dataFeed;
 
 
+        // Seeks wait until the player is ready.
+        seeks.setReady(false);
+
         // Needed to init JavaFX stuff
         new JFXPanel();
         vlcFxApp = new VLCApplication(dataFeed);
@@ -234,9 +237,11 @@ public class VLCFXDataViewer extends BaseQuickTimeDataViewer {
         });
 
 
-        // Wait for javafx to initialize
-        while (!vlcFxApp.isInit()) {
+        // runAndWait has waited for javafx to initialize
+        if (!vlcFxApp.isInit()) {
+            System.err.println("Unable to start VLC for " + dataFeed);
         }
+        seeks.setReady(true);
 
         // Hide our fake dialog box
         dialog.setVisible(false);
@@ -14,34 +14,28 @@
  */
 package org.datavyu.undoableedits;
 
-import com.usermetrix.jclient.Logger;
-import com.usermetrix.jclient.UserMetrix;
-import org.datavyu.controllers.DeleteColumnC;
-import org.datavyu.models.db.Cell;
-import org.datavyu.models.db.UserWarningException;
-import org.datavyu.models.db.Variable;
+import org.datavyu.models.db.ChangeJournal;
 
 import javax.swing.undo.CannotRedoException;
 import javax.swing.undo.CannotUndoException;
-import java.util.ArrayList;
-import java.util.List;
 
 /**
  * Undoable script edit.
+ *
+ * The edit starts a journal on the datastore when it is created, the journal
+ * records the variables and cells the script touches until the script
+ * completes. Undo and redo replay the journal rather than rebuilding the
+ * whole spreadsheet.
  */
 public class RunScriptEdit extends SpreadsheetEdit {
-    /**
-     * The logger for this class.
-     */
-    private static final Logger LOGGER = UserMetrix.getLogger(RunScriptEdit.class);
 
     private String scriptPath;
-    private List<VariableTO> colsTO; // DataColumn relevant values
+    private ChangeJournal journal;
 
     public RunScriptEdit(String scriptPath) {
         super();
         this.scriptPath = scriptPath;
-        colsTO = getSpreadsheetState();
+        journal = model.beginJournal();
     }
 
     @Override
@@ -52,53 +46,18 @@ public class RunScriptEdit extends SpreadsheetEdit {
     @Override
     public void undo() throws CannotRedoException {
         super.undo();
-        toogleSpreadsheetState();
+        // Undoing before the script has completed - stop recording now.
+        if (journal.isRecording()) {
+            model.endJournal();
+        }
+        journal.undo();
+        unselectAll();
     }
 
     @Override
     public void redo() throws CannotUndoException {
         super.redo();
-        toogleSpreadsheetState();
-    }
-
-    private void toogleSpreadsheetState() {
-        List<VariableTO> tempColsTO = this.getSpreadsheetState();
-        setSpreadsheetState(colsTO);
-        colsTO = tempColsTO;
-    }
-
-    private List<VariableTO> getSpreadsheetState() {
-        List<VariableTO> varsTO = new ArrayList<VariableTO>();
-
-        int pos = 0;
-        for (Variable var : model.getAllVariables()) {
-            varsTO.add(new VariableTO(var, pos));
-            pos++;
-        }
-
-        return varsTO;
-    }
-
-    private void setSpreadsheetState(List<VariableTO> varsTO) {
-        try {
-            new DeleteColumnC(new ArrayList<Variable>(model.getAllVariables()));
-
-            for (VariableTO varTO : varsTO) {
-                Variable var = model.createVariable(varTO.getName(), varTO.getType().type);
-                var.setRootNode(varTO.getType());
-
-                for (CellTO cellTO : varTO.getTOCells()) {
-                    Cell c = var.createCell();
-                    c.setOnset(cellTO.getOnset());
-                    c.setOffset(cellTO.getOffset());
-                    c.getValue().set(cellTO.getValue());
-                }
-            }
-        } catch (UserWarningException uwe) {
-            LOGGER.error("Unable to set spreadsheet state", uwe);
-            uwe.printStackTrace();
-        }
-
+        journal.redo();
         unselectAll();
     }
 }
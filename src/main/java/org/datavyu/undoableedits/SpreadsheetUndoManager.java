@@ -39,8 +39,14 @@ public class SpreadsheetUndoManager extends UndoManager implements ListModel {
 
     @Override
     public synchronized void undo() throws CannotUndoException {
+        UndoableEdit edit = editToBeUndone();
         super.undo();
-        Datavyu.getView().getSpreadsheetPanel().redrawCells();
+
+        // Script edits notify each cell they restore, so only the other edits
+        // need every cell redrawn.
+        if (!(edit instanceof RunScriptEdit)) {
+            Datavyu.getView().getSpreadsheetPanel().redrawCells();
+        }
     }
 
     @Override
@@ -14,15 +14,26 @@
  */
 package org.datavyu.util;
 
-import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Set;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 
 /**
  * ClockTime is a class which can be used as a time marshall to keep multiple
  * objects in sync.
+ *
+ * The time is worked out from the moment the clock was last started (or its
+ * rate or time changed) rather than accumulated tick by tick, and can be read
+ * from any thread without locking. Ticks come from a dedicated scheduling
+ * thread, at an interval matched to the frame rate of the fastest viewer, and
+ * are handed to a separate thread for delivery to listeners - a slow listener
+ * only causes ticks to be merged, never delays the schedule.
  */
 public final class ClockTimer {
 
@@ -31,56 +42,110 @@ public final class ClockTimer {
     //
 
     /**
-     * Clock clockTick period.
+     * Clock clockTick period, when no frame rate is known.
      */
     private static final long CLOCK_TICK = 31L;
 
     /**
-     * Clock initial delay.
+     * The shortest clock tick period, in milliseconds.
+     */
+    private static final long MIN_CLOCK_TICK = 8L;
+
+    /**
+     * How long the scheduler sleeps while the clock is stopped, in
+     * milliseconds.
      */
-    private static final long CLOCK_DELAY = 0L;
+    private static final long IDLE_TICK = 250L;
+
+    /**
+     * The scheduler spins (rather than sleeps) for the last part of each
+     * period, as sleeps are only accurate to around a millisecond.
+     */
+    private static final long SPIN_NANOS = 500000L;
 
     /**
      * Used to convert between nanoseconds and milliseconds.
      */
     private static final long NANO_IN_MILLI = 1000000L;
 
+    /**
+     * Used to convert between nanoseconds and microseconds.
+     */
+    private static final long NANO_IN_MICRO = 1000L;
+
+    /**
+     * The buckets of the timing histograms, in microseconds.
+     */
+    private static final long[] HISTOGRAM_BOUNDS = {
+            50, 100, 250, 500, 1000, 2000, 4000, 8000, 16000, 33000, 66000
+    };
+
     //--------------------------------------------------------------------------
     //
     //
 
     /**
-     * Current time of the clock.
+     * The time of the clock as of the last change, replaced as a whole so it
+     * can be read without locking.
      */
-    private double time;
+    private volatile State state;
 
     /**
-     * Used to calculate elapsed time.
+     * What was the state of the clock in the previous tick?
      */
-    private long nanoTime;
+    private volatile boolean oldIsStopped;
 
-    /** */
-    private Timer clock;
+    /**
+     * The fastest frame rate of the viewers being driven, 0 if not known.
+     */
+    private volatile float frameRate = 0F;
 
     /**
-     * Is the clock currently stopped?
+     * The period between ticks, in nanoseconds.
      */
-    private boolean isStopped;
+    private volatile long tickNanos = CLOCK_TICK * NANO_IN_MILLI;
 
     /**
-     * What was the state of the clock in the previous tick?
+     * The set of objects that listen to this clock.
      */
-    private boolean oldIsStopped;
+    private final Set<ClockListener> clockListeners = new LinkedHashSet<ClockListener>();
 
     /**
-     * Update multiplier.
+     * The listeners as an array, rebuilt when listeners are (un)registered so
+     * that notification does not iterate the set itself.
      */
-    private float rate = 1F;
+    private ClockListener[] listeners = new ClockListener[0];
 
     /**
-     * The set of objects that listen to this clock.
+     * The thread keeping the tick schedule.
+     */
+    private final Thread scheduler;
+
+    /**
+     * Delivers ticks and start/stop changes to listeners.
+     */
+    private final ExecutorService dispatcher;
+
+    /**
+     * Is a tick waiting to be delivered?
+     */
+    private final AtomicBoolean tickPending = new AtomicBoolean();
+
+    /**
+     * The number of ticks merged into one still waiting to be delivered.
+     */
+    private final AtomicLong coalesced = new AtomicLong();
+
+    /**
+     * How late the scheduler woke for each tick, in microseconds.
+     */
+    private final Histogram jitter = new Histogram(HISTOGRAM_BOUNDS);
+
+    /**
+     * How long each tick waited to be delivered to listeners, in
+     * microseconds.
      */
-    private Set<ClockListener> clockListeners = new HashSet<ClockListener>();
+    private final Histogram drift = new Histogram(HISTOGRAM_BOUNDS);
 
 
     //--------------------------------------------------------------------------
@@ -100,16 +165,27 @@ public final class ClockTimer {
      * @param initialTime Intial clock time.
      */
     public ClockTimer(final long initialTime) {
-        time = initialTime;
-        isStopped = true;
+        state = new State(initialTime, System.nanoTime(), 1F, true);
         oldIsStopped = true;
-        clock = new Timer();
-        clock.scheduleAtFixedRate(new TimerTask() {
+
+        dispatcher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                Thread t = new Thread(r, "Clock dispatch");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
+        scheduler = new Thread(new Runnable() {
             @Override
             public void run() {
-                tick();
+                schedule();
             }
-        }, CLOCK_DELAY, CLOCK_TICK);
+        }, "Clock");
+        scheduler.setDaemon(true);
+        scheduler.setPriority(Thread.MAX_PRIORITY);
+        scheduler.start();
     }
 
     //--------------------------------------------------------------------------
@@ -118,10 +194,8 @@ public final class ClockTimer {
 
     public synchronized void setTimeDontNotify(final long newTime) {
 
-        if (isStopped) {
-            time = newTime;
-            time = Math.max(time, 0);
-//            notifyStep();
+        if (state.stopped) {
+            state = new State(Math.max(newTime, 0), System.nanoTime(), state.rate, true);
         } else {
             stop();
         }
@@ -130,8 +204,8 @@ public final class ClockTimer {
     /**
      * @return Current clock time.
      */
-    public synchronized long getTime() {
-        return (long) time;
+    public long getTime() {
+        return (long) state.timeAt(System.nanoTime());
     }
 
     /**
@@ -139,9 +213,8 @@ public final class ClockTimer {
      */
     public synchronized void setTime(final long newTime) {
 
-        if (isStopped) {
-            time = newTime;
-            time = Math.max(time, 0);
+        if (state.stopped) {
+            state = new State(Math.max(newTime, 0), System.nanoTime(), state.rate, true);
             notifyStep();
         } else {
             stop();
@@ -151,15 +224,17 @@ public final class ClockTimer {
     /**
      * @return Current clock multipler.
      */
-    public synchronized float getRate() {
-        return rate;
+    public float getRate() {
+        return state.rate;
     }
 
     /**
      * @param newRate Multiplier for CLOCK_TICK.
      */
     public synchronized void setRate(final float newRate) {
-        rate = newRate;
+        long now = System.nanoTime();
+        state = new State(state.timeAt(now), now, newRate, state.stopped);
+        updateTick();
         notifyRate();
     }
 
@@ -168,9 +243,9 @@ public final class ClockTimer {
      */
     public synchronized void start() {
 
-        if (isStopped) {
-            nanoTime = System.nanoTime();
-            isStopped = false;
+        if (state.stopped) {
+            state = new State(state.time, System.nanoTime(), state.rate, false);
+            LockSupport.unpark(scheduler);
         }
     }
 
@@ -179,8 +254,9 @@ public final class ClockTimer {
      */
     public synchronized void stop() {
 
-        if (!isStopped) {
-            isStopped = true;
+        if (!state.stopped) {
+            long now = System.nanoTime();
+            state = new State(state.timeAt(now), now, state.rate, true);
             setRate(0);
         }
     }
@@ -189,9 +265,8 @@ public final class ClockTimer {
      * @param ms Time step to apply to current time when clock stopped.
      */
     public synchronized void stepTime(final long ms) {
-
-        time += ms;
-        time = Math.max(time, 0);
+        long now = System.nanoTime();
+        state = new State(Math.max(state.timeAt(now) + ms, 0), now, state.rate, state.stopped);
         notifyStep();
     }
 
@@ -199,48 +274,159 @@ public final class ClockTimer {
     /**
      * @return True if clock is stopped.
      */
-    public synchronized boolean isStopped() {
-        return isStopped;
+    public boolean isStopped() {
+        return state.stopped;
     }
 
     /**
      * @param listener Listener requiring clockTick updates.
      */
     public synchronized void registerListener(final ClockListener listener) {
-        clockListeners.add(listener);
+        if (clockListeners.add(listener)) {
+            listeners = clockListeners.toArray(new ClockListener[clockListeners.size()]);
+        }
+    }
+
+    /**
+     * @param listener Listener no longer requiring clockTick updates.
+     */
+    public synchronized void unregisterListener(final ClockListener listener) {
+        if (clockListeners.remove(listener)) {
+            listeners = clockListeners.toArray(new ClockListener[clockListeners.size()]);
+        }
+    }
+
+    /**
+     * Sets the frame rate of the fastest viewer driven by this clock, ticks
+     * are spaced to deliver each frame (within limits) at the current rate.
+     *
+     * @param fps Frames per second, 0 if not known.
+     */
+    public void setFrameRate(final float fps) {
+        frameRate = fps;
+        updateTick();
+    }
+
+    /**
+     * @return The period between ticks, in milliseconds.
+     */
+    public double getTickPeriod() {
+        return (double) tickNanos / NANO_IN_MILLI;
+    }
+
+    /**
+     * @return How late the clock woke for each tick, in microseconds.
+     */
+    public Histogram getJitter() {
+        return jitter;
+    }
+
+    /**
+     * @return How long each tick waited before being delivered to listeners,
+     * in microseconds.
+     */
+    public Histogram getDrift() {
+        return drift;
+    }
+
+    /**
+     * @return The number of ticks merged into a later one because listeners
+     * were still busy with an earlier one.
+     */
+    public long getCoalescedTicks() {
+        return coalesced.get();
     }
 
     //--------------------------------------------------------------------------
     // [private] implementation
     //
 
+    /**
+     * Works out the period between ticks from the frame rate and clock rate.
+     */
+    private void updateTick() {
+        long period = CLOCK_TICK * NANO_IN_MILLI;
+        double framesPerSecond = frameRate * Math.max(Math.abs(state.rate), 1F);
+
+        if (framesPerSecond > 0) {
+            period = (long) (NANO_IN_MILLI * 1000L / framesPerSecond);
+            period = Math.max(MIN_CLOCK_TICK * NANO_IN_MILLI, Math.min(period, CLOCK_TICK * NANO_IN_MILLI));
+        }
+        tickNanos = period;
+    }
+
+    /**
+     * The scheduling thread, which wakes once a period and hands a tick to
+     * the dispatcher (unless one is still waiting).
+     */
+    private void schedule() {
+        long deadline = System.nanoTime();
+
+        while (true) {
+
+            // Nothing to deliver while stopped, until start() wakes us.
+            if (state.stopped && oldIsStopped) {
+                LockSupport.parkNanos(this, IDLE_TICK * NANO_IN_MILLI);
+                deadline = System.nanoTime();
+                if (state.stopped && oldIsStopped) {
+                    continue;
+                }
+            }
+
+            long now = System.nanoTime();
+            while (deadline - now > SPIN_NANOS) {
+                LockSupport.parkNanos(this, deadline - now - SPIN_NANOS);
+                now = System.nanoTime();
+            }
+            while (deadline - now > 0) {
+                Thread.yield();
+                now = System.nanoTime();
+            }
+
+            jitter.record((now - deadline) / NANO_IN_MICRO);
+            final long woke = now;
+            if (tickPending.compareAndSet(false, true)) {
+                dispatcher.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        tickPending.set(false);
+                        drift.record((System.nanoTime() - woke) / NANO_IN_MICRO);
+                        tick();
+                    }
+                });
+            } else {
+                coalesced.incrementAndGet();
+            }
+
+            // Skip (rather than burst through) any periods we slept past.
+            deadline += tickNanos;
+            if (deadline - now <= 0) {
+                deadline = now + tickNanos;
+            }
+        }
+    }
+
     /**
      * The "tick" of the clock - updates listeners of changes in time.
      */
     private synchronized void tick() {
 
-        if (oldIsStopped != isStopped) {
+        // Notify listeners if the clock has started or stopped since the last
+        // tick.
+        if (oldIsStopped != state.stopped) {
 
-            if (isStopped) {
+            if (state.stopped) {
                 notifyStop();
             } else {
                 notifyStart();
             }
 
-            oldIsStopped = isStopped;
+            oldIsStopped = state.stopped;
         }
 
-        if (!isStopped) {
-            long currentNano = System.nanoTime();
-            time += rate * (currentNano - nanoTime) / NANO_IN_MILLI;
-            nanoTime = currentNano;
-
+        if (!state.stopped) {
             notifyTick();
         }
-
-        // Notify listeners if the clock has started or stopped since the last
-        // tick.
-
     }
 
     //
@@ -251,9 +437,10 @@ public final class ClockTimer {
      * Notify clock listeners of tick event.
      */
     private void notifyTick() {
+        long time = getTime();
 
-        for (ClockListener l : clockListeners) {
-            l.clockTick((long) time);
+        for (ClockListener l : listeners) {
+            l.clockTick(time);
         }
     }
 
@@ -261,8 +448,9 @@ public final class ClockTimer {
      * Notify clock listeners of rate update event.
      */
     private void notifyRate() {
+        float rate = state.rate;
 
-        for (ClockListener l : clockListeners) {
+        for (ClockListener l : listeners) {
             l.clockRate(rate);
         }
     }
@@ -271,9 +459,10 @@ public final class ClockTimer {
      * Notify clock listeners of start event.
      */
     private void notifyStart() {
+        long time = getTime();
 
-        for (ClockListener l : clockListeners) {
-            l.clockStart((long) time);
+        for (ClockListener l : listeners) {
+            l.clockStart(time);
         }
     }
 
@@ -281,9 +470,10 @@ public final class ClockTimer {
      * Notify clock listeners of stop event.
      */
     private void notifyStop() {
+        long time = getTime();
 
-        for (ClockListener l : clockListeners) {
-            l.clockStop((long) time);
+        for (ClockListener l : listeners) {
+            l.clockStop(time);
         }
     }
 
@@ -291,9 +481,10 @@ public final class ClockTimer {
      * Notify clock listeners of time step event.
      */
     private void notifyStep() {
+        long time = getTime();
 
-        for (ClockListener l : clockListeners) {
-            l.clockStep((long) time);
+        for (ClockListener l : listeners) {
+            l.clockStep(time);
         }
     }
 
@@ -302,6 +493,51 @@ public final class ClockTimer {
     //
     //
 
+    /**
+     * The time of the clock as of a moment, from which the time at any later
+     * moment can be worked out.
+     */
+    private static final class State {
+
+        /**
+         * Clock time at the moment, in milliseconds.
+         */
+        final double time;
+
+        /**
+         * The moment, from System.nanoTime().
+         */
+        final long nanos;
+
+        /**
+         * Update multiplier.
+         */
+        final float rate;
+
+        /**
+         * Is the clock stopped?
+         */
+        final boolean stopped;
+
+        State(final double time, final long nanos, final float rate, final boolean stopped) {
+            this.time = time;
+            this.nanos = nanos;
+            this.rate = rate;
+            this.stopped = stopped;
+        }
+
+        /**
+         * @param now A moment from System.nanoTime(), no earlier than this one.
+         * @return The clock time at that moment, in milliseconds.
+         */
+        double timeAt(final long now) {
+            if (stopped) {
+                return time;
+            }
+            return time + (double) rate * (now - nanos) / NANO_IN_MILLI;
+        }
+    }
+
     /**
      * Listener interface for clock 'ticks'.
      */
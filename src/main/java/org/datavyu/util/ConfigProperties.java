@@ -113,6 +113,21 @@ public final class ConfigProperties implements Serializable {
      * true if prereleases are preferred
      */
     private boolean prereleasePreference;
+
+    /**
+     * true if projects should store their database in the binary format
+     */
+    private boolean binaryDatabasePreference;
+
+    /**
+     * true if cells of the spreadsheet are only given editors when edited
+     */
+    private boolean virtualSpreadsheetPreference = true;
+
+    /**
+     * the most memory to keep decoded video frames in, in megabytes
+     */
+    private int frameCacheSize = 256;
     
     private String favouritesFolder = "favourites";
 
@@ -381,6 +396,51 @@ public final class ConfigProperties implements Serializable {
     public void setPrereleasePreference(boolean preference) {
         prereleasePreference = preference;
     }
+
+    /**
+     * @return the binary database preference
+     */
+    public boolean getBinaryDatabasePreference() {
+        return binaryDatabasePreference;
+    }
+
+    /**
+     * @param preference true if projects should store their database in the
+     *                   binary format
+     */
+    public void setBinaryDatabasePreference(boolean preference) {
+        binaryDatabasePreference = preference;
+    }
+
+    /**
+     * @return the virtual spreadsheet preference
+     */
+    public boolean getVirtualSpreadsheetPreference() {
+        return virtualSpreadsheetPreference;
+    }
+
+    /**
+     * @param preference true if cells of the spreadsheet are only given
+     *                   editors when edited
+     */
+    public void setVirtualSpreadsheetPreference(boolean preference) {
+        virtualSpreadsheetPreference = preference;
+    }
+
+    /**
+     * @return the most memory to keep decoded video frames in, in megabytes
+     */
+    public int getFrameCacheSize() {
+        return frameCacheSize;
+    }
+
+    /**
+     * @param size the most memory to keep decoded video frames in, in
+     *             megabytes
+     */
+    public void setFrameCacheSize(int size) {
+        frameCacheSize = size;
+    }
     
     public String getFavouritesFolder(){
         return favouritesFolder;
@@ -0,0 +1,166 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.util;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * A histogram of timing samples with fixed bucket bounds, which can be
+ * recorded into from any thread without locking.
+ */
+public final class Histogram {
+
+    /**
+     * The inclusive upper bound of each bucket, the last bucket holds
+     * everything larger.
+     */
+    private final long[] bounds;
+
+    /**
+     * The number of samples in each bucket.
+     */
+    private final AtomicLongArray counts;
+
+    /**
+     * The total of every sample.
+     */
+    private final AtomicLong sum = new AtomicLong();
+
+    /**
+     * The largest sample.
+     */
+    private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+    /**
+     * Constructor.
+     *
+     * @param upperBounds The inclusive upper bound of each bucket, ascending.
+     *                    A bucket is added for samples above the last bound.
+     */
+    public Histogram(final long... upperBounds) {
+        bounds = Arrays.copyOf(upperBounds, upperBounds.length + 1);
+        bounds[upperBounds.length] = Long.MAX_VALUE;
+        counts = new AtomicLongArray(bounds.length);
+    }
+
+    /**
+     * @param value The sample to record.
+     */
+    public void record(final long value) {
+        int bucket = Arrays.binarySearch(bounds, value);
+        counts.incrementAndGet(bucket < 0 ? -bucket - 1 : bucket);
+        sum.addAndGet(value);
+
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    /**
+     * @return The number of buckets.
+     */
+    public int getBucketCount() {
+        return bounds.length;
+    }
+
+    /**
+     * @param bucket The bucket.
+     * @return The inclusive upper bound of the bucket.
+     */
+    public long getUpperBound(final int bucket) {
+        return bounds[bucket];
+    }
+
+    /**
+     * @param bucket The bucket.
+     * @return The number of samples in the bucket.
+     */
+    public long getCount(final int bucket) {
+        return counts.get(bucket);
+    }
+
+    /**
+     * @return The number of samples recorded.
+     */
+    public long getCount() {
+        long result = 0;
+        for (int i = 0; i < bounds.length; i++) {
+            result += counts.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * @return The mean of the samples recorded, 0 if there are none.
+     */
+    public double getMean() {
+        long count = getCount();
+        return count == 0 ? 0 : (double) sum.get() / count;
+    }
+
+    /**
+     * @return The largest sample recorded, 0 if there are none.
+     */
+    public long getMax() {
+        return getCount() == 0 ? 0 : max.get();
+    }
+
+    /**
+     * @param fraction The fraction of samples, between 0 and 1.
+     * @return The upper bound of the bucket holding that fraction of the
+     * samples, 0 if there are none.
+     */
+    public long getPercentile(final double fraction) {
+        long count = getCount();
+        if (count == 0) {
+            return 0;
+        }
+
+        long wanted = (long) Math.ceil(fraction * count);
+        long seen = 0;
+        for (int i = 0; i < bounds.length; i++) {
+            seen += counts.get(i);
+            if (seen >= Math.max(wanted, 1)) {
+                return bounds[i];
+            }
+        }
+        return bounds[bounds.length - 1];
+    }
+
+    /**
+     * Forgets every sample recorded.
+     */
+    public void reset() {
+        for (int i = 0; i < bounds.length; i++) {
+            counts.set(i, 0);
+        }
+        sum.set(0);
+        max.set(Long.MIN_VALUE);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < bounds.length; i++) {
+            result.append(i > 0 && i == bounds.length - 1 ? "  > " + bounds[i - 1] : "<= " + bounds[i])
+                    .append(": ").append(counts.get(i)).append('\n');
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,441 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.util;
+
+import com.usermetrix.jclient.Logger;
+import com.usermetrix.jclient.UserMetrix;
+
+import java.io.*;
+import java.net.JarURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+/**
+ * A directory of native libraries extracted from jars, kept between launches.
+ *
+ * Each library (or package of libraries) is stored under a directory named
+ * after its content - the CRC-32 and size recorded in the jar, or a SHA-1 of
+ * those for a whole package - so a newer build of a library never collides
+ * with an older one, and an unchanged library is extracted once rather than on
+ * every launch. Cached files are checked against the checksum from the jar
+ * before they are reused, and extracted again if they do not match.
+ *
+ * Files are written with channel transfers to a temporary name and moved into
+ * place, so a partially written library is never picked up. Packages are
+ * extracted in the background, one entry per task.
+ */
+public final class NativeLibraryCache {
+
+    /**
+     * The logger for this class.
+     */
+    private static Logger LOGGER = UserMetrix.getLogger(NativeLibraryCache.class);
+
+    /**
+     * The layout version of the cache, bump when the layout changes.
+     */
+    private static final String VERSION = "1";
+
+    /**
+     * The system property overriding the location of the cache.
+     */
+    private static final String LOCATION = "datavyu.natives";
+
+    /**
+     * Written into a package directory once every entry is in place.
+     */
+    private static final String COMPLETE = ".complete";
+
+    /**
+     * The most bytes moved by a single channel transfer.
+     */
+    private static final long TRANSFER_SIZE = 1 << 20;
+
+    /**
+     * Entries unused for this long are removed by {@link #prune()}.
+     */
+    private static final long MAX_UNUSED = 90L * 24 * 60 * 60 * 1000;
+
+    /**
+     * The shared cache, created the first time it is asked for.
+     */
+    private static NativeLibraryCache instance = null;
+
+    /**
+     * The directory holding every version of the cache.
+     */
+    private final File base;
+
+    /**
+     * The directory holding this version of the cache.
+     */
+    private final File root;
+
+    /**
+     * Runs package extractions, waiting on the entries.
+     */
+    private final ExecutorService packages = Executors.newCachedThreadPool(daemon("Native package"));
+
+    /**
+     * Extracts the entries of packages.
+     */
+    private final ExecutorService entries = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(), daemon("Native extractor"));
+
+    /**
+     * Told about each entry of a package as it becomes available.
+     */
+    public interface Listener {
+
+        /**
+         * @param name The name of the entry within the jar.
+         */
+        void extracted(String name);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param base The directory to keep the cache in.
+     */
+    public NativeLibraryCache(final File base) {
+        this.base = base;
+        this.root = new File(base, VERSION);
+    }
+
+    /**
+     * @return The cache shared by the application, kept in the user's home
+     * directory unless the datavyu.natives system property says otherwise.
+     */
+    public static synchronized NativeLibraryCache getInstance() {
+        if (instance == null) {
+            String location = System.getProperty(LOCATION);
+            if (location == null) {
+                location = System.getProperty("user.home") + File.separator
+                        + ".datavyu" + File.separator + "natives";
+            }
+            instance = new NativeLibraryCache(new File(location));
+        }
+
+        return instance;
+    }
+
+    /**
+     * @return The directory holding this version of the cache.
+     */
+    public File getRoot() {
+        return root;
+    }
+
+    /**
+     * Extracts a single library, unless an intact copy is already cached.
+     *
+     * @param resource The library on the class path.
+     * @param name     The file name to give the library.
+     * @return The cached library.
+     * @throws IOException If unable to extract the library.
+     */
+    public File extract(final URL resource, final String name) throws IOException {
+        long crc = -1;
+        long size = -1;
+
+        URLConnection connection = resource.openConnection();
+        if (connection instanceof JarURLConnection) {
+            JarEntry entry = ((JarURLConnection) connection).getJarEntry();
+            crc = entry.getCrc();
+            size = entry.getSize();
+        }
+
+        // Not in a jar (or the jar does not say), so work it out.
+        if (crc < 0 || size < 0) {
+            CheckedInputStream in = new CheckedInputStream(resource.openStream(), new CRC32());
+            try {
+                byte[] buffer = new byte[(int) Math.min(TRANSFER_SIZE, 65536)];
+                size = 0;
+                int n;
+                while ((n = in.read(buffer)) != -1) {
+                    size += n;
+                }
+                crc = in.getChecksum().getValue();
+            } finally {
+                in.close();
+            }
+        }
+
+        File directory = new File(root, Long.toHexString(crc) + "-" + size);
+        File target = new File(directory, name);
+        if (!isIntact(target, crc, size)) {
+            write(resource.openStream(), target, crc);
+        }
+
+        directory.setLastModified(System.currentTimeMillis());
+        return target;
+    }
+
+    /**
+     * @param jar    The jar holding the package.
+     * @param prefix The prefix of the entries making up the package.
+     * @param name   The name of the package.
+     * @return The directory the package is (or will be) extracted to, named
+     * after the names, checksums and sizes of its entries.
+     * @throws IOException If unable to read the jar.
+     */
+    public File getPackageDirectory(final JarFile jar, final String prefix, final String name)
+            throws IOException {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            for (JarEntry entry : getEntries(jar, prefix)) {
+                md.update(entry.getName().getBytes("UTF-8"));
+                md.update((Long.toHexString(entry.getCrc()) + ":" + entry.getSize() + "\n").getBytes("UTF-8"));
+            }
+            return new File(root, name + "-" + HashUtils.convertToHex(md.digest()).substring(0, 16));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("Unable to hash native package", e);
+        }
+    }
+
+    /**
+     * Extracts, in the background, every entry of a jar beneath a prefix into
+     * the package directory, keeping entries already cached intact. Entries
+     * keep their full name within the directory.
+     *
+     * @param jar      The jar holding the package.
+     * @param prefix   The prefix of the entries making up the package.
+     * @param name     The name of the package.
+     * @param listener Told about each entry as it becomes available, may be
+     *                 null.
+     * @return The package directory, once every entry is in place.
+     */
+    public Future<File> extractPackage(final JarFile jar,
+                                       final String prefix,
+                                       final String name,
+                                       final Listener listener) {
+        return packages.submit(new Callable<File>() {
+            @Override
+            public File call() throws Exception {
+                final File directory = getPackageDirectory(jar, prefix, name);
+                final boolean cached = new File(directory, COMPLETE).isFile();
+
+                List<Future<?>> pending = new ArrayList<Future<?>>();
+                for (final JarEntry entry : getEntries(jar, prefix)) {
+                    pending.add(entries.submit(new Callable<Void>() {
+                        @Override
+                        public Void call() throws IOException {
+                            File target = new File(directory, entry.getName());
+                            if (!cached || !isIntact(target, entry.getCrc(), entry.getSize())) {
+                                write(jar.getInputStream(entry), target, entry.getCrc());
+                            }
+                            if (listener != null) {
+                                listener.extracted(entry.getName());
+                            }
+                            return null;
+                        }
+                    }));
+                }
+
+                try {
+                    for (Future<?> f : pending) {
+                        f.get();
+                    }
+                } catch (ExecutionException e) {
+                    for (Future<?> f : pending) {
+                        f.cancel(true);
+                    }
+                    throw e;
+                }
+
+                File complete = new File(directory, COMPLETE);
+                if (!complete.createNewFile()) {
+                    complete.setLastModified(System.currentTimeMillis());
+                }
+                directory.setLastModified(System.currentTimeMillis());
+                return directory;
+            }
+        });
+    }
+
+    /**
+     * Removes libraries and packages, and other versions of the cache, that
+     * have not been used for a long time.
+     */
+    public void prune() {
+        long cutoff = System.currentTimeMillis() - MAX_UNUSED;
+        File[] versions = base.listFiles();
+        if (versions == null) {
+            return;
+        }
+
+        for (File version : versions) {
+            if (version.equals(root)) {
+                File[] cached = root.listFiles();
+                if (cached != null) {
+                    for (File f : cached) {
+                        if (f.lastModified() < cutoff) {
+                            delete(f);
+                        }
+                    }
+                }
+            } else if (version.lastModified() < cutoff) {
+                delete(version);
+            }
+        }
+        root.setLastModified(System.currentTimeMillis());
+    }
+
+    /**
+     * @return The files in the jar beneath the prefix.
+     */
+    private static List<JarEntry> getEntries(final JarFile jar, final String prefix) {
+        List<JarEntry> result = new ArrayList<JarEntry>();
+        Enumeration<JarEntry> all = jar.entries();
+        while (all.hasMoreElements()) {
+            JarEntry entry = all.nextElement();
+            if (!entry.isDirectory() && entry.getName().startsWith(prefix)) {
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param file The cached file.
+     * @param crc  The expected CRC-32, or -1 if not known.
+     * @param size The expected size, or -1 if not known.
+     * @return True if the file exists and matches, false otherwise.
+     */
+    private static boolean isIntact(final File file, final long crc, final long size) {
+        if (!file.isFile() || crc < 0 || size < 0 || file.length() != size) {
+            return false;
+        }
+
+        try {
+            CheckedInputStream in = new CheckedInputStream(new FileInputStream(file), new CRC32());
+            try {
+                byte[] buffer = new byte[65536];
+                while (in.read(buffer) != -1) {
+                    // Reading is all that is needed.
+                }
+                return in.getChecksum().getValue() == crc;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Writes the content of a stream to a file, by way of a temporary file in
+     * the same directory, checking it against the expected checksum.
+     *
+     * @param source The content, closed once written.
+     * @param target The file to write.
+     * @param crc    The expected CRC-32, or -1 if not known.
+     * @throws IOException If unable to write the file, or the content does not
+     *                     match the checksum.
+     */
+    private static void write(final InputStream source, final File target, final long crc)
+            throws IOException {
+        File directory = target.getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+            source.close();
+            throw new IOException("Unable to create directory " + directory);
+        }
+
+        File part = File.createTempFile("." + target.getName() + "-", ".part", directory);
+        CheckedInputStream in = new CheckedInputStream(source, new CRC32());
+        try {
+            ReadableByteChannel from = Channels.newChannel(in);
+            FileOutputStream out = new FileOutputStream(part);
+            try {
+                FileChannel to = out.getChannel();
+                long position = 0;
+                long n;
+                while ((n = to.transferFrom(from, position, TRANSFER_SIZE)) > 0) {
+                    position += n;
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+
+        if (crc >= 0 && in.getChecksum().getValue() != crc) {
+            part.delete();
+            throw new IOException("Checksum mismatch extracting " + target);
+        }
+
+        try {
+            try {
+                Files.move(part.toPath(), target.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(part.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            part.delete();
+
+            // Another launch may have put the same content in place, and be
+            // holding it open.
+            if (!isIntact(target, crc, target.length())) {
+                throw e;
+            }
+            LOGGER.event("native library already in place: " + target.getName());
+        }
+    }
+
+    /**
+     * Deletes a file, or a directory and everything beneath it.
+     */
+    private static void delete(final File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        if (!file.delete()) {
+            LOGGER.event("unable to prune native library: " + file);
+        }
+    }
+
+    private static ThreadFactory daemon(final String name) {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                Thread t = new Thread(r, name);
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    }
+}
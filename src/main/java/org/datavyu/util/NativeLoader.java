@@ -14,40 +14,23 @@
  */
 package org.datavyu.util;
 
-import com.google.common.collect.Iterables;
-import org.apache.commons.io.FileUtils;
 import org.datavyu.Datavyu;
 
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.InputStream;
 import java.lang.reflect.Field;
 import java.net.URL;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Enumeration;
-import java.util.UUID;
-import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 
 
 public class NativeLoader {
 
     /**
-     * The size of the buffer to use when un zipping native libraries.
+     * Where native libraries and applications are unpacked to, kept between
+     * launches so that each is only unpacked once.
      */
-    private static final int BUFFER = 16384;
-
-    /**
-     * The list of all the native loaded odds and ends that need unpacking.
-     */
-    private static final ArrayList<File> loadedLibs = new ArrayList<File>();
-
-    /**
-     * The folder that we stash all our native libs within.
-     */
-    private static File nativeLibFolder;
+    private static final NativeLibraryCache CACHE = NativeLibraryCache.getInstance();
 
     /**
      * Load the given native library.
@@ -79,7 +62,7 @@ public class NativeLoader {
 
         File outfile;
         while (resources.hasMoreElements()) {
-            outfile = copyFileToTmp((libName + extension), resources.nextElement());
+            outfile = copyFileToCache((libName + extension), resources.nextElement());
             setLibraryPath(outfile.getParent());
         }
     }
@@ -107,12 +90,17 @@ public class NativeLoader {
 
         File outfile;
         while (resources.hasMoreElements()) {
-            outfile = copyFileToTmpDontLoad((libName + extension), resources.nextElement());
+            outfile = copyFileToCacheDontLoad((libName + extension), resources.nextElement());
             setLibraryPath(outfile.getParent());
         }
     }
 
     public static void setLibraryPath(String path) throws Exception {
+        String current = System.getProperty("java.library.path");
+        if (current != null && Arrays.asList(current.split(File.pathSeparator)).contains(path)) {
+            return;
+        }
+
         System.setProperty("java.library.path", System.getProperty("java.library.path") + File.pathSeparator + path);
 
         //set sys_paths to null
@@ -147,59 +135,16 @@ public class NativeLoader {
         usrPathsField.set(null, newPaths);
     }
 
-    private static File copyFileToTmpDontLoad(final String destName, final URL u) throws Exception {
+    private static File copyFileToCacheDontLoad(final String destName, final URL u) throws Exception {
         System.err.println("Attempting to load: " + u.toString());
-
-        InputStream in = u.openStream();
-        File outfile = new File(System.getProperty("java.io.tmpdir"), destName);
-
-        // Create a temporary output location for the library.
-        FileOutputStream out = new FileOutputStream(outfile);
-        BufferedOutputStream dest = new BufferedOutputStream(out, BUFFER);
-
-        int count;
-        byte[] data = new byte[BUFFER];
-        while ((count = in.read(data, 0, BUFFER)) != -1) {
-            dest.write(data, 0, count);
-        }
-
-        dest.flush();
-        dest.close();
-        out.close();
-        in.close();
-
-        loadedLibs.add(outfile);
-        System.err.println("Temp File:" + outfile);
-//        System.load(outfile.toString());
+        File outfile = CACHE.extract(u, destName);
         System.err.println("Extracted lib: " + outfile);
         return outfile;
     }
 
-    private static File copyFileToTmp(final String destName, final URL u) throws Exception {
-        System.err.println("Attempting to load: " + u.toString());
-
-        InputStream in = u.openStream();
-        File outfile = new File(System.getProperty("java.io.tmpdir"), destName);
-
-        // Create a temporary output location for the library.
-        FileOutputStream out = new FileOutputStream(outfile);
-        BufferedOutputStream dest = new BufferedOutputStream(out, BUFFER);
-
-        int count;
-        byte[] data = new byte[BUFFER];
-        while ((count = in.read(data, 0, BUFFER)) != -1) {
-            dest.write(data, 0, count);
-        }
-
-        dest.flush();
-        dest.close();
-        out.close();
-        in.close();
-
-        loadedLibs.add(outfile);
-        System.err.println("Temp File:" + outfile);
+    private static File copyFileToCache(final String destName, final URL u) throws Exception {
+        File outfile = copyFileToCacheDontLoad(destName, u);
         System.load(outfile.toString());
-        System.err.println("Extracted lib: " + outfile);
         return outfile;
     }
 
@@ -207,32 +152,19 @@ public class NativeLoader {
         Enumeration<URL> resources = NativeLoader.class.getClassLoader().getResources(libName);
 
         while (resources.hasMoreElements()) {
-            copyFileToTmp(libName, resources.nextElement());
+            copyFileToCache(libName, resources.nextElement());
         }
     }
 
     /**
-     * Unpacks a native application to a temporary location so that it can be
-     * utilized from within java code.
+     * Unpacks a native application to the native library cache so that it can
+     * be utilized from within java code.
      *
      * @param appJar The jar containing the native app that you want to unpack.
-     * @return The path of the native app as unpacked to a temporary location.
-     * @throws Exception If unable to unpack the native app to a temporary
-     *                   location.
+     * @return The path of the native app as unpacked to the cache.
+     * @throws Exception If unable to unpack the native app.
      */
     public static String unpackNativeApp(final String appJar) throws Exception {
-        final String nativeLibraryPath;
-
-        if (nativeLibFolder == null) {
-            nativeLibraryPath = System.getProperty("java.io.tmpdir")
-                    + UUID.randomUUID().toString() + "nativelibs";
-            nativeLibFolder = new File(nativeLibraryPath);
-
-            if (!nativeLibFolder.exists()) {
-                nativeLibFolder.mkdir();
-            }
-        }
-
         // Search the class path for the application jar.
         JarFile jar = null;
 
@@ -269,39 +201,8 @@ public class NativeLoader {
         // If we found a jar - it should contain the desired application.
         // decompress as needed.
         if (jar != null) {
-            Enumeration<JarEntry> entries = jar.entries();
-
-            while (entries.hasMoreElements()) {
-                JarEntry inFile = entries.nextElement();
-                File outFile = new File(nativeLibFolder, inFile.getName());
-
-                // If the file from the jar is a directory, create it.
-                if (inFile.isDirectory()) {
-                    outFile.mkdir();
-
-                    // The file from the jar is regular - decompress it.
-                } else {
-                    InputStream in = jar.getInputStream(inFile);
-
-                    // Create a temporary output location for the library.
-                    FileOutputStream out = new FileOutputStream(outFile);
-                    BufferedOutputStream dest = new BufferedOutputStream(out,
-                            BUFFER);
-                    int count;
-                    byte[] data = new byte[BUFFER];
-
-                    while ((count = in.read(data, 0, BUFFER)) != -1) {
-                        dest.write(data, 0, count);
-                    }
-
-                    dest.flush();
-                    dest.close();
-                    out.close();
-                    in.close();
-                }
-
-                loadedLibs.add(outFile);
-            }
+            return CACHE.extractPackage(jar, "", new File(appJar).getName(), null)
+                    .get().getAbsolutePath();
 
             // Unable to find jar file - abort decompression.
         } else {
@@ -314,32 +215,14 @@ public class NativeLoader {
 
             throw new Exception("Unable to find '" + appJar + "' for unpacking.");
         }
-
-        return nativeLibFolder.getAbsolutePath();
     }
 
     /**
-     * Cleans all the temporary files created by the native loader.
+     * Removes native libraries that have not been used for a long time. The
+     * libraries unpacked by this launch are kept for the next one.
      */
     public static void cleanAllTmpFiles() {
-        System.err.println("cleaning temp files");
-
-        for (File loadedLib : Iterables.reverse(loadedLibs)) {
-
-            if (!loadedLib.delete()) {
-                System.err.println("Unable to delete temp file: " + loadedLib);
-            }
-        }
-
-        // Delete all of the other files that mongo has created
-        try {
-            FileUtils.deleteDirectory(nativeLibFolder);
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-        if ((nativeLibFolder != null) && !nativeLibFolder.delete()) {
-            System.err.println("Unable to delete temp folder: + " + nativeLibFolder);
-        }
+        CACHE.prune();
     }
 
 }
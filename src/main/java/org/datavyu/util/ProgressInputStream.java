@@ -0,0 +1,117 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+/**
+ * Input stream that reports how far through its source it has read, and lets
+ * whoever is watching abandon the read part way.
+ */
+public final class ProgressInputStream extends FilterInputStream {
+
+    /**
+     * Watches the progress of a stream.
+     */
+    public interface Listener {
+
+        /**
+         * @param read  The number of bytes read so far.
+         * @param total The length of the source in bytes, -1 if unknown.
+         * @return True if reading should be abandoned, false otherwise.
+         */
+        boolean progress(long read, long total);
+    }
+
+    /**
+     * The length of the source in bytes, -1 if unknown.
+     */
+    private final long total;
+
+    /**
+     * Who to tell about progress.
+     */
+    private final Listener listener;
+
+    /**
+     * The number of bytes read so far.
+     */
+    private long read = 0;
+
+    /**
+     * @param in       The source to read from.
+     * @param total    The length of the source in bytes, -1 if unknown.
+     * @param listener Who to tell about progress.
+     */
+    public ProgressInputStream(final InputStream in,
+                               final long total,
+                               final Listener listener) {
+        super(in);
+        this.total = total;
+        this.listener = listener;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        count(b == -1 ? 0 : 1);
+        return b;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        int n = super.read(b, off, len);
+        count(n);
+        return n;
+    }
+
+    @Override
+    public long skip(final long n) throws IOException {
+        long skipped = super.skip(n);
+        count(skipped);
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        // Re-reading would count bytes twice.
+        return false;
+    }
+
+    /**
+     * @return The number of bytes read so far.
+     */
+    public long getRead() {
+        return read;
+    }
+
+    /**
+     * Reports bytes read to the listener.
+     *
+     * @param n The number of bytes just read.
+     * @throws InterruptedIOException If the listener abandons the read.
+     */
+    private void count(final long n) throws InterruptedIOException {
+        if (n > 0) {
+            read += n;
+        }
+        if (listener.progress(read, total)) {
+            throw new InterruptedIOException("Reading abandoned after " + read + " bytes");
+        }
+    }
+}
@@ -0,0 +1,269 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.util;
+
+import com.usermetrix.jclient.Logger;
+import com.usermetrix.jclient.UserMetrix;
+
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
+import java.io.PrintWriter;
+import java.util.LinkedList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Hands out warm JRuby scripting engines.
+ *
+ * Starting a JRuby runtime and loading the Datavyu API takes seconds, so
+ * rather than pay for it on every script run, engines are kept in a pool:
+ * each one owns its own runtime with the API already required (a script's
+ * own "require 'Datavyu_API.rb'" is then a no-op). The first engine is
+ * started in the background by {@link #warmUp()}, and engines that are
+ * {@link #release(ScriptEngine) released} after a run have the global
+ * variables, top level methods and top level constants the run created
+ * removed before they are handed out again.
+ *
+ * Isolation between scripts is not complete: changes a script makes to
+ * existing classes, including those of the Datavyu API, and files it
+ * requires stay in the runtime for the scripts that follow.
+ */
+public final class ScriptingRuntime {
+
+    /**
+     * The logger for this class.
+     */
+    private static Logger LOGGER = UserMetrix.getLogger(ScriptingRuntime.class);
+
+    /**
+     * The JRuby property selecting how engines share runtimes.
+     */
+    private static final String SCOPE = "org.jruby.embed.localcontext.scope";
+
+    /**
+     * Run in every new engine: loads the API and records the global
+     * variables, top level methods and top level constants that exist before
+     * any script runs.
+     */
+    private static final String PRELOAD = "require 'Datavyu_API.rb'\n"
+            + "DATAVYU_BASELINE_GLOBALS = global_variables.map { |g| g.to_s }\n"
+            + "DATAVYU_BASELINE_METHODS = Object.private_instance_methods(false)"
+            + " + Object.instance_methods(false)\n"
+            + "DATAVYU_BASELINE_CONSTANTS = Object.constants + [:DATAVYU_BASELINE_CONSTANTS]\n";
+
+    /**
+     * Run in every released engine: clears the global variables created since
+     * the API was loaded, including those put by the caller, and removes the
+     * methods and constants scripts defined at the top level.
+     */
+    private static final String RESET = "(global_variables.map { |g| g.to_s } - DATAVYU_BASELINE_GLOBALS)"
+            + ".each { |g| eval(\"#{g} = nil\") }\n"
+            + "(Object.private_instance_methods(false) + Object.instance_methods(false)"
+            + " - DATAVYU_BASELINE_METHODS).each { |m| Object.send(:remove_method, m) }\n"
+            + "(Object.constants - DATAVYU_BASELINE_CONSTANTS)"
+            + ".each { |c| Object.send(:remove_const, c) }\n"
+            + "$debug = false\n";
+
+    /**
+     * The maximum number of idle engines kept in the pool.
+     */
+    private static final int MAX_IDLE = 2;
+
+    /**
+     * The single instance of the scripting runtime.
+     */
+    private static final ScriptingRuntime INSTANCE = new ScriptingRuntime();
+
+    /**
+     * Starts engines in the background.
+     */
+    private final ExecutorService starter = Executors.newSingleThreadExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable r) {
+                    Thread t = new Thread(r, "Scripting runtime");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
+    /**
+     * The engines ready to run a script.
+     */
+    private final LinkedList<ScriptEngine> idle = new LinkedList<ScriptEngine>();
+
+    /**
+     * The engine being started in the background, null if there is none.
+     */
+    private Future<?> warming = null;
+
+    /**
+     * The JRuby engine factory, found the first time it is needed.
+     */
+    private ScriptEngineFactory factory = null;
+
+    private ScriptingRuntime() {
+    }
+
+    /**
+     * @return The single instance of the scripting runtime.
+     */
+    public static ScriptingRuntime getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Starts an engine in the background, unless one is ready or already
+     * starting.
+     */
+    public synchronized void warmUp() {
+        if (warming != null || !idle.isEmpty()) {
+            return;
+        }
+
+        warming = starter.submit(new Runnable() {
+            @Override
+            public void run() {
+                ScriptEngine engine = null;
+                try {
+                    engine = create();
+                } catch (ScriptException e) {
+                    LOGGER.error("Unable to start scripting runtime", e);
+                } finally {
+                    synchronized (ScriptingRuntime.this) {
+                        if (engine != null) {
+                            idle.add(engine);
+                        }
+                        warming = null;
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Takes an engine to run a script with, waiting for the engine being
+     * started in the background if there is one. Hand the engine back with
+     * {@link #release(ScriptEngine)} once the script has finished.
+     *
+     * @return An engine with the Datavyu API loaded.
+     * @throws ScriptException If unable to start an engine.
+     */
+    public ScriptEngine acquire() throws ScriptException {
+        Future<?> pending;
+        synchronized (this) {
+            if (!idle.isEmpty()) {
+                return idle.removeFirst();
+            }
+            pending = warming;
+        }
+
+        if (pending != null) {
+            try {
+                pending.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                LOGGER.error("Unable to start scripting runtime", e);
+            }
+
+            synchronized (this) {
+                if (!idle.isEmpty()) {
+                    return idle.removeFirst();
+                }
+            }
+        }
+
+        return create();
+    }
+
+    /**
+     * Hands back an engine taken with {@link #acquire()}. The engine is
+     * reset and kept for the next script, unless it can not be reset.
+     *
+     * @param engine The engine to hand back.
+     */
+    public void release(final ScriptEngine engine) {
+        try {
+            reset(engine);
+        } catch (ScriptException e) {
+            // The script left the runtime unusable, start a fresh one.
+            LOGGER.error("Unable to reset scripting runtime", e);
+            warmUp();
+            return;
+        }
+
+        synchronized (this) {
+            if (idle.size() < MAX_IDLE) {
+                idle.add(engine);
+            }
+        }
+    }
+
+    /**
+     * Readies an engine for another script: points its output back at the
+     * standard streams and clears the variables the last script was given or
+     * created. Callers that run many scripts in a row on one engine can use
+     * this instead of handing it back between runs.
+     *
+     * @param engine The engine to reset.
+     * @throws ScriptException If the runtime of the engine is unusable.
+     */
+    public void reset(final ScriptEngine engine) throws ScriptException {
+        engine.getContext().setWriter(new PrintWriter(System.out, true));
+        engine.getContext().setErrorWriter(new PrintWriter(System.err, true));
+        engine.getBindings(ScriptContext.ENGINE_SCOPE).clear();
+        engine.eval(RESET);
+    }
+
+    /**
+     * @return A new engine, with its own runtime, with the Datavyu API loaded.
+     * @throws ScriptException If unable to load the Datavyu API.
+     */
+    private ScriptEngine create() throws ScriptException {
+        ScriptEngine engine = getFactory().getScriptEngine();
+        engine.eval(PRELOAD);
+        return engine;
+    }
+
+    private synchronized ScriptEngineFactory getFactory() throws ScriptException {
+        if (factory == null) {
+            // Give each engine a runtime of its own, rather than one runtime
+            // shared by every engine.
+            if (System.getProperty(SCOPE) == null) {
+                System.setProperty(SCOPE, "singlethread");
+            }
+
+            for (ScriptEngineFactory f : new ScriptEngineManager().getEngineFactories()) {
+                if (f.getNames().contains("jruby")) {
+                    factory = f;
+                    break;
+                }
+            }
+
+            if (factory == null) {
+                throw new ScriptException("Unable to find the JRuby scripting engine");
+            }
+        }
+
+        return factory;
+    }
+}
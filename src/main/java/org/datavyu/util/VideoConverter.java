@@ -13,6 +13,7 @@ import javafx.scene.image.PixelWriter;
 import javafx.scene.image.WritablePixelFormat;
 import javafx.scene.layout.BorderPane;
 import javafx.stage.Stage;
+import org.datavyu.Datavyu;
 import uk.co.caprica.vlcj.component.DirectMediaPlayerComponent;
 import uk.co.caprica.vlcj.discovery.NativeDiscovery;
 import uk.co.caprica.vlcj.player.MediaPlayer;
@@ -104,6 +105,8 @@ public class VideoConverter extends Application {
                 + "}:standard{access=file,dst="
                 + outfile.getAbsolutePath() + "}"};
 
+        // libvlc may still be being unpacked in the background.
+        Datavyu.awaitNativeLibraries();
         mediaPlayerComponent = new MediaPlayerFactory(libvlcArgs).newDirectMediaPlayer(new TestBufferFormatCallback(), new RenderCallback() {
             @Override
             public void display(DirectMediaPlayer mediaPlayer, Memory[] nativeBuffers, BufferFormat bufferFormat) {
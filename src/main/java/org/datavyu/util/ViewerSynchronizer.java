@@ -0,0 +1,519 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.util;
+
+import com.usermetrix.jclient.Logger;
+import com.usermetrix.jclient.UserMetrix;
+import org.datavyu.plugins.DataViewer;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Keeps data viewers in step with the master clock.
+ *
+ * During playback each viewer's reported time is compared with the clock
+ * every pulse. Small drift is corrected by nudging the viewer's playback rate
+ * for a while - viewers that turn out to ignore the nudge are corrected with
+ * seeks instead - and large drift with a seek. Seeks are made with
+ * {@link DataViewer#seekToAsync(long)}, one at a time and no more often than a
+ * viewer can show frames; a seek asked for while an earlier one is still
+ * pending replaces it.
+ */
+public final class ViewerSynchronizer {
+
+    /**
+     * The logger for this class.
+     */
+    private static Logger LOGGER = UserMetrix.getLogger(ViewerSynchronizer.class);
+
+    /**
+     * How often to measure the drift of a viewer, in milliseconds.
+     */
+    private static final long PULSE = 500L;
+
+    /**
+     * The drift left alone, in milliseconds (or a frame, if longer).
+     */
+    private static final long TOLERANCE = 20L;
+
+    /**
+     * The drift corrected by seeking rather than nudging, in milliseconds
+     * (augmented by rate).
+     */
+    private static final long SEEK_THRESH = 200L;
+
+    /**
+     * Frame rates at or below this are treated as low data rate.
+     */
+    private static final double LOW_RATE = 5D;
+
+    /**
+     * The largest change made to the rate of a viewer, as a fraction.
+     */
+    private static final float MAX_NUDGE = 0.05F;
+
+    /**
+     * The time over which drift is nudged away, in milliseconds.
+     */
+    private static final float NUDGE_WINDOW = 1000F;
+
+    /**
+     * The pulses in a row a nudge may fail to reduce drift before the viewer
+     * is corrected with seeks instead.
+     */
+    private static final int NUDGE_TRIALS = 3;
+
+    /**
+     * The least time between seeks of a viewer, in milliseconds (or a frame,
+     * if longer).
+     */
+    private static final long MIN_SEEK_INTERVAL = 40L;
+
+    /**
+     * Used to convert between nanoseconds and milliseconds.
+     */
+    private static final long NANO_IN_MILLI = 1000000L;
+
+    /**
+     * No seek waiting.
+     */
+    private static final long NONE = Long.MIN_VALUE;
+
+    /**
+     * The buckets of the drift histograms, in milliseconds.
+     */
+    private static final long[] DRIFT_BOUNDS = {5, 10, 20, 40, 80, 160, 320, 640, 1280};
+
+    /**
+     * What is known about each viewer.
+     */
+    private final ConcurrentHashMap<DataViewer, Tracker> trackers = new ConcurrentHashMap<DataViewer, Tracker>();
+
+    /**
+     * Makes the seeks.
+     */
+    private final ScheduledExecutorService seeker;
+
+    /**
+     * Constructor.
+     */
+    public ViewerSynchronizer() {
+        seeker = Executors.newScheduledThreadPool(
+                Math.min(4, Runtime.getRuntime().availableProcessors()), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(final Runnable r) {
+                        Thread t = new Thread(r, "Viewer seek");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+    }
+
+    /**
+     * Compares the time of a playing viewer with the clock, once a pulse, and
+     * corrects any drift.
+     *
+     * @param viewer   The viewer.
+     * @param expected The time the viewer should be at, in milliseconds.
+     * @param rate     The rate of the clock.
+     */
+    public void sync(final DataViewer viewer, final long expected, final float rate) {
+        Tracker t = tracker(viewer);
+        long now = System.nanoTime();
+
+        synchronized (t) {
+            if (t.lastPulse != NONE && (now - t.lastPulse) < PULSE * NANO_IN_MILLI) {
+                return;
+            }
+            t.lastPulse = now;
+        }
+
+        long actual;
+        try {
+            actual = viewer.getCurrentTime();
+        } catch (Exception e) {
+            LOGGER.error("Unable to get viewer time", e);
+            return;
+        }
+
+        long drift = actual - expected;
+        float fps = viewer.getFrameRate();
+        long tolerance = TOLERANCE;
+        long thresh = (long) (SEEK_THRESH * Math.max(Math.abs(rate), 1F));
+        if (fps > 0) {
+            tolerance = Math.max(tolerance, (long) (1000 / fps));
+            // For plugins with low data rate, use frame rate to determine
+            // threshold.
+            if (fps <= LOW_RATE) {
+                thresh = (long) (1000 / fps / Math.max(Math.abs(rate), 1F));
+            }
+        }
+
+        float nudge = 0;
+        boolean seek = false;
+        boolean restore;
+        synchronized (t) {
+            t.metrics.record(drift);
+            restore = t.nudged;
+
+            if (Math.abs(drift) <= tolerance) {
+                t.failedNudges = 0;
+            } else if (!t.metrics.nudgeSupported || Math.abs(drift) > thresh || rate <= 0) {
+                seek = true;
+            } else {
+                if (t.nudged && Math.abs(drift) >= Math.abs(t.lastDrift)) {
+                    t.failedNudges++;
+                } else {
+                    t.failedNudges = 0;
+                }
+
+                if (t.failedNudges >= NUDGE_TRIALS) {
+                    t.metrics.nudgeSupported = false;
+                    seek = true;
+                } else {
+                    nudge = Math.max(-MAX_NUDGE, Math.min(MAX_NUDGE, -drift / NUDGE_WINDOW));
+                    t.metrics.nudges++;
+                    restore = false;
+                }
+            }
+
+            t.lastDrift = drift;
+            t.nudged = nudge != 0;
+        }
+
+        if (nudge != 0) {
+            viewer.setPlaybackSpeed(rate * (1 + nudge));
+        } else if (restore) {
+            viewer.setPlaybackSpeed(rate);
+        }
+
+        if (seek) {
+            seek(viewer, expected);
+        }
+    }
+
+    /**
+     * Seeks a viewer in the background, as soon as the previous seek of the
+     * viewer is done and the viewer could have shown a frame since. Seeks
+     * asked for in the meantime replace this one.
+     *
+     * @param viewer   The viewer.
+     * @param position The time to seek to, in milliseconds.
+     */
+    public void seek(final DataViewer viewer, final long position) {
+        final Tracker t = tracker(viewer);
+        long delay;
+
+        synchronized (t) {
+            if (t.target != NONE) {
+                t.metrics.coalescedSeeks++;
+            }
+            t.target = position;
+            if (t.seeking) {
+                return;
+            }
+            t.seeking = true;
+            delay = Math.max(0, t.lastSeek + interval(viewer) * NANO_IN_MILLI - System.nanoTime());
+        }
+
+        seeker.schedule(new Runnable() {
+            @Override
+            public void run() {
+                long position;
+                long generation;
+                synchronized (t) {
+                    position = t.target;
+                    generation = t.generation;
+                    t.target = NONE;
+                    if (position == NONE) {
+                        t.seeking = false;
+                        return;
+                    }
+                }
+
+                Future<Long> done = null;
+                synchronized (t.seekLock) {
+                    // Skip seeks overtaken by seekNow.
+                    if (generation == t.generation) {
+                        done = viewer.seekToAsync(position);
+                    }
+                }
+
+                // Wait for the viewer to get there before the next seek.
+                if (done != null) {
+                    try {
+                        done.get();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } catch (ExecutionException e) {
+                        LOGGER.error("Unable to seek viewer", e.getCause());
+                    }
+                }
+
+                synchronized (t) {
+                    t.lastSeek = System.nanoTime();
+                    t.metrics.seeks++;
+                    if (t.target == NONE) {
+                        t.seeking = false;
+                        return;
+                    }
+                }
+                seeker.schedule(this, interval(viewer), TimeUnit.MILLISECONDS);
+            }
+        }, delay, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Seeks a viewer straight away (without waiting for it to get there),
+     * dropping any seeks still waiting.
+     *
+     * @param viewer   The viewer.
+     * @param position The time to seek to, in milliseconds.
+     */
+    public void seekNow(final DataViewer viewer, final long position) {
+        Tracker t = tracker(viewer);
+        synchronized (t) {
+            t.target = NONE;
+            t.generation++;
+        }
+
+        synchronized (t.seekLock) {
+            viewer.seekToAsync(position);
+        }
+
+        synchronized (t) {
+            t.lastSeek = System.nanoTime();
+            t.metrics.seeks++;
+        }
+    }
+
+    /**
+     * Forgets the nudges and pulse timing of every viewer, called when the
+     * clock starts, stops, steps or changes rate - the viewers are given the
+     * clock rate by the caller.
+     */
+    public void reset() {
+        for (Tracker t : trackers.values()) {
+            synchronized (t) {
+                t.nudged = false;
+                t.failedNudges = 0;
+                t.lastPulse = NONE;
+            }
+        }
+    }
+
+    /**
+     * Stops tracking a viewer, dropping any seeks still waiting.
+     *
+     * @param viewer The viewer.
+     */
+    public void remove(final DataViewer viewer) {
+        Tracker t = trackers.remove(viewer);
+        if (t != null) {
+            synchronized (t) {
+                t.target = NONE;
+                t.generation++;
+            }
+        }
+    }
+
+    /**
+     * @param viewer The viewer.
+     * @return The synchronisation metrics of the viewer, or null if it has
+     * not been synchronised.
+     */
+    public Metrics getMetrics(final DataViewer viewer) {
+        Tracker t = trackers.get(viewer);
+        return t == null ? null : t.metrics;
+    }
+
+    /**
+     * @return The synchronisation metrics of every viewer.
+     */
+    public Map<DataViewer, Metrics> getAllMetrics() {
+        Map<DataViewer, Metrics> result = new LinkedHashMap<DataViewer, Metrics>();
+        for (Map.Entry<DataViewer, Tracker> e : trackers.entrySet()) {
+            result.put(e.getKey(), e.getValue().metrics);
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    private Tracker tracker(final DataViewer viewer) {
+        Tracker t = trackers.get(viewer);
+        if (t == null) {
+            t = new Tracker();
+            Tracker existing = trackers.putIfAbsent(viewer, t);
+            if (existing != null) {
+                t = existing;
+            }
+        }
+        return t;
+    }
+
+    /**
+     * @return The least time between seeks of the viewer, in milliseconds.
+     */
+    private static long interval(final DataViewer viewer) {
+        float fps = viewer.getFrameRate();
+        return fps > 0 ? Math.max(MIN_SEEK_INTERVAL, (long) (1000 / fps)) : MIN_SEEK_INTERVAL;
+    }
+
+    /**
+     * The synchronisation state of a viewer.
+     */
+    private static final class Tracker {
+
+        /**
+         * Held while seeking the viewer.
+         */
+        final Object seekLock = new Object();
+
+        final Metrics metrics = new Metrics();
+
+        /**
+         * When the drift was last measured, from System.nanoTime().
+         */
+        long lastPulse = NONE;
+
+        /**
+         * The drift last measured.
+         */
+        long lastDrift = 0;
+
+        /**
+         * Is the viewer playing at a nudged rate?
+         */
+        boolean nudged = false;
+
+        /**
+         * The pulses in a row the nudge has not reduced the drift.
+         */
+        int failedNudges = 0;
+
+        /**
+         * The seek waiting to be made, NONE if there is none.
+         */
+        long target = NONE;
+
+        /**
+         * Is a seek waiting or being made?
+         */
+        boolean seeking = false;
+
+        /**
+         * When the last seek finished, from System.nanoTime().
+         */
+        long lastSeek = System.nanoTime() - MIN_SEEK_INTERVAL * NANO_IN_MILLI * 100;
+
+        /**
+         * Bumped by seekNow, so waiting seeks are dropped.
+         */
+        volatile long generation = 0;
+    }
+
+    /**
+     * How well a viewer is keeping in step with the clock.
+     */
+    public static final class Metrics {
+
+        private final Histogram drift = new Histogram(DRIFT_BOUNDS);
+
+        private volatile long lastDrift = 0;
+
+        private volatile long maxDrift = 0;
+
+        private volatile long seeks = 0;
+
+        private volatile long coalescedSeeks = 0;
+
+        private volatile long nudges = 0;
+
+        private volatile boolean nudgeSupported = true;
+
+        private void record(final long value) {
+            lastDrift = value;
+            maxDrift = Math.max(maxDrift, Math.abs(value));
+            drift.record(Math.abs(value));
+        }
+
+        /**
+         * @return The drift last measured, in milliseconds. Positive when the
+         * viewer is ahead of the clock.
+         */
+        public long getDrift() {
+            return lastDrift;
+        }
+
+        /**
+         * @return The largest drift measured, in milliseconds.
+         */
+        public long getMaxDrift() {
+            return maxDrift;
+        }
+
+        /**
+         * @return The size of each drift measured, in milliseconds.
+         */
+        public Histogram getDriftHistogram() {
+            return drift;
+        }
+
+        /**
+         * @return The number of seeks made.
+         */
+        public long getSeeks() {
+            return seeks;
+        }
+
+        /**
+         * @return The number of seeks replaced by a later one before being
+         * made.
+         */
+        public long getCoalescedSeeks() {
+            return coalescedSeeks;
+        }
+
+        /**
+         * @return The number of times the rate of the viewer was nudged.
+         */
+        public long getNudges() {
+            return nudges;
+        }
+
+        /**
+         * @return False once nudging the rate of the viewer has been found
+         * not to reduce its drift.
+         */
+        public boolean isNudgeSupported() {
+            return nudgeSupported;
+        }
+
+        @Override
+        public String toString() {
+            return "drift " + lastDrift + "ms (max " + maxDrift + "ms), " + seeks + " seeks ("
+                    + coalescedSeeks + " coalesced), " + nudges + " nudges";
+        }
+    }
+}
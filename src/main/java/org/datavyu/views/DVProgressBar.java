@@ -14,7 +14,7 @@ import java.util.Date;
 public class DVProgressBar extends javax.swing.JDialog {
 
     private boolean m_error;
-    private boolean m_cancel;
+    private volatile boolean m_cancel;
     private int m_progress;
     private long m_start_time_msec;
 
@@ -50,6 +50,27 @@ public class DVProgressBar extends javax.swing.JDialog {
         return m_cancel;
     }
 
+    /**
+     * Moves the bar without adding a line to the log, for progress that is
+     * reported often.
+     *
+     * @param value The new progress.
+     * @return True if the user has asked to cancel, false otherwise.
+     */
+    public boolean setProgressQuietly(final int value) {
+        if (value != m_progress) {
+            m_progress = value;
+            SwingUtilities.invokeLater(new Runnable() {
+                @Override
+                public void run() {
+                    jProgressBar.setIndeterminate(false);
+                    jProgressBar.setValue(value);
+                }
+            });
+        }
+        return m_cancel;
+    }
+
     public void setError(final String update) {
         setProgress(m_progress, update);
         m_error = true;
@@ -39,6 +39,7 @@ import org.datavyu.plugins.PluginManager;
 import org.datavyu.util.ClockTimer;
 import org.datavyu.util.ClockTimer.ClockListener;
 import org.datavyu.util.FloatUtils;
+import org.datavyu.util.ViewerSynchronizer;
 import org.datavyu.views.component.TrackPainter;
 import org.jdesktop.application.Action;
 import org.jdesktop.application.Application;
@@ -68,8 +69,6 @@ public final class DataControllerV extends DatavyuDialog
         implements ClockListener, TracksControllerListener, DataController,
         PropertyChangeListener {
 
-    private static final double LOW_RATE = 5D;
-
     /**
      * One second in milliseconds.
      */
@@ -95,11 +94,6 @@ public final class DataControllerV extends DatavyuDialog
      */
     private static final float[] SHUTTLE_RATES;
 
-    /**
-     * The threshold to use while synchronising viewers (augmented by rate).
-     */
-    private static final long SYNC_THRESH = 200;
-
     /**
      * How often to synchronise the viewers with the master clock.
      */
@@ -211,6 +205,11 @@ public final class DataControllerV extends DatavyuDialog
      */
     private ClockTimer clock = new ClockTimer();
 
+    /**
+     * Keeps the viewers in step with the clock.
+     */
+    private final ViewerSynchronizer viewerSync = new ViewerSynchronizer();
+
     /**
      * Is the tracks panel currently shown?
      */
@@ -504,6 +503,10 @@ public final class DataControllerV extends DatavyuDialog
      */
     public void clockStart(final long time) {
         resetSync();
+        viewerSync.reset();
+
+        // Viewers may only know their frame rate once they have loaded.
+        updateClockFrameRate();
 
         long playTime = time;
         final long windowPlayStart = playbackModel.getWindowPlayStart();
@@ -557,7 +560,7 @@ public final class DataControllerV extends DatavyuDialog
                 for (DataViewer v : viewers) {
 
                     if ((time > v.getOffset()) && isWithinPlayRange(time, v)) {
-                        v.seekTo(time - v.getOffset());
+                        viewerSync.seek(v, time - v.getOffset());
                     }
                 }
 
@@ -567,8 +570,6 @@ public final class DataControllerV extends DatavyuDialog
                 // Synchronise viewers only if we have exceeded our pulse time.
                 if ((time - playbackModel.getLastSync())
                         > (SYNC_PULSE * clock.getRate()) || playbackModel.getLastSync() == 0) {
-                    long thresh = (long) (SYNC_THRESH
-                            * Math.abs(clock.getRate()));
                     playbackModel.setLastSync(time);
 
                     for (DataViewer v : viewers) {
@@ -589,25 +590,13 @@ public final class DataControllerV extends DatavyuDialog
                             v.stop();
                         }
 
-                        // For plugins with low data rate, use frame rate
-                        // to determine threshold.
-                        if ((0 < v.getFrameRate())
-                                && (v.getFrameRate() <= LOW_RATE)) {
-                            thresh = (long) (ONE_SECOND / v.getFrameRate()
-                                    / clock.getRate());
-                        }
-
                         /*
                          * Only synchronise the data viewers if we have a
-                         * noticable drift.
+                         * noticable drift - the synchroniser measures each
+                         * viewer once a pulse.
                          */
-//                        System.out.println(v.getCurrentTime());
-//                        System.out.println(time);
-                        if (v.isPlaying()
-                                && (Math.abs(
-                                v.getCurrentTime()
-                                        - (time - v.getOffset())) > thresh)) {
-//                            v.seekTo(time - v.getOffset());
+                        if (v.isPlaying()) {
+                            viewerSync.sync(v, time - v.getOffset(), clock.getRate());
                         }
                     }
                 }
@@ -658,6 +647,7 @@ public final class DataControllerV extends DatavyuDialog
     public void clockStop(final long time) {
         clock.stop();
         resetSync();
+        viewerSync.reset();
 
         if (viewers.size() == 1) {
             // Using an iterator because viewers is a set
@@ -675,7 +665,7 @@ public final class DataControllerV extends DatavyuDialog
                         viewerTime = viewerTime + stepSize - mod;
                     }
 
-                    viewer.seekTo(viewerTime);
+                    viewerSync.seekNow(viewer, viewerTime);
 
                     clock.setTimeDontNotify(viewerTime);
                     resetSync();
@@ -690,7 +680,7 @@ public final class DataControllerV extends DatavyuDialog
                 viewer.stop();
 
                 if (isWithinPlayRange(time, viewer)) {
-                    viewer.seekTo(time - viewer.getOffset());
+                    viewerSync.seekNow(viewer, time - viewer.getOffset());
                 }
             }
         }
@@ -701,6 +691,7 @@ public final class DataControllerV extends DatavyuDialog
      */
     public void clockRate(final float rate) {
         resetSync();
+        viewerSync.reset();
         lblSpeed.setText(FloatUtils.doubleToFractionStr(new Double(rate)));
 
         long time = getCurrentTime();
@@ -739,6 +730,7 @@ public final class DataControllerV extends DatavyuDialog
      */
     public void clockStep(final long time) {
         resetSync();
+        viewerSync.reset();
         setCurrentTime(time);
 
         for (DataViewer viewer : viewers) {
@@ -746,7 +738,7 @@ public final class DataControllerV extends DatavyuDialog
             System.out.println(time);
             try {
                 if (isWithinPlayRange(time, viewer) && time != viewer.getCurrentTime()) {
-                    viewer.seekTo(time - viewer.getOffset());
+                    viewerSync.seekNow(viewer, time - viewer.getOffset());
                 }
             } catch (Exception e) {
                 e.printStackTrace();
@@ -813,6 +805,19 @@ public final class DataControllerV extends DatavyuDialog
         }
     }
 
+    /**
+     * Lets the clock tick at the frame rate of the fastest viewer.
+     */
+    private void updateClockFrameRate() {
+        float fps = 0;
+
+        for (DataViewer dv : viewers) {
+            fps = Math.max(fps, dv.getFrameRate());
+        }
+
+        clock.setFrameRate(fps);
+    }
+
     /**
      * Remove the specified viewer from the controller.
      *
@@ -825,6 +830,7 @@ public final class DataControllerV extends DatavyuDialog
         boolean removed = viewers.remove(viewer);
 
         if (removed) {
+            viewerSync.remove(viewer);
 
             viewer.clearDataFeed();
 
@@ -835,6 +841,7 @@ public final class DataControllerV extends DatavyuDialog
 
             // Recalculate the maximum playback duration.
             updateMaxViewerDuration();
+            updateClockFrameRate();
 
             // Remove the data viewer from the tracks panel.
             mixerController.deregisterTrack(viewer.getIdentifier());
@@ -868,6 +875,7 @@ public final class DataControllerV extends DatavyuDialog
         }
 
         viewers.remove(viewer);
+        viewerSync.remove(viewer);
 
         viewer.stop();
         viewer.clearDataFeed();
@@ -891,6 +899,7 @@ public final class DataControllerV extends DatavyuDialog
 
         // Recalculate the maximum playback duration.
         updateMaxViewerDuration();
+        updateClockFrameRate();
 
         // Remove the data viewer from the tracks panel.
         mixerController.deregisterTrack(viewer.getIdentifier());
@@ -1318,6 +1327,7 @@ public final class DataControllerV extends DatavyuDialog
                     for (DataViewer dv : viewers) {
                         dv.setFrameRate(newfps);
                     }
+                    updateClockFrameRate();
                     stepSizeTextField.setEnabled(false);
                     updateStepSizePanelColor();
 
@@ -1549,6 +1559,7 @@ public final class DataControllerV extends DatavyuDialog
         if (fps > playbackModel.getCurrentFPS()) {
             playbackModel.setCurrentFPS(fps);
         }
+        updateClockFrameRate();
         updateStepSizeTextField();
         updateStepSizePanelColor();
 
@@ -2278,6 +2289,15 @@ public final class DataControllerV extends DatavyuDialog
         return playbackModel.getCurrentFPS();
     }
 
+    /**
+     * @param viewer A viewer of this controller.
+     * @return How well the viewer is keeping in step with the clock, or null
+     * if it has not been synchronised yet.
+     */
+    public ViewerSynchronizer.Metrics getSyncMetrics(final DataViewer viewer) {
+        return viewerSync.getMetrics(viewer);
+    }
+
     public ClockTimer getClock() {
         return clock;
     }
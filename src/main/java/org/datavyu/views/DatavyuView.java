@@ -34,6 +34,7 @@ import org.datavyu.undoableedits.SpreadsheetUndoManager;
 import org.datavyu.util.ArrayDirection;
 import org.datavyu.util.FileFilters.*;
 import org.datavyu.util.FileSystemTreeModel;
+import org.datavyu.util.ProgressInputStream;
 import org.datavyu.views.discrete.SpreadsheetColumn;
 import org.datavyu.views.discrete.SpreadsheetPanel;
 import org.datavyu.views.discrete.layouts.SheetLayoutFactory.SheetLayoutType;
@@ -61,6 +62,8 @@ import java.io.FilenameFilter;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
 import java.util.logging.Level;
 
 /**
@@ -84,6 +87,11 @@ public final class DatavyuView extends FrameView
      * The logger for this class.
      */
     private static Logger LOGGER = UserMetrix.getLogger(DatavyuView.class);
+    /**
+     * How long opening a project can take before progress is shown, in
+     * milliseconds.
+     */
+    private static final int PROGRESS_DELAY = 500;
     private static boolean redraw = true;
     private final Icon rubyIcon = new ImageIcon(getClass().getResource("/icons/ruby.png"));
     private final Icon opfIcon = new ImageIcon(getClass().getResource("/icons/datavyu.png"));
@@ -101,7 +109,6 @@ public final class DatavyuView extends FrameView
      */
     private SpreadsheetPanel panel;
     private JSplitPane splitPane;
-    private DVProgressBar progressBar;
     private OpenTask task;
     /**
      * the code editor's controller
@@ -866,7 +873,9 @@ public final class DatavyuView extends FrameView
                     saveController.saveProject(new File(projController.getProjectDirectory(),
                                     projController.getProjectName() + ".opf"),
                             projController.getProject(),
-                            projController.getDB()
+                            projController.getDB(),
+                            true,
+                            Configuration.getInstance().getBinaryDatabasePreference()
                     );
 
                     projController.markProjectAsUnchanged();
@@ -989,7 +998,8 @@ public final class DatavyuView extends FrameView
 
             FileFilter filter = fc.getFileFilter();
             String dbFileName = fc.getSelectedFile().getPath();
-            if (!dbFileName.endsWith(".csv")) {
+            // Exports named .csv.gz are compressed.
+            if (!dbFileName.endsWith(".csv") && !dbFileName.endsWith(".csv.gz")) {
                 dbFileName = dbFileName.concat(".csv");
             }
 
@@ -1100,7 +1110,9 @@ public final class DatavyuView extends FrameView
                 saveC.saveProject(new File(fc.getSelectedFile().getParent(),
                                 archiveName),
                         projController.getProject(),
-                        projController.getDB()
+                        projController.getDB(),
+                        true,
+                        Configuration.getInstance().getBinaryDatabasePreference()
                 );
                 projController.setProjectDirectory(fc.getSelectedFile().getParent());
 
@@ -1202,7 +1214,9 @@ public final class DatavyuView extends FrameView
                 saveC.saveProject(new File(fc.getSelectedFile().getParent(),
                                 archiveName),
                         projController.getProject(),
-                        projController.getDB()
+                        projController.getDB(),
+                        true,
+                        Configuration.getInstance().getBinaryDatabasePreference()
                 );
                 projController.getDB().setName(fc.getSelectedFile().getName());
                 projController.setProjectDirectory(fc.getSelectedFile().getParent());
@@ -1293,13 +1307,17 @@ public final class DatavyuView extends FrameView
      */
     private void open(final DatavyuFileChooser jd) {
 
-        JFrame mainFrame = Datavyu.getApplication().getMainFrame();
-        progressBar = new DVProgressBar(this.getFrame(), false);
+        // Only one project is opened at a time.
+        if (task != null && !task.isDone()) {
+            Datavyu.getApplication().showWarningDialog("Error: Already opening a file.");
+            return;
+        }
 
-        task = new OpenTask(jd);
+        final DVProgressBar bar = new DVProgressBar(this.getFrame(), false);
+        final OpenTask opening = new OpenTask(jd, bar);
+        task = opening;
         task.addPropertyChangeListener(new PropertyChangeListener() {
             public void propertyChange(PropertyChangeEvent evt) {
-                String test = "";
                 if ("progress".equals(evt.getPropertyName())) {
                     int val = (Integer) evt.getNewValue();
                     String msg;
@@ -1320,25 +1338,32 @@ public final class DatavyuView extends FrameView
                             msg = "Completed!";
                             break;
                         default:
+                            // Reading through the file.
+                            if (val > 10 && val < 40) {
+                                bar.setProgressQuietly(val);
+                                return;
+                            }
                             msg = "Error loading project!";
                     }
 
-                    progressBar.setProgress(val, msg);
+                    bar.setProgress(val, msg);
                 }
             }
         });
-        task.execute();
-        try {
-            ProjectController p = task.get();
-            if (p != null) {
-                Datavyu.setProjectController(p);
-                createNewSpreadsheet(p);
+
+        // Small projects open before the progress bar would be any use.
+        Timer showBar = new Timer(PROGRESS_DELAY, new ActionListener() {
+            @Override
+            public void actionPerformed(final ActionEvent e) {
+                if (!opening.isDone()) {
+                    bar.setVisible(true);
+                }
             }
+        });
+        showBar.setRepeats(false);
+        showBar.start();
 
-            progressBar.close();
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+        task.execute();
     }
 
     public void openExternalFile(final File f) {
@@ -1568,6 +1593,19 @@ public final class DatavyuView extends FrameView
     }
 
     public ProjectController createNewSpreadsheet(ProjectController pc) {
+        showSpreadsheet(pc);
+        pc.loadProject();
+
+        return pc; //return value not used
+    }
+
+    /**
+     * Shows a project in a new spreadsheet tab, without loading its media.
+     *
+     * @param pc The project to show.
+     * @return The spreadsheet showing the project.
+     */
+    private SpreadsheetPanel showSpreadsheet(final ProjectController pc) {
         Datavyu.setProjectController(pc);
 
         // Data controller needs to be registered before load for the cell positioning highlighting
@@ -1586,9 +1624,8 @@ public final class DatavyuView extends FrameView
         tabbedPane.setSelectedComponent(panel);
         panel.clearCellSelection();
         setSheetLayout();
-        pc.loadProject();
 
-        return pc; //return value not used
+        return panel;
     }
 
     ;
@@ -2725,13 +2762,47 @@ public final class DatavyuView extends FrameView
         return tabbedPane;
     }
 
+    /**
+     * Opens a project off the event dispatch thread. The spreadsheet for the
+     * project is shown as soon as its first variables have been read, and
+     * fills in while the rest of the file is still being read.
+     */
     class OpenTask extends SwingWorker<ProjectController, Void> {
         private DatavyuFileChooser jd;
 
-
-        public OpenTask(final DatavyuFileChooser jd) {
+        /**
+         * Shows progress and lets the user cancel the open.
+         */
+        private final DVProgressBar bar;
+
+        /**
+         * The project being opened, null until its first variables have been
+         * read.
+         */
+        private volatile ProjectController opened = null;
+
+        /**
+         * Has the user closed the spreadsheet before the project finished
+         * opening? If so there is no point reading the rest of the file.
+         */
+        private volatile boolean abandoned = false;
+
+        /**
+         * The spreadsheet showing the project, null until its first variables
+         * arrive. Only used on the event dispatch thread.
+         */
+        private SpreadsheetPanel sheet = null;
+
+        /**
+         * The untouched sheet Datavyu starts with, replaced once the project
+         * has opened. Only used on the event dispatch thread.
+         */
+        private SpreadsheetPanel untouched = null;
+
+        public OpenTask(final DatavyuFileChooser jd, final DVProgressBar bar) {
 
             this.jd = jd;
+            this.bar = bar;
         }
 
         @Override
@@ -2743,77 +2814,190 @@ public final class DatavyuView extends FrameView
                 return null;
             }
 
-            if (jd != null &&
-                    tabbedPane != null && Datavyu.getProjectController() != null &&
-                    tabbedPane.getTabCount() == 1 &&
-                    Datavyu.getProjectController().getProjectName() == null &&
-                    !Datavyu.getProjectController().isChanged() &&
-                    jd.getSelectedFile().exists()) {
-                SwingUtilities.invokeLater(new Runnable() {
-                    @Override
-                    public void run() {
-                        tabbedPane.remove(0);
-                    }
-                });
-            }
-
-
             setProgress(0);
-            FileFilter filter = jd.getFileFilter();
-//            clearSpreadsheet();
+            final FileFilter filter = jd.getFileFilter();
 
             setProgress(10);
-            OpenC openC = null;
-
 
-//            showSpreadsheet(pController, progressBar);
+            // Reading the database takes up the progress bar between opening
+            // the project and the project being opened.
+            final OpenC openC = new OpenC();
+            openC.setProgressListener(new ProgressInputStream.Listener() {
+                @Override
+                public boolean progress(final long read, final long total) {
+                    if (total > 0) {
+                        setProgress(10 + (int) Math.min(29, 30 * read / total));
+                    }
+                    return isCancelled() || bar.isCancelled() || abandoned;
+                }
+            });
+
+            // Attach variables on the event dispatch thread as they are read.
+            // Runnables are queued in order and all of them run before done().
+            openC.setReadListener(new OpenDatabaseFileC.ReadListener() {
+                @Override
+                public void variablesRead(final Datastore datastore,
+                                          final List<Variable> variables) {
+                    if (opened == null) {
+                        opened = newProjectController(openC, datastore, filter);
+                    }
+                    SwingUtilities.invokeLater(new Runnable() {
+                        @Override
+                        public void run() {
+                            showVariables(variables);
+                        }
+                    });
+                }
+            });
 
-            if ((filter == SHAPAFilter.INSTANCE) || (filter == OPFFilter.INSTANCE)) {
+            boolean project = (filter == SHAPAFilter.INSTANCE) || (filter == OPFFilter.INSTANCE);
+            if (project) {
                 // Opening a project or project archive file
-                openC = openProject(jd.getSelectedFile());
-
+                openC.openProject(jd.getSelectedFile());
             } else {
                 // Opening a database file
-                openC = openDatabase(jd.getSelectedFile());
+                openC.openDatabase(jd.getSelectedFile());
             }
 
-            if (openC == null) {
-                setProgress(1);
+            if ((project && openC.getProject() == null) || openC.getDatastore() == null) {
+                if (!bar.isCancelled() && !abandoned) {
+                    setProgress(1);
+                }
                 return null;
             }
 
-            ProjectController pController = new ProjectController(openC.getProject(), openC.getDatastore());
+            // A database without variables has had nothing to show yet.
+            if (opened == null) {
+                opened = newProjectController(openC, openC.getDatastore(), filter);
+            }
+
+            setProgress(40);
+
+            // Update the list of recently opened files.
+            RecentFiles.rememberProject(jd.getSelectedFile());
+
+            setProgress(50);
+            return opened;
+        }
+
+        /**
+         * @param openC     The controller reading the project.
+         * @param datastore The datastore being read.
+         * @param filter    The type of file being read.
+         * @return The controller for the project being opened.
+         */
+        private ProjectController newProjectController(final OpenC openC,
+                                                       final Datastore datastore,
+                                                       final FileFilter filter) {
+            ProjectController pController = new ProjectController(openC.getProject(), datastore);
             pController.setProjectName(jd.getSelectedFile().getName());
 
             pController.setLastSaveOption(filter);
             pController.setProjectDirectory(jd.getSelectedFile().getParent());
             pController.setDatabaseFileName(jd.getSelectedFile().getName());
 
-            setProgress(40);
+            // The project we just opened doesn't really contain any unsaved changes.
+            pController.markProjectAsUnchanged();
+            return pController;
+        }
 
-            // BugzID:449 - Set filename in spreadsheet window and database if the database name is undefined.
+        /**
+         * Shows the project in a new spreadsheet, unless it is already shown.
+         */
+        private void showProject() {
+            if (sheet != null) {
+                return;
+            }
 
+            // Remember the untouched sheet Datavyu starts with, to replace.
+            if (tabbedPane != null && Datavyu.getProjectController() != null &&
+                    tabbedPane.getTabCount() == 1 &&
+                    Datavyu.getProjectController().getProjectName() == null &&
+                    !Datavyu.getProjectController().isChanged()) {
+                untouched = (SpreadsheetPanel) tabbedPane.getComponentAt(0);
+            }
 
-            // Display any changes to the database.
-            setProgress(50);
+            sheet = showSpreadsheet(opened);
+            sheet.beginOpening();
+        }
 
+        /**
+         * Attaches variables that have just been read to the datastore, so
+         * their columns appear in the spreadsheet.
+         *
+         * @param variables The variables, in file order.
+         */
+        private void showVariables(final List<Variable> variables) {
+            if (abandoned || bar.isCancelled()) {
+                return;
+            }
+            if (sheet == null) {
+                showProject();
+            } else if (tabbedPane.indexOfComponent(sheet) < 0) {
+                // The user has closed the spreadsheet.
+                abandoned = true;
+                return;
+            }
 
-            /* updates the progressBar up to nearly 100% */
+            // Reading the file is not a change that needs saving.
+            Datastore db = opened.getDB();
+            boolean changed = db.isChanged();
+            for (Variable var : variables) {
+                db.addVariable(var);
+            }
+            if (!changed) {
+                db.markAsUnchanged();
+            }
+        }
 
-            // Default is to highlight cells when created - clear selection on load.
-//            panel.clearCellSelection();
+        /**
+         * Takes away the spreadsheet of a project that failed to open.
+         */
+        private void closeProject() {
+            if (sheet == null) {
+                return;
+            }
 
-            // The project we just opened doesn't really contain any unsaved changes.
-            pController.markProjectAsUnchanged();
-            pController.getDB().markAsUnchanged();
+            sheet.deregisterListeners();
+            sheet.removeFileDropEventListener(DatavyuView.this);
+            if (tabbedPane.indexOfComponent(sheet) >= 0) {
+                tabbedPane.remove(sheet);
+            }
+            sheet = null;
+        }
 
-            // Update the list of recently opened files.
-            RecentFiles.rememberProject(jd.getSelectedFile());
+        @Override
+        protected void done() {
+            ProjectController pController = null;
+            try {
+                pController = get();
+            } catch (InterruptedException e) {
+                LOGGER.error("Interrupted opening project", e);
+            } catch (ExecutionException e) {
+                LOGGER.error("Unable to open project", e);
+            } catch (CancellationException e) {
+                LOGGER.event("open project cancelled");
+            }
+
+            if (pController == null || bar.isCancelled() || abandoned) {
+                closeProject();
+                bar.close();
+                return;
+            }
 
-            setProgress(100);
+            showProject();
+            sheet.endOpening();
 
-//            progressBar.close();
-            return pController;
+            // Replace the untouched sheet Datavyu starts with.
+            if (untouched != null && tabbedPane.indexOfComponent(untouched) >= 0 &&
+                    !untouched.getProjectController().isChanged()) {
+                tabbedPane.remove(untouched);
+            }
+
+            // Viewer settings are only complete once the whole project is read.
+            pController.loadProject();
+            bar.setProgress(100, "Completed!");
+            bar.close();
         }
     }
 
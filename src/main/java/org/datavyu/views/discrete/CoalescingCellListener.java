@@ -0,0 +1,205 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.views.discrete;
+
+import org.datavyu.models.db.CellListener;
+import org.datavyu.models.db.Value;
+
+import javax.swing.*;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Forwards cell notifications to a view on the event dispatch thread.
+ *
+ * Notifications are not delivered as they happen, instead each kind of change
+ * is recorded and every pending listener is flushed by a single task on the
+ * event dispatch thread. A burst of edits to a cell (a script moving its
+ * onset a hundred times, say) therefore results in at most one notification
+ * of each kind per frame. The views re-read the model when notified, so only
+ * the latest value of each change is passed along.
+ */
+final class CoalescingCellListener implements CellListener {
+
+    private static final int ONSET = 1;
+    private static final int OFFSET = 1 << 1;
+    private static final int HIGHLIGHTING = 1 << 2;
+    private static final int SELECTION = 1 << 3;
+    private static final int VALUE = 1 << 4;
+
+    /**
+     * Guards the pending state of every coalescing listener.
+     */
+    private static final Object LOCK = new Object();
+
+    /**
+     * The listeners with notifications waiting for the next flush.
+     */
+    private static Set<CoalescingCellListener> pending =
+            new LinkedHashSet<CoalescingCellListener>();
+
+    /**
+     * Has a flush been queued on the event dispatch thread?
+     */
+    private static boolean flushQueued = false;
+
+    /**
+     * Delivers everything pending, runs on the event dispatch thread.
+     */
+    private static final Runnable FLUSH = new Runnable() {
+        @Override
+        public void run() {
+            List<CoalescingCellListener> listeners;
+            synchronized (LOCK) {
+                listeners = new ArrayList<CoalescingCellListener>(pending);
+                pending = new LinkedHashSet<CoalescingCellListener>();
+                flushQueued = false;
+            }
+
+            for (CoalescingCellListener listener : listeners) {
+                listener.deliver();
+            }
+        }
+    };
+
+    /**
+     * The view to notify.
+     */
+    private final CellListener delegate;
+
+    // The kinds of change waiting to be delivered, and their latest values.
+    private int changes = 0;
+    private long onset;
+    private long offset;
+    private boolean highlighted;
+    private boolean selected;
+    private Value value;
+
+    /**
+     * Constructor.
+     *
+     * @param delegate The view to notify on the event dispatch thread.
+     */
+    CoalescingCellListener(final CellListener delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * Drops any notifications that have not been delivered yet, used once the
+     * view is no longer displayed.
+     */
+    void cancel() {
+        synchronized (LOCK) {
+            changes = 0;
+            value = null;
+            pending.remove(this);
+        }
+    }
+
+    @Override
+    public void offsetChanged(final long newOffset) {
+        synchronized (LOCK) {
+            offset = newOffset;
+            queue(OFFSET);
+        }
+    }
+
+    @Override
+    public void onsetChanged(final long newOnset) {
+        synchronized (LOCK) {
+            onset = newOnset;
+            queue(ONSET);
+        }
+    }
+
+    @Override
+    public void highlightingChange(final boolean isHighlighted) {
+        synchronized (LOCK) {
+            highlighted = isHighlighted;
+            queue(HIGHLIGHTING);
+        }
+    }
+
+    @Override
+    public void selectionChange(final boolean isSelected) {
+        synchronized (LOCK) {
+            selected = isSelected;
+            queue(SELECTION);
+        }
+    }
+
+    @Override
+    public void valueChange(final Value newValue) {
+        synchronized (LOCK) {
+            value = newValue;
+            queue(VALUE);
+        }
+    }
+
+    /**
+     * Records a change and makes sure a flush is on its way. Callers must
+     * hold the lock.
+     *
+     * @param change The kind of change to record.
+     */
+    private void queue(final int change) {
+        changes |= change;
+        pending.add(this);
+        if (!flushQueued) {
+            flushQueued = true;
+            SwingUtilities.invokeLater(FLUSH);
+        }
+    }
+
+    /**
+     * Passes the pending notifications on to the view.
+     */
+    private void deliver() {
+        int delivered;
+        long newOnset;
+        long newOffset;
+        boolean newHighlighted;
+        boolean newSelected;
+        Value newValue;
+        synchronized (LOCK) {
+            delivered = changes;
+            newOnset = onset;
+            newOffset = offset;
+            newHighlighted = highlighted;
+            newSelected = selected;
+            newValue = value;
+            changes = 0;
+            value = null;
+        }
+
+        if ((delivered & SELECTION) != 0) {
+            delegate.selectionChange(newSelected);
+        }
+        if ((delivered & HIGHLIGHTING) != 0) {
+            delegate.highlightingChange(newHighlighted);
+        }
+        if ((delivered & ONSET) != 0) {
+            delegate.onsetChanged(newOnset);
+        }
+        if ((delivered & OFFSET) != 0) {
+            delegate.offsetChanged(newOffset);
+        }
+        if ((delivered & VALUE) != 0) {
+            delegate.valueChange(newValue);
+        }
+    }
+}
@@ -30,6 +30,10 @@ import java.util.List;
 
 /**
  * ColumnDataPanel panel that contains the SpreadsheetCell panels.
+ *
+ * There is one SpreadsheetCell for each cell of the variable - they are not
+ * pooled and rebound as the column is scrolled - so memory grows with the
+ * number of cells. Only a few of them hold editors at a time.
  */
 public final class ColumnDataPanel extends JPanel implements KeyEventDispatcher {
     /**
@@ -62,6 +66,11 @@ public final class ColumnDataPanel extends JPanel implements KeyEventDispatcher
      */
     private Map<Cell, SpreadsheetCell> viewMap;
 
+    /**
+     * The listeners passing model changes on to each spreadsheet cell.
+     */
+    private Map<Cell, CoalescingCellListener> cellListeners;
+
     /**
      * The logger for this class.
      */
@@ -78,7 +87,36 @@ public final class ColumnDataPanel extends JPanel implements KeyEventDispatcher
     private JPanel padding;
 
     /**
-     * Creates a new ColumnDataPanel.
+     * The most cells in a column to keep editors for. The rest are painted
+     * by the shared {@link SpreadsheetCellRenderer}.
+     */
+    private static final int LIVE_CELLS = 8;
+
+    /**
+     * Stamps the shared renderer onto cells that have no editors.
+     */
+    private final CellRendererPane rendererPane = new CellRendererPane();
+
+    /**
+     * The cells that have editors, least recently edited first.
+     */
+    private final Map<SpreadsheetCell, Boolean> liveCells =
+            new LinkedHashMap<SpreadsheetCell, Boolean>(16, 0.75f, true);
+
+    /**
+     * The datastore holding the cells of this column.
+     */
+    private final Datastore datastore;
+
+    /**
+     * Cells of the variable that have no spreadsheet cell yet, in temporal
+     * order.
+     */
+    private final LinkedList<Cell> pendingCells = new LinkedList<Cell>();
+
+    /**
+     * Creates a new ColumnDataPanel. The spreadsheet cells are built by
+     * {@link #buildCells(long)}.
      *
      * @param db       The datastore that this column data panel reflects.
      * @param width    The width of the new column data panel in pixels.
@@ -96,8 +134,10 @@ public final class ColumnDataPanel extends JPanel implements KeyEventDispatcher
         columnHeight = 0;
         cells = new ArrayList<SpreadsheetCell>();
         viewMap = new HashMap<Cell, SpreadsheetCell>();
+        cellListeners = new HashMap<Cell, CoalescingCellListener>();
         cellSelectionL = cellSelL;
         model = variable;
+        datastore = db;
 
         setLayout(null);
         //setLayout(new BoxLayout(this, BoxLayout.Y_AXIS));
@@ -110,9 +150,9 @@ public final class ColumnDataPanel extends JPanel implements KeyEventDispatcher
         padding.setBackground(new Color(237, 237, 237));
         padding.setBorder(BorderFactory.createMatteBorder(0, 0, 0, Constants.BORDER_SIZE, new Color(175, 175, 175)));
         this.add(padding);
+        this.add(rendererPane);
 
-        // Populate the data column with spreadsheet cells.
-        buildDataPanelCells(db, variable, cellSelL);
+        pendingCells.addAll(variable.getCellsTemporally());
     }
 
     /**
@@ -134,21 +174,22 @@ public final class ColumnDataPanel extends JPanel implements KeyEventDispatcher
     }
 
     /**
-     * Build the SpreadsheetCells and add to the DataPanel.
+     * Build SpreadsheetCells and add them to the DataPanel, until every cell
+     * has one or the supplied time has passed. At least one cell is built.
      *
-     * @param db       The datastore holding cells that this column will represent.
-     * @param variable The variable to display.
-     * @param cellSelL Spreadsheet listener to notify about cell selection
-     *                 changes.
+     * @param deadline The time to stop at, in milliseconds since the epoch.
+     * @return True if every cell of the column has a SpreadsheetCell.
      */
-    private void buildDataPanelCells(final Datastore db,
-                                     final Variable variable,
-                                     final CellSelectionListener cellSelL) {
+    public boolean buildCells(final long deadline) {
+        if (pendingCells.isEmpty()) {
+            return true;
+        }
 
         // traverse and build the cells
-        for (Cell cell : variable.getCellsTemporally()) {
-            SpreadsheetCell sc = new SpreadsheetCell(db, cell, cellSelL);
-            cell.addListener(sc);
+        do {
+            Cell cell = pendingCells.removeFirst();
+            SpreadsheetCell sc = new SpreadsheetCell(datastore, cell, cellSelectionL);
+            listenTo(cell, sc);
 
             // add cell to the JPanel
             this.add(sc);
@@ -159,10 +200,19 @@ public final class ColumnDataPanel extends JPanel implements KeyEventDispatcher
             // Add the ID's to the mapping.
             viewMap.put(cell, sc);
             columnHeight += sc.getHeight();
-        }
+        } while (!pendingCells.isEmpty() && System.currentTimeMillis() < deadline);
 
         this.add(newCellButton);
         this.setSize(columnWidth, columnHeight);
+        return pendingCells.isEmpty();
+    }
+
+    /**
+     * Builds every SpreadsheetCell still waiting to be built, so that changes
+     * to the cells of the variable apply to a complete column.
+     */
+    public void finishCells() {
+        buildCells(Long.MAX_VALUE);
     }
 
     /**
@@ -170,12 +220,88 @@ public final class ColumnDataPanel extends JPanel implements KeyEventDispatcher
      */
     public void clear() {
         for (SpreadsheetCell cell : cells) {
-            cell.getCell().removeListener(cell);
+            stopListeningTo(cell.getCell());
             this.remove(cell);
         }
 
         cells.clear();
         viewMap.clear();
+        liveCells.clear();
+        pendingCells.clear();
+    }
+
+    /**
+     * Measures the cells painted by the shared renderer that lie within part
+     * of the column, so that they are the right size before they are painted.
+     * Cells elsewhere keep their estimated size.
+     *
+     * @param top    The top of the part of the column, in its coordinates.
+     * @param bottom The bottom of the part of the column.
+     * @return True if any of the cells changed height.
+     */
+    public boolean measureCells(final int top, final int bottom) {
+        boolean changed = false;
+        for (SpreadsheetCell cell : cells) {
+            if (cell.getY() < bottom && cell.getY() + cell.getHeight() > top
+                    && cell.measure()) {
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * @return The pane the shared renderer paints cells of this column with.
+     */
+    CellRendererPane getRendererPane() {
+        return rendererPane;
+    }
+
+    /**
+     * Called when a cell in this column builds its editors. Once more than a
+     * few cells have editors, those edited longest ago - and not still being
+     * edited - drop theirs.
+     *
+     * @param sCell The cell that has built its editors.
+     */
+    void editorsBuilt(final SpreadsheetCell sCell) {
+        liveCells.put(sCell, Boolean.TRUE);
+
+        Iterator<SpreadsheetCell> it = liveCells.keySet().iterator();
+        while (liveCells.size() > LIVE_CELLS && it.hasNext()) {
+            SpreadsheetCell eldest = it.next();
+            if (eldest != sCell && !eldest.isFocusOwner()) {
+                it.remove();
+                eldest.dematerialize();
+            }
+        }
+    }
+
+    /**
+     * Registers a spreadsheet cell for changes to the cell it displays.
+     * Changes are coalesced and delivered on the event dispatch thread.
+     *
+     * @param cell  The cell being displayed.
+     * @param sCell The spreadsheet cell displaying it.
+     */
+    private void listenTo(final Cell cell, final SpreadsheetCell sCell) {
+        CoalescingCellListener listener = new CoalescingCellListener(sCell);
+        cellListeners.put(cell, listener);
+        cell.addListener(listener);
+    }
+
+    /**
+     * Deregisters the spreadsheet cell displaying a cell, dropping any
+     * changes that are still waiting to be delivered.
+     *
+     * @param cell The cell no longer being displayed.
+     */
+    private void stopListeningTo(final Cell cell) {
+        CoalescingCellListener listener = cellListeners.remove(cell);
+        if (listener != null) {
+            listener.cancel();
+            cell.removeListener(listener);
+        }
     }
 
     /**
@@ -184,8 +310,10 @@ public final class ColumnDataPanel extends JPanel implements KeyEventDispatcher
      * @param cell The cell to find and delete from the column data panel.
      */
     public void deleteCell(final Cell cell) {
+        finishCells();
         SpreadsheetCell sCell = viewMap.get(cell);
-        cell.removeListener(sCell);
+        stopListeningTo(cell);
+        liveCells.remove(sCell);
         this.remove(sCell);
         cells.remove(sCell);
         viewMap.remove(cell);
@@ -203,10 +331,11 @@ public final class ColumnDataPanel extends JPanel implements KeyEventDispatcher
     public void insertCell(final Datastore ds,
                            final Cell cell,
                            final CellSelectionListener cellSelL) {
+        finishCells();
 
         SpreadsheetCell nCell = new SpreadsheetCell(ds, cell, cellSelL);
         nCell.setWidth(this.getWidth());
-        cell.addListener(nCell);
+        listenTo(cell, nCell);
         cellSelectionL.clearColumnSelection();
 
         nCell.setAlignmentX(Component.RIGHT_ALIGNMENT);
@@ -248,12 +377,23 @@ public final class ColumnDataPanel extends JPanel implements KeyEventDispatcher
         return this.padding;
     }
 
+    /**
+     * @param cell A cell of the variable this column represents.
+     * @return The spreadsheet cell displaying the cell, or null if there
+     * isn't one.
+     */
+    public SpreadsheetCell getSpreadsheetCell(final Cell cell) {
+        return viewMap.get(cell);
+    }
+
     public SpreadsheetCell getCellTemporally(final int index) {
+        finishCells();
         return viewMap.get(model.getCellTemporally(index));
     }
 
     /**
-     * @return The SpreadsheetCells in this column temporally.
+     * @return The SpreadsheetCells in this column temporally, leaving out
+     * cells that are still waiting to be built.
      */
     public List<SpreadsheetCell> getCellsTemporally() {
         ArrayList<SpreadsheetCell> result = new ArrayList<SpreadsheetCell>();
@@ -262,9 +402,11 @@ public final class ColumnDataPanel extends JPanel implements KeyEventDispatcher
         for (Cell c : model.getCellsTemporally()) {
             SpreadsheetCell sc = viewMap.get(c);
 //            sc.forceCellRefresh();
-            sc.setOrdinal(ord);
+            if (sc != null) {
+                sc.setOrdinal(ord);
+                result.add(sc);
+            }
             ord++;
-            result.add(sc);
         }
 
         return result;
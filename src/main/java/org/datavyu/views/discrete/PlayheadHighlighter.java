@@ -0,0 +1,152 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.views.discrete;
+
+import org.datavyu.Datavyu;
+import org.datavyu.models.db.Cell;
+import org.datavyu.util.ClockTimer;
+
+import javax.swing.*;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+
+/**
+ * Highlights the cells of a spreadsheet that lie under the playhead.
+ *
+ * Rather than every cell listening to the clock, the highlighter asks the
+ * interval index of each variable which cells are active at the current time
+ * and only refreshes the cells that have come into or gone out of the time
+ * window. Clock ticks are coalesced so that the work is done at most once
+ * per frame, on the event dispatch thread.
+ */
+final class PlayheadHighlighter implements ClockTimer.ClockListener {
+
+    /**
+     * The spreadsheet holding the cells.
+     */
+    private final SpreadsheetPanel panel;
+
+    /**
+     * The latest time of the clock.
+     */
+    private volatile long time = 0;
+
+    /**
+     * Is a refresh waiting to run on the event dispatch thread?
+     */
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+    /**
+     * The cells highlighted by the last refresh, only used on the event
+     * dispatch thread.
+     */
+    private Map<Cell, SpreadsheetCell> highlighted = new HashMap<Cell, SpreadsheetCell>();
+
+    private final Runnable refresh = new Runnable() {
+        @Override
+        public void run() {
+            scheduled.set(false);
+            refresh(time);
+        }
+    };
+
+    /**
+     * Constructor.
+     *
+     * @param panel The spreadsheet holding the cells to highlight.
+     */
+    PlayheadHighlighter(final SpreadsheetPanel panel) {
+        this.panel = panel;
+    }
+
+    /**
+     * Asks for the highlighting to be brought up to date with the clock.
+     *
+     * @param newTime The time of the clock.
+     */
+    private void request(final long newTime) {
+        time = newTime;
+        if (scheduled.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(refresh);
+        }
+    }
+
+    /**
+     * Refreshes the cells that have come into or gone out of the time window,
+     * must be called on the event dispatch thread.
+     *
+     * @param now The time of the playhead.
+     */
+    void refresh(final long now) {
+        Map<Cell, SpreadsheetCell> current = new HashMap<Cell, SpreadsheetCell>();
+
+        if (Datavyu.getDataController().getCellHighlighting()) {
+            for (SpreadsheetColumn col : panel.getColumns()) {
+                for (Cell c : col.getVariable().getCellsAt(now)) {
+                    SpreadsheetCell sc = col.getDataPanel().getSpreadsheetCell(c);
+                    if (sc != null) {
+                        current.put(c, sc);
+                    }
+                }
+            }
+        }
+
+        for (Map.Entry<Cell, SpreadsheetCell> e : highlighted.entrySet()) {
+            if (!current.containsKey(e.getKey())) {
+                e.getValue().updateSelectionDisplay();
+            }
+        }
+        for (Map.Entry<Cell, SpreadsheetCell> e : current.entrySet()) {
+            if (!highlighted.containsKey(e.getKey())) {
+                e.getValue().updateSelectionDisplay();
+            }
+        }
+
+        highlighted = current;
+    }
+
+    /**
+     * Forgets the cells highlighted, for when the spreadsheet is cleared.
+     */
+    void clear() {
+        highlighted = new HashMap<Cell, SpreadsheetCell>();
+    }
+
+    @Override
+    public void clockTick(final long time) {
+        request(time);
+    }
+
+    @Override
+    public void clockStart(final long time) {
+        request(time);
+    }
+
+    @Override
+    public void clockStop(final long time) {
+        request(time);
+    }
+
+    @Override
+    public void clockRate(final float rate) {
+    }
+
+    @Override
+    public void clockStep(final long time) {
+        request(time);
+    }
+}
@@ -22,7 +22,6 @@ import org.datavyu.models.db.Cell;
 import org.datavyu.models.db.CellListener;
 import org.datavyu.models.db.Datastore;
 import org.datavyu.models.db.Value;
-import org.datavyu.util.ClockTimer;
 import org.datavyu.views.discrete.datavalues.MatrixRootView;
 import org.datavyu.views.discrete.datavalues.TimeStampDataValueEditor.TimeStampSource;
 import org.datavyu.views.discrete.datavalues.TimeStampTextField;
@@ -34,15 +33,23 @@ import javax.swing.Box.Filler;
 import javax.swing.border.Border;
 import javax.swing.border.CompoundBorder;
 import javax.swing.border.MatteBorder;
+import javax.swing.text.JTextComponent;
 import java.awt.*;
 import java.awt.event.*;
 
 
 /**
  * Visual representation of a spreadsheet cell.
+ *
+ * In a virtual spreadsheet the cell has no child components until it is
+ * edited, and is painted by the shared {@link SpreadsheetCellRenderer}.
+ * Every cell of a column still has its own SpreadsheetCell, which the
+ * layouts, selection and undo address rows through. Only editors, measuring
+ * and the text of values follow the rows in view; the number of these
+ * lightweight components, and the memory they take, grows with the project.
  */
 public class SpreadsheetCell extends JPanel
-        implements MouseListener, FocusListener, CellListener, ClockTimer.ClockListener {
+        implements MouseListener, FocusListener, CellListener {
 
     /**
      * Border to use if cell overlaps with another.
@@ -98,6 +105,10 @@ public class SpreadsheetCell extends JPanel
                     new MatteBorder(0, 0, 3, 0, Configuration.getInstance().getSSBackgroundColour())),
             new MatteBorder(3, 3, 0, 3,
                     Configuration.getInstance().getSSBackgroundColour()));
+    /**
+     * The width of a cell until it is told otherwise.
+     */
+    static final int DEFAULT_WIDTH = 229;
     /**
      * The logger for this class.
      */
@@ -154,6 +165,53 @@ public class SpreadsheetCell extends JPanel
      */
     private boolean onsetProcessed = false;
     private boolean beingProcessed = false;
+    /**
+     * Are the components of this cell only built when it is edited?
+     */
+    private final boolean virtual;
+    /**
+     * Are the components used to edit this cell built?
+     */
+    private boolean materialized = false;
+    /**
+     * The ordinal of this cell, 0 until it is laid out.
+     */
+    private int ordinal = 0;
+    /**
+     * The width of the cell.
+     */
+    private int width = DEFAULT_WIDTH;
+    /**
+     * The text shown for the value while painted by the renderer, null until
+     * worked out.
+     */
+    private String valueText = null;
+    /**
+     * The size of the cell while painted by the renderer, with the width and
+     * font it was measured at; null until it first comes into view. A null
+     * font marks a size that is kept as a guess until it is measured again.
+     */
+    private Dimension standInSize = null;
+    private int standInWidth;
+    private Font standInFont;
+    /**
+     * Builds the editors of the cell when it is clicked while painted by the
+     * renderer, passing the click on to the editor under it.
+     */
+    private final MouseListener standInMouse = new MouseAdapter() {
+        @Override
+        public void mousePressed(final MouseEvent me) {
+            materialize();
+
+            Component target = SwingUtilities.getDeepestComponentAt(SpreadsheetCell.this, me.getX(), me.getY());
+            while (target != null && target != SpreadsheetCell.this && target.getMouseListeners().length == 0) {
+                target = target.getParent();
+            }
+            if (target != null && target != SpreadsheetCell.this) {
+                target.dispatchEvent(SwingUtilities.convertMouseEvent(SpreadsheetCell.this, me, target));
+            }
+        }
+    };
 
     public SpreadsheetCell(final Datastore cellDB,
                            final Cell cell,
@@ -162,21 +220,44 @@ public class SpreadsheetCell extends JPanel
         model = cell;
         setName(this.getClass().getSimpleName());
 
-        ResourceMap rMap = Application.getInstance(Datavyu.class).getContext()
-                .getResourceMap(SpreadsheetCell.class);
-
         // Check the selected state of the datacell
         // If it is already selected in the database, we need to inform
         // the selector, but not trigger a selection change or deselect others.
         cellSelL = listener;
 
+        setLayout(new BorderLayout());
+
+        // In a virtual spreadsheet the cell is painted by a shared renderer
+        // until it is edited.
+        virtual = Configuration.getInstance().getVirtualSpreadsheetPreference();
+        if (virtual) {
+            addMouseListener(standInMouse);
+        } else {
+            materialize();
+        }
+
+        brandNew = true;
+    }
+
+    /**
+     * Builds the components used to display and edit the cell, if they
+     * haven't been built already.
+     */
+    private void materialize() {
+        if (materialized) {
+            return;
+        }
+        materialized = true;
+
+        ResourceMap rMap = Application.getInstance(Datavyu.class).getContext()
+                .getResourceMap(SpreadsheetCell.class);
+
         cellPanel = new JPanel();
         cellPanel.addMouseListener(this);
         strut = new Filler(new Dimension(0, 0),
                 new Dimension(0, 0),
                 new Dimension(Short.MAX_VALUE, 0));
 
-        setLayout(new BorderLayout());
         this.add(strut, BorderLayout.NORTH);
         this.add(cellPanel, BorderLayout.CENTER);
 
@@ -189,6 +270,9 @@ public class SpreadsheetCell extends JPanel
         ord.setToolTipText(rMap.getString("ord.tooltip"));
         ord.addMouseListener(this);
         ord.setFocusable(true);
+        if (ordinal > 0) {
+            ord.setText(Integer.toString(ordinal));
+        }
 
         onset = new TimeStampTextField(model, TimeStampSource.Onset);
         onset.setFont(Configuration.getInstance().getSSLabelFont());
@@ -206,7 +290,7 @@ public class SpreadsheetCell extends JPanel
         offset.addMouseListener(this);
         offset.setName("offsetTextField");
 
-        dataPanel = new MatrixRootView(model, cell.getValue());
+        dataPanel = new MatrixRootView(model, model.getValue());
         dataPanel.setFont(Configuration.getInstance().getSSDataFont());
         dataPanel.setForeground(Configuration.getInstance().getSSForegroundColour());
 
@@ -245,14 +329,61 @@ public class SpreadsheetCell extends JPanel
         // the actual data of the panel.
         cellPanel.add(dataPanel, BorderLayout.CENTER);
 
-        Dimension d = new Dimension(229, 0);
+        Dimension d = new Dimension(width, 0);
         stretcher = new Filler(d, d, d);
         cellPanel.add(stretcher, BorderLayout.SOUTH);
 
-        Datavyu.getDataController().getClock().registerListener(this);
+        if (virtual) {
+            // Pick up where the renderer left off.
+            setOverlapBorder(cellOverlap);
+            updateSelectionDisplay();
+            removeMouseListener(standInMouse);
 
+            Container parent = getParent();
+            if (parent instanceof ColumnDataPanel) {
+                ((ColumnDataPanel) parent).editorsBuilt(this);
+            }
+            if (getWidth() > 0) {
+                validate();
+            }
+            repaint();
+        }
+    }
 
-        brandNew = true;
+    /**
+     * Drops the components used to edit the cell, leaving it to be painted
+     * by the shared renderer. Does nothing unless the spreadsheet is virtual
+     * and the cell is not being edited.
+     */
+    void dematerialize() {
+        if (!virtual || !materialized || isFocusOwner()) {
+            return;
+        }
+
+        removeAll();
+        cellPanel = null;
+        topPanel = null;
+        dataPanel = null;
+        ord = null;
+        onset = null;
+        offset = null;
+        stretcher = null;
+        strut = null;
+        materialized = false;
+        // Keep the size it had as the guess until it is painted again.
+        standInSize = getHeight() > 0 ? getSize() : null;
+        standInFont = null;
+        addMouseListener(standInMouse);
+
+        revalidate();
+        repaint();
+    }
+
+    /**
+     * @return Are the components used to edit the cell built?
+     */
+    boolean isMaterialized() {
+        return materialized;
     }
 
     public boolean isBeingProcessed() {
@@ -317,6 +448,7 @@ public class SpreadsheetCell extends JPanel
      * @return onset view
      */
     public TimeStampTextField getOnset() {
+        materialize();
         return onset;
     }
 
@@ -324,6 +456,7 @@ public class SpreadsheetCell extends JPanel
      * @return offset view
      */
     public TimeStampTextField getOffset() {
+        materialize();
         return offset;
     }
 
@@ -333,7 +466,17 @@ public class SpreadsheetCell extends JPanel
      * @param ord The new ordinal value to use with this cell.
      */
     public void setOrdinal(final Integer ordInt) {
-        ord.setText(ordInt.toString());
+        ordinal = ordInt;
+        if (materialized) {
+            ord.setText(ordInt.toString());
+        }
+    }
+
+    /**
+     * @return The ordinal value of this cell, 0 until it is laid out.
+     */
+    int getOrdinal() {
+        return ordinal;
     }
 
     /**
@@ -367,8 +510,11 @@ public class SpreadsheetCell extends JPanel
      * @param width New width of the SpreadsheetCell.
      */
     public void setWidth(final int width) {
-        Dimension d = new Dimension(width, 0);
-        stretcher.changeShape(d, d, d);
+        this.width = width;
+        if (materialized) {
+            Dimension d = new Dimension(width, 0);
+            stretcher.changeShape(d, d, d);
+        }
     }
 
     /**
@@ -395,6 +541,14 @@ public class SpreadsheetCell extends JPanel
         }
     }
 
+    /**
+     * @return True if the cell is drawn with the overlap border, false
+     * otherwise.
+     */
+    public boolean hasOverlapBorder() {
+        return cellOverlap;
+    }
+
     /**
      * Set the border of the cell.
      *
@@ -403,6 +557,10 @@ public class SpreadsheetCell extends JPanel
      */
     public void setOverlapBorder(final boolean overlap) {
         cellOverlap = overlap;
+        if (!materialized) {
+            repaint();
+            return;
+        }
 
         if (cellOverlap) {
 
@@ -424,10 +582,56 @@ public class SpreadsheetCell extends JPanel
      * @return The MatrixRootView of this cell.
      */
     public final MatrixRootView getDataView() {
+        materialize();
         return dataPanel;
     }
 
+    /**
+     * @param ta The text component to work out the text with.
+     * @return The text shown for the value of the cell.
+     */
+    String getValueText(final JTextComponent ta) {
+        if (valueText == null) {
+            valueText = MatrixRootView.generateText(ta, getCell());
+        }
+        return valueText;
+    }
+
+    /**
+     * @return The border the cell is shown with, given its selection and
+     * whether it overlaps the next cell.
+     */
+    Border getDisplayBorder() {
+        if (model.isHighlighted()) {
+            return cellOverlap ? HIGHLIGHT_OVERLAP_BORDER : HIGHLIGHT_BORDER;
+        } else if (model.isSelected()) {
+            return cellOverlap ? FILL_OVERLAP_BORDER : FILL_BORDER;
+        }
+        return cellOverlap ? OVERLAP_BORDER : NORMAL_BORDER;
+    }
+
+    /**
+     * @return The background the cell is shown with.
+     */
+    Color getDisplayBackground() {
+        if (isTimeHighlighted()) {
+            return timeHighlightColor;
+        } else if (model.isSelected()) {
+            return Configuration.getInstance().getSSSelectedColour();
+        }
+        return Configuration.getInstance().getSSBackgroundColour();
+    }
+
+    /**
+     * @return Is the cell under the playhead, and should it be shown so?
+     */
+    private boolean isTimeHighlighted() {
+        return model.isInTimeWindow(Datavyu.getDataController().getCurrentTime())
+                && Datavyu.getDataController().getCellHighlighting();
+    }
+
     public void selectOnset() {
+        materialize();
         onset.selectAll();
         offset.select(0, 0);
         dataPanel.select(0, 0);
@@ -435,6 +639,7 @@ public class SpreadsheetCell extends JPanel
     }
 
     public void selectOffset() {
+        materialize();
         offset.selectAll();
         onset.select(0, 0);
         dataPanel.select(0, 0);
@@ -442,6 +647,7 @@ public class SpreadsheetCell extends JPanel
     }
 
     public void selectVal() {
+        materialize();
         dataPanel.selectAll();
         onset.select(0, 0);
         offset.select(0, 0);
@@ -449,6 +655,11 @@ public class SpreadsheetCell extends JPanel
     }
 
     public void updateSelectionDisplay() {
+        if (!materialized) {
+            repaint();
+            return;
+        }
+
         if (model.isHighlighted()) {
             if (cellOverlap) {
                 cellPanel.setBorder(HIGHLIGHT_OVERLAP_BORDER);
@@ -489,7 +700,11 @@ public class SpreadsheetCell extends JPanel
     // *************************************************************************
     @Override
     public void offsetChanged(final long newOffset) {
-        offset.setValue();
+        if (materialized) {
+            offset.setValue();
+        } else {
+            repaint();
+        }
         if (model.isSelected()) {
             // Update the find windows to the newly selected cell's values
             Datavyu.getDataController().setOnsetField(model.getOnset());
@@ -499,7 +714,11 @@ public class SpreadsheetCell extends JPanel
 
     @Override
     public void onsetChanged(final long newOnset) {
-        onset.setValue();
+        if (materialized) {
+            onset.setValue();
+        } else {
+            repaint();
+        }
         if (model.isSelected()) {
             Datavyu.getDataController().setOnsetField(model.getOnset());
             Datavyu.getDataController().setOffsetField(model.getOffset());
@@ -528,7 +747,11 @@ public class SpreadsheetCell extends JPanel
 
     @Override
     public void valueChange(final Value newValue) {
-        dataPanel.setMatrix(newValue);
+        valueText = null;
+        standInFont = null;
+        if (materialized) {
+            dataPanel.setMatrix(newValue);
+        }
         revalidate();
     }
 
@@ -631,11 +854,15 @@ public class SpreadsheetCell extends JPanel
 
     @Override
     public boolean isFocusOwner() {
+        if (!materialized) {
+            return false;
+        }
         return (onset.isFocusOwner() || offset.isFocusOwner() || dataPanel.isFocusOwner());
     }
 
     @Override
     public void requestFocus() {
+        materialize();
         dataPanel.requestFocus();
     }
 
@@ -646,32 +873,64 @@ public class SpreadsheetCell extends JPanel
     public void paint(final Graphics g) {
         // BugzID:474 - Set the size at paint time - somewhere else may have
         // altered the font.
-        dataPanel.setFont(Configuration.getInstance().getSSDataFont());
+        if (materialized) {
+            dataPanel.setFont(Configuration.getInstance().getSSDataFont());
+        }
         super.paint(g);
     }
 
     @Override
-    public void clockTick(long time) {
-        updateSelectionDisplay();
-    }
-
-    @Override
-    public void clockStart(long time) {
+    protected void paintComponent(final Graphics g) {
+        if (materialized) {
+            super.paintComponent(g);
+            return;
+        }
 
+        Container parent = getParent();
+        if (parent instanceof ColumnDataPanel) {
+            SpreadsheetCellRenderer.getInstance().paint(g, this,
+                    ((ColumnDataPanel) parent).getRendererPane());
+        }
     }
 
-    @Override
-    public void clockStop(long time) {
-
-    }
+    /**
+     * Measures the cell with the renderer at the width last laid out, unless
+     * it has editors or has already been measured at that width and font.
+     * The layouts measure cells as they come into view, before painting them.
+     *
+     * @return True if the preferred height of the cell has changed.
+     */
+    boolean measure() {
+        if (materialized) {
+            return false;
+        }
 
-    @Override
-    public void clockRate(float rate) {
+        int w = getWidth() > 0 ? getWidth() : width;
+        Font font = Configuration.getInstance().getSSDataFont();
+        if (standInSize != null && standInWidth == w && font.equals(standInFont)) {
+            return false;
+        }
 
+        int before = getPreferredSize().height;
+        standInSize = SpreadsheetCellRenderer.getInstance().getPreferredSize(this, w);
+        standInWidth = w;
+        standInFont = font;
+        return standInSize.height != before;
     }
 
     @Override
-    public void clockStep(long time) {
-        updateSelectionDisplay();
+    public Dimension getPreferredSize() {
+        if (materialized) {
+            return super.getPreferredSize();
+        }
+
+        // Cells are measured as they come into view. Until then the size is
+        // guessed, so that laying out a column does not work out the text of
+        // every value.
+        if (standInSize != null) {
+            return new Dimension(standInSize);
+        }
+        int w = getWidth() > 0 ? getWidth() : width;
+        return SpreadsheetCellRenderer.getInstance().getEstimatedSize(this, w);
     }
 }
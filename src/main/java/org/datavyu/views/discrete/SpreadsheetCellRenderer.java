@@ -0,0 +1,206 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.views.discrete;
+
+import org.datavyu.Configuration;
+import org.datavyu.models.db.Cell;
+import org.datavyu.views.discrete.datavalues.MatrixRootView;
+
+import javax.swing.*;
+import javax.swing.Box.Filler;
+import java.awt.*;
+
+
+/**
+ * Paints spreadsheet cells that are not being edited, in the style of a
+ * JTable cell renderer: a single set of components laid out like a
+ * {@link SpreadsheetCell} is filled in with each cell in turn and stamped
+ * onto the spreadsheet.
+ */
+final class SpreadsheetCellRenderer {
+
+    /**
+     * Width of spacer between onset and offset timestamps.
+     */
+    private static final int TIME_SPACER = 5;
+
+    /**
+     * The renderer shared by every column, only used on the event thread.
+     */
+    private static SpreadsheetCellRenderer instance = null;
+
+    private final JPanel cellPanel;
+
+    private final JLabel ord;
+
+    private final JTextField onset;
+
+    private final JTextField offset;
+
+    private final JTextArea value;
+
+    private final Filler stretcher;
+
+    /**
+     * The size of a cell holding a single line, with the width and font it
+     * was measured at; null until measured.
+     */
+    private Dimension estimate = null;
+    private int estimateWidth;
+    private Font estimateFont;
+
+    /**
+     * Builds the components, matching those of a spreadsheet cell.
+     */
+    private SpreadsheetCellRenderer() {
+        Configuration config = Configuration.getInstance();
+
+        ord = new JLabel();
+        ord.setFont(config.getSSLabelFont());
+        ord.setForeground(config.getSSOrdinalColour());
+
+        onset = timeStamp(config);
+        offset = timeStamp(config);
+
+        value = new JTextArea();
+        value.setLineWrap(true);
+        value.setWrapStyleWord(true);
+        value.setOpaque(false);
+        value.setForeground(config.getSSForegroundColour());
+
+        JPanel topPanel = new JPanel();
+        topPanel.setOpaque(false);
+        topPanel.setBorder(BorderFactory.createEmptyBorder(0, 0, 2, 0));
+        topPanel.setLayout(new BoxLayout(topPanel, BoxLayout.X_AXIS));
+        topPanel.add(ord);
+        topPanel.add(Box.createHorizontalStrut(TIME_SPACER));
+        topPanel.add(Box.createGlue());
+        topPanel.add(onset);
+        topPanel.add(Box.createHorizontalStrut(TIME_SPACER));
+        topPanel.add(offset);
+
+        Dimension d = new Dimension(SpreadsheetCell.DEFAULT_WIDTH, 0);
+        stretcher = new Filler(d, d, d);
+
+        cellPanel = new JPanel(new BorderLayout());
+        cellPanel.add(topPanel, BorderLayout.NORTH);
+        cellPanel.add(value, BorderLayout.CENTER);
+        cellPanel.add(stretcher, BorderLayout.SOUTH);
+    }
+
+    private static JTextField timeStamp(final Configuration config) {
+        JTextField field = new JTextField() {
+            @Override
+            public Dimension getPreferredSize() {
+                // As TimeStampTextField.
+                Dimension size = new Dimension(super.getPreferredSize());
+                size.width += 2;
+                return size;
+            }
+
+            @Override
+            public Dimension getMaximumSize() {
+                return super.getPreferredSize();
+            }
+        };
+        field.setFont(config.getSSLabelFont());
+        field.setForeground(config.getSSTimestampColour());
+        field.setBorder(null);
+        field.setOpaque(false);
+
+        return field;
+    }
+
+    /**
+     * @return The renderer shared by every column.
+     */
+    static SpreadsheetCellRenderer getInstance() {
+        if (instance == null) {
+            instance = new SpreadsheetCellRenderer();
+        }
+
+        return instance;
+    }
+
+    /**
+     * Fills in the components with a cell.
+     *
+     * @param cell  The cell to show.
+     * @param text  The text shown for the value of the cell, null for the
+     *              text of its value.
+     * @param width The width of the cell.
+     * @return The component to paint.
+     */
+    private JComponent configure(final SpreadsheetCell cell, final String text, final int width) {
+        Cell model = cell.getCell();
+
+        ord.setText(Integer.toString(cell.getOrdinal()));
+        onset.setText(model.getOnsetString());
+        offset.setText(model.getOffsetString());
+        value.setFont(Configuration.getInstance().getSSDataFont());
+        value.setText(text == null ? cell.getValueText(value) : text);
+
+        cellPanel.setBorder(cell.getDisplayBorder());
+        cellPanel.setBackground(cell.getDisplayBackground());
+        Dimension d = new Dimension(width, 0);
+        stretcher.changeShape(d, d, d);
+
+        // Wrap the value at the width it will be shown at.
+        Insets insets = cellPanel.getInsets();
+        value.setSize(Math.max(1, width - insets.left - insets.right), Short.MAX_VALUE);
+        cellPanel.invalidate();
+
+        return cellPanel;
+    }
+
+    /**
+     * @param cell  The cell to measure.
+     * @param width The width the cell will be shown at.
+     * @return The size the cell would be given with editors.
+     */
+    Dimension getPreferredSize(final SpreadsheetCell cell, final int width) {
+        return configure(cell, null, width).getPreferredSize();
+    }
+
+    /**
+     * Guesses the size of a cell without working out the text of its value,
+     * for cells that have not been painted yet.
+     *
+     * @param cell  The cell to guess the size of.
+     * @param width The width the cell will be shown at.
+     * @return The size of a cell whose value fits on one line.
+     */
+    Dimension getEstimatedSize(final SpreadsheetCell cell, final int width) {
+        Font font = Configuration.getInstance().getSSDataFont();
+        if (estimate == null || estimateWidth != width || !font.equals(estimateFont)) {
+            estimate = configure(cell, " ", width).getPreferredSize();
+            estimateWidth = width;
+            estimateFont = font;
+        }
+        return new Dimension(estimate);
+    }
+
+    /**
+     * Paints a cell.
+     *
+     * @param g    The graphics of the cell.
+     * @param cell The cell to paint.
+     * @param pane The renderer pane of the column holding the cell.
+     */
+    void paint(final Graphics g, final SpreadsheetCell cell, final CellRendererPane pane) {
+        JComponent c = configure(cell, null, cell.getWidth());
+        pane.paintComponent(g, c, cell, 0, 0, cell.getWidth(), cell.getHeight(), true);
+    }
+}
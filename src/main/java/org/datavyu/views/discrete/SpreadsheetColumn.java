@@ -437,6 +437,24 @@ public final class SpreadsheetColumn extends JLabel
         return datapanel.getCellTemporally(index);
     }
 
+    /**
+     * Builds spreadsheet cells for the variable until every cell has one or
+     * the supplied time has passed.
+     *
+     * @param deadline The time to stop at, in milliseconds since the epoch.
+     * @return True if every cell of the column has been built.
+     */
+    public boolean buildCells(final long deadline) {
+        return datapanel.buildCells(deadline);
+    }
+
+    /**
+     * Builds every spreadsheet cell of the column still waiting to be built.
+     */
+    public void finishCells() {
+        datapanel.finishCells();
+    }
+
     /**
      * @return The Spreadsheet cells in this column temporally.
      */
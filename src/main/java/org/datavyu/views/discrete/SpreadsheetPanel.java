@@ -25,6 +25,7 @@ import org.datavyu.event.component.FileDropEventListener;
 import org.datavyu.models.db.*;
 import org.datavyu.models.project.Project;
 import org.datavyu.util.ArrayDirection;
+import org.datavyu.util.ClockTimer;
 import org.datavyu.util.Constants;
 import org.datavyu.views.DVProgressBar;
 import org.datavyu.views.DataControllerV;
@@ -134,6 +135,36 @@ public final class SpreadsheetPanel extends JPanel
      * The layout that is currently being used.
      */
     private SheetLayoutType currentLayoutType;
+    /**
+     * Highlights the cells under the playhead.
+     */
+    private final PlayheadHighlighter playhead = new PlayheadHighlighter(this);
+    /**
+     * The clock the playhead highlighter is registered with, null if none.
+     */
+    private ClockTimer playheadClock = null;
+    /**
+     * The longest a batch of cells holds the event dispatch thread while a
+     * project is being laid out, in milliseconds.
+     */
+    private static final long BATCH_MILLIS = 50;
+    /**
+     * Variables that do not have a column yet, in order.
+     */
+    private LinkedList<Variable> pendingColumns = new LinkedList<Variable>();
+    /**
+     * The column whose cells are being built, null if none.
+     */
+    private SpreadsheetColumn buildingColumn = null;
+    /**
+     * The number of columns being laid out.
+     */
+    private int pendingTotal = 0;
+    /**
+     * Is the project still being read? If so, columns for the variables that
+     * arrive are built a batch at a time like the rest.
+     */
+    private boolean opening = false;
 
     //    public SpreadsheetPanel(final Datastore db, DVProgressBar progressBar) {
 //        ProjectController pc = new ProjectController(null, this);
@@ -319,6 +350,11 @@ public final class SpreadsheetPanel extends JPanel
     public void registerListeners() {
         KeyboardFocusManager m = KeyboardFocusManager.getCurrentKeyboardFocusManager();
         m.addKeyEventDispatcher(this);
+
+        if (playheadClock == null && Datavyu.getDataController() != null) {
+            playheadClock = Datavyu.getDataController().getClock();
+            playheadClock.registerListener(playhead);
+        }
     }
 
     /**
@@ -328,25 +364,109 @@ public final class SpreadsheetPanel extends JPanel
     public void deregisterListeners() {
         KeyboardFocusManager m = KeyboardFocusManager.getCurrentKeyboardFocusManager();
         m.removeKeyEventDispatcher(this);
+
+        if (playheadClock != null) {
+            playheadClock.unregisterListener(playhead);
+            playheadClock = null;
+        }
     }
 
     /**
-     * Populate from the database.
+     * Populate from the database. The first batch of cells is added straight
+     * away and the rest a batch at a time from the event queue, so the
+     * spreadsheet can be used while a large project is still being laid out.
+     * A batch may end part way through a column, so a tall column does not
+     * hold the event dispatch thread any longer than a short one.
      */
     private void buildColumns(DVProgressBar progressBar) {
-        List<Variable> vlist = getDatastore().getAllVariables();
-        int pb_increment = 0;
-        int i = 0;
+        pendingColumns = new LinkedList<Variable>(getDatastore().getAllVariables());
+        pendingTotal = pendingColumns.size();
+        buildPendingColumns(progressBar, progressBar == null ? 0 : progressBar.getProgress());
+    }
 
-        if (progressBar != null) {
-            pb_increment = (100 - progressBar.getProgress()) / vlist.size();
+    /**
+     * Adds columns and their cells until the batch runs out of time, then
+     * queues the next batch.
+     *
+     * @param progressBar Where to show progress, null if nowhere.
+     * @param start       The progress shown before any columns were added.
+     */
+    private void buildPendingColumns(final DVProgressBar progressBar, final int start) {
+        if (buildingColumn == null && pendingColumns.isEmpty()) {
+            return;
         }
 
-        for (Variable v : vlist) {
-            if (progressBar != null) {
-                progressBar.setProgress(progressBar.getProgress() + pb_increment, "Adding column " + ++i + " of " + vlist.size());
+        long deadline = System.currentTimeMillis() + BATCH_MILLIS;
+        do {
+            if (buildingColumn == null) {
+                buildingColumn = addColumn(getDatastore(), pendingColumns.removeFirst());
             }
-            addColumn(getDatastore(), v);
+            if (buildingColumn.buildCells(deadline)) {
+                buildingColumn = null;
+            }
+        } while ((buildingColumn != null || !pendingColumns.isEmpty())
+                && System.currentTimeMillis() < deadline);
+
+        if (progressBar != null) {
+            int built = pendingTotal - pendingColumns.size() - (buildingColumn == null ? 0 : 1);
+            progressBar.setProgress(start + (100 - start) * built / pendingTotal,
+                    "Added column " + built + " of " + pendingTotal);
+        }
+        revalidate();
+        repaint();
+
+        if (buildingColumn != null || !pendingColumns.isEmpty()) {
+            SwingUtilities.invokeLater(new Runnable() {
+                @Override
+                public void run() {
+                    buildPendingColumns(progressBar, start);
+                }
+            });
+        }
+    }
+
+    /**
+     * Builds a column for a variable after those already waiting, starting
+     * a new run of batches if nothing was waiting.
+     *
+     * @param var The variable that needs a column.
+     */
+    private void queueColumn(final Variable var) {
+        boolean idle = buildingColumn == null && pendingColumns.isEmpty();
+        pendingColumns.add(var);
+        if (idle) {
+            buildPendingColumns(null, 0);
+        }
+    }
+
+    /**
+     * Marks the start of reading a project into the datastore. Until
+     * endOpening is called, the columns of variables added to the datastore
+     * are built a batch at a time, after those already waiting.
+     */
+    public void beginOpening() {
+        opening = true;
+    }
+
+    /**
+     * Marks the end of reading a project, columns of variables added from now
+     * on are built straight away.
+     */
+    public void endOpening() {
+        opening = false;
+    }
+
+    /**
+     * Adds every column and cell still waiting to be built, so that changes
+     * to the variables of the datastore apply to a complete set of columns.
+     */
+    private void finishPendingColumns() {
+        if (buildingColumn != null) {
+            buildingColumn.finishCells();
+            buildingColumn = null;
+        }
+        while (!pendingColumns.isEmpty()) {
+            addColumn(getDatastore(), pendingColumns.removeFirst()).finishCells();
         }
     }
 
@@ -355,8 +475,9 @@ public final class SpreadsheetPanel extends JPanel
      *
      * @param db  database.
      * @param var The variable that this column represents.
+     * @return The column, whose cells are still to be built.
      */
-    private void addColumn(final Datastore db, final Variable var) {
+    private SpreadsheetColumn addColumn(final Datastore db, final Variable var) {
         // Remove previous instance of newVar from the header.
         headerView.remove(newVar);
         headerView.remove(hiddenVars);
@@ -386,6 +507,7 @@ public final class SpreadsheetPanel extends JPanel
         var.setOrderIndex(columns.size() - 1);
 
 //        updateColumnIndex();
+        return col;
     }
 
     /**
@@ -402,6 +524,9 @@ public final class SpreadsheetPanel extends JPanel
         }
 
         columns.clear();
+        pendingColumns.clear();
+        buildingColumn = null;
+        playhead.clear();
     }
 
     /**
@@ -467,12 +592,18 @@ public final class SpreadsheetPanel extends JPanel
 
     @Override
     public void variableAdded(final Variable newVariable) {
-        addColumn(datastore, newVariable);
+        if (opening) {
+            queueColumn(newVariable);
+        } else {
+            finishPendingColumns();
+            addColumn(datastore, newVariable).finishCells();
+        }
         variableVisible(newVariable);
     }
 
     @Override
     public void variableRemoved(final Variable deletedVariable) {
+        finishPendingColumns();
         deselectAll();
         removeColumn(deletedVariable);
         revalidate();
@@ -24,6 +24,7 @@ import org.datavyu.views.discrete.EditorComponent;
 import org.datavyu.views.discrete.EditorTracker;
 
 import javax.swing.*;
+import javax.swing.text.JTextComponent;
 import javax.swing.undo.UndoableEdit;
 import java.awt.event.FocusEvent;
 import java.awt.event.FocusListener;
@@ -148,12 +149,27 @@ public final class MatrixRootView extends JTextArea implements FocusListener {
     }
     
     public String generateText() {
-        String ans = "";
-        for (EditorComponent item : allEditors) {
-            ans += item.getText();
+        return generateText(allEditors);
+    }
+
+    /**
+     * Works out the text a MatrixRootView shows for a cell, without building
+     * one - used to paint cells that are not being edited.
+     *
+     * @param ta   The text component to build throwaway editors for.
+     * @param cell The cell to describe.
+     * @return The text to display for the cell.
+     */
+    public static String generateText(final JTextComponent ta, final Cell cell) {
+        return generateText(DataValueEditorFactory.buildMatrix(ta, cell));
+    }
+
+    private static String generateText(final List<EditorComponent> editors) {
+        StringBuilder ans = new StringBuilder();
+        for (EditorComponent item : editors) {
+            ans.append(item.getText());
         }
-        ans = ans.replaceAll("\\\\[\\\\]*\\\\", "\\\\");
-        return ans;
+        return ans.toString().replaceAll("\\\\[\\\\]*\\\\", "\\\\");
     }
 
     /**
@@ -14,15 +14,46 @@
  */
 package org.datavyu.views.discrete.layouts;
 
+import org.datavyu.views.discrete.ColumnDataPanel;
 import org.datavyu.views.discrete.SpreadsheetCell;
+import org.datavyu.views.discrete.SpreadsheetColumn;
+import org.datavyu.views.discrete.SpreadsheetView;
 
 import javax.swing.*;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import java.awt.*;
 
 /**
  * SheetLayout - abstract class for spreadsheet layouts.
+ *
+ * Cells painted by the shared renderer are laid out at an estimated height
+ * until they come into view. Layouts measure the cells in the viewport once
+ * they have been placed, and lay the spreadsheet again if any of them were
+ * not the height guessed, so that cells are the right size before they are
+ * painted. Scrolling measures the cells brought into view the same way.
  */
 public abstract class SheetLayout extends ScrollPaneLayout {
 
+    /**
+     * The most times a layout pass is repeated for cells in the viewport
+     * turning out to be a different height than guessed.
+     */
+    protected static final int MEASURE_PASSES = 4;
+
+    // The viewport being watched for scrolling.
+    private JViewport watched = null;
+
+    // The scroll pane holding the viewport being watched.
+    private JScrollPane watchedPane = null;
+
+    private final ChangeListener viewportListener = new ChangeListener() {
+        @Override
+        public void stateChanged(final ChangeEvent e) {
+            viewportChanged(watchedPane);
+        }
+    };
+
     /**
      * SheetLayout constructor.
      */
@@ -30,4 +61,60 @@ public abstract class SheetLayout extends ScrollPaneLayout {
     }
 
     public abstract void reorientView(SpreadsheetCell cell);
+
+    /**
+     * Watches the viewport of the spreadsheet for scrolling.
+     *
+     * @param pane The scroll pane holding the spreadsheet.
+     */
+    protected void watchViewport(final JScrollPane pane) {
+        JViewport viewport = pane.getViewport();
+        if (viewport != watched) {
+            if (watched != null) {
+                watched.removeChangeListener(viewportListener);
+            }
+            viewport.addChangeListener(viewportListener);
+            watched = viewport;
+        }
+        watchedPane = pane;
+    }
+
+    /**
+     * Called when the watched viewport is scrolled or resized. Measures the
+     * cells brought into view, laying the spreadsheet out again - before it
+     * is painted - if any of them change height.
+     *
+     * @param pane The scroll pane holding the spreadsheet.
+     */
+    protected void viewportChanged(final JScrollPane pane) {
+        if (measureVisibleCells(pane)) {
+            pane.revalidate();
+        }
+    }
+
+    /**
+     * Measures the cells of the visible columns that lie within the viewport.
+     *
+     * @param pane The scroll pane holding the spreadsheet.
+     * @return True if any of them changed height.
+     */
+    protected boolean measureVisibleCells(final JScrollPane pane) {
+        SpreadsheetView view = (SpreadsheetView) pane.getViewport().getView();
+        Rectangle r = pane.getViewport().getViewRect();
+
+        boolean changed = false;
+        for (SpreadsheetColumn col : view.getColumns()) {
+            ColumnDataPanel panel = col.getDataPanel();
+            if (!col.isVisible()
+                    || panel.getX() >= r.x + r.width
+                    || panel.getX() + panel.getWidth() <= r.x) {
+                continue;
+            }
+
+            if (panel.measureCells(r.y - panel.getY(), r.y + r.height - panel.getY())) {
+                changed = true;
+            }
+        }
+        return changed;
+    }
 }
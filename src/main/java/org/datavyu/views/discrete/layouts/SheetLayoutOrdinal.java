@@ -70,11 +70,25 @@ public class SheetLayoutOrdinal extends SheetLayout {
     @Override
     public void layoutContainer(Container parent) {
         super.layoutContainer(parent);
+        pane = (JScrollPane) parent;
+        watchViewport(pane);
+
+        // Lay the cells again while those in view are not the height guessed.
+        int passes = 0;
+        do {
+            layCells(parent);
+        } while (measureVisibleCells(pane) && ++passes < MEASURE_PASSES);
+    }
 
+    /**
+     * Lays the cells of the visible columns with their current heights.
+     *
+     * @param parent The scroll pane holding the spreadsheet.
+     */
+    private void layCells(final Container parent) {
         Datavyu.getView().setRedraw(false);
 
         // This layout must be applied to a Spreadsheet panel.
-        pane = (JScrollPane) parent;
         SpreadsheetView mainView = (SpreadsheetView) pane.getViewport()
                 .getView();
 
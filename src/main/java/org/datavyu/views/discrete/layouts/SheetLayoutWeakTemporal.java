@@ -26,342 +26,592 @@ import java.util.List;
 /**
  * SheetLayoutWeakTemporal - mimics the weak temporal alignment style from
  * original MacSHAPA.
+ *
+ * Every onset and offset on the spreadsheet is mapped to a vertical position
+ * by a {@link TemporalAxis}. The layout remembers what it laid in each column,
+ * so a pass only re-indexes the columns that have changed and only re-lays
+ * the rows from the first affected time onwards. Cells are only moved once
+ * they come near the viewport, the rest wait until the spreadsheet is
+ * scrolled.
  */
 public class SheetLayoutWeakTemporal extends SheetLayout {
-    // The of the right hand margin.
 
+    // The size of the gap between cells that are not contiguous.
+    private static final int GAP_SIZE = 10;
+
+    // The of the right hand margin.
     int marginSize;
-    // The total number of cells that we have laid.
-    int laidCells;
     // The maximum height of the layout in pixels.
     int maxHeight;
-    // The temporal ratio/scale we are using to display cells.
-    double ratio;
-    // Hash of placements by onset
-    HashMap<Long, List<SpreadsheetCell>> onsetToLoc;
-    // Hash of placements by offset
-    HashMap<Long, List<SpreadsheetCell>> offsetToLoc;
     private JScrollPane pane;
 
+    // The position of every time on the spreadsheet.
+    private final TemporalAxis axis = new TemporalAxis();
+
+    // The height of the tallest cell starting at each time on the axis.
+    private int[] rowHeights = new int[0];
+
+    // What was laid in each of the visible columns on the last pass.
+    private List<ColumnRows> laid = new ArrayList<ColumnRows>();
+    private List<SpreadsheetColumn> laidColumns = new ArrayList<SpreadsheetColumn>();
+    private int laidWidth = -1;
+
+    // Cells that have moved, but are yet to come near the viewport.
+    private final Map<SpreadsheetCell, Placement> pending =
+            new IdentityHashMap<SpreadsheetCell, Placement>();
 
     /**
-     * Information on each element in the row we are currently processing.
+     * Where a cell belongs.
      */
-    private class CellInfo {
+    private static final class Placement {
+        final int y;
+        final int width;
+        final int height;
+        final boolean overlap;
+
+        Placement(final int y, final int width, final int height, final boolean overlap) {
+            this.y = y;
+            this.width = width;
+            this.height = height;
+            this.overlap = overlap;
+        }
+
+        /**
+         * @param cell The cell to test.
+         * @return True if the cell is already in place.
+         */
+        boolean matches(final SpreadsheetCell cell) {
+            return cell.getX() == 0 && cell.getY() == y && cell.getWidth() == width
+                    && cell.getHeight() == height && cell.hasOverlapBorder() == overlap;
+        }
 
-        public CellInfo(SpreadsheetCell nCell, long onset, long offset) {
-            cell = nCell;
-            onset = cell.getOnsetTicks();
-            offset = cell.getOffsetTicks();
+        /**
+         * @param cell   The cell to test.
+         * @param top    The top of the area of interest in cell coordinates.
+         * @param bottom The bottom of the area of interest.
+         * @return True if either the current or the new bounds of the cell
+         * intersect the area of interest.
+         */
+        boolean near(final SpreadsheetCell cell, final int top, final int bottom) {
+            return (y < bottom && y + height >= top)
+                    || (cell.getY() < bottom && cell.getY() + cell.getHeight() >= top);
         }
 
-        // The cell that this row information is about.
-        public SpreadsheetCell cell;
-        public long onset;
-        // The column that the above cell belongs too.
-        public long offset;
+        void apply(final SpreadsheetCell cell) {
+            cell.setBounds(0, y, width, height);
+            if (cell.hasOverlapBorder() != overlap) {
+                cell.setOverlapBorder(overlap);
+            }
+        }
     }
 
     /**
-     * SheetLayoutOrdinal constructor.
-     *
-     * @param margin The size of the margin used for this layout.
+     * The cells laid in a column, in temporal order, and what they contribute
+     * to the temporal axis.
      */
-    public SheetLayoutWeakTemporal(final int margin) {
-        marginSize = margin;
-        laidCells = 0;
-    }
-
-    @Override
-    public void layoutContainer(Container parent) {
-        super.layoutContainer(parent);
-        pane = (JScrollPane) parent;
+    static final class ColumnRows {
+        final SpreadsheetCell[] cells;
+        final long[] onsets;
+        final long[] offsets;
+        final int[] heights;
+        final boolean[] upsideDown;
+
+        // Indices on the axis of the onset and offset of each cell. Point and
+        // negative cells are given an offset one tick after their onset.
+        int[] onsetIndex;
+        int[] offsetIndex;
+
+        // Increments added to the axis by this column: gaps between
+        // non-contiguous cells and stacked cells that share an onset.
+        int[] pairIndex;
+        int[] pairDelta;
+        int pairCount;
+
+        // The tallest cell starting at each onset within this column.
+        int[] rowIndex;
+        int[] rowHeight;
+        int rowCount;
+
+        // Where each cell belongs.
+        final int[] y;
+        final int[] h;
+        final boolean[] overlap;
+        int workingHeight = 0;
+
+        ColumnRows(final List<SpreadsheetCell> temporal) {
+            this(temporal.toArray(new SpreadsheetCell[temporal.size()]),
+                    new long[temporal.size()], new long[temporal.size()],
+                    new int[temporal.size()], new boolean[temporal.size()]);
+            for (int i = 0; i < cells.length; i++) {
+                onsets[i] = cells[i].getOnsetTicks();
+                offsets[i] = cells[i].getOffsetTicks();
+                heights[i] = cells[i].getPreferredSize().height;
+                upsideDown[i] = cells[i].isUpsideDown();
+            }
+        }
 
+        /**
+         * @param cells      The cells, in temporal order. May hold nulls when
+         *                   only the positions are wanted.
+         * @param onsets     The onset of each cell in ticks.
+         * @param offsets    The offset of each cell in ticks, never before
+         *                   the onset.
+         * @param heights    The preferred height of each cell.
+         * @param upsideDown Whether each cell ends before it starts.
+         */
+        ColumnRows(final SpreadsheetCell[] cells,
+                   final long[] onsets,
+                   final long[] offsets,
+                   final int[] heights,
+                   final boolean[] upsideDown) {
+            this.cells = cells;
+            this.onsets = onsets;
+            this.offsets = offsets;
+            this.heights = heights;
+            this.upsideDown = upsideDown;
+            y = new int[cells.length];
+            h = new int[cells.length];
+            overlap = new boolean[cells.length];
+        }
 
-        long overallTime = System.currentTimeMillis();
+        int size() {
+            return cells.length;
+        }
 
-        onsetToLoc = new HashMap();
-        offsetToLoc = new HashMap();
+        /**
+         * @param other The rows laid on a previous pass.
+         * @return True if the same cells are held, with the same times and
+         * heights.
+         */
+        boolean sameAs(final ColumnRows other) {
+            if (other.cells.length != cells.length) {
+                return false;
+            }
+            for (int i = 0; i < cells.length; i++) {
+                if (other.cells[i] != cells[i]) {
+                    return false;
+                }
+            }
+            return Arrays.equals(onsets, other.onsets)
+                    && Arrays.equals(offsets, other.offsets)
+                    && Arrays.equals(heights, other.heights)
+                    && Arrays.equals(upsideDown, other.upsideDown);
+        }
 
-        // This layout must be applied to a Spreadsheet panel.
-        SpreadsheetView mainView = (SpreadsheetView) pane.getViewport()
-                .getView();
+        long adjustedOffset(final int i) {
+            return offsets[i] <= onsets[i] ? onsets[i] + 1 : offsets[i];
+        }
 
-        // See if we need to redraw this spreadsheet
-//        if(!Datavyu.getProjectController().getDB().isChanged() && !Datavyu.getView().getRedraw()) {
-//            return;
-//        }
-//        Datavyu.getProjectController().getDB().markAsUnchanged();
-//        Datavyu.getView().setRedraw(false);
+        /**
+         * Adds the onset and offset of every cell to an array of times.
+         *
+         * @return The number of times in the array.
+         */
+        int addTimes(final long[] times, final int count) {
+            int n = count;
+            for (int i = 0; i < cells.length; i++) {
+                times[n++] = onsets[i];
+                times[n++] = adjustedOffset(i);
+            }
+            return n;
+        }
 
-        laidCells = 0;
-//        maxHeight = 0;
-        maxHeight = parent.getHeight();
+        /**
+         * Locates the cells on the axis and works out the increments this
+         * column contributes to it.
+         */
+        void index(final TemporalAxis axis) {
+            int n = cells.length;
+            onsetIndex = new int[n];
+            offsetIndex = new int[n];
+            pairIndex = new int[2 * n];
+            pairDelta = new int[2 * n];
+            pairCount = 0;
+            rowIndex = new int[n];
+            rowHeight = new int[n];
+            rowCount = 0;
+
+            for (int i = 0; i < n; i++) {
+                onsetIndex[i] = axis.indexOf(onsets[i]);
+                offsetIndex[i] = axis.indexOf(adjustedOffset(i));
+
+                if (rowCount > 0 && rowIndex[rowCount - 1] == onsetIndex[i]) {
+                    rowHeight[rowCount - 1] = Math.max(rowHeight[rowCount - 1], heights[i]);
+                } else {
+                    rowIndex[rowCount] = onsetIndex[i];
+                    rowHeight[rowCount] = heights[i];
+                    rowCount++;
+                }
+            }
 
-        // Determine the ratio/scale to use with temporal alignment, we pick the
-        // the largest column size in pixels and temporal length in ticks to
-        // use as an aggressive ratio/scale to fit as many cells on the screen
-        // as possible.
-        long ratioHeight = 0;   // The height required to fit all the visible cells on the spreadsheet without any spacing.
-        long ratioTicks = 0;    // The maximum offset used in the entire visible spreadsheet.
-        int totalCells = 0;     // The total number of visible cells we are laying out on the spreadsheet.
-        ratio = 1.0;            // The ratio / scale that we are using to position the cells temporally.
+            for (int i = 0; i < n - 1; i++) {
+                // Non-continuous cells open a gap from the next onset on.
+                if (onsets[i + 1] - offsets[i] > 1) {
+                    pairIndex[pairCount] = onsetIndex[i + 1];
+                    pairDelta[pairCount] = GAP_SIZE;
+                    pairCount++;
+                }
 
+                // Cells sharing an onset are stacked, pushing later times down.
+                if (onsets[i] == onsets[i + 1]) {
+                    pairIndex[pairCount] = onsetIndex[i + 1] + 1;
+                    pairDelta[pairCount] = heights[i];
+                    pairCount++;
+                }
+            }
+        }
 
-        List<SpreadsheetColumn> visible_columns = getVisibleColumns(mainView);
+        /**
+         * @param index The index of a time on the axis.
+         * @return The height of the tallest cell in this column that starts at
+         * the time, zero if none do.
+         */
+        int rowHeightAt(final int index) {
+            int found = Arrays.binarySearch(rowIndex, 0, rowCount, index);
+            return found < 0 ? 0 : rowHeight[found];
+        }
 
-        for (SpreadsheetColumn c : visible_columns) {
-            // Take this opportunity to initalise the working data we need for each of the columns.
-            c.setWorkingHeight(0);
-            c.setWorkingOrd(0);
-            c.setWorkingOnsetPadding(0);
-            c.setWorkingOffsetPadding(0);
+        /**
+         * @param changed The index of the first time that has moved.
+         * @return The first cell that needs to be laid again. Cells stacked
+         * with or overlapping the first moved cell are laid again as well.
+         */
+        int firstAffected(final int changed) {
+            int n = cells.length;
+            int from = 0;
+            while (from < n && offsetIndex[from] < changed) {
+                from++;
+            }
+            if (from == n) {
+                return n;
+            }
 
-            // Determine the total height in pixels of the cells in this column.
-            List<SpreadsheetCell> colCells = c.getCellsTemporally();
-            int colHeight = 0;
-            for (SpreadsheetCell cell : colCells) {
-                if (cell != null) {
-                    colHeight += cell.getPreferredSize().height;
+            if (from > 0) {
+                from--;
+                while (from > 0 && onsets[from - 1] == onsets[from]) {
+                    from--;
                 }
             }
+            return from;
+        }
 
-            // Determine the maximum column height in pixels.
-            ratioHeight = Math.max(ratioHeight, colHeight);
+        /**
+         * Works out where the cells belong, from the supplied cell onwards.
+         */
+        void layout(final TemporalAxis axis, final int from) {
+            int n = cells.length;
+            for (int i = from; i < n; i++) {
+                y[i] = axis.position(onsetIndex[i]);
+                h[i] = axis.position(offsetIndex[i]) - y[i];
+                overlap[i] = i > 0 && upsideDown[i];
+            }
 
-            // Determine the temporal length of the column in ticks.
-            if (colCells.size() > 0) {
-                SpreadsheetCell lastCell = colCells.get((colCells.size() - 1));
+            // Shorten cells that overlap with the one ahead of them, and stack
+            // cells that share an onset, so that all cells can be seen.
+            for (int i = from; i < n - 1; i++) {
+                if (offsets[i] > onsets[i + 1]) {
+                    h[i] = y[i + 1] - y[i];
+                    overlap[i] = true;
+                }
 
-                // If the offset is zero or smaller, we need to consider the
-                // onset of the cell instead for determining the maximum offset
-                // required to display the entire spreadsheet.
-                if (lastCell != null && lastCell.getOffsetTicks() <= 0) {
-                    ratioTicks = Math.max(ratioTicks, lastCell.getOnsetTicks());
-                } else if (lastCell != null) {
-                    ratioTicks = Math.max(ratioTicks, lastCell.getOffsetTicks());
+                if (onsets[i] == onsets[i + 1]) {
+                    h[i] = heights[i];
+                    y[i + 1] = y[i] + h[i];
+                    h[i + 1] = heights[i + 1];
                 }
             }
-            totalCells = totalCells + colCells.size();
-        }
-        // Determine the final temporal ratio/scale we are going to use for the spreadsheet.
-        if (ratioTicks > 0) {
-            ratio = ratioHeight / (double) ratioTicks;
-        }
 
-        // Untill we have laid all the cells, we position each of them
-        // temporarily. We do this row by row with the cells sorted temporarily,
-        // untill we have no cells left to lay.
-        int pad = 0;    // The cumulative padding we need to apply to cell positioning - this is the total
-        // amount of extra vertical space we have had to pad out, to make entire cells visible.
-
-        // This array is guaranteed initialized to 0 by the java lang spec
-        // Stores the current cell position for each col
-        int[] position_index = new int[visible_columns.size()];
-        ArrayList<Integer> column_bottoms = new ArrayList<Integer>();
-        ArrayList<Long> current_offsets = new ArrayList<Long>();
-        SpreadsheetCell[] rowCells = new SpreadsheetCell[visible_columns.size()];
-        SpreadsheetCell[] prevRowCells = new SpreadsheetCell[visible_columns.size()];
-        SpreadsheetCell prevLaidCell = null;
-        SpreadsheetColumn prevLaidCol = null;
-        int prevColIndex = -1;
-
-        int prev_t = 0;
-        int prev_b = 0;
-
-        // Cell cache so we only have to get from the DB once.
-        // Greatly speeds up the algorithm.
-        // Redrawing would be even faster if this was only done on DB update
-        int width = 0;
-        HashMap<Integer, List<SpreadsheetCell>> cellCache = new HashMap<Integer, List<SpreadsheetCell>>();
-        for (int i = 0; i < visible_columns.size(); i++) {
-            cellCache.put(i, visible_columns.get(i).getCellsTemporally());
-            width = visible_columns.get(i).getWidth();
+            workingHeight = 0;
+            if (n > 0) {
+                workingHeight = axis.position(offsetIndex[n - 1]);
+            }
+            for (int i = 0; i < n - 1; i++) {
+                if (onsets[i] == onsets[i + 1]) {
+                    workingHeight = Math.max(workingHeight, y[i + 1] + heights[i + 1]);
+                }
+            }
         }
-        width--;
-
-//        long starttime = System.currentTimeMillis();
-
-        // The size the of the gap to use between cells and as overlap on
-        // overlapping cells in different columns
-        int gapSize = 10;
-        int minCellHeight = 45;
+    }
 
+    /**
+     * SheetLayoutOrdinal constructor.
+     *
+     * @param margin The size of the margin used for this layout.
+     */
+    public SheetLayoutWeakTemporal(final int margin) {
+        marginSize = margin;
+    }
 
-        int numCells = 0;
-        Set<Long> times = new TreeSet<Long>();
-        HashMap<Long, List<SpreadsheetCell>> cellsByOnset = new HashMap<Long, List<SpreadsheetCell>>();
-        HashMap<Long, List<SpreadsheetCell>> cellsByOffset = new HashMap<Long, List<SpreadsheetCell>>();
+    @Override
+    public void layoutContainer(Container parent) {
+        super.layoutContainer(parent);
+        pane = (JScrollPane) parent;
+        watchViewport(pane);
 
-        SpreadsheetCell selectedCell = null;
+        // Lay the cells again while those in view are not the height guessed.
+        int passes = 0;
+        do {
+            layCells(parent);
+        } while (measureVisibleCells(pane) && ++passes < MEASURE_PASSES);
+    }
 
-        for (int key : cellCache.keySet()) {
-            for (SpreadsheetCell cell : cellCache.get(key)) {
-                long onset = cell.getOnsetTicks();
-                long offset = cell.getOffsetTicks();
-                numCells += 1;
-                if (!cellsByOnset.containsKey(onset)) {
-                    cellsByOnset.put(onset, new LinkedList<SpreadsheetCell>());
-                }
-                cellsByOnset.get(onset).add(cell);
+    /**
+     * Lays the cells of the visible columns with their current heights.
+     *
+     * @param parent The scroll pane holding the spreadsheet.
+     */
+    private void layCells(final Container parent) {
+        // This layout must be applied to a Spreadsheet panel.
+        SpreadsheetView mainView = (SpreadsheetView) pane.getViewport()
+                .getView();
 
-                // Adjust the offsets of point and negative cells so we can
-                // place them easier
-                if (offset <= onset) {
-                    offset = onset + 1;
-                }
+        List<SpreadsheetColumn> columns = getVisibleColumns(mainView);
+        int width = -1;
+        if (!columns.isEmpty()) {
+            width = columns.get(columns.size() - 1).getWidth() - 1;
+        }
 
-                if (!cellsByOffset.containsKey(offset)) {
-                    cellsByOffset.put(offset, new LinkedList<SpreadsheetCell>());
-                }
-                cellsByOffset.get(offset).add(cell);
+        List<ColumnRows> current = new ArrayList<ColumnRows>(columns.size());
+        for (SpreadsheetColumn c : columns) {
+            c.setWorkingOrd(0);
+            c.setWorkingOnsetPadding(0);
+            c.setWorkingOffsetPadding(0);
+            current.add(new ColumnRows(c.getCellsTemporally()));
+        }
 
-                times.add(onset);
-                times.add(offset);
+        boolean full = width != laidWidth || !columns.equals(laidColumns);
+        int[] from = lay(current, full);
 
-                cell.setOverlapBorder(false);
-                if (cell.getCell().isSelected()) {
-                    selectedCell = cell;
-                }
+        // Move the cells that were laid again.
+        Rectangle view = pane.getViewport().getViewRect();
+        for (int i = 0; i < columns.size(); i++) {
+            ColumnRows r = laid.get(i);
+            if (from[i] < r.size()) {
+                place(columns.get(i), r, from[i], width, view);
             }
+            columns.get(i).setWorkingHeight(r.workingHeight);
         }
+        laidColumns = columns;
+        laidWidth = width;
 
-        Long[] timeArray = times.toArray(new Long[]{});
-
-        // Now go through all the times and try to map them to a position
-        int maxPosition = 0;
-        HashMap<Long, Integer> timeByLoc = new HashMap<Long, Integer>();
-        for (int i = 0; i < times.size(); i++) {
-            Long time = timeArray[i];
-            List<SpreadsheetCell> cellsWithOnset = cellsByOnset.get(time);
-            List<SpreadsheetCell> cellsWithOffset = cellsByOffset.get(time);
-
-            // Get the minimum height we can go down from these cells
-            int minHeight = 0;
-            if (cellsWithOnset != null) {
-                for (SpreadsheetCell cell : cellsWithOnset) {
-                    if (minHeight < cell.getPreferredSize().height) {
-                        minHeight = cell.getPreferredSize().height;
-                    }
-                }
-            }
+        maxHeight = Math.max(parent.getHeight(), laidHeight());
 
-//            if(cellsWithOffset != null) {
-//                for(SpreadsheetCell cell : cellsWithOffset) {
-//                    if(minHeight < cell.getPreferredSize().height) {
-//                        minHeight = cell.getPreferredSize().height;
-//                    }
-//                }
-//            }
+        padColumns(mainView, parent);
+    }
 
-            timeByLoc.put(time, maxPosition);
-            maxPosition += minHeight;
+    /**
+     * Works out where the cells of each column belong. Columns whose cells,
+     * times and heights are the same as on the last pass keep what was laid
+     * for them, and only rows from the first moved time onwards are laid
+     * again. What is laid is kept in {@link #laid}.
+     *
+     * @param current What is in each visible column now, in column order.
+     * @param full    True if the columns themselves have changed since the
+     *                last pass, in which case everything is laid again.
+     * @return The index of the first cell of each column that was laid again.
+     */
+    int[] lay(final List<ColumnRows> current, final boolean full) {
+        List<ColumnRows> rows = new ArrayList<ColumnRows>(current.size());
+        Set<ColumnRows> dirty = Collections.newSetFromMap(new IdentityHashMap<ColumnRows, Boolean>());
+        int timeCount = 0;
+        for (int i = 0; i < current.size(); i++) {
+            ColumnRows r = current.get(i);
+            ColumnRows previous = full ? null : laid.get(i);
+            if (previous != null && r.sameAs(previous)) {
+                rows.add(previous);
+            } else {
+                rows.add(r);
+                dirty.add(r);
+            }
+            timeCount += 2 * r.size();
+        }
 
+        boolean relay = full;
+        int changed = Integer.MAX_VALUE;
+        if (full || !dirty.isEmpty()) {
+            long[] times = new long[timeCount];
+            int n = 0;
+            for (ColumnRows r : rows) {
+                n = r.addTimes(times, n);
+            }
+            times = TemporalAxis.distinct(times, n);
+
+            if (full || !axis.hasTimes(times)) {
+                rebuildAxis(times, rows);
+                relay = true;
+                changed = 0;
+            } else {
+                changed = updateAxis(rows, dirty);
+            }
         }
 
-        for (int key : cellCache.keySet()) {
-            for (int i = 0; i < cellCache.get(key).size() - 1; i++) {
-                SpreadsheetCell cell = cellCache.get(key).get(i);
-                SpreadsheetCell nextCell = cellCache.get(key).get(i + 1);
-                long onset = cell.getOnsetTicks();
-                long offset = cell.getOffsetTicks();
-                long nextOnset = nextCell.getOnsetTicks();
-                long nextOffset = nextCell.getOffsetTicks();
-
-                // Non-continuous cells
-                if (nextOnset - offset > 1) {
-                    timeByLoc.put(nextOnset, timeByLoc.get(nextOnset) + gapSize);
-
-                    for (int j = 0; j < timeArray.length; j++) {
-                        if (timeArray[j] > nextOnset) {
-                            timeByLoc.put(timeArray[j], timeByLoc.get(timeArray[j]) + gapSize);
-                        }
-                    }
-                }
+        // Re-lay the rows from the first time that has moved.
+        int[] from = new int[rows.size()];
+        for (int i = 0; i < rows.size(); i++) {
+            ColumnRows r = rows.get(i);
+            from[i] = (relay || dirty.contains(r)) ? 0 : r.firstAffected(changed);
+            if (from[i] < r.size()) {
+                r.layout(axis, from[i]);
+            }
+        }
 
-                if (onset == nextOnset) {
-                    for (int j = 0; j < timeArray.length; j++) {
-                        if (timeArray[j] > nextOnset) {
-                            timeByLoc.put(timeArray[j], timeByLoc.get(timeArray[j]) + cell.getPreferredSize().height);
-                        }
-                    }
-                }
+        laid = rows;
+        return from;
+    }
 
+    /**
+     * Indexes every column against a new set of times.
+     */
+    private void rebuildAxis(final long[] times, final List<ColumnRows> rows) {
+        axis.build(times, new long[times.length]);
+        rowHeights = new int[times.length];
+        long[] increments = new long[times.length + 1];
+        for (ColumnRows r : rows) {
+            r.index(axis);
+            for (int i = 0; i < r.rowCount; i++) {
+                rowHeights[r.rowIndex[i]] = Math.max(rowHeights[r.rowIndex[i]], r.rowHeight[i]);
+            }
+            for (int i = 0; i < r.pairCount; i++) {
+                increments[r.pairIndex[i]] += r.pairDelta[i];
             }
         }
 
-        // Set all of the cell positions now that we have figured them out
-        for (Long time : times) {
-            List<SpreadsheetCell> cellsWithOnset = cellsByOnset.get(time);
-            List<SpreadsheetCell> cellsWithOffset = cellsByOffset.get(time);
+        // The tallest cell starting at a time pushes every later time down.
+        for (int i = 0; i < times.length; i++) {
+            increments[i + 1] += rowHeights[i];
+        }
+        axis.build(times, increments);
 
+        // Everything is laid again, so nothing is left waiting.
+        pending.clear();
+    }
 
-            if (cellsWithOnset != null) {
-                for (SpreadsheetCell cell : cellsWithOnset) {
-//                    if(!cell.isBeingProcessed()) {
-                    cell.setBounds(0, timeByLoc.get(time), width, cell.getPreferredSize().height);
-//                    }
-                }
+    /**
+     * Replaces the increments of the changed columns on an axis that holds
+     * the same times as before.
+     *
+     * @return The index of the first time that has moved.
+     */
+    private int updateAxis(final List<ColumnRows> rows, final Set<ColumnRows> dirty) {
+        int changed = Integer.MAX_VALUE;
+        Set<Integer> affectedRows = new TreeSet<Integer>();
+        for (int c = 0; c < rows.size(); c++) {
+            ColumnRows r = rows.get(c);
+            if (!dirty.contains(r)) {
+                continue;
             }
 
-            if (cellsWithOffset != null) {
-                for (SpreadsheetCell cell : cellsWithOffset) {
-//                    if(!cell.isBeingProcessed()) {
-                    cell.setBounds(0, cell.getY(), width, (timeByLoc.get(time) - cell.getY()));
-//                    }
-                }
+            ColumnRows previous = laid.get(c);
+            r.index(axis);
+            for (int i = 0; i < previous.pairCount; i++) {
+                axis.add(previous.pairIndex[i], -previous.pairDelta[i]);
+                changed = Math.min(changed, previous.pairIndex[i]);
             }
-
-            if (maxHeight < timeByLoc.get(time)) {
-                maxHeight = timeByLoc.get(time);
+            for (int i = 0; i < r.pairCount; i++) {
+                axis.add(r.pairIndex[i], r.pairDelta[i]);
+                changed = Math.min(changed, r.pairIndex[i]);
+            }
+            for (int i = 0; i < previous.rowCount; i++) {
+                affectedRows.add(previous.rowIndex[i]);
+            }
+            for (int i = 0; i < r.rowCount; i++) {
+                affectedRows.add(r.rowIndex[i]);
             }
         }
-//        System.out.println(maxHeight);
-
-        // Set the working heights for all of the columns
-        List<SpreadsheetColumn> visibleColumns = getVisibleColumns(mainView);
-        for (int key : cellCache.keySet()) {
-            SpreadsheetColumn col = visibleColumns.get(key);
-//            System.out.println(key);
-//            System.out.println(cellCache.get(key).size());
-            if (cellCache.get(key).size() > 0) {
-                SpreadsheetCell cell = cellCache.get(key).get(cellCache.get(key).size() - 1);
-                col.setWorkingHeight(cell.getY() + cell.getHeight());
+
+        for (int index : affectedRows) {
+            int height = 0;
+            for (ColumnRows r : rows) {
+                height = Math.max(height, r.rowHeightAt(index));
+            }
+            if (height != rowHeights[index]) {
+                axis.add(index + 1, height - rowHeights[index]);
+                rowHeights[index] = height;
+                changed = Math.min(changed, index + 1);
             }
         }
 
-        // Now go through each of the columns and shorten cells that overlap
-        // with the one ahead of them to guarantee all cells can be seen
+        return changed;
+    }
 
-        for (int key : cellCache.keySet()) {
-            for (int i = 0; i < cellCache.get(key).size() - 1; i++) {
-                SpreadsheetCell curCell = cellCache.get(key).get(i);
-                SpreadsheetCell nextCell = cellCache.get(key).get(i + 1);
-                SpreadsheetColumn col = visibleColumns.get(key);
+    /**
+     * @return The height of everything laid on the last pass.
+     */
+    int laidHeight() {
+        return axis.size() > 0 ? axis.position(axis.size() - 1) : 0;
+    }
 
-                if (curCell.getOffsetTicks() > nextCell.getOnsetTicks()) {
-                    curCell.setBounds(0, curCell.getY(), width, nextCell.getY() - curCell.getY());
-                    curCell.setOverlapBorder(true);
-                }
-                
-                if (nextCell.isUpsideDown()){
-                        nextCell.setOverlapBorder(true);
-                }
+    /**
+     * Moves the laid cells of a column, cells away from the viewport are left
+     * until the spreadsheet is scrolled near them.
+     */
+    private void place(final SpreadsheetColumn column,
+                       final ColumnRows r,
+                       final int from,
+                       final int width,
+                       final Rectangle view) {
+        int offset = column.getDataPanel().getY();
+        int top = view.y - view.height - offset;
+        int bottom = view.y + 2 * view.height - offset;
+
+        for (int i = from; i < r.size(); i++) {
+            SpreadsheetCell cell = r.cells[i];
+            Placement p = new Placement(r.y[i], width, r.h[i], r.overlap[i]);
+            pending.remove(cell);
+            if (p.matches(cell)) {
+                continue;
+            }
 
-                if (curCell.getOnsetTicks() == nextCell.getOnsetTicks()) {
-                    curCell.setBounds(0, curCell.getY(), width, curCell.getPreferredSize().height);
-                    nextCell.setBounds(0, curCell.getY() + curCell.getHeight(), width, nextCell.getPreferredSize().height);
-                    if (col.getWorkingHeight() < nextCell.getY() + nextCell.getHeight()) {
-                        col.setWorkingHeight(nextCell.getY() + nextCell.getHeight());
-                    }
-                }
+            if (p.near(cell, top, bottom)) {
+                p.apply(cell);
+            } else {
+                pending.put(cell, p);
             }
         }
+    }
 
-        padColumns(mainView, parent);
+    /**
+     * Moves the waiting cells that are now near the viewport.
+     */
+    private void placePending() {
+        if (pending.isEmpty() || pane == null) {
+            return;
+        }
+
+        Rectangle view = pane.getViewport().getViewRect();
+        Iterator<Map.Entry<SpreadsheetCell, Placement>> it = pending.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<SpreadsheetCell, Placement> entry = it.next();
+            SpreadsheetCell cell = entry.getKey();
+            Container panel = cell.getParent();
+            if (panel == null) {
+                it.remove();
+                continue;
+            }
+
+            int top = view.y - view.height - panel.getY();
+            int bottom = view.y + 2 * view.height - panel.getY();
+            if (entry.getValue().near(cell, top, bottom)) {
+                entry.getValue().apply(cell);
+                it.remove();
+            }
+        }
+    }
+
+    @Override
+    protected void viewportChanged(final JScrollPane pane) {
+        // Waiting cells are moved as they are scrolled into view, before
+        // they are measured.
+        placePending();
+        super.viewportChanged(pane);
     }
 
     public void reorientView(SpreadsheetCell cell) {
+        Placement p = pending.remove(cell);
+        if (p != null) {
+            p.apply(cell);
+        }
+
         double viewMax = pane.getViewport().getViewRect().getY() + pane.getViewport().getViewRect().getHeight();
         double viewMin = pane.getViewport().getViewRect().getY();
         int cellMax = cell.getY() + cell.getHeight();
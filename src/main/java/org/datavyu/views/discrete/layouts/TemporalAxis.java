@@ -0,0 +1,123 @@
+/**
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.views.discrete.layouts;
+
+import java.util.Arrays;
+
+/**
+ * Maps the distinct times on a spreadsheet to vertical positions.
+ *
+ * The position of a time is the sum of the increments at and before it, so
+ * the increments are held in a Fenwick tree. Growing a row or opening a gap
+ * is a single logarithmic update, and looking up the position of any time is
+ * logarithmic - nothing after the change needs to be shifted.
+ */
+final class TemporalAxis {
+
+    // The distinct times on the axis, in ascending order.
+    private long[] times = new long[0];
+
+    // Fenwick tree of increments, one-based.
+    private long[] tree = new long[1];
+
+    /**
+     * @return The number of distinct times on the axis.
+     */
+    int size() {
+        return times.length;
+    }
+
+    /**
+     * @param sortedTimes Distinct times in ascending order.
+     * @return True if the axis holds exactly the supplied times.
+     */
+    boolean hasTimes(final long[] sortedTimes) {
+        return Arrays.equals(times, sortedTimes);
+    }
+
+    /**
+     * Replaces the times on the axis and their increments. Runs in linear
+     * time.
+     *
+     * @param sortedTimes Distinct times in ascending order.
+     * @param increments  The increment at each time.
+     */
+    void build(final long[] sortedTimes, final long[] increments) {
+        times = sortedTimes;
+        tree = new long[times.length + 1];
+        System.arraycopy(increments, 0, tree, 1, times.length);
+        for (int i = 1; i <= times.length; i++) {
+            int parent = i + (i & -i);
+            if (parent <= times.length) {
+                tree[parent] += tree[i];
+            }
+        }
+    }
+
+    /**
+     * @param time A time on the axis.
+     * @return The index of the time on the axis.
+     * @throws IllegalArgumentException If the time is not on the axis.
+     */
+    int indexOf(final long time) {
+        int index = Arrays.binarySearch(times, time);
+        if (index < 0) {
+            throw new IllegalArgumentException("Time not on axis: " + time);
+        }
+        return index;
+    }
+
+    /**
+     * Adds to the increment at a time, moving it and every later time.
+     *
+     * @param index The index of the time on the axis.
+     * @param delta The change in position.
+     */
+    void add(final int index, final long delta) {
+        for (int i = index + 1; i < tree.length; i += i & -i) {
+            tree[i] += delta;
+        }
+    }
+
+    /**
+     * @param index The index of a time on the axis.
+     * @return The position of the time.
+     */
+    int position(final int index) {
+        long result = 0;
+        for (int i = index + 1; i > 0; i -= i & -i) {
+            result += tree[i];
+        }
+        return (int) result;
+    }
+
+    /**
+     * Gathers the distinct values of a set of times.
+     *
+     * @param values The times, in any order. Sorted in place.
+     * @param count  The number of times held in values.
+     * @return The distinct times in ascending order.
+     */
+    static long[] distinct(final long[] values, final int count) {
+        Arrays.sort(values, 0, count);
+        int n = 0;
+        for (int i = 0; i < count; i++) {
+            if (n == 0 || values[n - 1] != values[i]) {
+                values[n++] = values[i];
+            }
+        }
+        return Arrays.copyOf(values, n);
+    }
+}
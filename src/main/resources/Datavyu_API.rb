@@ -88,6 +88,8 @@ import 'org.datavyu.models.db.Value'
 import 'org.datavyu.models.db.Variable'
 import 'org.datavyu.models.db.Cell'
 import 'org.datavyu.models.db.Argument'
+import 'org.datavyu.models.db.ColumnView'
+import 'org.datavyu.models.db.Intervals'
 import 'org.datavyu.models.project.Project'
 import 'org.datavyu.controllers.SaveC'
 import 'org.datavyu.controllers.OpenC'
@@ -286,7 +288,63 @@ end
 
 class RVariable
 
-    attr_accessor :name, :type, :cells, :arglist, :old_args, :dirty, :db_var
+    attr_accessor :name, :type, :arglist, :old_args, :dirty, :db_var, :view
+    attr_writer :cells
+
+   #-------------------------------------------------------------------
+   # Method name: cells
+   # Function: The cells of this variable.  Cells of a variable fetched with
+   #           getVariable are only built from its view the first time they
+   #           are asked for.
+   #-------------------------------------------------------------------
+   def cells
+      if @cells.nil? and not @view.nil?
+         set_cells_from_view(@view)
+      end
+      return @cells
+   end
+
+   #-------------------------------------------------------------------
+   # Method name: cells_built?
+   # Function: Have the cells of this variable been built yet?
+   #-------------------------------------------------------------------
+   def cells_built?
+      return (not @cells.nil?)
+   end
+
+   #-------------------------------------------------------------------
+   # NOTE: This function is not for general use.
+   #
+   # Method name: set_cells_from_view
+   # Function: Creates the cell objects of this variable from a ColumnView,
+   #           fetching each property of every cell in a single call.
+   # Arguments:
+   # => view (required): The ColumnView of the variable in the database
+   #-------------------------------------------------------------------
+   def set_cells_from_view(view)
+      cell_class = Class.new(RCell)
+      @arglist.each_with_index do |arg, i|
+         cell_class.send(:define_method, arg) { argvals[i] }
+      end
+
+      db_cells = view.getCells.to_a
+      onsets = view.getOnsets.to_a
+      offsets = view.getOffsets.to_a
+      ordinals = view.getOrdinals.to_a
+      columns = Array.new(@arglist.length) { |i| view.getValues(i).to_a }
+
+      @cells = Array.new(db_cells.length) do |i|
+         c = cell_class.new
+         c.onset = onsets[i]
+         c.offset = offsets[i]
+         c.ordinal = ordinals[i]
+         c.db_cell = db_cells[i]
+         c.parent = @name
+         c.arglist = @arglist
+         c.argvals = columns.map { |column| column[i].nil? ? "" : column[i] }
+         c
+      end
+   end
 
    #-------------------------------------------------------------------
    # NOTE: This function is not for general use.
@@ -301,9 +359,7 @@ class RVariable
     return arg.gsub(/(\W)+/,"").downcase
    end
 
-   def set_cells(newcells, arglist)
-     print_debug "Setting cells"
-      @cells = Array.new
+   def set_arglist(arglist)
       @arglist = Array.new
       arglist.each do |arg|
          # Regex to delete any character not a-z,0-9,or _
@@ -313,6 +369,12 @@ class RVariable
          end
          @arglist << arg.gsub(/(\W)+/,"").downcase
       end
+   end
+
+   def set_cells(newcells, arglist)
+     print_debug "Setting cells"
+      @cells = Array.new
+      set_arglist(arglist)
       if !newcells.nil?
          ord = 0
          newcells.each do |cell|
@@ -337,6 +399,22 @@ class RVariable
       end
    end
 
+   #-------------------------------------------------------------------
+   # NOTE: This function is not for general use.
+   #
+   # Method name: set_view
+   # Function: Backs the variable with a ColumnView of a variable in the
+   #           database.  The cells are built when first asked for.
+   # Arguments:
+   # => view (required): The ColumnView of the variable in the database
+   # => arglist (required): Array of the names of the arguments from the database
+   #-------------------------------------------------------------------
+   def set_view(view, arglist)
+      @view = view
+      @cells = nil
+      set_arglist(arglist)
+   end
+
    #-------------------------------------------------------------------
    # Method name: make_new_cell
    # Function: Creates a new, blank cell at the end of this variable's cell array
@@ -357,7 +435,7 @@ class RVariable
       c.ordinal = 0
       c.set_args("", @arglist)
       c.parent = @name
-      @cells << c
+      cells << c
       return c
    end
 
@@ -369,6 +447,31 @@ class RVariable
     cells.sort! { |a,b| a.onset <=> b.onset }
   end
 
+   #-------------------------------------------------------------------
+   # Method name: intervals
+   # Function: The onsets and offsets of the cells of this variable as a Java
+   #           Intervals object, for time lookups, overlaps, coverage and joins
+   #           against other variables.  The index is built from the cells as
+   #           they are now, so fetch it again after changing them.  A cell
+   #           holds every time from its onset up to and including its
+   #           offset, as in getCellFromTime.
+   # Returns:
+   # => An org.datavyu.models.db.Intervals, addressed by position in cells.
+   # Usage:
+   #       trial = getVariable("trial")
+   #       i = trial.intervals.find(1000)
+   #       cell = trial.cells[i] if i >= 0
+   #-------------------------------------------------------------------
+   def intervals
+      if not cells_built? and not @view.nil?
+         return Intervals.of(@view)
+      end
+
+      onsets = @cells.map { |c| c.onset }
+      offsets = @cells.map { |c| c.offset }
+      return Intervals.new(onsets.to_java(:long), offsets.to_java(:long))
+   end
+
 
    #-------------------------------------------------------------------
    # Method name: change_arg_name
@@ -386,6 +489,7 @@ class RVariable
       change_arg_name(old_name, new_name)
    end
    def change_arg_name(old_name, new_name)
+      cells # Build the cells before the argument list changes.
       i = @old_args.index(old_name)
       @old_args[i] = new_name
       if ["0","1","2","3","4","5","6","7","8","9"].include?(old_name[1].chr)
@@ -395,7 +499,7 @@ class RVariable
 
       i = @arglist.index(old_name)
       @arglist[i] = new_name
-      for cell in @cells
+      for cell in cells
         cell.change_arg_name(i, new_name)
       end
 
@@ -406,6 +510,7 @@ class RVariable
      add_arg(name)
    end
    def add_arg(name)
+      cells # Build the cells before the argument list changes.
       @old_args << name
       if ["0","1","2","3","4","5","6","7","8","9"].include?(name[1].chr)
             name = "_" + name
@@ -413,7 +518,7 @@ class RVariable
       name = name.gsub(/(\W)+/,"").downcase
 
       @arglist << name
-      for cell in @cells
+      for cell in cells
         cell.add_arg(name)
       end
 
@@ -424,12 +529,13 @@ class RVariable
      remove_arg(name)
    end
    def remove_arg(name)
+       cells # Build the cells before the argument list changes.
        @old_args.delete(name)
 
        name = name.gsub(/(\W)+/,"").downcase
        @arglist.delete(name)
 
-       for cell in @cells
+       for cell in cells
            cell.remove_arg(name)
        end
 
@@ -460,8 +566,6 @@ def getVariable(name)
     return nil
    end
 
-   # Convert each cell into an array and store in an array of arrays
-   cells = var.getCells()
    arg_names = Array.new
 
    # Now get the arguments for each of the cells
@@ -483,8 +587,7 @@ def getVariable(name)
    v.name = name
    v.old_args = arg_names
    v.type = type
-   v.set_cells(cells, arg_names)
-   v.sort_cells
+   v.set_view(ColumnView.new(var), arg_names)
    v.dirty = false
    v.db_var = var
 
@@ -608,49 +711,45 @@ def setVariable(*args)
 
    end
 
-   # Create new cells and fill them in for each cell in the variable
-   for cell in var.cells
-      # Copy the information from the ruby variable to the new cell
-
-      if cell.db_cell == nil or cell.parent != name
-          cell.db_cell = var.db_var.createCell()
-      end
-
-      value = cell.db_cell.getValue()
-
-      if cell.onset != cell.db_cell.getOnset
-          cell.db_cell.setOnset(cell.onset)
-      end
-
-      if cell.offset != cell.db_cell.getOffset
-          cell.db_cell.setOffset(cell.offset)
-      end
+   # Cells that were never fetched from the view are still what is in the
+   # database, there is nothing to write.
+   if not var.cells_built? and not var.view.nil? and var.view.getVariable == var.db_var
+      return
+   end
 
-      # Matrix cell
-      if cell.db_cell.getVariable.getRootNode.type == Argument::Type::MATRIX
-          values = cell.db_cell.getValue().getArguments()
-          for arg in var.old_args
-              # Find the arg in the db's arglist that we are looking for
-              for i in 0...values.size
-                  dbarg = values[i]
-                  dbarg_name = dbarg.getArgument.name
-                  if dbarg_name == arg and not ["", nil].include?(cell.get_arg(var.convert_argname(arg)))
-                      dbarg.set(cell.get_arg(var.convert_argname(arg)))
-                      break
-                  end
-              end
-          end
+   # Write every cell back in a single batch - the database only changes
+   # what differs from each cell.
+   matrix = var.db_var.getRootNode.type == Argument::Type::MATRIX
+   if matrix
+      arg_names = var.old_args
+      lookup = var.old_args.map { |arg| var.convert_argname(arg) }
+   else
+      arg_names = ["var"]
+      lookup = ["var"]
+   end
 
-      # Non-matrix cell
+   targets = Array.new
+   onsets = Array.new
+   offsets = Array.new
+   values = Array.new
+   for cell in var.cells
+      if cell.db_cell == nil or cell.parent != name
+         targets << nil
       else
-          value = cell.db_cell.getValue()
-          value.set(cell.get_arg("var"))
+         targets << cell.db_cell
       end
-
-      # Save the changes back to the DB
-
+      onsets << cell.onset
+      offsets << cell.offset
+      values << lookup.map { |arg|
+         i = cell.arglist.index(arg)
+         i.nil? ? nil : cell.argvals[i]
+      }
    end
 
+   written = ColumnView.new(var.db_var).write(targets, onsets, offsets, values, arg_names)
+   var.cells.each_with_index do |cell, i|
+      cell.db_cell = written.get(i)
+   end
 
    #arg_names = var.old_args
    #cells = Array.new
@@ -888,34 +987,14 @@ def makeDurationBlockRel(relname, var_to_copy, binding, block_dur, skip_blocks)
    binding = getVariable(binding)
 
 
-   block_dur = block_dur * 1000 # Convert to milliseconds
+   block_dur = (block_dur * 1000).to_i # Convert to milliseconds
    block_num = 1
-   for bindcell in binding.cells
-      cell_dur = bindcell.offset - bindcell.onset
-      if cell_dur <= block_dur
-         cell = block_var.make_new_cell()
-         cell.change_arg("block_num", block_num.to_s)
-         cell.change_arg("onset", bindcell.onset)
-         cell.change_arg("offset", bindcell.offset)
-         block_num += 1
-      else
-         num_possible_blocks = cell_dur / block_dur  #Integer division
-         if num_possible_blocks > 0
-            for i in 0..num_possible_blocks
-               if i % skip_blocks == 0
-                  cell = block_var.make_new_cell()
-                  cell.change_arg("block_num", block_num.to_s)
-                  cell.change_arg("onset", bindcell.onset + i * block_dur)
-                  if bindcell.onset + (i + 1) * block_dur <= bindcell.offset
-                     cell.change_arg("offset", bindcell.onset + (i + 1) * block_dur)
-                  else
-                     cell.change_arg("offset", bindcell.offset)
-                  end
-                  block_num += 1
-               end
-            end
-         end
-      end
+   for block in binding.intervals.blocks(block_dur, skip_blocks)
+      cell = block_var.make_new_cell()
+      cell.change_arg("block_num", block_num.to_s)
+      cell.change_arg("onset", block[0])
+      cell.change_arg("offset", block[1])
+      block_num += 1
    end
    setVariable(relname + "_blocks", block_var)
 end
@@ -1180,84 +1259,16 @@ def createMutuallyExclusive(name, var1name, var2name, var1_argprefix=nil, var2_a
     # Create the necessary cell at each time change.
     #######################
 
-    time_changes = Set.new
-    v1_cells_at_time = Hash.new
-    v2_cells_at_time = Hash.new
-
-
-    # Preprocess relevant cells and times
-    for cell in var1.cells + var2.cells
-      time_changes.add(cell.onset)
-      time_changes.add(cell.offset)
-    end
-
-
-    time_changes = time_changes.to_a.sort
-	if $debug
-		p time_changes
-	end
-    # p time_changes
-
-
-    mutex_cell = nil
-    mutex_cell_parent = nil
-
-    # TODO: make these handle empty cols
-    v1cell = var1.cells[0]
-    prev_v1cell = nil
-    prev_v2cell = nil
-    v2cell = var2.cells[0]
-    v1idx = 0
-    v2idx = 0
-
-    #
-    for i in 0..time_changes.length-2
-      t0 = time_changes[i]
-      t1 = time_changes[i+1]
-
-      # Find the cells that are active during these times
-      for j in v1idx..var1.cells.length-1
-        c = var1.cells[j]
-        v1cell = nil
-        if $debug 
-			p "---", "T1", t0, t1, c.onset, c.offset, "---" 
-		end
-        if c.onset <= t0 and c.offset >= t1 and ( t1-t0 > 1 or (c.onset==t0 and c.offset==t1) )
-          v1cell = c
-          v1idx = j
-          # p t0, t1, "Found V1"
-          break
-        # elsif c.onset > t1
-        #   break
-        else
-          v1cell = nil
-        end
-      end
-
-      for j in v2idx..var2.cells.length-1
-        c = var2.cells[j]
-        v2cell = nil
-        # p "---", "T2", t0, t1, c.onset, c.offset, "---"
-        if c.onset <= t0 and c.offset >= t1 and ( t1-t0 > 1 or (c.onset==t0 and c.offset==t1) )
-          v2cell = c
-          v2idx = j
-          # p t0, t1, "Found V2"
-          break
-        # elsif c.onset > t1
-        #   break
-        else
-          v2cell = nil
-        end
-      end
-
-      if v1cell != nil or v2cell != nil 
-        mutex_cell = mutex.create_cell
-		
-        mutex_cell.change_arg("onset", t0)
-        mutex_cell.change_arg("offset", t1)
-        fillMutexCell(v1cell, v2cell, mutex_cell, mutex, var1_argprefix, var2_argprefix)
-      end
+    # Each segment between two consecutive time changes, with the cell of
+    # each variable active during it (-1 if none).
+    for segment in Intervals.mutuallyExclusive(var1.intervals, var2.intervals)
+      v1cell = segment[2] < 0 ? nil : var1.cells[segment[2]]
+      v2cell = segment[3] < 0 ? nil : var2.cells[segment[3]]
 
+      mutex_cell = mutex.create_cell
+      mutex_cell.change_arg("onset", segment[0])
+      mutex_cell.change_arg("offset", segment[1])
+      fillMutexCell(v1cell, v2cell, mutex_cell, mutex, var1_argprefix, var2_argprefix)
     end
 
 
@@ -1869,6 +1880,25 @@ def checkReliability(main_col, rel_col, match_arg, time_tolerance, *dump_file)
       print err_str
    end
 
+   # Define internal function for pairing up the cells that share a value of
+   # arg, in main cell order and then rel cell order
+   def match_cells(main_cells, rel_cells, arg)
+      rel_by_bind = Hash.new
+      for rc in rel_cells
+         bind = rc.send(arg)
+         rel_by_bind[bind] = [] if rel_by_bind[bind] == nil
+         rel_by_bind[bind] << rc
+      end
+
+      pairs = []
+      for mc in main_cells
+         for rc in rel_by_bind.fetch(mc.send(arg), [])
+            pairs << [mc, rc]
+         end
+      end
+      return pairs
+   end
+
    # Build error array
    errors = Hash.new
    for arg in main_col.arglist
@@ -1877,30 +1907,24 @@ def checkReliability(main_col, rel_col, match_arg, time_tolerance, *dump_file)
    errors["onset"] = 0
    errors["offset"] = 0
 
-   # Now check the cells
-   for mc in main_col.cells
-      main_bind = eval "mc.#{match_arg}"
-      for rc in rel_col.cells
-         rel_bind = eval "rc.#{match_arg}"
-         if main_bind == rel_bind
-            # Then check these cells match, check them for errors
-           if (mc.onset - rc.onset).abs >= time_tolerance
-              print_err(mc, rc, "onset", dump_file, main_col, rel_col)
-              errors["onset"] = errors["onset"] + 1
-           end
-           if (mc.offset - rc.offset).abs >= time_tolerance
-              print_err(mc, rc, "offset", dump_file, main_col, rel_col)
-              errors["offset"] = errors["offset"] + 1
-           end
+   # Now check the cells, pairing up the cells that share a match_arg value
+   for mc, rc in match_cells(main_col.cells, rel_col.cells, match_arg)
+      # Then check these cells match, check them for errors
+      if (mc.onset - rc.onset).abs >= time_tolerance
+         print_err(mc, rc, "onset", dump_file, main_col, rel_col)
+         errors["onset"] = errors["onset"] + 1
+      end
+      if (mc.offset - rc.offset).abs >= time_tolerance
+         print_err(mc, rc, "offset", dump_file, main_col, rel_col)
+         errors["offset"] = errors["offset"] + 1
+      end
 
-            for arg in main_col.arglist
-                 main_val = eval "mc.#{arg}"
-                 rel_val = eval "rc.#{arg}"
-                 if main_val != rel_val
-                    print_err(mc, rc, arg, dump_file, main_col, rel_col)
-                    errors[arg] = errors[arg] + 1
-                 end
-            end
+      for arg in main_col.arglist
+         main_val = eval "mc.#{arg}"
+         rel_val = eval "rc.#{arg}"
+         if main_val != rel_val
+            print_err(mc, rc, arg, dump_file, main_col, rel_col)
+            errors[arg] = errors[arg] + 1
          end
       end
    end
@@ -2046,6 +2070,10 @@ def print_args(cell, file, args)
 end
 
 def getCellFromTime(col, time)
+  if time.is_a?(Integer)
+    i = col.intervals.find(time)
+    return i < 0 ? nil : col.cells[i]
+  end
   for cell in col.cells
     if cell.onset <= time and cell.offset >= time
       return cell
@@ -0,0 +1,70 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.controllers;
+
+import org.testng.annotations.Test;
+
+import static junit.framework.Assert.assertEquals;
+
+/**
+ * Tests for timestamp parsing in the CSV tokenizer.
+ */
+public class CSVTokenizerTest {
+
+    @Test
+    public void testClockTimestamp() {
+        assertEquals(CSVTokenizer.parseTimestamp("00:00:00:000"), 0L);
+        assertEquals(CSVTokenizer.parseTimestamp("01:02:03:004"), 3723004L);
+    }
+
+    @Test
+    public void testSignedMilliseconds() {
+        assertEquals(CSVTokenizer.parseTimestamp("1500"), 1500L);
+        assertEquals(CSVTokenizer.parseTimestamp("+1500"), 1500L);
+        assertEquals(CSVTokenizer.parseTimestamp("-1500"), -1500L);
+        assertEquals(CSVTokenizer.parseTimestamp("9223372036854775807"), Long.MAX_VALUE);
+        assertEquals(CSVTokenizer.parseTimestamp("-9223372036854775808"), Long.MIN_VALUE);
+    }
+
+    @Test(expectedExceptions = NumberFormatException.class)
+    public void testMillisecondsOverflow() {
+        CSVTokenizer.parseTimestamp("9223372036854775808");
+    }
+
+    @Test(expectedExceptions = NumberFormatException.class)
+    public void testNegativeMillisecondsOverflow() {
+        CSVTokenizer.parseTimestamp("-9223372036854775809");
+    }
+
+    @Test(expectedExceptions = NumberFormatException.class)
+    public void testComponentOverflow() {
+        CSVTokenizer.parseTimestamp("99999999999999999999:00:00:000");
+    }
+
+    @Test(expectedExceptions = NumberFormatException.class)
+    public void testScaledComponentOverflow() {
+        CSVTokenizer.parseTimestamp("9223372036854775:00:00:000");
+    }
+
+    @Test(expectedExceptions = NumberFormatException.class)
+    public void testSignedClockTimestamp() {
+        CSVTokenizer.parseTimestamp("-01:00:00:000");
+    }
+
+    @Test(expectedExceptions = NumberFormatException.class)
+    public void testLoneSign() {
+        CSVTokenizer.parseTimestamp("-");
+    }
+}
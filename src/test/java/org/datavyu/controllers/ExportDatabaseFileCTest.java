@@ -0,0 +1,76 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.controllers;
+
+import com.usermetrix.jclient.UserMetrix;
+import org.datavyu.models.db.*;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+
+/**
+ * Tests for exporting Datavyu databases.
+ */
+public class ExportDatabaseFileCTest {
+
+    @BeforeClass
+    public void spinUp() {
+        com.usermetrix.jclient.Configuration config = new com.usermetrix.jclient.Configuration(2);
+        UserMetrix.initalise(config);
+        UserMetrix.setCanSendLogs(false);
+    }
+
+    @AfterClass
+    public void spinDown() {
+        UserMetrix.shutdown();
+    }
+
+    @Test
+    public void testExportByFrame() throws UserWarningException, IOException {
+        Datastore ds = DatastoreFactory.newDatastore();
+        Variable var = ds.createVariable("t", Argument.Type.TEXT);
+        var.setOrderIndex(0);
+        Cell c = var.createCell();
+        c.setOnset(100);
+        c.setOffset(200);
+        c.getValue().set("a");
+        ds.createVariable("n", Argument.Type.NOMINAL).setOrderIndex(1);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new ExportDatabaseFileC().exportByFrame(out, ds, 10.0, 0, 300);
+
+        BufferedReader reader = new BufferedReader(
+                new StringReader(new String(out.toByteArray())));
+        List<String> lines = new ArrayList<String>();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lines.add(line);
+        }
+
+        assertEquals(lines.size(), 5);
+        assertEquals(lines.get(0), "framenum,time,t.ordinal,t.onset,t.offset,t.value,"
+                + "n.ordinal,n.onset,n.offset,n.value,");
+        assertEquals(lines.get(1), "1,0,,,,,,,,,");
+        assertEquals(lines.get(2), "2,100,1,100,200,\"a\",,,,,");
+        assertEquals(lines.get(3), "3,200,1,100,200,\"a\",,,,,");
+        assertEquals(lines.get(4), "4,300,,,,,,,,,");
+    }
+}
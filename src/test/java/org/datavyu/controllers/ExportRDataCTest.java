@@ -0,0 +1,93 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.controllers;
+
+import com.usermetrix.jclient.UserMetrix;
+import org.datavyu.models.db.*;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.*;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests for handing Datavyu databases to R.
+ */
+public class ExportRDataCTest {
+
+    @BeforeClass
+    public void spinUp() {
+        com.usermetrix.jclient.Configuration config = new com.usermetrix.jclient.Configuration(2);
+        UserMetrix.initalise(config);
+        UserMetrix.setCanSendLogs(false);
+    }
+
+    @AfterClass
+    public void spinDown() {
+        UserMetrix.shutdown();
+    }
+
+    @Test
+    public void testWriteVariable() throws UserWarningException, IOException {
+        Datastore ds = DatastoreFactory.newDatastore();
+        Variable var = ds.createVariable("m", Argument.Type.MATRIX);
+        var.addArgument(Argument.Type.TEXT);
+        Cell late = var.createCell();
+        late.setOnset(300);
+        late.setOffset(400);
+        late.setMatrixValue(0, "b");
+        Cell early = var.createCell();
+        early.setOnset(100);
+        early.setOffset(200);
+        early.setMatrixValue(0, "a");
+        early.setMatrixValue(1, "say \"hi\"");
+
+        StringWriter out = new StringWriter();
+        ExportRDataC.writeVariable(var, out);
+
+        assertEquals(out.toString(), "ordinal,onset,offset,code01,code02\n"
+                + "1,100,200,\"a\",\"say \"\"hi\"\"\"\n"
+                + "2,300,400,\"b\",\n");
+        assertEquals(ExportRDataC.colClasses(var),
+                "c(\"integer\",\"numeric\",\"numeric\",NA,\"character\")");
+    }
+
+    @Test
+    public void testExportCleansUp() throws UserWarningException, IOException {
+        Datastore ds = DatastoreFactory.newDatastore();
+        ds.createVariable("First", Argument.Type.TEXT).createCell();
+        ds.createVariable("second", Argument.Type.NOMINAL);
+
+        ExportRDataC export = new ExportRDataC();
+        List<String> code = export.export(ds);
+
+        assertEquals(code.size(), 3);
+        assertEquals(code.get(0), "db <- list()");
+        assertTrue(code.get(1).startsWith("db[[\"first\"]] <- read.csv("));
+        assertTrue(code.get(2).contains("colClasses=c(\"integer\",\"numeric\",\"numeric\",NA)"));
+
+        String path = code.get(1).substring(code.get(1).indexOf("read.csv(\"") + 10);
+        File file = new File(path.substring(0, path.indexOf('"')));
+        assertTrue(file.exists());
+
+        export.cleanUp();
+        assertFalse(file.exists());
+    }
+}
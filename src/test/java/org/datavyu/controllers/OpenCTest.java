@@ -19,14 +19,18 @@ import org.datavyu.models.db.Argument;
 import org.datavyu.models.db.Cell;
 import org.datavyu.models.db.Datastore;
 import org.datavyu.models.db.Variable;
+import org.datavyu.util.ProgressInputStream;
 import org.testng.annotations.AfterClass;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.List;
 
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
 
 /**
  * Tests for opening Datavyu project and CSV files.
@@ -68,6 +72,29 @@ public class OpenCTest {
         assertEquals(cells.get(0).getValueAsString(), "This is a test cell.");
     }
 
+    @Test
+    public void testLoadEscapedCSV() {
+        File demoFile = new File(TEST_FOLDER + "IO/escaped1.csv");
+        OpenC openc = new OpenC();
+        openc.openDatabase(demoFile);
+
+        Datastore ds = openc.getDatastore();
+        List<Variable> vars = ds.getAllVariables();
+        assertEquals(vars.size(), 2);
+
+        List<Cell> cells = vars.get(0).getCells();
+        assertEquals(cells.size(), 1);
+        assertEquals(cells.get(0).getValueAsString(), "first, line\nsecond line");
+
+        assertEquals(vars.get(1).getRootNode().type, Argument.Type.MATRIX);
+        assertEquals(vars.get(1).isHidden(), true);
+        cells = vars.get(1).getCells();
+        assertEquals(cells.size(), 1);
+        assertEquals(cells.get(0).getOnsetString(), "00:03:00:000");
+        assertEquals(cells.get(0).getOffsetString(), "00:04:00:000");
+        assertEquals(cells.get(0).getValueAsString(), "(a,b,)");
+    }
+
     @Test
     public void testLoadOPF() {
         File demoFile = new File(TEST_FOLDER + "IO/simple2.opf");
@@ -139,4 +166,61 @@ public class OpenCTest {
         List<Cell> cells = vars.get(0).getCells();
         assertEquals(cells.size(), 1);
     }
+
+    @Test
+    public void testAbandonedLoadOpensNothing() {
+        ProgressInputStream.Listener cancel = new ProgressInputStream.Listener() {
+            @Override
+            public boolean progress(final long read, final long total) {
+                return true;
+            }
+        };
+
+        OpenC openc = new OpenC();
+        openc.setProgressListener(cancel);
+        openc.openDatabase(new File(TEST_FOLDER + "IO/simple1.csv"));
+        assertNull(openc.getDatastore());
+
+        openc = new OpenC();
+        openc.setProgressListener(cancel);
+        openc.openProject(new File(TEST_FOLDER + "IO/simple4.opf"));
+        assertNull(openc.getDatastore());
+    }
+
+    @Test
+    public void testReadListenerAttachesVariables() {
+        final List<Variable> read = new ArrayList<Variable>();
+        OpenDatabaseFileC.ReadListener listener = new OpenDatabaseFileC.ReadListener() {
+            @Override
+            public void variablesRead(final Datastore datastore, final List<Variable> variables) {
+                read.addAll(variables);
+            }
+        };
+
+        OpenC openc = new OpenC();
+        openc.setReadListener(listener);
+        openc.openDatabase(new File(TEST_FOLDER + "IO/escaped1.csv"));
+        assertEquals(openc.getDatastore().getAllVariables().size(), 0);
+        assertEquals(read.size(), 2);
+        assertEquals(read.get(1).getRootNode().type, Argument.Type.MATRIX);
+        assertEquals(read.get(1).getCells().get(0).getValueAsString(), "(a,b,)");
+
+        read.clear();
+        openc = new OpenC();
+        openc.setReadListener(listener);
+        openc.openProject(new File(TEST_FOLDER + "IO/simple3.opf"));
+        assertEquals(openc.getDatastore().getAllVariables().size(), 0);
+        assertEquals(read.size(), 4);
+        assertEquals(read.get(0).getName(), "testColumn");
+        assertEquals(read.get(1).getName(), "testColumn2");
+        assertEquals(read.get(2).getName(), "testColumn3");
+        assertEquals(read.get(3).getName(), "hiddenColumn");
+        for (int i = 0; i < read.size(); i++) {
+            assertEquals(read.get(i).getOrderIndex(), i);
+            assertFalse(read.get(i).isSelected());
+            for (Cell cell : read.get(i).getCells()) {
+                assertFalse(cell.isSelected());
+            }
+        }
+    }
 }
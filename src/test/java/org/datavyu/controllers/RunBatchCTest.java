@@ -0,0 +1,87 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.controllers;
+
+import com.usermetrix.jclient.UserMetrix;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests for running a script over many projects without a user interface.
+ */
+public class RunBatchCTest {
+
+    // The location of the test files.
+    private static final String TEST_FOLDER = System.getProperty("testPath");
+
+    @BeforeClass
+    public void spinUp() {
+        com.usermetrix.jclient.Configuration config = new com.usermetrix.jclient.Configuration(2);
+        UserMetrix.initalise(config);
+        UserMetrix.setCanSendLogs(false);
+    }
+
+    @AfterClass
+    public void spinDown() {
+        UserMetrix.shutdown();
+    }
+
+    private static String read(final File file) throws IOException {
+        BufferedReader br = new BufferedReader(new FileReader(file));
+        StringBuilder sb = new StringBuilder();
+        String line;
+        while ((line = br.readLine()) != null) {
+            sb.append(line).append('\n');
+        }
+        br.close();
+        return sb.toString();
+    }
+
+    @Test
+    public void testRunsEachProjectInIsolation() throws Exception {
+        File logs = File.createTempFile("batch", "");
+        logs.delete();
+        logs.mkdirs();
+
+        File script = new File(logs, "count.rb");
+        FileWriter w = new FileWriter(script);
+        w.write("puts \"columns: #{$db.getAllVariables.size} seen: #{$seen.inspect}\"\n");
+        w.write("$seen = $db.getName\n");
+        w.close();
+
+        File project = new File(TEST_FOLDER + "IO/simple2.opf");
+        File missing = new File(logs, "missing.opf");
+        List<RunBatchC.Result> results = new RunBatchC(script,
+                Arrays.asList(project, project, missing), 2, logs).run();
+
+        assertEquals(results.size(), 3);
+        assertTrue(results.get(0).isSucceeded());
+        assertTrue(results.get(1).isSucceeded());
+        assertEquals(results.get(2).isSucceeded(), false);
+
+        // Globals left by one project are not seen by the next.
+        assertTrue(read(results.get(0).getLog()).contains("columns: 1 seen: nil"));
+        assertTrue(read(results.get(1).getLog()).contains("columns: 1 seen: nil"));
+        assertTrue(!results.get(0).getLog().equals(results.get(1).getLog()));
+    }
+}
@@ -24,7 +24,9 @@ import org.testng.annotations.Test;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
 
+import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertTrue;
 
 /**
@@ -124,4 +126,72 @@ public class SaveCTest {
         savec.saveProject(outFile, p, ds);
         assertTrue(UIUtils.areFilesSameByteComp(outFile, demoFile));
     }
+
+    @Test
+    public void testSaveBinaryOPF() throws UserWarningException, IOException {
+        File outFile = new File("target/test4.opf");
+        if (outFile.exists()) {
+            outFile.delete();
+        }
+
+        Project p = new Project();
+        p.setProjectName("simple4");
+
+        Datastore ds = DatastoreFactory.newDatastore();
+        Variable var = ds.createVariable("testColumn", Argument.Type.TEXT);
+        Cell c = var.createCell();
+        c.setOnset("00:01:00:000");
+        c.setOffset("00:02:00:000");
+        c.getValue().set("first, line\nsecond line");
+
+        var = ds.createVariable("testColumn2", Argument.Type.NOMINAL);
+        c = var.createCell();
+        c.setOnset("00:00:05:000");
+        c.getValue().set("cellB");
+        c = var.createCell();
+        c.setOnset("00:00:01:000");
+        c.setOffset("00:00:02:000");
+        c.getValue().set("cellB");
+
+        var = ds.createVariable("testColumn3", Argument.Type.MATRIX);
+        c = var.createCell();
+        c.setOnset("00:03:00:000");
+        c.setOffset("00:04:00:000");
+        c.getValue().set("(cellC)");
+
+        var = ds.createVariable("hiddenColumn", Argument.Type.TEXT);
+        var.setHidden(true);
+
+        SaveC savec = new SaveC();
+        savec.saveProject(outFile, p, ds, false, true);
+
+        OpenC openc = new OpenC();
+        openc.openProject(outFile);
+        Datastore loaded = openc.getDatastore();
+        assertEquals(loaded.getAllVariables().size(), 4);
+
+        List<Cell> cells = loaded.getVariable("testColumn").getCells();
+        assertEquals(cells.size(), 1);
+        assertEquals(cells.get(0).getOnsetString(), "00:01:00:000");
+        assertEquals(cells.get(0).getOffsetString(), "00:02:00:000");
+        assertEquals(cells.get(0).getValueAsString(), "first, line\nsecond line");
+
+        var = loaded.getVariable("testColumn2");
+        assertEquals(var.getRootNode().type, Argument.Type.NOMINAL);
+        cells = var.getCells();
+        assertEquals(cells.size(), 2);
+        assertEquals(cells.get(0).getOnsetString(), "00:00:05:000");
+        assertEquals(cells.get(0).getValueAsString(), "cellB");
+        assertEquals(cells.get(1).getOnsetString(), "00:00:01:000");
+        assertEquals(cells.get(1).getOffsetString(), "00:00:02:000");
+        assertEquals(cells.get(1).getValueAsString(), "cellB");
+
+        var = loaded.getVariable("testColumn3");
+        assertEquals(var.getRootNode().type, Argument.Type.MATRIX);
+        assertEquals(var.getCells().get(0).getValueAsString(), "(cellC)");
+
+        var = loaded.getVariable("hiddenColumn");
+        assertEquals(var.isHidden(), true);
+        assertEquals(var.getCells().size(), 0);
+    }
 }
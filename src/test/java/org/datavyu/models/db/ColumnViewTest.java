@@ -0,0 +1,111 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.models.db;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static junit.framework.Assert.*;
+
+/**
+ * Tests for the column view of a variable.
+ */
+public class ColumnViewTest {
+
+    private Datastore ds;
+
+    private Variable matrix;
+
+    @BeforeMethod
+    public void setUp() throws UserWarningException {
+        ds = DatastoreFactory.newDatastore();
+        matrix = ds.createVariable("m", Argument.Type.MATRIX);
+        matrix.addArgument(Argument.Type.NOMINAL);
+    }
+
+    private Cell cell(final long onset, final long offset, final String first, final String second) {
+        Cell c = matrix.createCell();
+        c.setOnset(onset);
+        c.setOffset(offset);
+        List<Value> values = ((MatrixValue) c.getValue()).getArguments();
+        values.get(0).set(first);
+        values.get(1).set(second);
+        return c;
+    }
+
+    @Test
+    public void testReadsInTemporalOrder() {
+        Cell late = cell(500, 600, "a", "b");
+        Cell early = cell(100, 200, "c", "d");
+
+        ColumnView view = new ColumnView(matrix);
+        assertEquals(view.size(), 2);
+        assertEquals(Arrays.asList(view.getArgumentNames()), Arrays.asList("code01", "code02"));
+        assertSame(view.getCell(0), early);
+        assertEquals(view.getOnset(1), 500);
+        assertEquals(view.getValue(0, 1), "d");
+        assertEquals(view.getOrdinal(0), 2);
+        assertEquals(view.getOrdinal(1), 1);
+        assertTrue(Arrays.equals(view.getOnsets(), new long[]{100, 500}));
+        assertTrue(Arrays.equals(view.getOffsets(), new long[]{200, 600}));
+        assertTrue(Arrays.equals(view.getValues(0), new String[]{"c", "a"}));
+
+        // Values are read from the live cells.
+        late.setOffset(700);
+        assertEquals(view.getOffset(1), 700);
+    }
+
+    @Test
+    public void testWrite() {
+        Cell existing = cell(100, 200, "a", "b");
+        ds.markAsUnchanged();
+
+        ColumnView view = new ColumnView(matrix);
+        List<Cell> written = view.write(
+                Arrays.asList(existing, null),
+                Arrays.asList(100L, 300L),
+                Arrays.asList(200L, 400.0),
+                Arrays.asList(Arrays.asList("x", ""), Arrays.asList("y", "z")),
+                Arrays.asList("code01", "code02"));
+
+        assertEquals(written.size(), 2);
+        assertSame(written.get(0), existing);
+        assertEquals(existing.getValue().toString(), "(x,b)");
+        Cell created = written.get(1);
+        assertEquals(matrix.getCells().size(), 2);
+        assertEquals(created.getOnset(), 300);
+        assertEquals(created.getOffset(), 400);
+        assertEquals(created.getValue().toString(), "(y,z)");
+        assertTrue(ds.isChanged());
+    }
+
+    @Test
+    public void testWriteUnchangedLeavesDatastoreUnchanged() {
+        Cell existing = cell(100, 200, "a", "b");
+        ds.markAsUnchanged();
+
+        new ColumnView(matrix).write(
+                Arrays.asList(existing),
+                Arrays.asList(100L),
+                Arrays.asList(200L),
+                Arrays.asList(Arrays.asList("a", "b")),
+                Arrays.asList("code01", "code02", "missing"));
+
+        assertFalse(ds.isChanged());
+    }
+}
@@ -141,4 +141,138 @@ public class DatastoreTest {
         model.markAsUnchanged();
         assertFalse(model.isChanged());
     }
+
+    @Test
+    public void cellSelection() throws UserWarningException {
+        Variable var = model.createVariable("foo", Argument.Type.TEXT);
+        Cell c1 = var.createCell();
+        Cell c2 = var.createCell();
+
+        // New cells are selected by default.
+        assertEquals(model.getSelectedCells().size(), 2);
+
+        model.clearCellSelection();
+        assertEquals(model.getSelectedCells().size(), 0);
+        assertFalse(c1.isSelected());
+        assertFalse(c2.isHighlighted());
+
+        c2.setHighlighted(true);
+        List<Cell> cellList = new ArrayList<Cell>();
+        cellList.add(c2);
+        assertEquals(model.getSelectedCells(), cellList);
+
+        model.removeCell(c2);
+        assertEquals(model.getSelectedCells().size(), 0);
+    }
+
+    @Test
+    public void cellVariableLookup() throws UserWarningException {
+        Variable var = model.createVariable("foo", Argument.Type.TEXT);
+        Cell c = var.createCell();
+        assertEquals(model.getVariable(c), var);
+
+        model.removeVariable(var);
+        assertNull(model.getVariable(c));
+
+        model.addVariable(var);
+        assertEquals(model.getVariable(c), var);
+
+        model.removeCell(c);
+        assertNull(model.getVariable(c));
+    }
+
+    @Test
+    public void journalUndoRedo() throws UserWarningException {
+        Variable untouched = model.createVariable("untouched", Argument.Type.TEXT);
+        Cell u = untouched.createCell();
+        u.getValue().set("same");
+        Variable edited = model.createVariable("edited", Argument.Type.MATRIX);
+        Cell c1 = edited.createCell();
+        c1.setOnset(100);
+        c1.getMatrixValue(0).set("a");
+        Cell c2 = edited.createCell();
+        Variable removed = model.createVariable("removed", Argument.Type.NOMINAL);
+
+        ChangeJournal journal = model.beginJournal();
+        c1.setOnset(200);
+        c1.getMatrixValue(0).set("b");
+        edited.removeCell(c2);
+        Cell c3 = edited.createCell();
+        edited.setName("renamed");
+        edited.addArgument(Argument.Type.TEXT);
+        c1.getMatrixValue(1).set("c");
+        model.removeVariable(removed);
+        Variable added = model.createVariable("added", Argument.Type.TEXT);
+        model.endJournal();
+        assertFalse(journal.isRecording());
+        assertEquals(journal.size(), 6);
+
+        journal.undo();
+        assertNull(model.getVariable("renamed"));
+        assertNull(model.getVariable("added"));
+        assertEquals(model.getVariable("edited"), edited);
+        assertEquals(model.getVariable("removed"), removed);
+        assertEquals(model.getVariable("untouched"), untouched);
+        assertEquals(edited.getRootNode().childArguments.size(), 1);
+        assertEquals(edited.getCells().size(), 2);
+        assertTrue(edited.contains(c1));
+        assertTrue(edited.contains(c2));
+        assertFalse(edited.contains(c3));
+        assertEquals(c1.getOnset(), 100);
+        assertEquals(c1.getValue().toString(), "(a)");
+        assertEquals(u.getValue().toString(), "same");
+
+        journal.redo();
+        assertNull(model.getVariable("edited"));
+        assertNull(model.getVariable("removed"));
+        assertEquals(model.getVariable("renamed"), edited);
+        assertEquals(model.getVariable("added"), added);
+        assertEquals(edited.getRootNode().childArguments.size(), 2);
+        assertTrue(edited.contains(c1));
+        assertFalse(edited.contains(c2));
+        assertTrue(edited.contains(c3));
+        assertEquals(c1.getOnset(), 200);
+        assertEquals(c1.getValue().toString(), "(b,c)");
+    }
+
+    @Test
+    public void snapshotCopyOnWrite() throws UserWarningException {
+        Variable text = model.createVariable("text", Argument.Type.TEXT);
+        text.setOrderIndex(0);
+        Cell t = text.createCell();
+        t.setOnset(100);
+        t.setOffset(200);
+        t.getValue().set("first");
+        Variable matrix = model.createVariable("matrix", Argument.Type.MATRIX);
+        matrix.setOrderIndex(1);
+        matrix.addArgument(Argument.Type.NOMINAL);
+        Cell m = matrix.createCell();
+        ((MatrixValue) m.getValue()).getArguments().get(1).set("b");
+
+        DatastoreSnapshot first = DatastoreSnapshot.take(model, null);
+        assertTrue(DatastoreSnapshot.take(model, first).sameAs(first));
+
+        t.getValue().set("second");
+        DatastoreSnapshot second = DatastoreSnapshot.take(model, first);
+        assertFalse(second.sameAs(first));
+        assertTrue(DatastoreSnapshot.take(model, second).sameAs(second));
+
+        // Changes after the snapshot do not show up in its copy.
+        t.setOnset(150);
+        Datastore copy = second.toDatastore();
+        assertFalse(DatastoreSnapshot.take(model, second).sameAs(second));
+
+        List<Variable> variables = copy.getAllVariables();
+        assertEquals(variables.size(), 2);
+        assertEquals(variables.get(0).getName(), "text");
+        Cell copied = variables.get(0).getCells().get(0);
+        assertEquals(copied.getOnset(), 100);
+        assertEquals(copied.getOffset(), 200);
+        assertEquals(copied.getValue().toString(), "second");
+        assertEquals(variables.get(1).getName(), "matrix");
+        assertEquals(variables.get(1).getRootNode().childArguments.size(), 2);
+        assertEquals(variables.get(1).getCells().get(0).getValue().toString(), m.getValue().toString());
+        assertEquals(m.getValue().toString(), "(,b)");
+        assertNotSame(variables.get(1).getRootNode(), matrix.getRootNode());
+    }
 }
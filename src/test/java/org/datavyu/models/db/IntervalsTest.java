@@ -0,0 +1,224 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.models.db;
+
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static junit.framework.Assert.*;
+
+/**
+ * Tests for the interval operators.
+ */
+public class IntervalsTest {
+
+    private static Intervals intervals(final long... times) {
+        long[] onsets = new long[times.length / 2];
+        long[] offsets = new long[times.length / 2];
+        for (int i = 0; i < onsets.length; i++) {
+            onsets[i] = times[2 * i];
+            offsets[i] = times[2 * i + 1];
+        }
+        return new Intervals(onsets, offsets);
+    }
+
+    @Test
+    public void testFind() {
+        Intervals sorted = intervals(0, 100, 50, 300, 200, 250, 400, 500);
+        assertEquals(sorted.find(100), 0);
+        assertEquals(sorted.find(101), 1);
+        assertEquals(sorted.find(260), 1);
+        assertEquals(sorted.find(350), -1);
+        assertEquals(sorted.find(500), 3);
+        assertEquals(sorted.findCovering(2, 200, 250), 2);
+        assertEquals(sorted.findCovering(2, 200, 260), -1);
+
+        // Cells out of onset order are looked up in the order given.
+        Intervals unsorted = intervals(400, 500, 200, 250, 0, 300);
+        assertEquals(unsorted.find(210), 1);
+        assertEquals(unsorted.find(270), 2);
+        assertEquals(unsorted.find(600), -1);
+
+        assertEquals(intervals().find(0), -1);
+    }
+
+    @Test
+    public void testOverlappingAndCoverage() {
+        Intervals sorted = intervals(0, 100, 50, 300, 200, 250, 400, 500);
+        assertTrue(Arrays.equals(sorted.overlapping(100, 200), new int[]{0, 1, 2}));
+        assertTrue(Arrays.equals(sorted.overlapping(301, 399), new int[0]));
+        assertTrue(Arrays.equals(intervals(400, 500, 0, 450).overlapping(420, 420), new int[]{0, 1}));
+
+        assertEquals(sorted.coverage(0, 1000), 400);
+        assertEquals(sorted.coverage(250, 450), 100);
+        assertEquals(intervals(400, 500, 0, 100, 50, 120).coverage(0, 1000), 220);
+    }
+
+    @Test
+    public void testJoin() {
+        int[][] pairs = Intervals.join(intervals(0, 100, 200, 300), intervals(50, 60, 90, 210, 400, 500));
+        assertEquals(pairs.length, 3);
+        assertTrue(Arrays.equals(pairs[0], new int[]{0, 0}));
+        assertTrue(Arrays.equals(pairs[1], new int[]{0, 1}));
+        assertTrue(Arrays.equals(pairs[2], new int[]{1, 1}));
+    }
+
+    @Test
+    public void testBlocks() {
+        long[][] blocks = intervals(0, 500, 1000, 4000).blocks(1000, 2);
+        assertEquals(blocks.length, 3);
+        assertTrue(Arrays.equals(blocks[0], new long[]{0, 500}));
+        assertTrue(Arrays.equals(blocks[1], new long[]{1000, 2000}));
+        assertTrue(Arrays.equals(blocks[2], new long[]{3000, 4000}));
+    }
+
+    @Test
+    public void testMutuallyExclusive() {
+        long[][] segments = Intervals.mutuallyExclusive(
+                intervals(0, 100, 200, 300),
+                intervals(50, 250, 300, 301));
+
+        assertEquals(segments.length, 6);
+        assertTrue(Arrays.equals(segments[0], new long[]{0, 50, 0, -1}));
+        assertTrue(Arrays.equals(segments[1], new long[]{50, 100, 0, 0}));
+        assertTrue(Arrays.equals(segments[2], new long[]{100, 200, -1, 0}));
+        assertTrue(Arrays.equals(segments[3], new long[]{200, 250, 1, 0}));
+        assertTrue(Arrays.equals(segments[4], new long[]{250, 300, 1, -1}));
+        assertTrue(Arrays.equals(segments[5], new long[]{300, 301, -1, 1}));
+    }
+
+    @Test
+    public void testLookupsMatchLinearScans() {
+        Random random = new Random(14);
+        for (int trial = 0; trial < 200; trial++) {
+            int n = random.nextInt(40);
+            long[] onsets = new long[n];
+            long[] offsets = new long[n];
+            for (int i = 0; i < n; i++) {
+                onsets[i] = random.nextInt(1000);
+                // Some intervals end before they start.
+                offsets[i] = onsets[i] + random.nextInt(200) - 20;
+            }
+            if (trial % 2 == 0) {
+                Arrays.sort(onsets);
+            }
+            Intervals in = new Intervals(onsets, offsets);
+
+            for (int q = 0; q < 50; q++) {
+                long start = random.nextInt(1300) - 100;
+                long end = start + random.nextInt(300) - 50;
+                int from = n == 0 ? 0 : random.nextInt(n);
+
+                int covering = -1;
+                for (int i = from; i < n && covering < 0; i++) {
+                    if (onsets[i] <= start && offsets[i] >= end) {
+                        covering = i;
+                    }
+                }
+                assertEquals(in.findCovering(from, start, end), covering);
+
+                // Coverage as the sweep over the clipped intervals.
+                long[][] clipped = new long[n][];
+                for (int i = 0; i < n; i++) {
+                    clipped[i] = new long[]{Math.max(onsets[i], start), Math.min(offsets[i], end)};
+                }
+                Arrays.sort(clipped, new Comparator<long[]>() {
+                    @Override
+                    public int compare(final long[] a, final long[] b) {
+                        return a[0] < b[0] ? -1 : (a[0] == b[0] ? 0 : 1);
+                    }
+                });
+                long total = 0;
+                long runStart = 0;
+                long runEnd = Long.MIN_VALUE;
+                for (long[] c : clipped) {
+                    if (c[0] > c[1]) {
+                        continue;
+                    }
+                    if (c[0] > runEnd) {
+                        total += runEnd == Long.MIN_VALUE ? 0 : runEnd - runStart;
+                        runStart = c[0];
+                        runEnd = c[1];
+                    } else {
+                        runEnd = Math.max(runEnd, c[1]);
+                    }
+                }
+                total += runEnd == Long.MIN_VALUE ? 0 : runEnd - runStart;
+                assertEquals(in.coverage(start, end), total);
+            }
+        }
+    }
+
+    @Test
+    public void testOfVariable() throws UserWarningException {
+        Datastore ds = DatastoreFactory.newDatastore();
+        Variable v = ds.createVariable("v", Argument.Type.NOMINAL);
+        Cell late = v.createCell();
+        late.setOnset(500);
+        late.setOffset(600);
+        Cell early = v.createCell();
+        early.setOnset(100);
+        early.setOffset(200);
+
+        Intervals in = Intervals.of(v);
+        assertEquals(in.size(), 2);
+        assertSame(v.getCellTemporally(in.find(550)), late);
+        assertSame(v.getCellTemporally(in.find(150)), early);
+    }
+
+    @Test
+    public void testBoundaryAgainstVariable() throws UserWarningException {
+        Datastore ds = DatastoreFactory.newDatastore();
+        Variable v = ds.createVariable("v", Argument.Type.NOMINAL);
+        Random random = new Random(14);
+        for (int i = 0; i < 60; i++) {
+            Cell c = v.createCell();
+            c.setOnset(random.nextInt(500));
+            // Include cells that hold a single time.
+            c.setOffset(c.getOnset() + random.nextInt(60));
+        }
+
+        Intervals in = Intervals.of(v);
+        List<Cell> temporal = v.getCellsTemporally();
+        for (long t = -1; t <= 600; t++) {
+            // The closed intervals holding t are the half-open ones, plus the
+            // cells ending exactly at t.
+            List<Cell> expected = new ArrayList<Cell>(v.getCellsAt(t));
+            for (Cell c : temporal) {
+                if (c.getOnset() <= t && c.getOffset() == t) {
+                    expected.add(c);
+                }
+            }
+
+            List<Cell> found = new ArrayList<Cell>();
+            for (int i : in.overlapping(t, t)) {
+                found.add(temporal.get(i));
+            }
+            assertEquals(found.size(), expected.size());
+            assertTrue(found.containsAll(expected));
+
+            int first = in.find(t);
+            assertEquals(first < 0, expected.isEmpty());
+            if (first >= 0) {
+                assertSame(temporal.get(first), found.get(0));
+            }
+        }
+    }
+}
@@ -154,5 +154,33 @@ public class MatrixValueTest {
         assertTrue(cell.getMatrixValue(0).isEmpty());
     }
 
+    @Test
+    public void testToStringFollowsChanges() {
+        var.addArgument(Argument.Type.NOMINAL);
+        assertEquals(model.toString(), "(,)");
+
+        cell.setMatrixValue(0, "foo");
+        assertEquals(model.toString(), "(foo,)");
+
+        cell.setMatrixValue(1, "bar");
+        var.moveArgument("code02", 0);
+        assertEquals(model.toString(), "(bar,foo)");
+
+        cell.getMatrixValue(1).clear();
+        assertEquals(model.toString(), "(bar,)");
 
+        var.removeArgument("code02");
+        assertEquals(model.toString(), "()");
+    }
+
+    @Test
+    public void testNominalCodesAreShared() throws UserWarningException {
+        Cell other = var.createCell();
+
+        cell.setMatrixValue(0, new String("foo"));
+        other.setMatrixValue(0, new String("foo"));
+
+        assertSame(((DatavyuValue) cell.getMatrixValue(0)).value,
+                ((DatavyuValue) other.getMatrixValue(0)).value);
+    }
 }
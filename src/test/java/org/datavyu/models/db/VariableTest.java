@@ -25,6 +25,8 @@ import static junit.framework.Assert.*;
 import org.datavyu.Datavyu;
 import org.datavyu.controllers.project.ProjectController;
 import org.datavyu.models.project.Project;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import static org.mockito.Mockito.*;
 
 /**
@@ -163,6 +165,42 @@ public class VariableTest {
         verify(modelListener, times(0)).visibilityChanged(true);
     }
 
+    @Test
+    public void testRemoveCellDropsListeners() {
+        Cell c = model.createCell();
+        CellListener cellListener = mock(CellListener.class);
+        c.addListener(cellListener);
+        c.setOnset(10);
+        verify(cellListener).onsetChanged(10);
+
+        model.removeCell(c);
+        c.setOnset(20);
+        verify(cellListener, times(0)).onsetChanged(20);
+    }
+
+    @Test
+    public void testRemoveListenerDuringNotification() {
+        final Cell c = model.createCell();
+        CellListener first = mock(CellListener.class);
+        CellListener second = mock(CellListener.class);
+        c.addListener(first);
+        c.addListener(second);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(final InvocationOnMock invocation) {
+                c.removeListener((CellListener) invocation.getMock());
+                return null;
+            }
+        }).when(first).onsetChanged(10);
+
+        c.setOnset(10);
+        c.setOnset(20);
+        verify(first).onsetChanged(10);
+        verify(first, times(0)).onsetChanged(20);
+        verify(second).onsetChanged(10);
+        verify(second).onsetChanged(20);
+    }
+
     @Test
     public void testTemporalOrder() {
         List<Cell> cells = new ArrayList<Cell>();
@@ -182,6 +220,101 @@ public class VariableTest {
         assertEquals(model.getCellTemporally(0), c2);
     }
 
+    @Test
+    public void testTemporalOrderAfterRemove() {
+        Cell c1 = model.createCell();
+        Cell c2 = model.createCell();
+        Cell c3 = model.createCell();
+        c1.setOnset(300);
+        c2.setOnset(100);
+        c3.setOnset(200);
+
+        model.removeCell(c3);
+
+        List<Cell> orderedCells = new ArrayList<Cell>();
+        orderedCells.add(c2);
+        orderedCells.add(c1);
+        assertEquals(model.getCellsTemporally(), orderedCells);
+        assertEquals(model.getCellTemporally(1), c1);
+    }
+
+    @Test
+    public void testGetCellsAt() {
+        Cell c1 = model.createCell();
+        c1.setOnset(0);
+        c1.setOffset(100);
+        Cell c2 = model.createCell();
+        c2.setOnset(50);
+        c2.setOffset(150);
+        Cell c3 = model.createCell();
+        c3.setOnset(100);
+        c3.setOffset(200);
+
+        List<Cell> expected = new ArrayList<Cell>();
+        expected.add(c2);
+        expected.add(c3);
+        assertEquals(model.getCellsAt(100), expected);
+
+        expected.clear();
+        expected.add(c1);
+        assertEquals(model.getCellsAt(0), expected);
+        assertEquals(model.getCellsAt(200).size(), 0);
+
+        c1.setOffset(120);
+        expected.clear();
+        expected.add(c1);
+        expected.add(c2);
+        expected.add(c3);
+        assertEquals(model.getCellsAt(110), expected);
+    }
+
+    @Test
+    public void testGetLastCellStartedBy() {
+        Cell c1 = model.createCell();
+        c1.setOnset(100);
+        c1.setOffset(300);
+        Cell c2 = model.createCell();
+        c2.setOnset(100);
+        c2.setOffset(200);
+        Cell c3 = model.createCell();
+        c3.setOnset(400);
+        c3.setOffset(500);
+
+        assertNull(model.getLastCellStartedBy(99));
+        assertEquals(model.getLastCellStartedBy(100), c1);
+        assertEquals(model.getLastCellStartedBy(399), c1);
+        assertEquals(model.getLastCellStartedBy(400), c3);
+        assertEquals(model.getLastCellStartedBy(Long.MAX_VALUE), c3);
+
+        c3.setOnset(50);
+        assertEquals(model.getLastCellStartedBy(99), c3);
+        assertEquals(model.getLastCellStartedBy(1000), c1);
+    }
+
+    @Test
+    public void testGetCellsOverlapping() {
+        Cell c1 = model.createCell();
+        c1.setOnset(0);
+        c1.setOffset(100);
+        Cell c2 = model.createCell();
+        c2.setOnset(200);
+        c2.setOffset(300);
+        Cell c3 = model.createCell();
+        c3.setOnset(400);
+        c3.setOffset(500);
+
+        List<Cell> expected = new ArrayList<Cell>();
+        expected.add(c1);
+        expected.add(c2);
+        assertEquals(model.getCellsOverlapping(50, 250), expected);
+
+        expected.clear();
+        expected.add(c2);
+        assertEquals(model.getCellsOverlapping(100, 400), expected);
+        assertEquals(model.getCellsOverlapping(300, 400).size(), 0);
+        assertEquals(model.getCellsOverlapping(250, 250).size(), 0);
+    }
+
     @Test(expectedExceptions = UserWarningException.class)
     public void uniqueVariableNames() throws UserWarningException {
         ds.createVariable("test", Argument.Type.TEXT);
@@ -0,0 +1,86 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.plugins;
+
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.List;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests for the plugin index.
+ */
+public class PluginIndexTest {
+
+    @Test
+    public void testRead() throws IOException {
+        String service = "# Comment\n\norg.foo.A\n  org.foo.B  # trailing\norg.foo.A\n";
+        List<String> names = PluginIndex.read(new ByteArrayInputStream(service.getBytes("UTF-8")));
+        assertEquals(names, Arrays.asList("org.foo.A", "org.foo.B"));
+    }
+
+    @Test
+    public void testClasspathListsConcretePlugins() throws Exception {
+        ClassLoader loader = getClass().getClassLoader();
+        List<String> names = PluginIndex.classpath(loader);
+        assertTrue(names.contains("org.datavyu.plugins.javafx.JavaFxPlugin"));
+
+        for (String name : names) {
+            Class<?> c = Class.forName(name, false, loader);
+            assertTrue(name, Plugin.class.isAssignableFrom(c));
+            assertEquals((c.getModifiers() & (Modifier.ABSTRACT | Modifier.INTERFACE)), 0);
+        }
+    }
+
+    @Test
+    public void testJarIsCachedByChecksum() throws IOException {
+        File jar = File.createTempFile("plugin", ".jar");
+        File cache = File.createTempFile("plugins", ".index");
+        jar.deleteOnExit();
+        cache.deleteOnExit();
+
+        writeJar(jar, "org.foo.A\n");
+        PluginIndex index = new PluginIndex(cache);
+        assertEquals(index.jar(jar, getClass().getClassLoader()), Arrays.asList("org.foo.A"));
+        index.save();
+
+        // The cached entry is used while the jar is unchanged.
+        assertEquals(new PluginIndex(cache).jar(jar, null), Arrays.asList("org.foo.A"));
+
+        writeJar(jar, "org.foo.B\n");
+        assertEquals(new PluginIndex(cache).jar(jar, null), Arrays.asList("org.foo.B"));
+    }
+
+    private static void writeJar(final File jar, final String service) throws IOException {
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(jar));
+        try {
+            out.putNextEntry(new ZipEntry(PluginIndex.SERVICE));
+            out.write(service.getBytes("UTF-8"));
+            out.closeEntry();
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.plugins;
+
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+/**
+ * Tests for the seeks of a data viewer.
+ */
+public class SeekQueueTest {
+
+    /**
+     * Records the positions sought, blocking each seek until released.
+     */
+    private static class Recorder implements SeekQueue.Seeker {
+        final List<Long> positions = Collections.synchronizedList(new ArrayList<Long>());
+        final CountDownLatch release;
+        final CountDownLatch started = new CountDownLatch(1);
+
+        Recorder(final int blocked) {
+            release = new CountDownLatch(blocked);
+        }
+
+        @Override
+        public void seek(final long position) throws Exception {
+            positions.add(position);
+            started.countDown();
+            release.await(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void testSeeksWaitUntilReady() throws Exception {
+        Recorder r = new Recorder(0);
+        SeekQueue seeks = new SeekQueue(r, false);
+
+        Future<Long> first = seeks.submit(100L);
+        Future<Long> second = seeks.submit(200L);
+        assertSame(second, first);
+        assertTrue(seeks.isBusy());
+        assertTrue(r.positions.isEmpty());
+
+        seeks.setReady(true);
+        assertEquals(first.get(5, TimeUnit.SECONDS), Long.valueOf(200L));
+        assertEquals(r.positions, Arrays.asList(200L));
+    }
+
+    @Test
+    public void testLatestSeekWins() throws Exception {
+        Recorder r = new Recorder(1);
+        SeekQueue seeks = new SeekQueue(r, true);
+
+        Future<Long> running = seeks.submit(100L);
+        assertTrue(r.started.await(5, TimeUnit.SECONDS));
+
+        // Asked for while the first is being made - only the last is sought.
+        Future<Long> waiting = seeks.submit(200L);
+        for (long p = 300L; p <= 900L; p += 100L) {
+            assertSame(seeks.submit(p), waiting);
+        }
+        assertFalse(running == waiting);
+
+        r.release.countDown();
+        assertEquals(running.get(5, TimeUnit.SECONDS), Long.valueOf(100L));
+        assertEquals(waiting.get(5, TimeUnit.SECONDS), Long.valueOf(900L));
+        assertEquals(r.positions, Arrays.asList(100L, 900L));
+        assertFalse(seeks.isBusy());
+    }
+
+    @Test
+    public void testFailedSeekIsReported() throws Exception {
+        final List<Long> positions = Collections.synchronizedList(new ArrayList<Long>());
+        SeekQueue seeks = new SeekQueue(new SeekQueue.Seeker() {
+            @Override
+            public void seek(final long position) throws Exception {
+                positions.add(position);
+                if (position < 0) {
+                    throw new IllegalArgumentException("before start of media");
+                }
+            }
+        }, true);
+
+        try {
+            seeks.submit(-100L).get(5, TimeUnit.SECONDS);
+            fail("Expected the seek to fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+
+        // A failed seek doesn't stop the ones after it.
+        assertEquals(seeks.submit(300L).get(5, TimeUnit.SECONDS), Long.valueOf(300L));
+        assertEquals(positions, Arrays.asList(-100L, 300L));
+    }
+}
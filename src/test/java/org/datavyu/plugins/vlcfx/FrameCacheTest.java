@@ -0,0 +1,105 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.plugins.vlcfx;
+
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertSame;
+
+/**
+ * Tests for the cache of decoded frames.
+ */
+public class FrameCacheTest {
+
+    private static ByteBuffer pixels(final int value) {
+        ByteBuffer b = ByteBuffer.allocate(100);
+        for (int i = 0; i < b.capacity(); i++) {
+            b.put(i, (byte) value);
+        }
+        return b;
+    }
+
+    @Test
+    public void testFrameIsShownForItsDuration() {
+        FrameCache cache = new FrameCache(1000L, 40L);
+        cache.put(1000L, pixels(1), 10, 10, 10);
+
+        assertNull(cache.get(999L));
+        assertEquals(cache.get(1000L).getTime(), 1000L);
+        assertEquals(cache.get(1039L).getTime(), 1000L);
+        assertNull(cache.get(1040L));
+        assertEquals(cache.get(1020L).getPixels().get(50), (byte) 1);
+        assertEquals(cache.getHits(), 3L);
+        assertEquals(cache.getMisses(), 2L);
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsDropped() {
+        FrameCache cache = new FrameCache(300L, 40L);
+        cache.put(0L, pixels(0), 10, 10, 10);
+        cache.put(40L, pixels(1), 10, 10, 10);
+        cache.put(80L, pixels(2), 10, 10, 10);
+
+        // Use the oldest, so the one after it is dropped instead.
+        assertNotNull(cache.get(0L));
+        cache.put(120L, pixels(3), 10, 10, 10);
+
+        assertEquals(cache.getCount(), 3);
+        assertEquals(cache.getSize(), 300L);
+        assertNotNull(cache.get(0L));
+        assertNull(cache.get(40L));
+        assertNotNull(cache.get(80L));
+        assertEquals(cache.get(120L).getPixels().get(0), (byte) 3);
+    }
+
+    @Test
+    public void testBuffersAreReused() {
+        FrameCache cache = new FrameCache(100L, 40L);
+        FrameCache.Frame first = cache.put(0L, pixels(0), 10, 10, 10);
+        FrameCache.Frame second = cache.put(40L, pixels(1), 10, 10, 10);
+
+        assertSame(second.getPixels().array(), first.getPixels().array());
+        assertNull(cache.get(0L));
+        assertEquals(cache.get(40L).getPixels().get(0), (byte) 1);
+    }
+
+    @Test
+    public void testOversizedFrameIsNotCached() {
+        FrameCache cache = new FrameCache(50L, 40L);
+        assertNull(cache.put(0L, pixels(0), 10, 10, 10));
+        assertEquals(cache.getCount(), 0);
+    }
+
+    @Test
+    public void testReplaceAndClear() {
+        FrameCache cache = new FrameCache(1000L, 40L);
+        cache.put(0L, pixels(0), 10, 10, 10);
+        cache.put(0L, pixels(5), 10, 10, 10);
+
+        assertEquals(cache.getCount(), 1);
+        assertEquals(cache.getSize(), 100L);
+        assertEquals(cache.get(0L).getPixels().get(0), (byte) 5);
+
+        cache.clear();
+        assertEquals(cache.getCount(), 0);
+        assertEquals(cache.getSize(), 0L);
+        assertNull(cache.get(0L));
+    }
+}
@@ -0,0 +1,167 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.util;
+
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests for the master clock.
+ */
+public class ClockTimerTest {
+
+    /**
+     * Records the events from a clock.
+     */
+    private static class Recorder implements ClockTimer.ClockListener {
+
+        final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+
+        volatile long delay = 0;
+
+        volatile int ticks = 0;
+
+        @Override
+        public void clockTick(final long time) {
+            ticks++;
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void clockStart(final long time) {
+            events.add("start");
+        }
+
+        @Override
+        public void clockStop(final long time) {
+            events.add("stop " + time);
+        }
+
+        @Override
+        public void clockRate(final float rate) {
+            events.add("rate " + rate);
+        }
+
+        @Override
+        public void clockStep(final long time) {
+            events.add("step " + time);
+        }
+    }
+
+    @Test
+    public void testStoppedClockNotifiesSteps() {
+        ClockTimer clock = new ClockTimer(1000L);
+        Recorder r = new Recorder();
+        clock.registerListener(r);
+
+        clock.setTime(2000L);
+        clock.stepTime(-40L);
+        clock.stepTime(-5000L);
+        clock.setTimeDontNotify(33L);
+
+        assertEquals(clock.getTime(), 33L);
+        assertTrue(clock.isStopped());
+        assertEquals(r.events.toString(), "[step 2000, step 1960, step 0]");
+    }
+
+    @Test
+    public void testUnregisteredListenerIsNotNotified() {
+        ClockTimer clock = new ClockTimer(1000L);
+        Recorder kept = new Recorder();
+        Recorder dropped = new Recorder();
+        clock.registerListener(kept);
+        clock.registerListener(dropped);
+
+        clock.stepTime(40L);
+        clock.unregisterListener(dropped);
+        clock.stepTime(40L);
+
+        assertEquals(kept.events.toString(), "[step 1040, step 1080]");
+        assertEquals(dropped.events.toString(), "[step 1040]");
+    }
+
+    @Test
+    public void testTimeFollowsRate() throws InterruptedException {
+        ClockTimer clock = new ClockTimer();
+        Recorder r = new Recorder();
+        clock.registerListener(r);
+
+        clock.setRate(2F);
+        clock.start();
+        Thread.sleep(300);
+        long time = clock.getTime();
+        assertTrue("time was " + time, time >= 550 && time < 900);
+
+        Thread.sleep(200);
+        assertTrue(r.events.contains("start"));
+        assertTrue(r.ticks > 5);
+        assertTrue(clock.getJitter().getCount() > 5);
+
+        clock.stop();
+        long stopped = clock.getTime();
+        Thread.sleep(100);
+        assertEquals(clock.getTime(), stopped);
+        assertEquals(clock.getRate(), 0F);
+        assertTrue(r.events.contains("stop " + stopped));
+    }
+
+    @Test
+    public void testSlowListenerDoesNotDelayTicks() throws InterruptedException {
+        ClockTimer clock = new ClockTimer();
+        Recorder r = new Recorder();
+        r.delay = 100;
+        clock.registerListener(r);
+        clock.setFrameRate(60F);
+        assertTrue(clock.getTickPeriod() < 17);
+
+        clock.start();
+        Thread.sleep(500);
+        clock.stop();
+
+        // Ticks carried on while the listener was busy, and were merged.
+        assertTrue(clock.getJitter().getCount() >= 20);
+        assertTrue(clock.getCoalescedTicks() > 0);
+        assertTrue(r.ticks <= 6);
+        assertTrue(clock.getDrift().getCount() >= r.ticks);
+    }
+
+    @Test
+    public void testTickPeriodFollowsFrameRate() {
+        ClockTimer clock = new ClockTimer();
+        assertEquals(clock.getTickPeriod(), 31.0);
+
+        clock.setFrameRate(30F);
+        assertEquals(clock.getTickPeriod(), 31.0);
+
+        clock.setFrameRate(60F);
+        assertEquals((long) clock.getTickPeriod(), 16L);
+
+        clock.setRate(4F);
+        assertEquals(clock.getTickPeriod(), 8.0);
+
+        clock.setFrameRate(0F);
+        assertEquals(clock.getTickPeriod(), 31.0);
+    }
+}
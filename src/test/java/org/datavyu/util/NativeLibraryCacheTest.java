@@ -0,0 +1,117 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.util;
+
+import com.usermetrix.jclient.UserMetrix;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests for the cache of unpacked native libraries.
+ */
+public class NativeLibraryCacheTest {
+
+    private File tmp;
+
+    private File jarFile;
+
+    @BeforeClass
+    public void spinUp() throws IOException {
+        com.usermetrix.jclient.Configuration config = new com.usermetrix.jclient.Configuration(2);
+        UserMetrix.initalise(config);
+        UserMetrix.setCanSendLogs(false);
+
+        tmp = File.createTempFile("natives", "");
+        tmp.delete();
+        tmp.mkdirs();
+
+        jarFile = new File(tmp, "natives.jar");
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(jarFile));
+        try {
+            for (String name : new String[]{"vlc/lib/libone.so", "vlc/lib/libtwo.so", "other/three.txt"}) {
+                out.putNextEntry(new JarEntry(name));
+                for (int i = 0; i < 1000; i++) {
+                    out.write((name + i).getBytes("UTF-8"));
+                }
+                out.closeEntry();
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    @AfterClass
+    public void spinDown() {
+        UserMetrix.shutdown();
+    }
+
+    @Test
+    public void testLibraryIsReusedUnlessCorrupt() throws Exception {
+        NativeLibraryCache cache = new NativeLibraryCache(new File(tmp, "single"));
+        URL resource = new URL("jar:" + jarFile.toURI().toURL() + "!/vlc/lib/libone.so");
+
+        File first = cache.extract(resource, "libone.so");
+        long length = first.length();
+        assertTrue(first.getAbsolutePath().startsWith(cache.getRoot().getAbsolutePath()));
+
+        first.setLastModified(0);
+        File second = cache.extract(resource, "libone.so");
+        assertEquals(second, first);
+        assertEquals(second.lastModified(), 0L);
+
+        RandomAccessFile corrupt = new RandomAccessFile(second, "rw");
+        corrupt.write('X');
+        corrupt.close();
+        File third = cache.extract(resource, "libone.so");
+        assertEquals(third, first);
+        assertEquals(third.length(), length);
+        assertTrue(third.lastModified() != 0L);
+    }
+
+    @Test
+    public void testPackageIsExtractedAndRepaired() throws Exception {
+        NativeLibraryCache cache = new NativeLibraryCache(new File(tmp, "package"));
+        JarFile jar = new JarFile(jarFile);
+
+        File directory = cache.extractPackage(jar, "vlc/", "vlc", null).get();
+        assertEquals(directory, cache.getPackageDirectory(jar, "vlc/", "vlc"));
+        File one = new File(directory, "vlc/lib/libone.so");
+        File two = new File(directory, "vlc/lib/libtwo.so");
+        assertTrue(one.isFile());
+        assertTrue(two.isFile());
+        assertTrue(!new File(directory, "other/three.txt").exists());
+
+        long length = two.length();
+        two.delete();
+        one.setLastModified(0);
+        assertEquals(cache.extractPackage(jar, "vlc/", "vlc", null).get(), directory);
+        assertEquals(two.length(), length);
+        assertEquals(one.lastModified(), 0L);
+        jar.close();
+    }
+}
@@ -0,0 +1,82 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.util;
+
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.fail;
+
+/**
+ * Tests for reporting progress through a stream.
+ */
+public class ProgressInputStreamTest {
+
+    /**
+     * Remembers the last progress reported, abandoning the read after a limit.
+     */
+    private static class Recorder implements ProgressInputStream.Listener {
+
+        long read = -1;
+
+        long total = -1;
+
+        long limit = Long.MAX_VALUE;
+
+        @Override
+        public boolean progress(final long read, final long total) {
+            this.read = read;
+            this.total = total;
+            return read >= limit;
+        }
+    }
+
+    @Test
+    public void testReportsBytesRead() throws IOException {
+        Recorder r = new Recorder();
+        InputStream in = new ProgressInputStream(new ByteArrayInputStream(new byte[100]), 100, r);
+
+        in.read();
+        assertEquals(r.read, 1);
+        in.read(new byte[40]);
+        assertEquals(r.read, 41);
+        in.skip(9);
+        assertEquals(r.read, 50);
+        while (in.read(new byte[16]) >= 0) {
+        }
+        assertEquals(r.read, 100);
+        assertEquals(r.total, 100);
+    }
+
+    @Test
+    public void testListenerCanAbandonRead() throws IOException {
+        Recorder r = new Recorder();
+        r.limit = 32;
+        InputStream in = new ProgressInputStream(new ByteArrayInputStream(new byte[100]), 100, r);
+
+        in.read(new byte[16]);
+        try {
+            in.read(new byte[16]);
+            fail("Read should have been abandoned");
+        } catch (InterruptedIOException e) {
+            assertEquals(r.read, 32);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.util;
+
+import com.usermetrix.jclient.UserMetrix;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import javax.script.ScriptEngine;
+import javax.script.ScriptException;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertSame;
+
+/**
+ * Tests for the pool of warm scripting engines.
+ */
+public class ScriptingRuntimeTest {
+
+    @BeforeClass
+    public void spinUp() {
+        com.usermetrix.jclient.Configuration config = new com.usermetrix.jclient.Configuration(2);
+        UserMetrix.initalise(config);
+        UserMetrix.setCanSendLogs(false);
+    }
+
+    @AfterClass
+    public void spinDown() {
+        UserMetrix.shutdown();
+    }
+
+    @Test
+    public void testEngineIsReusedAndReset() throws ScriptException {
+        ScriptingRuntime runtime = ScriptingRuntime.getInstance();
+        runtime.warmUp();
+
+        ScriptEngine engine = runtime.acquire();
+        assertEquals(engine.eval("defined?(getVariable) ? 'loaded' : 'missing'"), "loaded");
+        engine.put("db", "first run");
+        engine.eval("$leftover = $db");
+        engine.eval("def leftover_method; end\nLEFTOVER_CONSTANT = 1");
+        runtime.release(engine);
+
+        ScriptEngine next = runtime.acquire();
+        assertSame(next, engine);
+        assertEquals(next.eval("$leftover.nil? && $db.nil?"), Boolean.TRUE);
+        assertEquals(next.eval("defined?(leftover_method) || defined?(LEFTOVER_CONSTANT)"), null);
+        assertEquals(next.eval("defined?(getVariable) ? 'loaded' : 'missing'"), "loaded");
+        runtime.release(next);
+    }
+}
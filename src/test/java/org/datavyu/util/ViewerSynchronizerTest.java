@@ -0,0 +1,121 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.util;
+
+import com.usermetrix.jclient.UserMetrix;
+import org.datavyu.plugins.DataViewer;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for keeping viewers in step with the master clock.
+ */
+public class ViewerSynchronizerTest {
+
+    private ViewerSynchronizer sync;
+
+    private DataViewer viewer;
+
+    @BeforeClass
+    public void spinUp() {
+        com.usermetrix.jclient.Configuration config = new com.usermetrix.jclient.Configuration(2);
+        UserMetrix.initalise(config);
+        UserMetrix.setCanSendLogs(false);
+    }
+
+    @AfterClass
+    public void spinDown() {
+        UserMetrix.shutdown();
+    }
+
+    @BeforeMethod
+    public void setUp() {
+        sync = new ViewerSynchronizer();
+        viewer = mock(DataViewer.class);
+        when(viewer.getFrameRate()).thenReturn(30F);
+    }
+
+    @Test
+    public void testSmallDriftIsLeftAlone() throws Exception {
+        when(viewer.getCurrentTime()).thenReturn(1010L);
+        sync.sync(viewer, 1000L, 1F);
+
+        verify(viewer, never()).setPlaybackSpeed(anyFloat());
+        verify(viewer, never()).seekToAsync(anyLong());
+        assertEquals(sync.getMetrics(viewer).getDrift(), 10L);
+    }
+
+    @Test
+    public void testDriftIsNudgedOncePerPulse() throws Exception {
+        when(viewer.getCurrentTime()).thenReturn(1100L);
+        sync.sync(viewer, 1000L, 1F);
+        sync.sync(viewer, 1000L, 1F);
+
+        verify(viewer, times(1)).setPlaybackSpeed(0.95F);
+        verify(viewer, never()).seekToAsync(anyLong());
+        assertEquals(sync.getMetrics(viewer).getNudges(), 1L);
+    }
+
+    @Test
+    public void testIneffectiveNudgeFallsBackToSeek() throws Exception {
+        when(viewer.getCurrentTime()).thenReturn(1100L);
+        for (int i = 0; i < 4; i++) {
+            sync.sync(viewer, 1000L, 1F);
+            Thread.sleep(510);
+        }
+
+        verify(viewer, timeout(1000)).seekToAsync(1000L);
+        verify(viewer).setPlaybackSpeed(1F);
+        assertFalse(sync.getMetrics(viewer).isNudgeSupported());
+    }
+
+    @Test
+    public void testLargeDriftSeeks() throws Exception {
+        when(viewer.getCurrentTime()).thenReturn(5000L);
+        sync.sync(viewer, 1000L, 1F);
+
+        verify(viewer, timeout(1000)).seekToAsync(1000L);
+        verify(viewer, never()).setPlaybackSpeed(anyFloat());
+    }
+
+    @Test
+    public void testSeeksAreCoalesced() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            sync.seek(viewer, i * 100L);
+        }
+
+        verify(viewer, timeout(1000)).seekToAsync(900L);
+        assertTrue(sync.getMetrics(viewer).getCoalescedSeeks() > 0);
+        assertTrue(sync.getMetrics(viewer).getSeeks() < 10);
+    }
+
+    @Test
+    public void testSeekNowDropsWaitingSeeks() throws Exception {
+        sync.seek(viewer, 100L);
+        sync.seek(viewer, 200L);
+        sync.seekNow(viewer, 300L);
+        Thread.sleep(200);
+
+        verify(viewer).seekToAsync(300L);
+        verify(viewer, never()).seekToAsync(200L);
+    }
+}
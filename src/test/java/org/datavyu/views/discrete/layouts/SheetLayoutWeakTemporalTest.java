@@ -0,0 +1,303 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.views.discrete.layouts;
+
+import org.datavyu.views.discrete.SpreadsheetCell;
+import org.datavyu.views.discrete.layouts.SheetLayoutWeakTemporal.ColumnRows;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static junit.framework.Assert.assertEquals;
+
+/**
+ * Compares the weak temporal layout with the linear computation it replaced,
+ * on random columns holding overlapping, zero-length, upside down and
+ * stacked cells.
+ */
+public class SheetLayoutWeakTemporalTest {
+
+    private static final int GAP_SIZE = 10;
+
+    private final Random random = new Random(9);
+
+    /**
+     * A cell in a random column, held the way the spreadsheet reports it.
+     */
+    private static final class Times {
+        long onset;
+        long offset;
+        int height;
+
+        Times(final long onset, final long offset, final int height) {
+            this.onset = onset;
+            this.offset = offset;
+            this.height = height;
+        }
+
+        long getOffsetTicks() {
+            return offset < onset ? onset : offset;
+        }
+
+        boolean isUpsideDown() {
+            return offset < onset && offset != 0;
+        }
+    }
+
+    private static final Comparator<Times> TEMPORAL = new Comparator<Times>() {
+        @Override
+        public int compare(final Times a, final Times b) {
+            if (a.onset != b.onset) {
+                return a.onset < b.onset ? -1 : 1;
+            }
+            long fa = a.getOffsetTicks();
+            long fb = b.getOffsetTicks();
+            return fa < fb ? -1 : (fa > fb ? 1 : 0);
+        }
+    };
+
+    private List<Times> randomColumn(final int count) {
+        List<Times> column = new ArrayList<Times>();
+        long t = random.nextInt(50);
+        for (int i = 0; i < count; i++) {
+            long onset;
+            long offset;
+            switch (random.nextInt(10)) {
+                case 0:
+                    // Zero length.
+                    onset = t;
+                    offset = t;
+                    break;
+                case 1:
+                    // Upside down.
+                    onset = t;
+                    offset = t - 5;
+                    break;
+                case 2:
+                    // Sharing an onset with the cell after it.
+                    onset = t;
+                    offset = t + random.nextInt(300);
+                    break;
+                default:
+                    onset = t + random.nextInt(3) * random.nextInt(100);
+                    offset = onset + 1 + random.nextInt(200);
+                    t = offset + (random.nextBoolean() ? 1 : random.nextInt(100));
+            }
+            if (random.nextInt(15) == 0) {
+                // Overlapping the cells before it.
+                onset = Math.max(0, onset - random.nextInt(100));
+            }
+            column.add(new Times(onset, offset, 20 + random.nextInt(40)));
+        }
+        return column;
+    }
+
+    private static ColumnRows column(final List<Times> column) {
+        List<Times> temporal = new ArrayList<Times>(column);
+        Collections.sort(temporal, TEMPORAL);
+        int n = temporal.size();
+        long[] onsets = new long[n];
+        long[] offsets = new long[n];
+        int[] heights = new int[n];
+        boolean[] upsideDown = new boolean[n];
+        for (int i = 0; i < n; i++) {
+            onsets[i] = temporal.get(i).onset;
+            offsets[i] = temporal.get(i).getOffsetTicks();
+            heights[i] = temporal.get(i).height;
+            upsideDown[i] = temporal.get(i).isUpsideDown();
+        }
+        return new ColumnRows(new SpreadsheetCell[n], onsets, offsets, heights, upsideDown);
+    }
+
+    private static List<ColumnRows> rows(final List<List<Times>> columns) {
+        List<ColumnRows> result = new ArrayList<ColumnRows>();
+        for (List<Times> column : columns) {
+            result.add(column(column));
+        }
+        return result;
+    }
+
+    /**
+     * Lays the columns the way the layout did before the temporal axis,
+     * shifting every later time each time a gap or a stack is found.
+     *
+     * @return The height of the spreadsheet.
+     */
+    private static int layLinearly(final List<ColumnRows> columns) {
+        TreeMap<Long, Integer> rowHeights = new TreeMap<Long, Integer>();
+        for (ColumnRows r : columns) {
+            for (int i = 0; i < r.size(); i++) {
+                Integer height = rowHeights.get(r.onsets[i]);
+                rowHeights.put(r.onsets[i], Math.max(height == null ? 0 : height, r.heights[i]));
+                if (!rowHeights.containsKey(r.adjustedOffset(i))) {
+                    rowHeights.put(r.adjustedOffset(i), 0);
+                }
+            }
+        }
+
+        TreeMap<Long, Integer> positions = new TreeMap<Long, Integer>();
+        int position = 0;
+        for (Long time : rowHeights.keySet()) {
+            positions.put(time, position);
+            position += rowHeights.get(time);
+        }
+
+        for (ColumnRows r : columns) {
+            for (int i = 0; i < r.size() - 1; i++) {
+                if (r.onsets[i + 1] - r.offsets[i] > 1) {
+                    for (Long time : positions.tailMap(r.onsets[i + 1], true).keySet()) {
+                        positions.put(time, positions.get(time) + GAP_SIZE);
+                    }
+                }
+                if (r.onsets[i] == r.onsets[i + 1]) {
+                    for (Long time : positions.tailMap(r.onsets[i + 1], false).keySet()) {
+                        positions.put(time, positions.get(time) + r.heights[i]);
+                    }
+                }
+            }
+        }
+
+        for (ColumnRows r : columns) {
+            int n = r.size();
+            for (int i = 0; i < n; i++) {
+                r.y[i] = positions.get(r.onsets[i]);
+                r.h[i] = positions.get(r.adjustedOffset(i)) - r.y[i];
+                r.overlap[i] = false;
+            }
+            r.workingHeight = n > 0 ? r.y[n - 1] + r.h[n - 1] : 0;
+
+            for (int i = 0; i < n - 1; i++) {
+                if (r.offsets[i] > r.onsets[i + 1]) {
+                    r.h[i] = r.y[i + 1] - r.y[i];
+                    r.overlap[i] = true;
+                }
+                if (r.upsideDown[i + 1]) {
+                    r.overlap[i + 1] = true;
+                }
+                if (r.onsets[i] == r.onsets[i + 1]) {
+                    r.h[i] = r.heights[i];
+                    r.y[i + 1] = r.y[i] + r.h[i];
+                    r.h[i + 1] = r.heights[i + 1];
+                    r.workingHeight = Math.max(r.workingHeight, r.y[i + 1] + r.h[i + 1]);
+                }
+            }
+        }
+
+        return positions.isEmpty() ? 0 : positions.lastEntry().getValue();
+    }
+
+    private static void assertSameLayout(final List<ColumnRows> actual,
+                                         final List<ColumnRows> expected) {
+        assertEquals(actual.size(), expected.size());
+        for (int c = 0; c < actual.size(); c++) {
+            ColumnRows a = actual.get(c);
+            ColumnRows e = expected.get(c);
+            assertEquals(Arrays.toString(a.y), Arrays.toString(e.y));
+            assertEquals(Arrays.toString(a.h), Arrays.toString(e.h));
+            assertEquals(Arrays.toString(a.overlap), Arrays.toString(e.overlap));
+            assertEquals(a.workingHeight, e.workingHeight);
+        }
+    }
+
+    private void mutate(final List<List<Times>> columns, final boolean heightsOnly) {
+        List<Times> column = columns.get(random.nextInt(columns.size()));
+        if (column.isEmpty()) {
+            return;
+        }
+        int i = random.nextInt(column.size());
+        Times t = column.get(i);
+        switch (heightsOnly ? 0 : random.nextInt(5)) {
+            case 0:
+                t.height = 20 + random.nextInt(60);
+                break;
+            case 1:
+                t.onset = Math.max(0, t.onset + random.nextInt(50) - 25);
+                break;
+            case 2:
+                t.offset = Math.max(0, t.offset + random.nextInt(50) - 25);
+                break;
+            case 3:
+                column.remove(i);
+                break;
+            default:
+                long onset = random.nextInt(5000);
+                column.add(new Times(onset, onset + random.nextInt(200), 30));
+        }
+    }
+
+    @Test
+    public void testFullLayoutMatchesLinearLayout() {
+        for (int trial = 0; trial < 200; trial++) {
+            List<List<Times>> columns = new ArrayList<List<Times>>();
+            int count = 1 + random.nextInt(4);
+            for (int c = 0; c < count; c++) {
+                columns.add(randomColumn(random.nextInt(60)));
+            }
+
+            SheetLayoutWeakTemporal layout = new SheetLayoutWeakTemporal(5);
+            List<ColumnRows> laid = rows(columns);
+            layout.lay(laid, true);
+            List<ColumnRows> expected = rows(columns);
+            int height = layLinearly(expected);
+
+            assertSameLayout(laid, expected);
+            assertEquals(layout.laidHeight(), height);
+        }
+    }
+
+    @Test
+    public void testIncrementalLayoutMatchesLinearLayout() {
+        for (int trial = 0; trial < 200; trial++) {
+            List<List<Times>> columns = new ArrayList<List<Times>>();
+            int count = 1 + random.nextInt(4);
+            for (int c = 0; c < count; c++) {
+                columns.add(randomColumn(random.nextInt(60)));
+            }
+
+            SheetLayoutWeakTemporal layout = new SheetLayoutWeakTemporal(5);
+            List<ColumnRows> laid = rows(columns);
+            layout.lay(laid, true);
+            for (int step = 0; step < 8; step++) {
+                // Alternate between passes that keep the times and passes
+                // that move, add or remove cells.
+                int changes = 1 + random.nextInt(3);
+                for (int m = 0; m < changes; m++) {
+                    mutate(columns, step % 2 == 0);
+                }
+
+                List<ColumnRows> current = rows(columns);
+                layout.lay(current, false);
+                List<ColumnRows> expected = rows(columns);
+                int height = layLinearly(expected);
+
+                // Unchanged columns keep what was laid for them before.
+                for (int c = 0; c < current.size(); c++) {
+                    if (current.get(c).sameAs(laid.get(c))) {
+                        current.set(c, laid.get(c));
+                    }
+                }
+                assertSameLayout(current, expected);
+                assertEquals(layout.laidHeight(), height);
+                laid = current;
+            }
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.views.discrete.layouts;
+
+import org.testng.annotations.Test;
+
+import java.util.Random;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+/**
+ * Tests for the mapping of times to positions.
+ */
+public class TemporalAxisTest {
+
+    private static void assertPositions(final TemporalAxis axis, final long[] increments) {
+        long sum = 0;
+        for (int i = 0; i < axis.size(); i++) {
+            sum += increments[i];
+            assertEquals(axis.position(i), (int) sum);
+        }
+    }
+
+    @Test
+    public void testDistinct() {
+        long[] values = {40, 10, 30, 10, 40, 20, 99};
+        long[] result = TemporalAxis.distinct(values, 6);
+        assertEquals(result.length, 4);
+        assertEquals(result[0], 10L);
+        assertEquals(result[1], 20L);
+        assertEquals(result[2], 30L);
+        assertEquals(result[3], 40L);
+    }
+
+    @Test
+    public void testIndexOf() {
+        TemporalAxis axis = new TemporalAxis();
+        long[] times = {0, 5, 100};
+        axis.build(times, new long[3]);
+        assertEquals(axis.indexOf(100), 2);
+        assertTrue(axis.hasTimes(new long[]{0, 5, 100}));
+        assertFalse(axis.hasTimes(new long[]{0, 100}));
+
+        try {
+            axis.indexOf(6);
+            fail("Expected a time that is not on the axis to be rejected.");
+        } catch (IllegalArgumentException e) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void testPositionsAreRunningSums() {
+        Random random = new Random(9);
+        for (int trial = 0; trial < 100; trial++) {
+            int n = random.nextInt(200);
+            long[] times = new long[n];
+            long[] increments = new long[n];
+            for (int i = 0; i < n; i++) {
+                times[i] = (i == 0 ? 0 : times[i - 1]) + 1 + random.nextInt(50);
+                increments[i] = random.nextInt(60);
+            }
+            TemporalAxis axis = new TemporalAxis();
+            axis.build(times, increments.clone());
+            assertPositions(axis, increments);
+
+            for (int step = 0; step < 50 && n > 0; step++) {
+                int index = random.nextInt(n);
+                long delta = random.nextInt(80) - 40;
+                axis.add(index, delta);
+                increments[index] += delta;
+                assertPositions(axis, increments);
+            }
+        }
+    }
+}